@@ -0,0 +1,214 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.io.erasurecode;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A pure Java systematic Reed-Solomon coder over GF(2^8).
+ *
+ * The parity units are the data units multiplied by a Cauchy matrix, so
+ * that any numDataUnits rows of the generator matrix (the identity matrix
+ * over the Cauchy matrix) are linearly independent. Multiplication uses a
+ * full 256x256 product table, so the inner loops are a table lookup and an
+ * xor per byte.
+ */
+@InterfaceAudience.LimitedPrivate({"HDFS"})
+@InterfaceStability.Evolving
+public class RSRawErasureCoder extends RawErasureCoder {
+  /** x^8 + x^4 + x^3 + x^2 + 1 */
+  private static final int PRIMITIVE_POLYNOMIAL = 0x11d;
+  private static final int[] EXP = new int[512];
+  private static final int[] LOG = new int[256];
+  private static final byte[][] MUL_TABLE = new byte[256][256];
+
+  static {
+    int x = 1;
+    for (int i = 0; i < 255; i++) {
+      EXP[i] = x;
+      LOG[x] = i;
+      x <<= 1;
+      if (x >= 256) {
+        x ^= PRIMITIVE_POLYNOMIAL;
+      }
+    }
+    for (int i = 255; i < EXP.length; i++) {
+      EXP[i] = EXP[i - 255];
+    }
+    for (int a = 0; a < 256; a++) {
+      for (int b = 0; b < 256; b++) {
+        MUL_TABLE[a][b] = (byte)mul(a, b);
+      }
+    }
+  }
+
+  static int mul(int a, int b) {
+    return a == 0 || b == 0 ? 0 : EXP[LOG[a] + LOG[b]];
+  }
+
+  static int inverse(int a) {
+    Preconditions.checkArgument(a != 0, "0 has no inverse");
+    return EXP[255 - LOG[a]];
+  }
+
+  /** The parity rows of the generator matrix. */
+  private int[][] cauchy;
+
+  @Override
+  protected void initialize(int numDataUnits, int numParityUnits) {
+    super.initialize(numDataUnits, numParityUnits);
+    Preconditions.checkArgument(numDataUnits + numParityUnits <= 256,
+        "Too many units for GF(2^8): %s", numDataUnits + numParityUnits);
+    cauchy = new int[numParityUnits][numDataUnits];
+    for (int p = 0; p < numParityUnits; p++) {
+      for (int d = 0; d < numDataUnits; d++) {
+        cauchy[p][d] = inverse((numDataUnits + p) ^ d);
+      }
+    }
+  }
+
+  /** @return row i of the generator matrix. */
+  private int[] generatorRow(int i) {
+    if (i >= getNumDataUnits()) {
+      return cauchy[i - getNumDataUnits()];
+    }
+    int[] row = new int[getNumDataUnits()];
+    row[i] = 1;
+    return row;
+  }
+
+  @Override
+  public void encode(byte[][] data, byte[][] parity, int len) {
+    Preconditions.checkArgument(data.length == getNumDataUnits()
+        && parity.length == getNumParityUnits(),
+        "Invalid number of units: %s data, %s parity",
+        data.length, parity.length);
+    for (int p = 0; p < parity.length; p++) {
+      Arrays.fill(parity[p], 0, len, (byte)0);
+      for (int d = 0; d < data.length; d++) {
+        mulAdd(cauchy[p][d], data[d], parity[p], len);
+      }
+    }
+  }
+
+  @Override
+  public void decode(byte[][] units, int[] erasedIndexes, byte[][] outputs,
+      int len) {
+    final int k = getNumDataUnits();
+    Preconditions.checkArgument(units.length == k + getNumParityUnits(),
+        "Invalid number of units: %s", units.length);
+    Preconditions.checkArgument(erasedIndexes.length == outputs.length,
+        "%s erased units but %s outputs",
+        erasedIndexes.length, outputs.length);
+
+    // Recover from the first k available units: if they are U = M * D for
+    // the rows M of the generator matrix, then unit i is G[i] * M^-1 * U.
+    final int[] chosen = new int[k];
+    int n = 0;
+    for (int i = 0; i < units.length && n < k; i++) {
+      if (units[i] != null) {
+        chosen[n++] = i;
+      }
+    }
+    if (n < k) {
+      throw new IllegalArgumentException("Only " + n + " units are available,"
+          + " at least " + k + " are needed to decode");
+    }
+    final int[][] matrix = new int[k][];
+    for (int i = 0; i < k; i++) {
+      matrix[i] = generatorRow(chosen[i]).clone();
+    }
+    final int[][] inverse = invert(matrix);
+
+    for (int e = 0; e < erasedIndexes.length; e++) {
+      final int[] row = generatorRow(erasedIndexes[e]);
+      Arrays.fill(outputs[e], 0, len, (byte)0);
+      for (int j = 0; j < k; j++) {
+        int c = 0;
+        for (int i = 0; i < k; i++) {
+          c ^= mul(row[i], inverse[i][j]);
+        }
+        mulAdd(c, units[chosen[j]], outputs[e], len);
+      }
+    }
+  }
+
+  /** out ^= c * in */
+  private static void mulAdd(int c, byte[] in, byte[] out, int len) {
+    if (c == 0) {
+      return;
+    }
+    if (c == 1) {
+      for (int x = 0; x < len; x++) {
+        out[x] ^= in[x];
+      }
+      return;
+    }
+    final byte[] table = MUL_TABLE[c];
+    for (int x = 0; x < len; x++) {
+      out[x] ^= table[in[x] & 0xff];
+    }
+  }
+
+  /** Invert a matrix by Gauss-Jordan elimination; the input is destroyed. */
+  static int[][] invert(int[][] matrix) {
+    final int n = matrix.length;
+    final int[][] result = new int[n][n];
+    for (int i = 0; i < n; i++) {
+      result[i][i] = 1;
+    }
+    for (int col = 0; col < n; col++) {
+      int pivot = col;
+      while (pivot < n && matrix[pivot][col] == 0) {
+        pivot++;
+      }
+      if (pivot == n) {
+        throw new IllegalArgumentException("Singular matrix");
+      }
+      swap(matrix, col, pivot);
+      swap(result, col, pivot);
+      final int scale = inverse(matrix[col][col]);
+      for (int j = 0; j < n; j++) {
+        matrix[col][j] = mul(matrix[col][j], scale);
+        result[col][j] = mul(result[col][j], scale);
+      }
+      for (int i = 0; i < n; i++) {
+        final int c = matrix[i][col];
+        if (i == col || c == 0) {
+          continue;
+        }
+        for (int j = 0; j < n; j++) {
+          matrix[i][j] ^= mul(c, matrix[col][j]);
+          result[i][j] ^= mul(c, result[col][j]);
+        }
+      }
+    }
+    return result;
+  }
+
+  private static void swap(int[][] matrix, int i, int j) {
+    final int[] tmp = matrix[i];
+    matrix[i] = matrix[j];
+    matrix[j] = tmp;
+  }
+}
@@ -0,0 +1,100 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.io.erasurecode;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.CommonConfigurationKeys;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A raw erasure coder works on byte arrays. It encodes
+ * {@link #getNumDataUnits()} data units of equal length into
+ * {@link #getNumParityUnits()} parity units, and recovers any erased units
+ * from any {@link #getNumDataUnits()} of the others.
+ *
+ * Units are numbered data units first, then parity units. Callers pad
+ * missing or short data units with zeros.
+ *
+ * The implementation used is configured with
+ * {@link CommonConfigurationKeys#IO_ERASURECODE_CODEC_RS_RAWCODER_KEY}, so
+ * that a native implementation can replace the pure Java
+ * {@link RSRawErasureCoder}.
+ */
+@InterfaceAudience.LimitedPrivate({"HDFS"})
+@InterfaceStability.Evolving
+public abstract class RawErasureCoder {
+  private int numDataUnits;
+  private int numParityUnits;
+
+  /**
+   * Set up the coder. Called once, before any other method.
+   * @throws IllegalArgumentException if the coder does not support the
+   *         given numbers of units
+   */
+  protected void initialize(int numDataUnits, int numParityUnits) {
+    Preconditions.checkArgument(numDataUnits > 0 && numParityUnits > 0,
+        "Invalid numbers of units: %s data, %s parity",
+        numDataUnits, numParityUnits);
+    this.numDataUnits = numDataUnits;
+    this.numParityUnits = numParityUnits;
+  }
+
+  public int getNumDataUnits() {
+    return numDataUnits;
+  }
+
+  public int getNumParityUnits() {
+    return numParityUnits;
+  }
+
+  /**
+   * Encode the first len bytes of each data unit.
+   * @param data the data units, getNumDataUnits() arrays
+   * @param parity output, getNumParityUnits() arrays
+   * @param len the number of bytes to encode
+   */
+  public abstract void encode(byte[][] data, byte[][] parity, int len);
+
+  /**
+   * Recover the first len bytes of erased units.
+   * @param units all units, data units first; null for the units that are
+   *        not available. At least getNumDataUnits() must be available.
+   * @param erasedIndexes the indexes of the units to recover
+   * @param outputs output, one array for each of erasedIndexes
+   * @param len the number of bytes to recover
+   */
+  public abstract void decode(byte[][] units, int[] erasedIndexes,
+      byte[][] outputs, int len);
+
+  /**
+   * Create the configured Reed-Solomon coder.
+   */
+  public static RawErasureCoder getInstance(Configuration conf,
+      int numDataUnits, int numParityUnits) {
+    Class<? extends RawErasureCoder> clazz = conf.getClass(
+        CommonConfigurationKeys.IO_ERASURECODE_CODEC_RS_RAWCODER_KEY,
+        RSRawErasureCoder.class, RawErasureCoder.class);
+    RawErasureCoder coder = ReflectionUtils.newInstance(clazz, conf);
+    coder.initialize(numDataUnits, numParityUnits);
+    return coder;
+  }
+}
@@ -23,6 +23,9 @@
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -213,6 +216,73 @@ public static void syncFileRangeIfPossible(
       }
     }
 
+    static native void mlock_native(
+        ByteBuffer buffer, long len) throws NativeIOException;
+
+    /**
+     * Locks the given memory-mapped region into memory using mlock(2), so
+     * that it is not paged out. The region is unlocked when it is unmapped.
+     *
+     * @throws IOException if the native code is not loaded, the buffer is
+     *         not direct, or the call fails, e.g. because the size exceeds
+     *         the RLIMIT_MEMLOCK limit of the process.
+     */
+    public static void mlock(ByteBuffer buffer, long len)
+        throws IOException {
+      if (!nativeLoaded) {
+        throw new IOException("NativeIO was not loaded");
+      }
+      if (!buffer.isDirect()) {
+        throw new IOException("Cannot mlock a non-direct ByteBuffer");
+      }
+      mlock_native(buffer, len);
+    }
+
+    /**
+     * The methods which release the mapping of a JDK direct buffer. They are
+     * not a public API, so they are looked up by reflection, and are null if
+     * this JDK does not have them.
+     */
+    private static final Method DIRECT_BUFFER_CLEANER;
+    private static final Method CLEANER_CLEAN;
+
+    static {
+      Method cleaner = null;
+      Method clean = null;
+      try {
+        cleaner = Class.forName("sun.nio.ch.DirectBuffer")
+            .getMethod("cleaner");
+        clean = cleaner.getReturnType().getMethod("clean");
+      } catch (Exception e) {
+        LOG.debug("Cannot unmap buffers explicitly, leaving it to GC", e);
+        cleaner = null;
+      }
+      DIRECT_BUFFER_CLEANER = cleaner;
+      CLEANER_CLEAN = clean;
+    }
+
+    /**
+     * Unmaps the given memory-mapped region immediately, rather than when
+     * the buffer is garbage collected. Any later access to the buffer, or to
+     * a view of it, will crash the JVM, so the caller must make sure that
+     * the buffer is no longer in use. If this JDK does not allow unmapping
+     * a buffer explicitly, does nothing, and the region is unmapped by GC.
+     */
+    public static void munmap(MappedByteBuffer buffer) {
+      if (DIRECT_BUFFER_CLEANER == null
+          || !DIRECT_BUFFER_CLEANER.getDeclaringClass().isInstance(buffer)) {
+        return;
+      }
+      try {
+        Object cleaner = DIRECT_BUFFER_CLEANER.invoke(buffer);
+        if (cleaner != null) {
+          CLEANER_CLEAN.invoke(cleaner);
+        }
+      } catch (Exception e) {
+        LOG.debug("Failed to unmap a buffer, leaving it to GC", e);
+      }
+    }
+
     /** Linux only methods used for getOwner() implementation */
     private static native long getUIDforFDOwnerforOwner(FileDescriptor fd) throws IOException;
     private static native String getUserName(long uid) throws IOException;
@@ -0,0 +1,68 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.ipc;
+
+import java.io.IOException;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcRequestHeaderProto;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcResponseHeaderProto;
+
+/**
+ * Aligns the state of a client with the state of the servers it calls,
+ * through a state id carried in the RPC headers.
+ *
+ * A server sets its current state id in every response, and a client sends
+ * back the latest state id it has seen in its requests. This lets a server
+ * which lags behind another one, e.g. a standby replaying the edits of the
+ * active, refuse the calls of clients which have already seen a more recent
+ * state elsewhere.
+ */
+@InterfaceAudience.LimitedPrivate({"HDFS"})
+@InterfaceStability.Evolving
+public interface AlignmentContext {
+  /**
+   * Server side: set the state of the server in the header of a response.
+   */
+  public void updateResponseState(RpcResponseHeaderProto.Builder header);
+
+  /**
+   * Client side: learn the state of the server from the header of a
+   * response.
+   */
+  public void receiveResponseState(RpcResponseHeaderProto header);
+
+  /**
+   * Client side: set the latest state seen by the client in the header of a
+   * request.
+   */
+  public void updateRequestState(RpcRequestHeaderProto.Builder header);
+
+  /**
+   * Server side: check the state seen by the client before its call is
+   * processed.
+   *
+   * @throws IOException if the server cannot serve the call, e.g. because
+   *         it has not reached the state seen by the client yet. The call
+   *         fails with this exception.
+   */
+  public void receiveRequestState(RpcRequestHeaderProto header)
+      throws IOException;
+}
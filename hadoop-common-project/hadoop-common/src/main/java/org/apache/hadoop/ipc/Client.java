@@ -206,11 +206,18 @@ private class Call {
     Writable rpcResponse;       // null if rpc has error
     IOException error;          // exception, null if success
     final RPC.RpcKind rpcKind;      // Rpc EngineKind
+    final AlignmentContext alignmentContext; // null if the state is not aligned
     boolean done;               // true when call is done
 
     protected Call(RPC.RpcKind rpcKind, Writable param) {
+      this(rpcKind, param, null);
+    }
+
+    protected Call(RPC.RpcKind rpcKind, Writable param,
+        AlignmentContext alignmentContext) {
       this.rpcKind = rpcKind;
       this.rpcRequest = param;
+      this.alignmentContext = alignmentContext;
       synchronized (Client.this) {
         this.id = counter++;
       }
@@ -888,7 +895,8 @@ public void sendRpcRequest(final Call call)
       // Items '1' and '2' are prepared here. 
       final DataOutputBuffer d = new DataOutputBuffer();
       RpcRequestHeaderProto header = ProtoUtil.makeRpcRequestHeader(
-         call.rpcKind, OperationProto.RPC_FINAL_PACKET, call.id);
+         call.rpcKind, OperationProto.RPC_FINAL_PACKET, call.id,
+         call.alignmentContext);
       header.writeDelimitedTo(d);
       call.rpcRequest.write(d);
 
@@ -964,6 +972,9 @@ private void receiveRpcResponse() {
           LOG.debug(getName() + " got value #" + callId);
 
         Call call = calls.get(callId);
+        if (call != null && call.alignmentContext != null) {
+          call.alignmentContext.receiveResponseState(header);
+        }
         RpcStatusProto status = header.getStatus();
         if (status == RpcStatusProto.SUCCESS) {
           Writable value = ReflectionUtils.newInstance(valueClass, conf);
@@ -1268,7 +1279,28 @@ public Writable call(RPC.RpcKind rpcKind, Writable rpcRequest,
   public Writable call(RPC.RpcKind rpcKind, Writable rpcRequest,
       ConnectionId remoteId, int serviceClass)
       throws InterruptedException, IOException {
-    Call call = new Call(rpcKind, rpcRequest);
+    return call(rpcKind, rpcRequest, remoteId, serviceClass, null);
+  }
+
+  /**
+   * Make a call, passing <code>rpcRequest</code>, to the IPC server defined by
+   * <code>remoteId</code>, returning the rpc respond.
+   *
+   * @param rpcKind
+   * @param rpcRequest -  contains serialized method and method parameters
+   * @param remoteId - the target rpc server
+   * @param serviceClass - service class for RPC
+   * @param alignmentContext - the state of the caller to exchange with the
+   *        server, or null
+   * @returns the rpc response
+   * Throws exceptions if there are network problems or if the remote code
+   * threw an exception.
+   */
+  public Writable call(RPC.RpcKind rpcKind, Writable rpcRequest,
+      ConnectionId remoteId, int serviceClass,
+      AlignmentContext alignmentContext)
+      throws InterruptedException, IOException {
+    Call call = new Call(rpcKind, rpcRequest, alignmentContext);
     Connection connection = getConnection(remoteId, call, serviceClass);
     try {
       connection.sendRpcRequest(call);                 // send the rpc request
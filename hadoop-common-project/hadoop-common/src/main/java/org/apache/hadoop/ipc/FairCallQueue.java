@@ -0,0 +1,360 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.ipc;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.ipc.metrics.FairCallQueueMetrics;
+import org.apache.hadoop.util.Time;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Iterables;
+
+/**
+ * A queue with multiple levels for each priority. Incoming calls are
+ * assigned a level by an {@link RpcScheduler}, and handlers drain the
+ * levels in the order given by an {@link RpcMultiplexer}, so that callers
+ * with a heavy recent load cannot starve everyone else.
+ *
+ * A call that does not fit in its own level overflows into the next lower
+ * priority level; only when every lower level is full as well does the
+ * producer block on its own level.
+ */
+@InterfaceAudience.Private
+public class FairCallQueue<E extends Schedulable> extends AbstractQueue<E>
+  implements BlockingQueue<E> {
+  /** Number of priority levels. */
+  public static final String IPC_CALLQUEUE_PRIORITY_LEVELS_KEY =
+    "faircallqueue.priority-levels";
+  public static final int IPC_CALLQUEUE_PRIORITY_LEVELS_DEFAULT = 4;
+
+  public static final Log LOG = LogFactory.getLog(FairCallQueue.class);
+
+  /* The queues */
+  private final ArrayList<BlockingQueue<E>> queues;
+
+  /* Wait for any element to become available in any of the queues */
+  private final ReentrantLock takeLock = new ReentrantLock();
+  private final Condition notEmpty = takeLock.newCondition();
+
+  /* Scheduler picks which queue to place in */
+  private final RpcScheduler scheduler;
+
+  /* Multiplexer picks which queue to draw from */
+  private final RpcMultiplexer multiplexer;
+
+  private final FairCallQueueMetrics metrics;
+
+  /**
+   * Create a FairCallQueue.
+   * @param capacity the maximum number of calls across all levels
+   * @param ns the prefix to use for configuration, e.g. "ipc.8020"
+   * @param conf the configuration to read from
+   */
+  public FairCallQueue(int capacity, String ns, Configuration conf) {
+    int numLevels = conf.getInt(ns + "." + IPC_CALLQUEUE_PRIORITY_LEVELS_KEY,
+        IPC_CALLQUEUE_PRIORITY_LEVELS_DEFAULT);
+    if (numLevels < 1) {
+      throw new IllegalArgumentException("Number of levels must be positive");
+    }
+
+    // Each level gets an equal share of the total capacity
+    int levelCapacity = Math.max(1, capacity / numLevels);
+    this.queues = new ArrayList<BlockingQueue<E>>(numLevels);
+    for (int i = 0; i < numLevels; i++) {
+      this.queues.add(new LinkedBlockingQueue<E>(levelCapacity));
+    }
+
+    this.scheduler = new DecayRpcScheduler(numLevels, ns, conf);
+    this.multiplexer = new WeightedRoundRobinMultiplexer(numLevels, ns, conf);
+    this.metrics = FairCallQueueMetrics.create(ns, this);
+
+    LOG.info("FairCallQueue is in use with " + numLevels + " levels of " +
+        levelCapacity + " calls each for " + ns);
+  }
+
+  /**
+   * Returns the first non-empty queue with equal or lesser priority
+   * than <i>startIdx</i>. Wraps around, searching a maximum of N
+   * queues, where N is this.queues.size().
+   *
+   * @param startIdx the queue number to start searching at
+   * @return the index of the first non-empty queue, or -1 if all are empty
+   */
+  private int firstNonEmptyQueue(int startIdx) {
+    final int numQueues = this.queues.size();
+    for (int i = 0; i < numQueues; i++) {
+      int idx = (i + startIdx) % numQueues; // offset and wrap around
+      if (!this.queues.get(idx).isEmpty()) {
+        return idx;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Remove the next element, starting at the level the multiplexer
+   * points to.
+   * @return the first element found, or null if all levels are empty
+   */
+  private E removeNextElement() {
+    final int numQueues = this.queues.size();
+    int startIdx = this.multiplexer.getAndAdvanceCurrentIndex();
+    for (int i = 0; i < numQueues; i++) {
+      int idx = firstNonEmptyQueue((startIdx + i) % numQueues);
+      if (idx == -1) {
+        return null;
+      }
+      E e = this.queues.get(idx).poll();
+      if (e != null) {
+        metrics.addQueueTime(idx, Time.now() - e.getReceivedTime());
+        return e;
+      }
+      // lost a race with another consumer, try again
+    }
+    return null;
+  }
+
+  /**
+   * Wake up one waiting consumer. Must not be called with takeLock held.
+   */
+  private void signalNotEmpty() {
+    takeLock.lock();
+    try {
+      notEmpty.signal();
+    } finally {
+      takeLock.unlock();
+    }
+  }
+
+  /**
+   * Offer to the given level and every lower priority level after it.
+   * @return true if the element was queued
+   */
+  private boolean offerFrom(int level, E e) {
+    for (int i = level; i < this.queues.size(); i++) {
+      if (this.queues.get(i).offer(e)) {
+        if (i != level) {
+          metrics.incrOverflowedCalls(level);
+        }
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /* AbstractQueue and BlockingQueue methods */
+
+  /**
+   * Put and offer follow the same pattern:
+   * 1. Get a priorityLevel from the scheduler
+   * 2. Get the nth sub-queue matching this priorityLevel
+   * 3. delegate the call to this sub-queue, overflowing to lower levels.
+   *
+   * But differ in what they do when every level from theirs down is full:
+   * - Put blocks until there is room in its own level
+   * - Timed offer waits for room in its own level up to the timeout
+   * - Offer fails right away
+   */
+  @Override
+  public void put(E e) throws InterruptedException {
+    int priorityLevel = scheduler.getPriorityLevel(e);
+    if (!offerFrom(priorityLevel, e)) {
+      // Every level from ours down is full; wait for room in our level
+      this.queues.get(priorityLevel).put(e);
+    }
+    signalNotEmpty();
+  }
+
+  @Override
+  public boolean offer(E e, long timeout, TimeUnit unit)
+      throws InterruptedException {
+    int priorityLevel = scheduler.getPriorityLevel(e);
+    boolean ret = offerFrom(priorityLevel, e) ||
+        this.queues.get(priorityLevel).offer(e, timeout, unit);
+    if (ret) {
+      signalNotEmpty();
+    }
+    return ret;
+  }
+
+  @Override
+  public boolean offer(E e) {
+    int priorityLevel = scheduler.getPriorityLevel(e);
+    boolean ret = offerFrom(priorityLevel, e);
+    if (ret) {
+      signalNotEmpty();
+    }
+    return ret;
+  }
+
+  @Override
+  public E take() throws InterruptedException {
+    final ReentrantLock lock = this.takeLock;
+    lock.lockInterruptibly();
+    try {
+      E e;
+      while ((e = removeNextElement()) == null) {
+        notEmpty.await();
+      }
+      return e;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public E poll(long timeout, TimeUnit unit)
+      throws InterruptedException {
+    long nanos = unit.toNanos(timeout);
+    final ReentrantLock lock = this.takeLock;
+    lock.lockInterruptibly();
+    try {
+      E e;
+      while ((e = removeNextElement()) == null) {
+        if (nanos <= 0) {
+          return null;
+        }
+        nanos = notEmpty.awaitNanos(nanos);
+      }
+      return e;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * poll() provides no strict consistency: it is possible for poll to return
+   * null even though an element is in the queue.
+   */
+  @Override
+  public E poll() {
+    return removeNextElement();
+  }
+
+  /**
+   * Peek, like poll, provides no strict consistency.
+   */
+  @Override
+  public E peek() {
+    int idx = firstNonEmptyQueue(0);
+    return idx == -1 ? null : this.queues.get(idx).peek();
+  }
+
+  /**
+   * Size returns the sum of all sub-queue sizes, so it may be greater than
+   * capacity.
+   * Note: size provides no strict consistency, and should not be used to
+   * control queue IO.
+   */
+  @Override
+  public int size() {
+    int size = 0;
+    for (BlockingQueue<E> q : this.queues) {
+      size += q.size();
+    }
+    return size;
+  }
+
+  /**
+   * Iterates over the levels from highest to lowest priority. The
+   * iterator is weakly consistent.
+   */
+  @Override
+  public Iterator<E> iterator() {
+    return Iterables.concat(this.queues).iterator();
+  }
+
+  /**
+   * drainTo defers to each sub-queue. Note that draining from a FairCallQueue
+   * to another FairCallQueue will likely fail, since the incoming calls
+   * may be scheduled differently in the new FairCallQueue.
+   */
+  @Override
+  public int drainTo(Collection<? super E> c, int maxElements) {
+    int sum = 0;
+    for (BlockingQueue<E> q : this.queues) {
+      sum += q.drainTo(c, maxElements - sum);
+    }
+    return sum;
+  }
+
+  @Override
+  public int drainTo(Collection<? super E> c) {
+    int sum = 0;
+    for (BlockingQueue<E> q : this.queues) {
+      sum += q.drainTo(c);
+    }
+    return sum;
+  }
+
+  /**
+   * Returns maximum remaining capacity. This does not reflect how much you can
+   * ideally fit in this FairCallQueue, as that would depend on the scheduler's
+   * decisions.
+   */
+  @Override
+  public int remainingCapacity() {
+    int sum = 0;
+    for (BlockingQueue<E> q : this.queues) {
+      sum += q.remainingCapacity();
+    }
+    return sum;
+  }
+
+  /**
+   * @return the number of priority levels
+   */
+  public int getNumLevels() {
+    return this.queues.size();
+  }
+
+  /**
+   * @param level the priority level
+   * @return the number of calls waiting at the given priority level
+   */
+  public int getQueueSize(int level) {
+    return this.queues.get(level).size();
+  }
+
+  /**
+   * Release the resources of the queue, e.g. its metrics source, once its
+   * server is stopped.
+   */
+  public void shutdown() {
+    metrics.shutdown();
+  }
+
+  @VisibleForTesting
+  RpcScheduler getScheduler() {
+    return scheduler;
+  }
+}
@@ -41,7 +41,8 @@ <T> ProtocolProxy<T> getProxy(Class<T> protocol,
                   long clientVersion, InetSocketAddress addr,
                   UserGroupInformation ticket, Configuration conf,
                   SocketFactory factory, int rpcTimeout,
-                  RetryPolicy connectionRetryPolicy) throws IOException;
+                  RetryPolicy connectionRetryPolicy,
+                  AlignmentContext alignmentContext) throws IOException;
 
   /** 
    * Construct a server for a protocol implementation instance.
@@ -24,6 +24,8 @@
 import java.io.DataOutput;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.UndeclaredThrowableException;
 import java.net.BindException;
 import java.net.InetAddress;
@@ -58,6 +60,7 @@
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.security.auth.callback.CallbackHandler;
 import javax.security.sasl.Sasl;
@@ -127,6 +130,18 @@ public void addTerseExceptions(Class<?>... exceptionClass) {
     exceptionsHandler.addTerseExceptions(exceptionClass);
   }
 
+  /** Exchanges the state of the server with its clients, if set. */
+  private volatile AlignmentContext alignmentContext;
+
+  /**
+   * Set the context with which the server exchanges its state with the
+   * clients, through the RPC headers.
+   */
+  @InterfaceAudience.LimitedPrivate({"HDFS"})
+  public void setAlignmentContext(AlignmentContext alignmentContext) {
+    this.alignmentContext = alignmentContext;
+  }
+
   /**
    * ExceptionsHandler manages Exception groups for special handling
    * e.g., terse exception group for concise logging messages
@@ -332,6 +347,45 @@ public static boolean isRpcInvocation() {
     return CurCall.get() != null;
   }
 
+  /**
+   * A handle on the response of an RPC whose delivery has been postponed
+   * by {@link Server#postponeResponse()}.
+   */
+  @InterfaceAudience.LimitedPrivate({"HDFS"})
+  @InterfaceStability.Evolving
+  public interface PostponedResponse {
+    /**
+     * Release the postponement. The response is queued to the client once
+     * both the handler has finished the call and every holder of a
+     * postponement has released it. Must be called exactly once.
+     */
+    void sendResponse() throws IOException;
+  }
+
+  /**
+   * Postpone sending the response of the current RPC. The handler thread
+   * still builds the response when the call returns, but it is not sent to
+   * the client until {@link PostponedResponse#sendResponse()} is called on
+   * the returned handle. This lets a server release its handler before some
+   * slow, durable side effect of the call (such as an edit log sync) has
+   * completed, while the client still only sees the response afterwards.
+   *
+   * @return a handle to release the response, or null if the current
+   *         thread is not serving an RPC or the response cannot be
+   *         postponed, in which case the caller must complete its work
+   *         before returning.
+   */
+  @InterfaceAudience.LimitedPrivate({"HDFS"})
+  public static PostponedResponse postponeResponse() {
+    Call call = CurCall.get();
+    if (call == null || call.connection.useWrap) {
+      // SASL wrapping must happen in the order the responses are sent
+      return null;
+    }
+    call.responseWaitCount.incrementAndGet();
+    return call;
+  }
+
   private String bindAddress; 
   private int port;                               // port we listen on
   private int handlerCount;                       // number of handler threads
@@ -460,7 +514,7 @@ public ServiceAuthorizationManager getServiceAuthorizationManager() {
   }
 
   /** A call queued for handling. */
-  private static class Call {
+  private static class Call implements Schedulable, PostponedResponse {
     private final int callId;             // the client's call id
     private final Writable rpcRequest;    // Serialized Rpc request from client
     private final Connection connection;  // connection to client
@@ -468,17 +522,25 @@ private static class Call {
                                           // time served when response is not null
     private ByteBuffer rpcResponse;       // the response for this call
     private final RPC.RpcKind rpcKind;
+    private final RpcRequestHeaderProto header; // null for internal calls
+    // the handler plus every outstanding postponement of the response
+    private final AtomicInteger responseWaitCount = new AtomicInteger(1);
 
     public Call(int id, Writable param, Connection connection) {
       this( id,  param,  connection, RPC.RpcKind.RPC_BUILTIN );    
     }
     public Call(int id, Writable param, Connection connection, RPC.RpcKind kind) { 
+      this(id, param, connection, kind, null);
+    }
+    public Call(int id, Writable param, Connection connection,
+        RPC.RpcKind kind, RpcRequestHeaderProto header) {
       this.callId = id;
       this.rpcRequest = param;
       this.connection = connection;
       this.timestamp = Time.now();
       this.rpcResponse = null;
       this.rpcKind = kind;
+      this.header = header;
     }
     
     @Override
@@ -489,6 +551,25 @@ public String toString() {
     public void setResponse(ByteBuffer response) {
       this.rpcResponse = response;
     }
+
+    @Override
+    public UserGroupInformation getUserGroupInformation() {
+      return connection == null ? null : connection.user;
+    }
+
+    @Override
+    public long getReceivedTime() {
+      return timestamp;
+    }
+
+    @Override
+    public void sendResponse() throws IOException {
+      int count = responseWaitCount.decrementAndGet();
+      assert count >= 0 : "response for " + this + " already sent";
+      if (count == 0) {
+        connection.sendResponse(this);
+      }
+    }
   }
 
   /** Listens on the socket. Creates jobs for the handler threads*/
@@ -1715,7 +1796,7 @@ private void processData(byte[] buf) throws  IOException, InterruptedException {
       }
         
       Call call = new Call(header.getCallId(), rpcRequest, this, 
-          ProtoUtil.convert(header.getRpcKind()));
+          ProtoUtil.convert(header.getRpcKind()), header);
       callQueue.put(call);              // queue the call; maybe blocked here
       incRpcCount();  // Increment the rpc count
     }
@@ -1761,6 +1842,10 @@ public void setServiceClass(int serviceClass) {
       this.serviceClass = serviceClass;
     }
 
+    private void sendResponse(Call call) throws IOException {
+      responder.doRespond(call);
+    }
+
     private synchronized void close() throws IOException {
       disposeSasl();
       data = null;
@@ -1803,6 +1888,10 @@ public void run() {
 
           CurCall.set(call);
           try {
+            final AlignmentContext context = alignmentContext;
+            if (context != null && call.header != null) {
+              context.receiveRequestState(call.header);
+            }
             // Make the call as the user via Subject.doAs, thus associating
             // the call with the Subject
             if (call.connection.user == null) {
@@ -1864,7 +1953,7 @@ public Writable run() throws Exception {
                   + call.toString());
               buf = new ByteArrayOutputStream(INITIAL_RESP_BUF_SIZE);
             }
-            responder.doRespond(call);
+            call.sendResponse();
           }
         } catch (InterruptedException e) {
           if (running) {                          // unexpected -- log it
@@ -1941,7 +2030,8 @@ protected Server(String bindAddress, int port,
           CommonConfigurationKeys.IPC_SERVER_RPC_READ_THREADS_KEY,
           CommonConfigurationKeys.IPC_SERVER_RPC_READ_THREADS_DEFAULT);
     }
-    this.callQueue  = new LinkedBlockingQueue<Call>(maxQueueSize); 
+    this.callQueue = createCallQueue(maxQueueSize,
+        CommonConfigurationKeys.IPC_CALLQUEUE_NAMESPACE + "." + port);
     this.maxIdleTime = 2 * conf.getInt(
         CommonConfigurationKeysPublic.IPC_CLIENT_CONNECTION_MAXIDLETIME_KEY,
         CommonConfigurationKeysPublic.IPC_CLIENT_CONNECTION_MAXIDLETIME_DEFAULT);
@@ -1978,6 +2068,40 @@ protected Server(String bindAddress, int port,
     this.exceptionsHandler.addTerseExceptions(StandbyException.class);
   }
 
+  /**
+   * Create the call queue. The queue class is read from
+   * <code>ipc.&lt;port&gt;.callqueue.impl</code> and defaults to a
+   * {@link LinkedBlockingQueue}. A queue class is constructed with
+   * (int capacity, String namespace, Configuration conf) if it has such a
+   * constructor, otherwise with (int capacity).
+   */
+  @SuppressWarnings("unchecked")
+  private BlockingQueue<Call> createCallQueue(int maxLen, String ns) {
+    Class<?> queueClass = conf.getClass(
+        ns + "." + CommonConfigurationKeys.IPC_CALLQUEUE_IMPL_KEY,
+        LinkedBlockingQueue.class);
+    if (!BlockingQueue.class.isAssignableFrom(queueClass)) {
+      throw new IllegalArgumentException(queueClass.getName() +
+          " is not a BlockingQueue");
+    }
+    try {
+      try {
+        Constructor<?> ctor = queueClass.getDeclaredConstructor(
+            int.class, String.class, Configuration.class);
+        return (BlockingQueue<Call>) ctor.newInstance(maxLen, ns, conf);
+      } catch (NoSuchMethodException e) {
+        Constructor<?> ctor = queueClass.getDeclaredConstructor(int.class);
+        return (BlockingQueue<Call>) ctor.newInstance(maxLen);
+      }
+    } catch (InvocationTargetException e) {
+      throw new RuntimeException("Could not create call queue " +
+          queueClass.getName(), e.getCause());
+    } catch (Exception e) {
+      throw new RuntimeException("Could not create call queue " +
+          queueClass.getName(), e);
+    }
+  }
+
   // get the security type from the conf. implicitly include token support
   // if a secret manager is provided, or fail if token is the conf value but
   // there is no secret manager
@@ -2036,6 +2160,10 @@ private void setupResponse(ByteArrayOutputStream responseBuf,
     headerBuilder.setCallId(call.callId);
     headerBuilder.setStatus(status);
     headerBuilder.setServerIpcVersionNum(Server.CURRENT_VERSION);
+    final AlignmentContext context = alignmentContext;
+    if (context != null) {
+      context.updateResponseState(headerBuilder);
+    }
 
     if (status == RpcStatusProto.SUCCESS) {
       RpcResponseHeaderProto header = headerBuilder.build();
@@ -2175,6 +2303,9 @@ public synchronized void stop() {
     if (this.rpcDetailedMetrics != null) {
       this.rpcDetailedMetrics.shutdown();
     }
+    if (callQueue instanceof FairCallQueue) {
+      ((FairCallQueue<?>)callQueue).shutdown();
+    }
   }
 
   /** Wait for the server to be stopped.
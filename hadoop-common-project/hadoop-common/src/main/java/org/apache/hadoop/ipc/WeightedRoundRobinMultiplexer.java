@@ -0,0 +1,119 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.ipc;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Determines which queue to start reading from, occasionally drawing from
+ * low-priority queues in order to prevent starvation. Given the pull pattern
+ * [9, 4, 1] for 3 queues:
+ *
+ * The cycle is 9 + 4 + 1 = 14 reads.
+ * Queue 0 is read 9 times
+ * Queue 1 is read 4 times
+ * Queue 2 is read 1 time
+ * Repeat
+ */
+@InterfaceAudience.Private
+public class WeightedRoundRobinMultiplexer implements RpcMultiplexer {
+  /** Comma-separated weights, one per level, highest priority first. */
+  public static final String IPC_CALLQUEUE_WRRMUX_WEIGHTS_KEY =
+    "faircallqueue.multiplexer.weights";
+
+  public static final Log LOG =
+    LogFactory.getLog(WeightedRoundRobinMultiplexer.class);
+
+  private final int numQueues;
+  private final int[] queueWeights;
+
+  private int currentQueueIndex;
+  private int requestsLeft;
+
+  /**
+   * @param aNumQueues number of queues to multiplex over
+   * @param ns the configuration namespace, e.g. "ipc.8020"
+   * @param conf configuration holding the optional weights
+   */
+  public WeightedRoundRobinMultiplexer(int aNumQueues, String ns,
+    Configuration conf) {
+    if (aNumQueues <= 0) {
+      throw new IllegalArgumentException("Requested queues (" + aNumQueues +
+        ") must be greater than zero.");
+    }
+
+    this.numQueues = aNumQueues;
+    int[] weights = conf.getInts(ns + "." +
+      IPC_CALLQUEUE_WRRMUX_WEIGHTS_KEY);
+
+    if (weights.length == 0) {
+      weights = getDefaultQueueWeights(this.numQueues);
+    } else if (weights.length != this.numQueues) {
+      throw new IllegalArgumentException(ns + "." +
+        IPC_CALLQUEUE_WRRMUX_WEIGHTS_KEY + " must specify exactly " +
+        this.numQueues + " weights: one for each priority level.");
+    }
+    this.queueWeights = weights;
+
+    this.currentQueueIndex = 0;
+    this.requestsLeft = this.queueWeights[0];
+
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("WeightedRoundRobinMultiplexer created for " + ns);
+    }
+  }
+
+  /**
+   * Creates default weights for each queue. The weights are 2^N.
+   */
+  private static int[] getDefaultQueueWeights(int aNumQueues) {
+    int[] weights = new int[aNumQueues];
+
+    int weight = 1; // Start low
+    for (int i = aNumQueues - 1; i >= 0; i--) { // Start at lowest queue
+      weights[i] = weight;
+      weight *= 2; // Double every iteration
+    }
+    return weights;
+  }
+
+  /**
+   * Move to the next queue.
+   */
+  private void moveToNextQueue() {
+    currentQueueIndex = (currentQueueIndex + 1) % numQueues;
+    requestsLeft = queueWeights[currentQueueIndex];
+  }
+
+  /**
+   * Use the mux by getting and advancing index.
+   */
+  @Override
+  public synchronized int getAndAdvanceCurrentIndex() {
+    int idx = currentQueueIndex;
+    requestsLeft--;
+    if (requestsLeft <= 0) {
+      moveToNextQueue();
+    }
+    return idx;
+  }
+}
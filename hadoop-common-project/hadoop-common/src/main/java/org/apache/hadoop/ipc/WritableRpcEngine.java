@@ -267,13 +267,18 @@ static Client getClient(Configuration conf) {
   public <T> ProtocolProxy<T> getProxy(Class<T> protocol, long clientVersion,
                          InetSocketAddress addr, UserGroupInformation ticket,
                          Configuration conf, SocketFactory factory,
-                         int rpcTimeout, RetryPolicy connectionRetryPolicy)
+                         int rpcTimeout, RetryPolicy connectionRetryPolicy,
+                         AlignmentContext alignmentContext)
     throws IOException {    
 
     if (connectionRetryPolicy != null) {
       throw new UnsupportedOperationException(
           "Not supported: connectionRetryPolicy=" + connectionRetryPolicy);
     }
+    if (alignmentContext != null) {
+      throw new UnsupportedOperationException(
+          "Not supported: alignmentContext=" + alignmentContext);
+    }
 
     T proxy = (T) Proxy.newProxyInstance(protocol.getClassLoader(),
         new Class[] { protocol }, new Invoker(protocol, addr, ticket, conf,
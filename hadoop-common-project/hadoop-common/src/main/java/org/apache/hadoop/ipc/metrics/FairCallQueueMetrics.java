@@ -0,0 +1,108 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.ipc.metrics;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.ipc.FairCallQueue;
+import org.apache.hadoop.metrics2.MetricsCollector;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.apache.hadoop.metrics2.MetricsSource;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.apache.hadoop.metrics2.lib.Interns;
+import org.apache.hadoop.metrics2.lib.MetricsRegistry;
+import org.apache.hadoop.metrics2.lib.MutableCounterLong;
+import org.apache.hadoop.metrics2.lib.MutableRate;
+
+/**
+ * This class is for maintaining the per priority level statistics of a
+ * {@link FairCallQueue} and publishing them through the metrics interfaces.
+ */
+@InterfaceAudience.Private
+public class FairCallQueueMetrics implements MetricsSource {
+
+  static final Log LOG = LogFactory.getLog(FairCallQueueMetrics.class);
+  final FairCallQueue<?> queue;
+  final MetricsRegistry registry;
+  final String name;
+  final MutableRate[] queueTimes;
+  final MutableCounterLong[] overflowedCalls;
+
+  FairCallQueueMetrics(String ns, FairCallQueue<?> queue) {
+    name = "FairCallQueueFor" + ns;
+    this.queue = queue;
+    registry = new MetricsRegistry("faircallqueue")
+        .setContext("rpc").tag("namespace", "Call queue namespace", ns);
+    int numLevels = queue.getNumLevels();
+    queueTimes = new MutableRate[numLevels];
+    overflowedCalls = new MutableCounterLong[numLevels];
+    for (int i = 0; i < numLevels; i++) {
+      queueTimes[i] = registry.newRate("QueueTimeLevel" + i,
+          "Time spent waiting in priority level " + i, false);
+      overflowedCalls[i] = registry.newCounter("OverflowedCallsLevel" + i,
+          "Calls scheduled at level " + i + " placed in a lower level", 0L);
+    }
+    LOG.debug("Initialized " + registry);
+  }
+
+  public String name() { return name; }
+
+  public static FairCallQueueMetrics create(String ns,
+      FairCallQueue<?> queue) {
+    FairCallQueueMetrics m = new FairCallQueueMetrics(ns, queue);
+    return DefaultMetricsSystem.instance().register(m.name,
+        "Per priority level call queue metrics", m);
+  }
+
+  @Override
+  public void getMetrics(MetricsCollector collector, boolean all) {
+    MetricsRecordBuilder rb = collector.addRecord(registry.info());
+    for (int i = 0; i < queueTimes.length; i++) {
+      rb.addGauge(Interns.info("QueueDepthLevel" + i,
+          "Number of calls waiting in priority level " + i),
+          queue.getQueueSize(i));
+    }
+    registry.snapshot(rb, all);
+  }
+
+  /**
+   * Unregister the metrics source
+   */
+  public void shutdown() {
+    DefaultMetricsSystem.instance().unregisterSource(name);
+  }
+
+  /**
+   * Add a queue time sample for a call dequeued from a priority level
+   * @param level the priority level the call was dequeued from
+   * @param queueTime the time the call spent in the queue
+   */
+  public void addQueueTime(int level, long queueTime) {
+    queueTimes[level].add(queueTime);
+  }
+
+  /**
+   * One call could not fit in the level it was scheduled at
+   * @param level the priority level the call was scheduled at
+   */
+  public void incrOverflowedCalls(int level) {
+    overflowedCalls[level].incr();
+  }
+}
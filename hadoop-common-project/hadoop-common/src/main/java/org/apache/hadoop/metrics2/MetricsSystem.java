@@ -65,6 +65,12 @@ public <T> T register(T source) {
     return register(null, null, source);
   }
 
+  /**
+   * Unregister a metrics source
+   * @param name of the source. This is the name you use to call register()
+   */
+  public abstract void unregisterSource(String name);
+
   /**
    * @param name  of the metrics source
    * @return the metrics source (potentially wrapped) object
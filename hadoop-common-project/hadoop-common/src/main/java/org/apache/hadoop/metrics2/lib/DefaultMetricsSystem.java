@@ -110,11 +110,21 @@ public static ObjectName newMBeanName(String name) {
     return INSTANCE.newObjectName(name);
   }
 
+  @InterfaceAudience.Private
+  public static void removeMBeanName(ObjectName name) {
+    INSTANCE.removeObjectName(name.toString());
+  }
+
   @InterfaceAudience.Private
   public static String sourceName(String name, boolean dupOK) {
     return INSTANCE.newSourceName(name, dupOK);
   }
 
+  @InterfaceAudience.Private
+  public static void removeSourceName(String name) {
+    INSTANCE.removeSource(name);
+  }
+
   synchronized ObjectName newObjectName(String name) {
     try {
       if (mBeanNames.map.containsKey(name) && !miniClusterMode) {
@@ -126,6 +136,14 @@ synchronized ObjectName newObjectName(String name) {
     }
   }
 
+  synchronized void removeObjectName(String name) {
+    mBeanNames.map.remove(name);
+  }
+
+  synchronized void removeSource(String name) {
+    sourceNames.map.remove(name);
+  }
+
   synchronized String newSourceName(String name, boolean dupOK) {
     if (sourceNames.map.containsKey(name)) {
       if (dupOK) {
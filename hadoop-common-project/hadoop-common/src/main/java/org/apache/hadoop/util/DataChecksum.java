@@ -22,6 +22,7 @@
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
 import java.util.zip.Checksum;
 
 import org.apache.hadoop.classification.InterfaceAudience;
@@ -82,7 +83,7 @@ public static DataChecksum newDataChecksum(Type type, int bytesPerChecksum ) {
     case NULL :
       return new DataChecksum(type, new ChecksumNull(), bytesPerChecksum );
     case CRC32 :
-      return new DataChecksum(type, new PureJavaCrc32(), bytesPerChecksum );
+      return new DataChecksum(type, newCrc32(), bytesPerChecksum );
     case CRC32C:
       return new DataChecksum(type, new PureJavaCrc32C(), bytesPerChecksum);
     default:
@@ -90,6 +91,14 @@ public static DataChecksum newDataChecksum(Type type, int bytesPerChecksum ) {
     }
   }
   
+  /**
+   * @return a CRC32 checksum. Since Java 7, the JDK's CRC32 is faster than
+   *         PureJavaCrc32.
+   */
+  static Checksum newCrc32() {
+    return Shell.isJava7OrAbove() ? new CRC32() : new PureJavaCrc32();
+  }
+
   /**
    * Creates a DataChecksum from HEADER_LEN bytes from arr[offset].
    * @return DataChecksum of the type in the array or null in case of an error.
@@ -215,10 +224,19 @@ public boolean compare( byte buf[], int offset ) {
   private final int bytesPerChecksum;
   private int inSum = 0;
   
+  /**
+   * Whether to compute whole batches of checksums natively. For CRC32C, the
+   * native code uses the CPU's crc32 instruction where available. For CRC32
+   * it is only used before Java 7; since then, the JDK's CRC32 is faster.
+   */
+  private final boolean useNative;
+
   private DataChecksum( Type type, Checksum checksum, int chunkSize ) {
     this.type = type;
     summer = checksum;
     bytesPerChecksum = chunkSize;
+    useNative = NativeCrc32.isAvailable()
+        && (type == Type.CRC32C || !(checksum instanceof CRC32));
   }
   
   // Accessors
@@ -287,7 +305,7 @@ public void verifyChunkedSums(ByteBuffer data, ByteBuffer checksums,
           fileName, basePos);
       return;
     }
-    if (NativeCrc32.isAvailable()) {
+    if (useNative && data.isDirect() && checksums.isDirect()) {
       NativeCrc32.verifyChunkedSums(bytesPerChecksum, type.id, checksums, data,
           fileName, basePos);
       return;
@@ -331,6 +349,11 @@ private void verifyChunkedSums(
       byte[] data, int dataOff, int dataLen,
       byte[] checksums, int checksumsOff, String fileName,
       long basePos) throws ChecksumException {
+    if (useNative) {
+      NativeCrc32.verifyChunkedSumsByteArray(bytesPerChecksum, type.id,
+          checksums, checksumsOff, data, dataOff, dataLen, fileName, basePos);
+      return;
+    }
     
     int remaining = dataLen;
     int dataPos = 0;
@@ -376,6 +399,11 @@ public void calculateChunkedSums(ByteBuffer data, ByteBuffer checksums) {
           checksums.array(), checksums.arrayOffset() + checksums.position());
       return;
     }
+    if (useNative && data.isDirect() && checksums.isDirect()) {
+      NativeCrc32.calculateChunkedSums(bytesPerChecksum, type.id,
+          checksums, data);
+      return;
+    }
     
     data.mark();
     checksums.mark();
@@ -401,6 +429,11 @@ public void calculateChunkedSums(ByteBuffer data, ByteBuffer checksums) {
   private void calculateChunkedSums(
       byte[] data, int dataOffset, int dataLength,
       byte[] sums, int sumsOffset) {
+    if (useNative) {
+      NativeCrc32.calculateChunkedSumsByteArray(bytesPerChecksum, type.id,
+          sums, sumsOffset, data, dataOffset, dataLength);
+      return;
+    }
 
     int remaining = dataLength;
     while (remaining > 0) {
@@ -113,20 +113,75 @@ static int convert_java_crc_type(JNIEnv *env, jint crc_type) {
   }
 }
 
-JNIEXPORT void JNICALL Java_org_apache_hadoop_util_NativeCrc32_nativeVerifyChunkedSums
+/**
+ * Calculate the checksums of the given data, or verify them against the
+ * given ones, and throw a ChecksumException on a mismatch.
+ */
+static void compute_chunked_sums(JNIEnv *env,
+    jint bytes_per_checksum, jint j_crc_type,
+    uint32_t *sums, const uint8_t *data, jint data_len,
+    jstring j_filename, jlong base_pos, jboolean verify)
+{
+  int crc_type;
+  crc32_error_t error_data;
+  int ret;
+
+  // Convert to correct internal C constant for CRC type
+  crc_type = convert_java_crc_type(env, j_crc_type);
+  if (crc_type == -1) return; // exception already thrown
+
+  if (!verify) {
+    ret = bulk_calculate_crc(data, data_len, sums, crc_type,
+                             bytes_per_checksum);
+    if (unlikely(ret != 0)) {
+      THROW(env, "java/lang/AssertionError",
+        "Bad response code from native bulk_calculate_crc");
+    }
+    return;
+  }
+
+  // Setup complete. Actually verify checksums.
+  ret = bulk_verify_crc(data, data_len, sums, crc_type,
+                            bytes_per_checksum, &error_data);
+  if (likely(ret == CHECKSUMS_VALID)) {
+    return;
+  } else if (unlikely(ret == INVALID_CHECKSUM_DETECTED)) {
+    long pos = base_pos + (error_data.bad_data - data);
+    throw_checksum_exception(
+      env, error_data.got_crc, error_data.expected_crc,
+      j_filename, pos);
+  } else {
+    THROW(env, "java/lang/AssertionError",
+      "Bad response code from native bulk_verify_crc");
+  }
+}
+
+static int check_chunked_sums_args(JNIEnv *env,
+    jint bytes_per_checksum, jint sums_offset,
+    jint data_offset, jint data_len)
+{
+  if (unlikely(sums_offset < 0 || data_offset < 0 || data_len < 0)) {
+    THROW(env, "java/lang/IllegalArgumentException",
+      "bad offsets or lengths");
+    return 0;
+  }
+  if (unlikely(bytes_per_checksum <= 0)) {
+    THROW(env, "java/lang/IllegalArgumentException",
+      "invalid bytes_per_checksum");
+    return 0;
+  }
+  return 1;
+}
+
+JNIEXPORT void JNICALL Java_org_apache_hadoop_util_NativeCrc32_nativeComputeChunkedSums
   (JNIEnv *env, jclass clazz,
     jint bytes_per_checksum, jint j_crc_type,
     jobject j_sums, jint sums_offset,
     jobject j_data, jint data_offset, jint data_len,
-    jstring j_filename, jlong base_pos)
+    jstring j_filename, jlong base_pos, jboolean verify)
 {
   uint8_t *sums_addr;
   uint8_t *data_addr;
-  uint32_t *sums;
-  uint8_t *data;
-  int crc_type;
-  crc32_error_t error_data;
-  int ret;
 
   if (unlikely(!j_sums || !j_data)) {
     THROW(env, "java/lang/NullPointerException",
@@ -143,37 +198,113 @@ JNIEXPORT void JNICALL Java_org_apache_hadoop_util_NativeCrc32_nativeVerifyChunk
       "input ByteBuffers must be direct buffers");
     return;
   }
-  if (unlikely(sums_offset < 0 || data_offset < 0 || data_len < 0)) {
-    THROW(env, "java/lang/IllegalArgumentException",
-      "bad offsets or lengths");
+  if (!check_chunked_sums_args(env, bytes_per_checksum, sums_offset,
+        data_offset, data_len)) {
     return;
   }
-  if (unlikely(bytes_per_checksum) <= 0) {
-    THROW(env, "java/lang/IllegalArgumentException",
-      "invalid bytes_per_checksum");
+
+  compute_chunked_sums(env, bytes_per_checksum, j_crc_type,
+    (uint32_t *)(sums_addr + sums_offset), data_addr + data_offset, data_len,
+    j_filename, base_pos, verify);
+}
+
+// Used by earlier versions of NativeCrc32.java.
+JNIEXPORT void JNICALL Java_org_apache_hadoop_util_NativeCrc32_nativeVerifyChunkedSums
+  (JNIEnv *env, jclass clazz,
+    jint bytes_per_checksum, jint j_crc_type,
+    jobject j_sums, jint sums_offset,
+    jobject j_data, jint data_offset, jint data_len,
+    jstring j_filename, jlong base_pos)
+{
+  Java_org_apache_hadoop_util_NativeCrc32_nativeComputeChunkedSums(env, clazz,
+    bytes_per_checksum, j_crc_type, j_sums, sums_offset,
+    j_data, data_offset, data_len, j_filename, base_pos, JNI_TRUE);
+}
+
+JNIEXPORT void JNICALL Java_org_apache_hadoop_util_NativeCrc32_nativeComputeChunkedSumsByteArray
+  (JNIEnv *env, jclass clazz,
+    jint bytes_per_checksum, jint j_crc_type,
+    jarray j_sums, jint sums_offset,
+    jarray j_data, jint data_offset, jint data_len,
+    jstring j_filename, jlong base_pos, jboolean verify)
+{
+  uint8_t *sums_addr;
+  uint8_t *data_addr;
+  jsize sums_len;
+  jsize data_array_len;
+  int num_sums;
+
+  if (unlikely(!j_sums || !j_data)) {
+    THROW(env, "java/lang/NullPointerException",
+      "input arrays must not be null");
+    return;
+  }
+  if (!check_chunked_sums_args(env, bytes_per_checksum, sums_offset,
+        data_offset, data_len)) {
+    return;
+  }
+  num_sums = (data_len + bytes_per_checksum - 1) / bytes_per_checksum;
+  sums_len = (*env)->GetArrayLength(env, j_sums);
+  data_array_len = (*env)->GetArrayLength(env, j_data);
+  if (unlikely(data_offset + data_len > data_array_len ||
+      sums_offset + 4 * num_sums > sums_len)) {
+    THROW(env, "java/lang/ArrayIndexOutOfBoundsException",
+      "offsets or lengths exceed the array bounds");
     return;
   }
 
-  sums = (uint32_t *)(sums_addr + sums_offset);
-  data = data_addr + data_offset;
+  // The arrays are pinned rather than copied. No JNI calls may be made
+  // until they are released, so any exception is thrown afterwards.
+  sums_addr = (*env)->GetPrimitiveArrayCritical(env, j_sums, NULL);
+  if (unlikely(!sums_addr)) {
+    return; // OOME already thrown
+  }
+  data_addr = (*env)->GetPrimitiveArrayCritical(env, j_data, NULL);
+  if (unlikely(!data_addr)) {
+    (*env)->ReleasePrimitiveArrayCritical(env, j_sums, sums_addr, JNI_ABORT);
+    return; // OOME already thrown
+  }
 
-  // Convert to correct internal C constant for CRC type
-  crc_type = convert_java_crc_type(env, j_crc_type);
-  if (crc_type == -1) return; // exception already thrown
+  {
+    uint32_t *sums = (uint32_t *)(sums_addr + sums_offset);
+    uint8_t *data = data_addr + data_offset;
+    int crc_type = -1;
+    int ret = 0;
+    crc32_error_t error_data;
 
-  // Setup complete. Actually verify checksums.
-  ret = bulk_verify_crc(data, data_len, sums, crc_type,
-                            bytes_per_checksum, &error_data);
-  if (likely(ret == CHECKSUMS_VALID)) {
-    return;
-  } else if (unlikely(ret == INVALID_CHECKSUM_DETECTED)) {
-    long pos = base_pos + (error_data.bad_data - data);
-    throw_checksum_exception(
-      env, error_data.got_crc, error_data.expected_crc,
-      j_filename, pos);
-  } else {
-    THROW(env, "java/lang/AssertionError",
-      "Bad response code from native bulk_verify_crc");
+    switch (j_crc_type) {
+      case org_apache_hadoop_util_NativeCrc32_CHECKSUM_CRC32:
+        crc_type = CRC32_ZLIB_POLYNOMIAL;
+        break;
+      case org_apache_hadoop_util_NativeCrc32_CHECKSUM_CRC32C:
+        crc_type = CRC32C_POLYNOMIAL;
+        break;
+    }
+    if (crc_type != -1) {
+      if (verify) {
+        ret = bulk_verify_crc(data, data_len, sums, crc_type,
+                              bytes_per_checksum, &error_data);
+      } else {
+        ret = bulk_calculate_crc(data, data_len, sums, crc_type,
+                                 bytes_per_checksum);
+      }
+    }
+
+    (*env)->ReleasePrimitiveArrayCritical(env, j_data, data_addr, JNI_ABORT);
+    (*env)->ReleasePrimitiveArrayCritical(env, j_sums, sums_addr,
+      verify ? JNI_ABORT : 0);
+
+    if (unlikely(crc_type == -1)) {
+      THROW(env, "java/lang/IllegalArgumentException",
+        "Invalid checksum type");
+    } else if (verify && ret == INVALID_CHECKSUM_DETECTED) {
+      throw_checksum_exception(
+        env, error_data.got_crc, error_data.expected_crc,
+        j_filename, base_pos + (error_data.bad_data - data));
+    } else if (unlikely(verify ? ret != CHECKSUMS_VALID : ret != 0)) {
+      THROW(env, "java/lang/AssertionError",
+        "Bad response code from native bulk crc");
+    }
   }
 }
 
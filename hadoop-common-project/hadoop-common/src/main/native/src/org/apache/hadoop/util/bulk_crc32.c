@@ -58,6 +58,12 @@ static uint32_t crc32c_hardware(uint32_t crc, const uint8_t* data, size_t length
 int bulk_calculate_crc(const uint8_t *data, size_t data_len,
                     uint32_t *sums, int checksum_type,
                     int bytes_per_checksum) {
+#ifdef USE_PIPELINED
+  uint32_t crc1, crc2, crc3;
+  int n_blocks = data_len / bytes_per_checksum;
+  int remainder = data_len % bytes_per_checksum;
+  int do_pipelined = 0;
+#endif
   uint32_t crc;
   crc_update_func_t crc_update_func;
 
@@ -66,12 +72,54 @@ int bulk_calculate_crc(const uint8_t *data, size_t data_len,
       crc_update_func = crc32_zlib_sb8;
       break;
     case CRC32C_POLYNOMIAL:
-      crc_update_func = crc32c_sb8;
+      if (likely(cached_cpu_supports_crc32)) {
+        crc_update_func = crc32c_hardware;
+#ifdef USE_PIPELINED
+        do_pipelined = 1;
+#endif
+      } else {
+        crc_update_func = crc32c_sb8;
+      }
       break;
     default:
       return -EINVAL;
       break;
   }
+
+#ifdef USE_PIPELINED
+  if (do_pipelined) {
+    /* Process three blocks at a time */
+    while (likely(n_blocks >= 3)) {
+      crc1 = crc2 = crc3 = CRC_INITIAL_VAL;
+      pipelined_crc32c(&crc1, &crc2, &crc3, data, bytes_per_checksum, 3);
+      *sums++ = ntohl(crc_val(crc1));
+      *sums++ = ntohl(crc_val(crc2));
+      *sums++ = ntohl(crc_val(crc3));
+      data += 3 * bytes_per_checksum;
+      n_blocks -= 3;
+    }
+
+    /* One or two blocks */
+    if (n_blocks) {
+      crc1 = crc2 = crc3 = CRC_INITIAL_VAL;
+      pipelined_crc32c(&crc1, &crc2, &crc3, data, bytes_per_checksum, n_blocks);
+      *sums++ = ntohl(crc_val(crc1));
+      if (n_blocks == 2) {
+        *sums++ = ntohl(crc_val(crc2));
+      }
+      data += n_blocks * bytes_per_checksum;
+    }
+
+    /* For something smaller than a block */
+    if (remainder) {
+      crc1 = crc2 = crc3 = CRC_INITIAL_VAL;
+      pipelined_crc32c(&crc1, &crc2, &crc3, data, remainder, 1);
+      *sums = ntohl(crc_val(crc1));
+    }
+    return 0;
+  }
+#endif
+
   while (likely(data_len > 0)) {
     int len = likely(data_len >= bytes_per_checksum) ? bytes_per_checksum : data_len;
     crc = CRC_INITIAL_VAL;
@@ -70,8 +70,8 @@ extern int bulk_verify_crc(const uint8_t *data, size_t data_len,
  * The checksums are each 32 bits and are stored in sequential indexes of the
  * 'sums' array.
  *
- * This function is not (yet) optimized.  It is provided for testing purposes
- * only.
+ * Like bulk_verify_crc, this uses the SSE4.2 crc32 instruction for CRC32C
+ * where the CPU supports it, processing three chunks at a time.
  *
  * @param data                  The data to checksum
  * @param dataLen               Length of the data buffer
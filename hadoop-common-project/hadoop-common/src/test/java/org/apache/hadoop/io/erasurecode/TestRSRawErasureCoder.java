@@ -0,0 +1,134 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.io.erasurecode;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+
+public class TestRSRawErasureCoder {
+  private static final int LEN = 1000;
+  private final Random random = new Random(0xec);
+
+  private RawErasureCoder newCoder(int k, int m) {
+    return RawErasureCoder.getInstance(new Configuration(), k, m);
+  }
+
+  private byte[][] encode(RawErasureCoder coder, int len) {
+    final int k = coder.getNumDataUnits();
+    final int m = coder.getNumParityUnits();
+    final byte[][] units = new byte[k + m][];
+    final byte[][] data = new byte[k][];
+    final byte[][] parity = new byte[m][];
+    for (int i = 0; i < k; i++) {
+      data[i] = units[i] = new byte[len];
+      random.nextBytes(data[i]);
+    }
+    for (int i = 0; i < m; i++) {
+      // garbage in the output must be overwritten
+      parity[i] = units[k + i] = new byte[len];
+      random.nextBytes(parity[i]);
+    }
+    coder.encode(data, parity, len);
+    return units;
+  }
+
+  /** Erase the given units, decode them and compare. */
+  private void checkDecode(RawErasureCoder coder, byte[][] units,
+      int... erased) {
+    final byte[][] available = units.clone();
+    final byte[][] outputs = new byte[erased.length][LEN];
+    for (int e : erased) {
+      available[e] = null;
+    }
+    coder.decode(available, erased, outputs, LEN);
+    for (int i = 0; i < erased.length; i++) {
+      assertArrayEquals("unit " + erased[i], units[erased[i]], outputs[i]);
+    }
+  }
+
+  @Test
+  public void testDefaultCoder() {
+    RawErasureCoder coder = newCoder(6, 3);
+    assertTrue(coder instanceof RSRawErasureCoder);
+    assertEquals(6, coder.getNumDataUnits());
+    assertEquals(3, coder.getNumParityUnits());
+  }
+
+  @Test
+  public void testRecoverAnyErasures() {
+    final RawErasureCoder coder = newCoder(6, 3);
+    final byte[][] units = encode(coder, LEN);
+    // every combination of up to three erased units out of nine
+    for (int a = 0; a < 9; a++) {
+      checkDecode(coder, units, a);
+      for (int b = a + 1; b < 9; b++) {
+        checkDecode(coder, units, a, b);
+        for (int c = b + 1; c < 9; c++) {
+          checkDecode(coder, units, a, b, c);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testOtherSchemas() {
+    for (int[] schema : new int[][] { {1, 1}, {3, 2}, {10, 4}, {12, 6} }) {
+      final RawErasureCoder coder = newCoder(schema[0], schema[1]);
+      final byte[][] units = encode(coder, LEN);
+      final int[] erased = new int[schema[1]];
+      for (int i = 0; i < erased.length; i++) {
+        // erase every other unit, starting with the data units
+        erased[i] = (2 * i) % (schema[0] + schema[1]);
+      }
+      checkDecode(coder, units, erased);
+    }
+  }
+
+  @Test
+  public void testZeroPadding() {
+    // a short data unit is encoded as if it was padded with zeros, so the
+    // parity of a stripe with all zero data is all zero
+    final RawErasureCoder coder = newCoder(6, 3);
+    final byte[][] data = new byte[6][LEN];
+    final byte[][] parity = new byte[3][LEN];
+    coder.encode(data, parity, LEN);
+    for (byte[] p : parity) {
+      assertArrayEquals(new byte[LEN], p);
+    }
+  }
+
+  @Test
+  public void testTooManyErasures() {
+    final RawErasureCoder coder = newCoder(6, 3);
+    final byte[][] units = encode(coder, LEN);
+    units[0] = units[1] = units[7] = units[8] = null;
+    try {
+      coder.decode(units, new int[] {0}, new byte[1][LEN], LEN);
+      fail("decoded with only five units");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("at least 6"));
+    }
+  }
+}
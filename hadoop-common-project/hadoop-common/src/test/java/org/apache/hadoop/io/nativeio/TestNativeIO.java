@@ -24,6 +24,9 @@
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.ArrayList;
 import java.util.List;
@@ -42,6 +45,7 @@
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.test.GenericTestUtils;
 import org.apache.hadoop.util.NativeCodeLoader;
 import org.apache.hadoop.util.Time;
 
@@ -409,6 +413,41 @@ public void testSyncFileRange() throws Exception {
     }
   }
 
+  @Test (timeout = 30000)
+  public void testMlock() throws Exception {
+    assumeTrue(!Path.WINDOWS);
+    final File file = new File(TEST_DIR, "testMlock");
+    final byte[] data = "mlocked data".getBytes();
+    FileUtils.writeByteArrayToFile(file, data);
+    FileInputStream fis = new FileInputStream(file);
+    MappedByteBuffer mmap;
+    try {
+      mmap = fis.getChannel().map(FileChannel.MapMode.READ_ONLY,
+          0, data.length);
+    } finally {
+      fis.close();
+    }
+    try {
+      NativeIO.POSIX.mlock(mmap, data.length);
+    } catch (NativeIOException nioe) {
+      // the memlock limit of the test environment may be too low
+      assumeTrue(nioe.getErrno() != Errno.ENOMEM
+          && nioe.getErrno() != Errno.EPERM);
+      throw nioe;
+    }
+    final byte[] read = new byte[data.length];
+    mmap.get(read);
+    assertArrayEquals(data, read);
+    NativeIO.POSIX.munmap(mmap);
+
+    try {
+      NativeIO.POSIX.mlock(ByteBuffer.allocate(data.length), data.length);
+      fail("Did not throw on a heap buffer");
+    } catch (IOException ioe) {
+      GenericTestUtils.assertExceptionContains("non-direct", ioe);
+    }
+  }
+
   private void assertPermissions(File f, int expected) throws IOException {
     FileSystem localfs = FileSystem.getLocal(new Configuration());
     FsPermission perms = localfs.getFileStatus(
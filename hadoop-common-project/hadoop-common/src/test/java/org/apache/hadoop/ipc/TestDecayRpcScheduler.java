@@ -0,0 +1,185 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.ipc;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.junit.Test;
+
+public class TestDecayRpcScheduler {
+  private static final String NS = "ipc.1";
+
+  private static Schedulable mockCall(String user) {
+    Schedulable mockCall = mock(Schedulable.class);
+    UserGroupInformation ugi = mock(UserGroupInformation.class);
+    when(ugi.getUserName()).thenReturn(user);
+    when(mockCall.getUserGroupInformation()).thenReturn(ugi);
+    return mockCall;
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testNegativeScheduler() {
+    new DecayRpcScheduler(-1, NS, new Configuration());
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testZeroScheduler() {
+    new DecayRpcScheduler(0, NS, new Configuration());
+  }
+
+  @Test
+  public void testParsePeriod() {
+    // By default
+    DecayRpcScheduler scheduler =
+        new DecayRpcScheduler(1, NS, new Configuration());
+    assertEquals(DecayRpcScheduler.IPC_CALLQUEUE_DECAYSCHEDULER_PERIOD_DEFAULT,
+        scheduler.getDecayPeriodMillis());
+
+    // Custom
+    Configuration conf = new Configuration();
+    conf.setLong(NS + "." +
+        DecayRpcScheduler.IPC_CALLQUEUE_DECAYSCHEDULER_PERIOD_KEY, 1058);
+    scheduler = new DecayRpcScheduler(1, NS, conf);
+    assertEquals(1058L, scheduler.getDecayPeriodMillis());
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testParseIllegalFactor() {
+    Configuration conf = new Configuration();
+    conf.set(NS + "." +
+        DecayRpcScheduler.IPC_CALLQUEUE_DECAYSCHEDULER_FACTOR_KEY, "1.5");
+    new DecayRpcScheduler(1, NS, conf);
+  }
+
+  @Test
+  public void testParseThresholds() {
+    // Defaults vary by number of queues
+    Configuration conf = new Configuration();
+    DecayRpcScheduler scheduler = new DecayRpcScheduler(1, NS, conf);
+    assertEqualDecimalArrays(new double[]{}, scheduler.getThresholds());
+
+    scheduler = new DecayRpcScheduler(2, NS, conf);
+    assertEqualDecimalArrays(new double[]{0.5}, scheduler.getThresholds());
+
+    scheduler = new DecayRpcScheduler(4, NS, conf);
+    assertEqualDecimalArrays(new double[]{0.125, 0.25, 0.5},
+        scheduler.getThresholds());
+
+    // Custom
+    conf.set(NS + "." +
+        DecayRpcScheduler.IPC_CALLQUEUE_DECAYSCHEDULER_THRESHOLDS_KEY,
+        "1, 10, 20, 50, 85");
+    scheduler = new DecayRpcScheduler(6, NS, conf);
+    assertEqualDecimalArrays(new double[]{0.01, 0.1, 0.2, 0.5, 0.85},
+        scheduler.getThresholds());
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testWrongNumberOfThresholds() {
+    Configuration conf = new Configuration();
+    conf.set(NS + "." +
+        DecayRpcScheduler.IPC_CALLQUEUE_DECAYSCHEDULER_THRESHOLDS_KEY,
+        "10, 20");
+    new DecayRpcScheduler(4, NS, conf);
+  }
+
+  private static void assertEqualDecimalArrays(double[] a, double[] b) {
+    assertEquals(a.length, b.length);
+    for (int i = 0; i < a.length; i++) {
+      assertEquals(a[i], b[i], 0.00001);
+    }
+  }
+
+  @Test
+  public void testAccumulate() {
+    Configuration conf = new Configuration();
+    conf.set(NS + "." +
+        DecayRpcScheduler.IPC_CALLQUEUE_DECAYSCHEDULER_PERIOD_KEY, "99999999");
+    DecayRpcScheduler scheduler = new DecayRpcScheduler(1, NS, conf);
+
+    assertEquals(0, scheduler.getCallCountSnapshot().size());
+
+    scheduler.getPriorityLevel(mockCall("A"));
+    assertEquals(1, scheduler.getCallCountSnapshot().get("A").longValue());
+
+    scheduler.getPriorityLevel(mockCall("A"));
+    scheduler.getPriorityLevel(mockCall("B"));
+    scheduler.getPriorityLevel(mockCall("A"));
+
+    assertEquals(3, scheduler.getCallCountSnapshot().get("A").longValue());
+    assertEquals(1, scheduler.getCallCountSnapshot().get("B").longValue());
+    assertEquals(4, scheduler.getTotalCallSnapshot());
+  }
+
+  @Test
+  public void testDecay() {
+    Configuration conf = new Configuration();
+    conf.set(NS + "." +
+        DecayRpcScheduler.IPC_CALLQUEUE_DECAYSCHEDULER_PERIOD_KEY, "999999999");
+    conf.set(NS + "." +
+        DecayRpcScheduler.IPC_CALLQUEUE_DECAYSCHEDULER_FACTOR_KEY, "0.5");
+    DecayRpcScheduler scheduler = new DecayRpcScheduler(1, NS, conf);
+
+    for (int i = 0; i < 2; i++) {
+      scheduler.getPriorityLevel(mockCall("A"));
+    }
+    for (int i = 0; i < 3; i++) {
+      scheduler.getPriorityLevel(mockCall("B"));
+    }
+    assertEquals(5, scheduler.getTotalCallSnapshot());
+    assertEquals(2, scheduler.getCallCountSnapshot().get("A").longValue());
+    assertEquals(3, scheduler.getCallCountSnapshot().get("B").longValue());
+
+    scheduler.forceDecay();
+    assertEquals(2, scheduler.getTotalCallSnapshot());
+    assertEquals(1, scheduler.getCallCountSnapshot().get("A").longValue());
+    assertEquals(1, scheduler.getCallCountSnapshot().get("B").longValue());
+
+    // Identities decayed to zero are forgotten
+    scheduler.forceDecay();
+    assertEquals(0, scheduler.getTotalCallSnapshot());
+    assertEquals(0, scheduler.getCallCountSnapshot().size());
+  }
+
+  @Test
+  public void testPriority() {
+    Configuration conf = new Configuration();
+    conf.set(NS + "." +
+        DecayRpcScheduler.IPC_CALLQUEUE_DECAYSCHEDULER_PERIOD_KEY, "99999999");
+    conf.set(NS + "." +
+        DecayRpcScheduler.IPC_CALLQUEUE_DECAYSCHEDULER_THRESHOLDS_KEY,
+        "25, 50, 75");
+    DecayRpcScheduler scheduler = new DecayRpcScheduler(4, NS, conf);
+
+    assertEquals(0, scheduler.getPriorityLevel(mockCall("A")));
+    assertEquals(2, scheduler.getPriorityLevel(mockCall("A")));
+    assertEquals(0, scheduler.getPriorityLevel(mockCall("B")));
+    assertEquals(1, scheduler.getPriorityLevel(mockCall("B")));
+    assertEquals(0, scheduler.getPriorityLevel(mockCall("C")));
+    assertEquals(0, scheduler.getPriorityLevel(mockCall("C")));
+    assertEquals(1, scheduler.getPriorityLevel(mockCall("A")));
+    assertEquals(1, scheduler.getPriorityLevel(mockCall("A")));
+    assertEquals(1, scheduler.getPriorityLevel(mockCall("A")));
+    assertEquals(2, scheduler.getPriorityLevel(mockCall("A")));
+  }
+}
@@ -0,0 +1,253 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.ipc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.CommonConfigurationKeys;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.metrics2.MetricsSystem;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.apache.hadoop.net.NetUtils;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.util.Time;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestFairCallQueue {
+  private static int nsCounter = 0;
+
+  private Configuration conf;
+  private String ns;
+  private FairCallQueue<Schedulable> fcq;
+
+  private static Schedulable mockCall(String user) {
+    Schedulable mockCall = mock(Schedulable.class);
+    UserGroupInformation ugi = mock(UserGroupInformation.class);
+    when(ugi.getUserName()).thenReturn(user);
+    when(mockCall.getUserGroupInformation()).thenReturn(ugi);
+    when(mockCall.getReceivedTime()).thenReturn(Time.now());
+    return mockCall;
+  }
+
+  @Before
+  public void setUp() {
+    // Every queue registers a metrics source, so use a unique namespace
+    ns = "ipc.test" + (nsCounter++);
+    conf = new Configuration();
+    conf.setInt(ns + "." + FairCallQueue.IPC_CALLQUEUE_PRIORITY_LEVELS_KEY, 2);
+    conf.setLong(ns + "." +
+        DecayRpcScheduler.IPC_CALLQUEUE_DECAYSCHEDULER_PERIOD_KEY, 99999999);
+    fcq = new FairCallQueue<Schedulable>(10, ns, conf);
+  }
+
+  @Test
+  public void testPollReturnsNullWhenEmpty() {
+    assertEquals(0, fcq.size());
+    assertNull(fcq.poll());
+    assertNull(fcq.peek());
+  }
+
+  @Test
+  public void testPollReturnsTopCallWhenNotEmpty() {
+    Schedulable call = mockCall("c");
+    assertTrue(fcq.offer(call));
+
+    assertSame(call, fcq.peek());
+    assertSame(call, fcq.poll());
+
+    // Poll took it out so the fcq is empty
+    assertEquals(0, fcq.size());
+  }
+
+  @Test
+  public void testOfferSucceeds() {
+    for (int i = 0; i < 5; i++) {
+      // We can fit 10 calls
+      assertTrue(fcq.offer(mockCall("c")));
+    }
+
+    assertEquals(5, fcq.size());
+  }
+
+  @Test
+  public void testOfferFailsWhenFull() {
+    // Distinct users all land in level 0, which holds 5; the overflow goes
+    // to level 1 which holds 5 more
+    for (int i = 0; i < 10; i++) {
+      assertTrue(fcq.offer(mockCall("c" + i)));
+    }
+    assertEquals(5, fcq.getQueueSize(0));
+    assertEquals(5, fcq.getQueueSize(1));
+
+    assertFalse(fcq.offer(mockCall("c10"))); // It's full
+    assertEquals(10, fcq.size());
+    assertEquals(0, fcq.remainingCapacity());
+  }
+
+  @Test
+  public void testHeavyUserIsDemoted() {
+    // "heavy" makes most of the calls, so it is scheduled at level 1
+    for (int i = 0; i < 3; i++) {
+      assertTrue(fcq.offer(mockCall("heavy")));
+    }
+    assertEquals(1, fcq.getQueueSize(0));
+    assertEquals(2, fcq.getQueueSize(1));
+
+    // "light" has made no calls before, so it lands in level 0
+    assertTrue(fcq.offer(mockCall("light")));
+    assertEquals(2, fcq.getQueueSize(0));
+  }
+
+  @Test
+  public void testWeightedDrain() {
+    // Default weights for 2 levels are 2 reads from level 0, 1 from level 1
+    Schedulable heavy = null;
+    for (int i = 0; i < 4; i++) {
+      heavy = mockCall("heavy");
+      fcq.offer(heavy);
+    }
+    Schedulable light1 = mockCall("light");
+    Schedulable light2 = mockCall("light2");
+    fcq.offer(light1);
+    fcq.offer(light2);
+
+    ArrayList<Schedulable> drained = new ArrayList<Schedulable>();
+    Schedulable s;
+    while ((s = fcq.poll()) != null) {
+      drained.add(s);
+    }
+    assertEquals(6, drained.size());
+    // level 0 is drained first but level 1 gets a turn after two reads
+    assertSame(light1, drained.get(1));
+    assertSame(heavy, drained.get(5));
+  }
+
+  @Test
+  public void testTakeBlocksUntilOffered() throws Exception {
+    final Schedulable call = mockCall("c");
+    Thread producer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(100);
+        } catch (InterruptedException ie) {
+          return;
+        }
+        fcq.offer(call);
+      }
+    };
+    producer.start();
+    assertSame(call, fcq.take());
+    producer.join();
+  }
+
+  @Test
+  public void testPollWithTimeout() throws Exception {
+    assertNull(fcq.poll(10, TimeUnit.MILLISECONDS));
+    Schedulable call = mockCall("c");
+    fcq.put(call);
+    assertSame(call, fcq.poll(10, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testDrainTo() {
+    for (int i = 0; i < 3; i++) {
+      fcq.offer(mockCall("c"));
+    }
+    ArrayList<Schedulable> sink = new ArrayList<Schedulable>();
+    assertEquals(3, fcq.drainTo(sink));
+    assertEquals(3, sink.size());
+    assertEquals(0, fcq.size());
+  }
+
+  /** Echoes its parameter back to the caller. */
+  private static class EchoServer extends Server {
+    EchoServer(Configuration conf) throws IOException {
+      super("0.0.0.0", 0, LongWritable.class, 2, conf);
+    }
+
+    @Override
+    public Writable call(RPC.RpcKind rpcKind, String protocol, Writable param,
+        long receiveTime) throws IOException {
+      return param;
+    }
+  }
+
+  @Test
+  public void testShutdownUnregistersMetrics() {
+    final MetricsSystem ms =
+        DefaultMetricsSystem.initialize("TestFairCallQueue");
+    try {
+      final String name = "FairCallQueueFor" + ns;
+      assertNotNull(ms.getSource(name));
+      fcq.shutdown();
+      assertNull(ms.getSource(name));
+
+      // a queue with the same namespace can be created again
+      fcq = new FairCallQueue<Schedulable>(10, ns, conf);
+      assertNotNull(ms.getSource(name));
+      fcq.shutdown();
+    } finally {
+      DefaultMetricsSystem.shutdown();
+    }
+  }
+
+  @Test
+  public void testServerWithFairCallQueue() throws Exception {
+    Configuration serverConf = new Configuration();
+    serverConf.setClass(CommonConfigurationKeys.IPC_CALLQUEUE_NAMESPACE +
+        ".0." + CommonConfigurationKeys.IPC_CALLQUEUE_IMPL_KEY,
+        FairCallQueue.class, BlockingQueue.class);
+    Server server = new EchoServer(serverConf);
+    InetSocketAddress addr = NetUtils.getConnectAddress(server);
+    server.start();
+    Client client = new Client(LongWritable.class, serverConf);
+    try {
+      for (int i = 0; i < 10; i++) {
+        LongWritable param = new LongWritable(i);
+        assertEquals(param,
+            client.call(param, addr, null, null, 0, serverConf));
+      }
+      assertEquals(0, server.getCallQueueLen());
+    } finally {
+      client.stop();
+      server.stop();
+    }
+    // stopping the server unregisters the metrics of its queue
+    assertNull(DefaultMetricsSystem.instance().getSource(
+        "FairCallQueueFor" + CommonConfigurationKeys.IPC_CALLQUEUE_NAMESPACE
+        + ".0"));
+  }
+}
@@ -41,6 +41,14 @@
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import javax.net.SocketFactory;
 
 import org.junit.Test;
@@ -587,6 +595,83 @@ private long countOpenFileDescriptors() {
     return FD_DIR.list().length;
   }
 
+  /**
+   * Check that a handler can postpone the response of a call, serve other
+   * calls meanwhile, and that the client only sees the response once the
+   * postponement is released.
+   */
+  @Test(timeout=60000)
+  public void testPostponedResponse() throws Exception {
+    final BlockingQueue<Server.PostponedResponse> postponed =
+        new LinkedBlockingQueue<Server.PostponedResponse>();
+    Server server = new TestServer(1, false) {
+      @Override
+      public Writable call(RPC.RpcKind rpcKind, String protocol,
+          Writable param, long receiveTime) throws IOException {
+        Server.PostponedResponse response = Server.postponeResponse();
+        assertNotNull(response);
+        postponed.add(response);
+        return param;
+      }
+    };
+    InetSocketAddress addr = NetUtils.getConnectAddress(server);
+    server.start();
+    final Client client = new Client(LongWritable.class, conf);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<?>[] futures = new Future<?>[2];
+      for (int i = 0; i < futures.length; i++) {
+        futures[i] = executor.submit(new PostponedCaller(client, addr, i));
+      }
+      // the single handler serves both calls without waiting for either
+      Server.PostponedResponse[] responses =
+          new Server.PostponedResponse[futures.length];
+      for (int i = 0; i < responses.length; i++) {
+        responses[i] = postponed.poll(10, TimeUnit.SECONDS);
+        assertNotNull("call " + i + " was not served", responses[i]);
+      }
+      for (Future<?> future : futures) {
+        try {
+          future.get(500, TimeUnit.MILLISECONDS);
+          fail("Client received a postponed response");
+        } catch (TimeoutException e) {
+          // expected
+        }
+      }
+      for (Server.PostponedResponse response : responses) {
+        response.sendResponse();
+      }
+      for (Future<?> future : futures) {
+        future.get(10, TimeUnit.SECONDS);
+      }
+      // outside of an RPC there is nothing to postpone
+      assertNull(Server.postponeResponse());
+    } finally {
+      executor.shutdownNow();
+      client.stop();
+      server.stop();
+    }
+  }
+
+  private static class PostponedCaller implements Callable<Void> {
+    private final Client client;
+    private final InetSocketAddress addr;
+    private final long value;
+
+    PostponedCaller(Client client, InetSocketAddress addr, long value) {
+      this.client = client;
+      this.addr = addr;
+      this.value = value;
+    }
+
+    @Override
+    public Void call() throws Exception {
+      LongWritable param = new LongWritable(value);
+      assertEquals(param, client.call(param, addr, null, null, 0, conf));
+      return null;
+    }
+  }
+
   @Test
   public void testIpcFromHadoop_0_18_13() throws Exception {
     doIpcVersionTest(NetworkTraces.HADOOP_0_18_3_RPC_DUMP,
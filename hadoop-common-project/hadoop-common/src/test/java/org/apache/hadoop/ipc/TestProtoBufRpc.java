@@ -25,6 +25,8 @@
 import java.net.URISyntaxException;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcRequestHeaderProto;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcResponseHeaderProto;
 import org.apache.hadoop.ipc.protobuf.TestProtos.EchoRequestProto;
 import org.apache.hadoop.ipc.protobuf.TestProtos.EchoResponseProto;
 import org.apache.hadoop.ipc.protobuf.TestProtos.EmptyRequestProto;
@@ -33,6 +35,7 @@
 import org.apache.hadoop.ipc.protobuf.TestRpcServiceProtos.TestProtobufRpc2Proto;
 import org.apache.hadoop.metrics2.MetricsRecordBuilder;
 import org.apache.hadoop.net.NetUtils;
+import org.apache.hadoop.security.UserGroupInformation;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.Before;
@@ -225,4 +228,70 @@ public void testProtoBufRandomException() throws Exception {
       Assert.assertTrue(re.getMessage().contains("testException"));
     }
   }
-}
\ No newline at end of file
+
+  /** Keeps the highest state id seen, like a client and a server would. */
+  private static class TestAlignmentContext implements AlignmentContext {
+    private volatile long stateId;
+
+    TestAlignmentContext(long stateId) {
+      this.stateId = stateId;
+    }
+
+    @Override
+    public void updateResponseState(RpcResponseHeaderProto.Builder header) {
+      header.setStateId(stateId);
+    }
+
+    @Override
+    public void receiveResponseState(RpcResponseHeaderProto header) {
+      stateId = Math.max(stateId, header.getStateId());
+    }
+
+    @Override
+    public void updateRequestState(RpcRequestHeaderProto.Builder header) {
+      header.setStateId(stateId);
+    }
+
+    @Override
+    public void receiveRequestState(RpcRequestHeaderProto header)
+        throws IOException {
+      if (header.hasStateId() && header.getStateId() > stateId) {
+        throw new StandbyException("Server state " + stateId
+            + " is behind client state " + header.getStateId());
+      }
+    }
+  }
+
+  @Test (timeout=5000)
+  public void testAlignmentContext() throws Exception {
+    TestAlignmentContext serverContext = new TestAlignmentContext(10);
+    server.setAlignmentContext(serverContext);
+    TestAlignmentContext clientContext = new TestAlignmentContext(0);
+    TestRpcService client = RPC.getProtocolProxy(TestRpcService.class, 0,
+        addr, UserGroupInformation.getCurrentUser(), conf,
+        NetUtils.getDefaultSocketFactory(conf), 0, null, clientContext)
+        .getProxy();
+    EmptyRequestProto emptyRequest = EmptyRequestProto.newBuilder().build();
+
+    // the client learns the state of the server from the responses
+    client.ping(null, emptyRequest);
+    Assert.assertEquals(10, clientContext.stateId);
+
+    // a server behind the client fails the calls
+    clientContext.stateId = 20;
+    try {
+      client.ping(null, emptyRequest);
+      Assert.fail("Expected exception is not thrown");
+    } catch (ServiceException se) {
+      RemoteException re = (RemoteException) se.getCause();
+      Assert.assertEquals(StandbyException.class.getName(),
+          re.getClassName());
+    }
+
+    // until it catches up
+    serverContext.stateId = 20;
+    client.ping(null, emptyRequest);
+    Assert.assertEquals(20, clientContext.stateId);
+    RPC.stopProxy(client);
+  }
+}
@@ -348,6 +348,24 @@ public void flush() {
     ms.shutdown();
   }
 
+  @Test public void testUnregisterSource() {
+    MetricsSystem ms = new MetricsSystemImpl();
+    ms.init("test");
+    try {
+      TestSource ts1 = new TestSource("unregistered");
+      ms.register("unregistered", "", ts1);
+      assertNotNull(ms.getSource("unregistered"));
+      ms.unregisterSource("unregistered");
+      assertNull(ms.getSource("unregistered"));
+      // the name may be registered again while the system is started
+      ms.register("unregistered", "", new TestSource("unregistered"));
+      assertNotNull(ms.getSource("unregistered"));
+      ms.unregisterSource("unregistered");
+    } finally {
+      ms.shutdown();
+    }
+  }
+
   @Test(expected=MetricsException.class) public void testRegisterDupError() {
     MetricsSystem ms = new MetricsSystemImpl("test");
     TestSource ts = new TestSource("ts");
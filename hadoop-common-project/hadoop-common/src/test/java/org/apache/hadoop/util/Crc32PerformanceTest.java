@@ -0,0 +1,151 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.util;
+
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+import org.apache.hadoop.fs.ChecksumException;
+
+/**
+ * Performance test of the chunked checksum computation, as done for each
+ * packet by the DataNode and the DFS client: the bulk
+ * {@link DataChecksum#calculateChunkedSums(ByteBuffer, ByteBuffer)} and
+ * {@link DataChecksum#verifyChunkedSums(ByteBuffer, ByteBuffer, String, long)}
+ * on array-backed and direct buffers, against checksumming one chunk at a
+ * time with a {@link Checksum}.
+ *
+ * Run with:
+ * java -cp ... org.apache.hadoop.util.Crc32PerformanceTest [packetSize [MB]]
+ * and with -Djava.library.path pointing at libhadoop to include the native
+ * code.
+ */
+public class Crc32PerformanceTest {
+  private static final int BYTES_PER_CHECKSUM = 512;
+
+  private interface Task {
+    void run(ByteBuffer data, ByteBuffer sums) throws ChecksumException;
+  }
+
+  /** Checksum each chunk separately, as the per-chunk callers do. */
+  private static class PerChunk implements Task {
+    private final Checksum summer;
+    private final byte[] buf = new byte[BYTES_PER_CHECKSUM];
+
+    PerChunk(Checksum summer) {
+      this.summer = summer;
+    }
+
+    @Override
+    public void run(ByteBuffer data, ByteBuffer sums) {
+      data.mark();
+      sums.mark();
+      while (data.remaining() > 0) {
+        final int n = Math.min(data.remaining(), BYTES_PER_CHECKSUM);
+        data.get(buf, 0, n);
+        summer.reset();
+        summer.update(buf, 0, n);
+        sums.putInt((int)summer.getValue());
+      }
+      data.reset();
+      sums.reset();
+    }
+  }
+
+  private static Task calculate(final DataChecksum checksum) {
+    return new Task() {
+      @Override
+      public void run(ByteBuffer data, ByteBuffer sums) {
+        checksum.calculateChunkedSums(data, sums);
+      }
+    };
+  }
+
+  private static Task verify(final DataChecksum checksum) {
+    return new Task() {
+      @Override
+      public void run(ByteBuffer data, ByteBuffer sums)
+          throws ChecksumException {
+        checksum.verifyChunkedSums(data, sums, "bench", 0);
+      }
+    };
+  }
+
+  public static void main(String[] args) throws Exception {
+    final int packetSize = args.length > 0 ? Integer.parseInt(args[0])
+        : 64 * 1024;
+    final long totalBytes = (args.length > 1 ? Long.parseLong(args[1]) : 1024)
+        << 20;
+    final PrintStream out = System.out;
+    out.println("packetSize=" + packetSize + ", bytesPerChecksum="
+        + BYTES_PER_CHECKSUM + ", native="
+        + NativeCrc32.isAvailable());
+
+    for (DataChecksum.Type type : new DataChecksum.Type[] {
+        DataChecksum.Type.CRC32, DataChecksum.Type.CRC32C }) {
+      final DataChecksum checksum =
+          DataChecksum.newDataChecksum(type, BYTES_PER_CHECKSUM);
+      final Checksum perChunk = type == DataChecksum.Type.CRC32
+          ? new CRC32() : new PureJavaCrc32C();
+      for (boolean direct : new boolean[] { false, true }) {
+        final ByteBuffer data = allocate(packetSize, direct);
+        final byte[] bytes = new byte[packetSize];
+        new Random(0).nextBytes(bytes);
+        data.put(bytes);
+        data.flip();
+        final ByteBuffer sums = allocate(
+            ((packetSize - 1) / BYTES_PER_CHECKSUM + 1)
+            * checksum.getChecksumSize(), direct);
+        checksum.calculateChunkedSums(data, sums);
+
+        final String prefix = type + (direct ? " direct" : " array ");
+        bench(out, prefix + " per-chunk " + perChunk.getClass().getSimpleName(),
+            new PerChunk(perChunk), data, sums, totalBytes);
+        bench(out, prefix + " bulk calculate", calculate(checksum),
+            data, sums, totalBytes);
+        bench(out, prefix + " bulk verify", verify(checksum),
+            data, sums, totalBytes);
+      }
+    }
+  }
+
+  private static ByteBuffer allocate(int size, boolean direct) {
+    return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+  }
+
+  private static void bench(PrintStream out, String name, Task task,
+      ByteBuffer data, ByteBuffer sums, long totalBytes)
+      throws ChecksumException {
+    final long iterations = Math.max(1, totalBytes / data.remaining());
+    // warm up the JIT
+    for (long i = 0; i < Math.min(iterations, 1000); i++) {
+      task.run(data, sums);
+    }
+    final long start = System.nanoTime();
+    for (long i = 0; i < iterations; i++) {
+      task.run(data, sums);
+    }
+    final long nanos = System.nanoTime() - start;
+    final double mbPerSec =
+        (double)iterations * data.remaining() * 1000 / nanos;
+    out.printf("%-45s %10.1f MB/s%n", name, mbPerSec);
+  }
+}
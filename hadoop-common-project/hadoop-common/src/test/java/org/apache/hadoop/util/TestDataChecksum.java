@@ -53,12 +53,34 @@ public void testBulkOps() throws Exception {
       }
     }
   }
+
+  /**
+   * Test data which is processed in several batches, and buffers of
+   * different kinds.
+   */
+  @Test
+  public void testBulkOpsLargeAndMixed() throws Exception {
+    for (DataChecksum.Type type : CHECKSUM_TYPES) {
+      DataChecksum checksum = DataChecksum.newDataChecksum(
+          type, BYTES_PER_CHUNK);
+      for (boolean useDirect : new boolean[]{false, true}) {
+        doBulkTest(checksum, 200 * 1024 + 1, useDirect, useDirect);
+        doBulkTest(checksum, 1025, useDirect, !useDirect);
+      }
+    }
+  }
   
   private void doBulkTest(DataChecksum checksum, int dataLength,
       boolean useDirect) throws Exception {
+    doBulkTest(checksum, dataLength, useDirect, useDirect);
+  }
+
+  private void doBulkTest(DataChecksum checksum, int dataLength,
+      boolean directData, boolean directSums) throws Exception {
     System.err.println("Testing bulk checksums of length " + 
         dataLength + " with " +
-        (useDirect ? "direct" : "array-backed") + " buffers");
+        (directData ? "direct" : "array-backed") + " data and " +
+        (directSums ? "direct" : "array-backed") + " checksum buffers");
     int numSums = (dataLength - 1)/checksum.getBytesPerChecksum() + 1;
     int sumsLength = numSums * checksum.getChecksumSize();
     
@@ -74,8 +96,10 @@ private void doBulkTest(DataChecksum checksum, int dataLength,
         checksums, SUMS_OFFSET_IN_BUFFER, sumsLength);
     
     // Swap out for direct buffers if requested.
-    if (useDirect) {
+    if (directData) {
       dataBuf = directify(dataBuf);
+    }
+    if (directSums) {
       checksumBuf = directify(checksumBuf);
     }
     
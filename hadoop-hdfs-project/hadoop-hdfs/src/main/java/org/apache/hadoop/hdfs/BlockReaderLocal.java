@@ -27,6 +27,7 @@
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.ChecksumException;
 import org.apache.hadoop.hdfs.protocol.DatanodeID;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.server.datanode.BlockMetadataHeader;
@@ -49,6 +50,14 @@
  * </li>
  * <li>The client reads the file descriptors.</li>
  * </ul>
+ * If dfs.client.mmap.enabled is set, a finalized block file is instead
+ * memory-mapped through the {@link ClientMmapCache}, and reads are served
+ * straight from the mapping.  A checksumming reader verifies only the chunks
+ * covering the range it reads and which no earlier reader has verified, and
+ * is limited to that range.  Once every chunk of a mapping has been verified
+ * no reader of it does any checksum work.  A mapping which fails
+ * verification is not used, so that the corruption is found and reported by
+ * the ordinary read path.
  */
 class BlockReaderLocal implements BlockReader {
   static final Log LOG = LogFactory.getLog(BlockReaderLocal.class);
@@ -87,6 +96,12 @@ class BlockReaderLocal implements BlockReader {
 
   private final DatanodeID datanodeID;
   private final ExtendedBlock block;
+
+  /**
+   * This reader's view of the memory-mapped block file, positioned at the
+   * next byte to read, or null if the block is read through dataIn.
+   */
+  private ByteBuffer mmapData = null;
   
   private static int getSlowReadBufferNumChunks(Configuration conf,
       int bytesPerChecksum) {
@@ -128,13 +143,16 @@ public BlockReaderLocal(Configuration conf, String filename,
       throw new IOException("Wrong version (" + version + ") of the " +
           "metadata file for " + filename + ".");
     }
-    if (!verifyChecksum) {
-      this.verifyChecksum = false; 
-    } else {
-      this.verifyChecksum = !conf.getBoolean(DFSConfigKeys.
+    boolean skipChecksum = !verifyChecksum || conf.getBoolean(DFSConfigKeys.
           DFS_CLIENT_READ_SHORTCIRCUIT_SKIP_CHECKSUM_KEY, 
         DFSConfigKeys.DFS_CLIENT_READ_SHORTCIRCUIT_SKIP_CHECKSUM_DEFAULT);
+    if (conf.getBoolean(DFSConfigKeys.DFS_CLIENT_MMAP_ENABLED,
+        DFSConfigKeys.DFS_CLIENT_MMAP_ENABLED_DEFAULT)) {
+      this.mmapData = getMmapData(conf, header.getChecksum(), skipChecksum,
+          length);
     }
+    // a verified mapping needs no further checksumming
+    this.verifyChecksum = !skipChecksum && mmapData == null;
     long firstChunkOffset;
     if (this.verifyChecksum) {
       this.checksum = header.getChecksum();
@@ -160,6 +178,10 @@ public BlockReaderLocal(Configuration conf, String filename,
       this.offsetFromChunkBoundary = 0;
     }
     
+    if (mmapData != null) {
+      mmapData.position((int) Math.min(this.startOffset, mmapData.limit()));
+      return;
+    }
     boolean success = false;
     try {
       // Reposition both input streams to the beginning of the chunk
@@ -174,6 +196,59 @@ public BlockReaderLocal(Configuration conf, String filename,
     }
   }
 
+  /**
+   * Get this reader's view of the mapped block file, verifying the part of
+   * the mapping it covers first unless checksums are skipped.
+   *
+   * @param length   The number of bytes to read from startOffset, or a
+   *                 negative number to read to the end of the block.
+   *
+   * @return the view, or null if the block should be read through dataIn.
+   */
+  private ByteBuffer getMmapData(Configuration conf, DataChecksum checksum,
+      boolean skipChecksum, long length) throws IOException {
+    ClientMmapCache cache = ClientMmapCache.getInstance(
+        conf.getInt(DFSConfigKeys.DFS_CLIENT_MMAP_CACHE_SIZE,
+            DFSConfigKeys.DFS_CLIENT_MMAP_CACHE_SIZE_DEFAULT));
+    ClientMmapCache.ClientMmap mmap =
+        cache.getOrMap(datanodeID, block, dataIn);
+    if (mmap == null) {
+      return null;
+    }
+    ByteBuffer view = mmap.getData().duplicate();
+    if (length >= 0 && startOffset + length < view.limit()) {
+      // the bytes past the requested range may not have been verified
+      view.limit((int) (startOffset + length));
+    }
+    if (!skipChecksum) {
+      try {
+        mmap.verify(checksumIn, checksum, filename, startOffset,
+            view.limit() - startOffset);
+      } catch (ChecksumException e) {
+        LOG.warn("not memory-mapping " + filename + ": " + e.getMessage());
+        cache.remove(datanodeID, block);
+        return null;
+      }
+    }
+    return view;
+  }
+
+  /**
+   * Read up to maxLength bytes without copying them.
+   *
+   * @return a read-only slice of the mapped block file, which is empty at
+   *         the end of the block; or null if the block is not mapped.
+   */
+  synchronized ByteBuffer readZeroCopy(int maxLength) {
+    if (mmapData == null) {
+      return null;
+    }
+    ByteBuffer slice = mmapData.slice();
+    slice.limit(Math.min(maxLength, slice.remaining()));
+    mmapData.position(mmapData.position() + slice.remaining());
+    return slice;
+  }
+
   /**
    * Reads bytes into a buffer until EOF or the buffer's limit is reached
    */
@@ -212,7 +287,13 @@ private void writeSlice(ByteBuffer from, ByteBuffer to, int length) {
   @Override
   public synchronized int read(ByteBuffer buf) throws IOException {
     int nRead = 0;
-    if (verifyChecksum) {
+    if (mmapData != null) {
+      if (!mmapData.hasRemaining()) {
+        return -1;
+      }
+      nRead = Math.min(buf.remaining(), mmapData.remaining());
+      writeSlice(mmapData, buf, nRead);
+    } else if (verifyChecksum) {
       // A 'direct' read actually has three phases. The first drains any
       // remaining bytes from the slow read buffer. After this the read is
       // guaranteed to be on a checksum chunk boundary. If there are still bytes
@@ -404,6 +485,14 @@ public synchronized int read(byte[] buf, int off, int len) throws IOException {
     if (LOG.isTraceEnabled()) {
       LOG.trace("read off " + off + " len " + len);
     }
+    if (mmapData != null) {
+      if (!mmapData.hasRemaining()) {
+        return -1;
+      }
+      int nRead = Math.min(len, mmapData.remaining());
+      mmapData.get(buf, off, nRead);
+      return nRead;
+    }
     if (!verifyChecksum) {
       return dataIn.read(buf, off, len);
     }
@@ -428,6 +517,11 @@ public synchronized long skip(long n) throws IOException {
     if (n <= 0) {
       return 0;
     }
+    if (mmapData != null) {
+      int skipped = (int) Math.min(n, mmapData.remaining());
+      mmapData.position(mmapData.position() + skipped);
+      return skipped;
+    }
     if (!verifyChecksum) {
       return dataIn.skip(n);
     }
@@ -511,6 +605,7 @@ public synchronized void close(PeerCache peerCache,
     }
     startOffset = -1;
     checksum = null;
+    mmapData = null;
   }
 
   @Override
@@ -0,0 +1,214 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hdfs.protocol.DatanodeID;
+import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
+import org.apache.hadoop.hdfs.server.datanode.BlockMetadataHeader;
+import org.apache.hadoop.util.DataChecksum;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * An LRU cache of memory-mapped local replicas, used by
+ * {@link BlockReaderLocal} when dfs.client.mmap.enabled is set.  There is
+ * only one of these per VM.
+ *
+ * A mapping stays valid after the file descriptors it was created from are
+ * closed, and there is no safe way to unmap a buffer which a reader may
+ * still be using.  So evicting an entry only drops the cache's reference;
+ * the pages are unmapped once the last reader's buffer is garbage collected.
+ */
+class ClientMmapCache {
+  private final static Log LOG = LogFactory.getLog(ClientMmapCache.class);
+
+  private static ClientMmapCache instance = null;
+
+  /**
+   * The mapping of one replica's block file.
+   */
+  static class ClientMmap {
+    private final MappedByteBuffer data;
+    /** The chunks which have matched their checksums so far. */
+    private final BitSet verifiedChunks = new BitSet();
+    /** True once every chunk of the mapping has matched its checksum. */
+    private boolean verified = false;
+
+    private ClientMmap(MappedByteBuffer data) {
+      this.data = data;
+    }
+
+    /** @return a read-only view of the whole block file. */
+    MappedByteBuffer getData() {
+      return data;
+    }
+
+    synchronized boolean isVerified() {
+      return verified;
+    }
+
+    /**
+     * Checksum the chunks covering the given range of the mapping against
+     * the meta file, skipping those verified by earlier readers.  Once every
+     * chunk has been checked the whole mapping is marked verified, and later
+     * readers skip checksum work entirely; since only finalized replicas are
+     * mapped, the data cannot change underneath them.
+     *
+     * @param offset   The offset in the block of the first byte to verify.
+     * @param length   The number of bytes to verify.
+     */
+    synchronized void verify(FileInputStream checksumIn,
+        DataChecksum checksum, String filename, long offset, long length)
+        throws IOException {
+      if (verified) {
+        return;
+      }
+      int bytesPerChecksum = checksum.getBytesPerChecksum();
+      int checksumSize = checksum.getChecksumSize();
+      int numChunks = (data.capacity() + bytesPerChecksum - 1) /
+          bytesPerChecksum;
+      int firstChunk = (int) (offset / bytesPerChecksum);
+      int endChunk = (int) Math.min(numChunks,
+          (offset + length + bytesPerChecksum - 1) / bytesPerChecksum);
+      if (verifiedChunks.nextClearBit(firstChunk) < endChunk) {
+        FileChannel meta = checksumIn.getChannel();
+        long headerSize = BlockMetadataHeader.getHeaderSize();
+        MappedByteBuffer sums = meta.map(MapMode.READ_ONLY, headerSize,
+            meta.size() - headerSize);
+        // verify each run of unverified chunks with a single call
+        int chunk = verifiedChunks.nextClearBit(firstChunk);
+        while (chunk < endChunk) {
+          int runEnd = verifiedChunks.nextSetBit(chunk);
+          if (runEnd < 0 || runEnd > endChunk) {
+            runEnd = endChunk;
+          }
+          ByteBuffer runData = data.duplicate();
+          runData.limit(Math.min(runEnd * bytesPerChecksum, data.capacity()));
+          runData.position(chunk * bytesPerChecksum);
+          ByteBuffer runSums = sums.duplicate();
+          runSums.position(chunk * checksumSize);
+          checksum.verifyChunkedSums(runData, runSums, filename,
+              chunk * bytesPerChecksum);
+          verifiedChunks.set(chunk, runEnd);
+          chunk = verifiedChunks.nextClearBit(runEnd);
+        }
+      }
+      verified = verifiedChunks.cardinality() == numChunks;
+    }
+  }
+
+  private final int capacity;
+
+  /** The mappings, least recently used first. */
+  private final LinkedHashMap<FileInputStreamCache.Key, ClientMmap> map;
+
+  @VisibleForTesting
+  ClientMmapCache(int capacity) {
+    this.capacity = capacity;
+    this.map = new LinkedHashMap<FileInputStreamCache.Key, ClientMmap>(
+        16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(
+          Map.Entry<FileInputStreamCache.Key, ClientMmap> eldest) {
+        return size() > ClientMmapCache.this.capacity;
+      }
+    };
+  }
+
+  public static synchronized ClientMmapCache getInstance(int capacity) {
+    // capacity is only initialized once
+    if (instance == null) {
+      instance = new ClientMmapCache(capacity);
+    } else if (instance.capacity != capacity) {
+      LOG.info("capacity already set to " + instance.capacity +
+          ". Cannot set it to " + capacity);
+    }
+    return instance;
+  }
+
+  /**
+   * Get the mapping of a replica, mapping its block file if it is not in the
+   * cache yet.
+   *
+   * @param datanodeID          The DatanodeID the replica was read from.
+   * @param block               The block.
+   * @param dataIn              The block file.
+   *
+   * @return                    The mapping, or null if the replica cannot
+   *                            be mapped: it is longer than a
+   *                            MappedByteBuffer can hold, or its length
+   *                            differs from the block's, which means it is
+   *                            not finalized.
+   */
+  public ClientMmap getOrMap(DatanodeID datanodeID, ExtendedBlock block,
+      FileInputStream dataIn) throws IOException {
+    FileInputStreamCache.Key key =
+        new FileInputStreamCache.Key(datanodeID, block);
+    synchronized (this) {
+      ClientMmap mmap = map.get(key);
+      if (mmap != null) {
+        return mmap;
+      }
+    }
+    FileChannel channel = dataIn.getChannel();
+    long length = channel.size();
+    if (length != block.getNumBytes() || length > Integer.MAX_VALUE) {
+      return null;
+    }
+    ClientMmap mmap = new ClientMmap(
+        channel.map(MapMode.READ_ONLY, 0, length));
+    synchronized (this) {
+      // another reader may have mapped the same replica meanwhile
+      ClientMmap existing = map.get(key);
+      if (existing != null) {
+        return existing;
+      }
+      map.put(key, mmap);
+    }
+    return mmap;
+  }
+
+  /**
+   * Drop a mapping, for example because it failed verification.
+   */
+  public synchronized void remove(DatanodeID datanodeID, ExtendedBlock block) {
+    map.remove(new FileInputStreamCache.Key(datanodeID, block));
+  }
+
+  public synchronized int size() {
+    return map.size();
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+}
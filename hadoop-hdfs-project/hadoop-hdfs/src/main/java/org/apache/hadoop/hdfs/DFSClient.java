@@ -46,6 +46,8 @@
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_SOCKET_TIMEOUT_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_USE_LEGACY_BLOCKREADER;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_USE_LEGACY_BLOCKREADER_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_WRITE_MAX_PACKETS_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_WRITE_MAX_PACKETS_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_WRITE_PACKET_SIZE_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_WRITE_PACKET_SIZE_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_SOCKET_WRITE_TIMEOUT_KEY;
@@ -75,6 +77,9 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.net.SocketFactory;
 
@@ -159,6 +164,7 @@
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.net.InetAddresses;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /********************************************************
  * DFSClient can connect to a Hadoop Filesystem and 
@@ -211,6 +217,7 @@ static class Conf {
     final int ioBufferSize;
     final ChecksumOpt defaultChecksumOpt;
     final int writePacketSize;
+    final int writeMaxPackets;
     final int socketTimeout;
     final int socketCacheCapacity;
     final long socketCacheExpiry;
@@ -235,6 +242,9 @@ static class Conf {
     final int shortCircuitBufferSize;
     final boolean shortCircuitLocalReads;
     final boolean domainSocketDataTraffic;
+    final long hedgedReadThresholdMillis;
+    final int hedgedReadThreadpoolSize;
+    final boolean erasureCodeReconstruction;
 
     Conf(Configuration conf) {
       maxFailoverAttempts = conf.getInt(
@@ -261,6 +271,8 @@ static class Conf {
       /** dfs.write.packet.size is an internal config variable */
       writePacketSize = conf.getInt(DFS_CLIENT_WRITE_PACKET_SIZE_KEY,
           DFS_CLIENT_WRITE_PACKET_SIZE_DEFAULT);
+      writeMaxPackets = conf.getInt(DFS_CLIENT_WRITE_MAX_PACKETS_KEY,
+          DFS_CLIENT_WRITE_MAX_PACKETS_DEFAULT);
       defaultBlockSize = conf.getLongBytes(DFS_BLOCK_SIZE_KEY,
           DFS_BLOCK_SIZE_DEFAULT);
       defaultReplication = (short) conf.getInt(
@@ -313,6 +325,15 @@ static class Conf {
       domainSocketDataTraffic = conf.getBoolean(
         DFSConfigKeys.DFS_CLIENT_DOMAIN_SOCKET_DATA_TRAFFIC,
         DFSConfigKeys.DFS_CLIENT_DOMAIN_SOCKET_DATA_TRAFFIC_DEFAULT);
+      hedgedReadThresholdMillis = conf.getLong(
+          DFSConfigKeys.DFS_CLIENT_HEDGED_READ_THRESHOLD_MILLIS_KEY,
+          DFSConfigKeys.DFS_CLIENT_HEDGED_READ_THRESHOLD_MILLIS_DEFAULT);
+      hedgedReadThreadpoolSize = conf.getInt(
+          DFSConfigKeys.DFS_CLIENT_HEDGED_READ_THREADPOOL_SIZE_KEY,
+          DFSConfigKeys.DFS_CLIENT_HEDGED_READ_THREADPOOL_SIZE_DEFAULT);
+      erasureCodeReconstruction = conf.getBoolean(
+          DFSConfigKeys.DFS_CLIENT_ERASURECODE_RECONSTRUCTION_ENABLED_KEY,
+          DFSConfigKeys.DFS_CLIENT_ERASURECODE_RECONSTRUCTION_ENABLED_DEFAULT);
     }
 
     private DataChecksum.Type getChecksumType(Configuration conf) {
@@ -371,6 +392,11 @@ Conf getConf() {
       = new HashMap<String, DFSOutputStream>();
 
   private final DomainSocketFactory domainSocketFactory;
+
+  /** Runs the extra reads of hedged preads; null if hedged reads are off. */
+  private final ThreadPoolExecutor hedgedReadThreadPool;
+  private final DFSHedgedReadMetrics hedgedReadMetrics =
+      new DFSHedgedReadMetrics();
   
   /**
    * Same as this(NameNode.getAddress(conf), conf);
@@ -450,6 +476,10 @@ public DFSClient(URI nameNodeUri, Configuration conf,
     // read directly from the block file if configured.
     this.domainSocketFactory = new DomainSocketFactory(dfsClientConf);
 
+    this.hedgedReadThreadPool = dfsClientConf.hedgedReadThreadpoolSize > 0 ?
+        createHedgedReadThreadPool(dfsClientConf.hedgedReadThreadpoolSize) :
+        null;
+
     String localInterfaces[] =
       conf.getTrimmedStrings(DFSConfigKeys.DFS_CLIENT_LOCAL_INTERFACES);
     localInterfaceAddrs = getLocalInterfaceAddrs(localInterfaces);
@@ -723,7 +753,49 @@ public synchronized void close() throws IOException {
       getLeaseRenewer().closeClient(this);
       // close connections to the namenode
       closeConnectionToNamenode();
+      if (hedgedReadThreadPool != null) {
+        hedgedReadThreadPool.shutdownNow();
+      }
+    }
+  }
+
+  private ThreadPoolExecutor createHedgedReadThreadPool(int size) {
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(1, size, 60,
+        TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+        new ThreadFactoryBuilder().setDaemon(true)
+            .setNameFormat("hedgedRead-%d").build(),
+        new ThreadPoolExecutor.CallerRunsPolicy() {
+          @Override
+          public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+            // all threads are busy, so read from the caller's thread
+            hedgedReadMetrics.incHedgedReadOpsInCurThread();
+            super.rejectedExecution(r, e);
+          }
+        });
+    pool.allowCoreThreadTimeOut(true);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Using hedged reads; pool threads=" + size + ", threshold="
+          + dfsClientConf.hedgedReadThresholdMillis + "ms");
     }
+    return pool;
+  }
+
+  /** @return true if positional reads may be hedged. */
+  boolean isHedgedReadsEnabled() {
+    return hedgedReadThreadPool != null;
+  }
+
+  ThreadPoolExecutor getHedgedReadsThreadPool() {
+    return hedgedReadThreadPool;
+  }
+
+  long getHedgedReadTimeout() {
+    return dfsClientConf.hedgedReadThresholdMillis;
+  }
+
+  /** @return the counters of hedged reads done by this client. */
+  public DFSHedgedReadMetrics getHedgedReadMetrics() {
+    return hedgedReadMetrics;
   }
 
   /**
@@ -0,0 +1,62 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * Counters of the hedged positional reads done by a {@link DFSClient}.
+ */
+@InterfaceAudience.Private
+public class DFSHedgedReadMetrics {
+  private final AtomicLong hedgedReadOps = new AtomicLong();
+  private final AtomicLong hedgedReadWins = new AtomicLong();
+  private final AtomicLong hedgedReadOpsInCurThread = new AtomicLong();
+
+  void incHedgedReadOps() {
+    hedgedReadOps.incrementAndGet();
+  }
+
+  void incHedgedReadWins() {
+    hedgedReadWins.incrementAndGet();
+  }
+
+  void incHedgedReadOpsInCurThread() {
+    hedgedReadOpsInCurThread.incrementAndGet();
+  }
+
+  /** @return the number of hedged reads sent to a second datanode. */
+  public long getHedgedReadOps() {
+    return hedgedReadOps.get();
+  }
+
+  /** @return the number of hedged reads which returned before the first. */
+  public long getHedgedReadWins() {
+    return hedgedReadWins.get();
+  }
+
+  /**
+   * @return the number of reads run in the reading thread because all the
+   *         hedged read threads were busy.
+   */
+  public long getHedgedReadOpsInCurThread() {
+    return hedgedReadOpsInCurThread.get();
+  }
+}
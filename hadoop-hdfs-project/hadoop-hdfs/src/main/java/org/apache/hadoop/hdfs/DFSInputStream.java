@@ -19,11 +19,13 @@
 
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -31,7 +33,13 @@
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.hadoop.classification.InterfaceAudience;
@@ -59,6 +67,7 @@
 import org.apache.hadoop.security.token.Token;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
 
 /****************************************************************
  * DFSInputStream provides bytes from a named file.  It handles 
@@ -108,13 +117,36 @@ public class DFSInputStream extends FSInputStream implements ByteBufferReadable
 
   private final int nCachedConnRetry;
 
+  /** The amount of data reconstructed at a time for the stateful reads. */
+  private static final int RECONSTRUCTION_CHUNK_SIZE = 1024 * 1024;
+
+  /** Whether to reconstruct the blocks of erasure coded files. */
+  private final boolean reconstructBlocks;
+  /** null until a block is missing; see {@link #getReconstructor()}. */
+  private StripeReconstructor reconstructor;
+  private boolean reconstructorChecked = false;
+  /** The blocks which could not be read from any datanode. */
+  private final Set<ExtendedBlock> missingBlocks = Collections.newSetFromMap(
+      new ConcurrentHashMap<ExtendedBlock, Boolean>());
+  private byte[] reconstructedBuf;
+  private long reconstructedBufStart = -1;
+  private int reconstructedBufLen = 0;
+
   void addToDeadNodes(DatanodeInfo dnInfo) {
     deadNodes.put(dnInfo, dnInfo);
   }
   
   DFSInputStream(DFSClient dfsClient, String src, int buffersize, boolean verifyChecksum
                  ) throws IOException, UnresolvedLinkException {
+    this(dfsClient, src, buffersize, verifyChecksum,
+        dfsClient.getConf().erasureCodeReconstruction);
+  }
+
+  DFSInputStream(DFSClient dfsClient, String src, int buffersize,
+      boolean verifyChecksum, boolean reconstructBlocks)
+      throws IOException, UnresolvedLinkException {
     this.dfsClient = dfsClient;
+    this.reconstructBlocks = reconstructBlocks;
     this.verifyChecksum = verifyChecksum;
     this.buffersize = buffersize;
     this.src = src;
@@ -516,6 +548,76 @@ private synchronized DatanodeInfo blockSeekTo(long target) throws IOException {
     }
   }
 
+  /**
+   * Like {@link #blockSeekTo(long)}, but if the block cannot be read from any
+   * datanode and the file is erasure coded, prepare to read from the
+   * reconstruction of the block instead.
+   * @return the datanode chosen, or null if the block is reconstructed.
+   */
+  private synchronized DatanodeInfo blockSeekToOrReconstruct(long target)
+      throws IOException {
+    final LocatedBlock targetBlock = getBlockAt(target, true);
+    if (!missingBlocks.contains(targetBlock.getBlock())) {
+      try {
+        return blockSeekTo(target);
+      } catch (BlockMissingException e) {
+        if (getReconstructor() == null) {
+          throw e;
+        }
+        DFSClient.LOG.warn("Reconstructing " + targetBlock.getBlock()
+            + " of " + src + " from its stripe: " + e.getMessage());
+        missingBlocks.add(targetBlock.getBlock());
+      }
+    }
+    if (blockReader != null) {
+      blockReader.close(peerCache, fileInputStreamCache);
+      blockReader = null;
+    }
+    return null;
+  }
+
+  /**
+   * @return the reconstructor of the blocks of this file, or null if the
+   *         file is not erasure coded or reconstruction is disabled.
+   */
+  private synchronized StripeReconstructor getReconstructor()
+      throws IOException {
+    if (!reconstructBlocks) {
+      return null;
+    }
+    if (!reconstructorChecked) {
+      reconstructor = StripeReconstructor.get(dfsClient, src);
+      reconstructorChecked = true;
+    }
+    return reconstructor;
+  }
+
+  /**
+   * Read from the reconstruction of the current block, which is
+   * reconstructed {@link #RECONSTRUCTION_CHUNK_SIZE} bytes at a time.
+   */
+  private synchronized int readReconstructed(ReaderStrategy strategy,
+      int off, int len) throws IOException {
+    if (pos < reconstructedBufStart
+        || pos >= reconstructedBufStart + reconstructedBufLen) {
+      reconstructedBufStart = -1;
+      final int n = (int)Math.min(RECONSTRUCTION_CHUNK_SIZE,
+          blockEnd - pos + 1);
+      if (reconstructedBuf == null || reconstructedBuf.length < n) {
+        reconstructedBuf = new byte[n];
+      }
+      getReconstructor().read(currentLocatedBlock.getStartOffset(),
+          pos - currentLocatedBlock.getStartOffset(), reconstructedBuf, 0, n);
+      reconstructedBufStart = pos;
+      reconstructedBufLen = n;
+    }
+    final int n = (int)Math.min(len,
+        reconstructedBufStart + reconstructedBufLen - pos);
+    strategy.copyFrom(reconstructedBuf, (int)(pos - reconstructedBufStart),
+        off, n);
+    return n;
+  }
+
   /**
    * Close it down!
    */
@@ -530,6 +632,9 @@ public synchronized void close() throws IOException {
       blockReader.close(peerCache, fileInputStreamCache);
       blockReader = null;
     }
+    if (reconstructor != null) {
+      reconstructor.close();
+    }
     super.close();
     fileInputStreamCache.close();
     closed = true;
@@ -547,6 +652,9 @@ public synchronized int read() throws IOException {
    */
   private interface ReaderStrategy {
     public int doRead(BlockReader blockReader, int off, int len) throws ChecksumException, IOException;
+
+    /** Copy len bytes, e.g. of a reconstructed block, instead of reading. */
+    public void copyFrom(byte[] src, int srcOff, int off, int len);
   }
 
   /**
@@ -563,6 +671,11 @@ public ByteArrayStrategy(byte[] buf) {
     public int doRead(BlockReader blockReader, int off, int len) throws ChecksumException, IOException {      
         return blockReader.read(buf, off, len);     
     }
+
+    @Override
+    public void copyFrom(byte[] src, int srcOff, int off, int len) {
+      System.arraycopy(src, srcOff, buf, off, len);
+    }
   }
 
   /**
@@ -591,6 +704,11 @@ public int doRead(BlockReader blockReader, int off, int len) throws ChecksumExce
         }
       } 
     }
+
+    @Override
+    public void copyFrom(byte[] src, int srcOff, int off, int len) {
+      buf.put(src, srcOff, len);
+    }
   }
 
   /* This is a used by regular read() and handles ChecksumExceptions.
@@ -664,10 +782,12 @@ private int readWithStrategy(ReaderStrategy strategy, int off, int len) throws I
           // currentNode can be left as null if previous read had a checksum
           // error on the same block. See HDFS-3067
           if (pos > blockEnd || currentNode == null) {
-            currentNode = blockSeekTo(pos);
+            currentNode = blockSeekToOrReconstruct(pos);
           }
           int realLen = (int) Math.min(len, (blockEnd - pos + 1L));
-          int result = readBuffer(strategy, off, realLen, corruptedBlockMap);
+          int result = currentNode != null
+              ? readBuffer(strategy, off, realLen, corruptedBlockMap)
+              : readReconstructed(strategy, off, realLen);
           
           if (result >= 0) {
             pos += result;
@@ -718,6 +838,46 @@ public synchronized int read(final ByteBuffer buf) throws IOException {
     return readWithStrategy(byteBufferReader, 0, buf.remaining());
   }
 
+  /**
+   * Read up to maxLength bytes at the current position without copying
+   * them, as a read-only slice of a memory-mapped local replica.  This is
+   * only possible when the current block is read by a short-circuit reader
+   * with dfs.client.mmap.enabled set.
+   *
+   * @return the data, which never crosses a block boundary and may be
+   *         shorter than maxLength; or null if a zero-copy read is not
+   *         possible here, in which case the caller should fall back to
+   *         {@link #read(ByteBuffer)}.  The returned buffer stays valid
+   *         after the stream is closed.
+   */
+  public synchronized ByteBuffer readZeroCopy(int maxLength)
+      throws IOException {
+    dfsClient.checkOpen();
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    if (maxLength <= 0 || pos >= getFileLength()) {
+      return null;
+    }
+    failures = 0;
+    if (pos > blockEnd || currentNode == null) {
+      currentNode = blockSeekTo(pos);
+    }
+    if (!(blockReader instanceof BlockReaderLocal)) {
+      return null;
+    }
+    int len = (int) Math.min(maxLength, blockEnd - pos + 1L);
+    ByteBuffer result = ((BlockReaderLocal) blockReader).readZeroCopy(len);
+    if (result == null || !result.hasRemaining()) {
+      return null;
+    }
+    pos += result.remaining();
+    if (dfsClient.stats != null) {
+      dfsClient.stats.incrementBytesRead(result.remaining());
+    }
+    return result;
+  }
+
 
   /**
    * Add corrupted block replica into map.
@@ -725,15 +885,18 @@ public synchronized int read(final ByteBuffer buf) throws IOException {
    */
   private void addIntoCorruptedBlockMap(ExtendedBlock blk, DatanodeInfo node, 
       Map<ExtendedBlock, Set<DatanodeInfo>> corruptedBlockMap) {
-    Set<DatanodeInfo> dnSet = null;
-    if((corruptedBlockMap.containsKey(blk))) {
-      dnSet = corruptedBlockMap.get(blk);
-    }else {
-      dnSet = new HashSet<DatanodeInfo>();
-    }
-    if (!dnSet.contains(node)) {
-      dnSet.add(node);
-      corruptedBlockMap.put(blk, dnSet);
+    // hedged reads may add from several threads
+    synchronized (corruptedBlockMap) {
+      Set<DatanodeInfo> dnSet = null;
+      if((corruptedBlockMap.containsKey(blk))) {
+        dnSet = corruptedBlockMap.get(blk);
+      }else {
+        dnSet = new HashSet<DatanodeInfo>();
+      }
+      if (!dnSet.contains(node)) {
+        dnSet.add(node);
+        corruptedBlockMap.put(blk, dnSet);
+      }
     }
   }
       
@@ -792,20 +955,41 @@ private void fetchBlockByteRange(LocatedBlock block, long start, long end,
       byte[] buf, int offset,
       Map<ExtendedBlock, Set<DatanodeInfo>> corruptedBlockMap)
       throws IOException {
-    //
-    // Connect to best DataNode for desired Block, with potential offset
-    //
-    int refetchToken = 1; // only need to get a new access token once
-    int refetchEncryptionKey = 1; // only need to get a new encryption key once
-    
     while (true) {
       // cached block locations may have been updated by chooseDataNode()
       // or fetchBlockAt(). Always get the latest list of locations at the 
       // start of the loop.
       block = getBlockAt(block.getStartOffset(), false);
       DNAddrPair retval = chooseDataNode(block);
-      DatanodeInfo chosenNode = retval.info;
-      InetSocketAddress targetAddr = retval.addr;
+      try {
+        actualGetFromOneDataNode(retval, block, start, end, buf, offset,
+            corruptedBlockMap);
+        return;
+      } catch (IOException e) {
+        // the node has been put into the dead list; try another one
+      }
+    }
+  }
+
+  /**
+   * Read a byte range of a block from one datanode, retrying the same node
+   * after refetching an expired block token or encryption key. On any other
+   * failure the node is put into the dead list before the exception is
+   * thrown.
+   */
+  private void actualGetFromOneDataNode(DNAddrPair datanode,
+      LocatedBlock block, long start, long end, byte[] buf, int offset,
+      Map<ExtendedBlock, Set<DatanodeInfo>> corruptedBlockMap)
+      throws IOException {
+    DFSClientFaultInjector.get().startFetchFromDatanode(datanode.info);
+    DatanodeInfo chosenNode = datanode.info;
+    InetSocketAddress targetAddr = datanode.addr;
+    int refetchToken = 1; // only need to get a new access token once
+    int refetchEncryptionKey = 1; // only need to get a new encryption key once
+
+    while (true) {
+      // the block token may have been refreshed by fetchBlockAt()
+      block = getBlockAt(block.getStartOffset(), false);
       BlockReader reader = null;
           
       try {
@@ -822,11 +1006,14 @@ private void fetchBlockByteRange(LocatedBlock block, long start, long end,
         }
         return;
       } catch (ChecksumException e) {
-        DFSClient.LOG.warn("fetchBlockByteRange(). Got a checksum exception for " +
-                 src + " at " + block.getBlock() + ":" + 
-                 e.getPos() + " from " + chosenNode);
+        String msg = "fetchBlockByteRange(). Got a checksum exception for " +
+            src + " at " + block.getBlock() + ":" + 
+            e.getPos() + " from " + chosenNode;
+        DFSClient.LOG.warn(msg);
         // we want to remember what we have tried
         addIntoCorruptedBlockMap(block.getBlock(), chosenNode, corruptedBlockMap);
+        addToDeadNodes(chosenNode);
+        throw new IOException(msg, e);
       } catch (AccessControlException ex) {
         DFSClient.LOG.warn("Short circuit access failed " + ex);
         dfsClient.disableLegacyBlockReaderLocal();
@@ -839,6 +1026,7 @@ private void fetchBlockByteRange(LocatedBlock block, long start, long end,
           // The encryption key used is invalid.
           refetchEncryptionKey--;
           dfsClient.clearDataEncryptionKey();
+          continue;
         } else if (e instanceof InvalidBlockTokenException && refetchToken > 0) {
           DFSClient.LOG.info("Will get a new access token and retry, "
               + "access token was invalid when connecting to " + targetAddr
@@ -853,16 +1041,135 @@ private void fetchBlockByteRange(LocatedBlock block, long start, long end,
             DFSClient.LOG.debug("Connection failure ", e);
           }
         }
+        // Put chosen node into dead list
+        addToDeadNodes(chosenNode);
+        throw e;
       } finally {
         if (reader != null) {
           reader.close(peerCache, fileInputStreamCache);
         }
       }
-      // Put chosen node into dead list, continue
-      addToDeadNodes(chosenNode);
     }
   }
 
+  /**
+   * Like {@link #fetchBlockByteRange}, but if the first datanode has not
+   * answered within the hedged read threshold, send the same read to
+   * another datanode and use whichever answer arrives first. Each attempt
+   * reads into its own buffer, so a slow attempt that finishes after the
+   * winner cannot overwrite the caller's data.
+   */
+  private void hedgedFetchBlockByteRange(LocatedBlock block, long start,
+      long end, byte[] buf, int offset,
+      Map<ExtendedBlock, Set<DatanodeInfo>> corruptedBlockMap)
+      throws IOException {
+    final DFSHedgedReadMetrics metrics = dfsClient.getHedgedReadMetrics();
+    final CompletionService<byte[]> hedgedService =
+        new ExecutorCompletionService<byte[]>(
+            dfsClient.getHedgedReadsThreadPool());
+    final List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>();
+    final Set<Future<byte[]>> hedges = new HashSet<Future<byte[]>>();
+    // datanodes already sent this read, whether or not they have answered
+    final Map<DatanodeInfo, DatanodeInfo> tried =
+        new HashMap<DatanodeInfo, DatanodeInfo>();
+    try {
+      while (true) {
+        block = getBlockAt(block.getStartOffset(), false);
+        Future<byte[]> done;
+        if (futures.isEmpty()) {
+          // first attempt, or every attempt so far has failed
+          DNAddrPair retval = chooseDataNode(block);
+          tried.put(retval.info, retval.info);
+          futures.add(hedgedService.submit(
+              getFromOneDataNode(retval, block, start, end,
+                  corruptedBlockMap)));
+          done = hedgedService.poll(dfsClient.getHedgedReadTimeout(),
+              TimeUnit.MILLISECONDS);
+          if (done == null) {
+            // too slow; hedge on the next pass of the loop
+            continue;
+          }
+        } else {
+          DNAddrPair retval = chooseHedgedDataNode(block, tried);
+          if (retval != null) {
+            tried.put(retval.info, retval.info);
+            Future<byte[]> hedge = hedgedService.submit(
+                getFromOneDataNode(retval, block, start, end,
+                    corruptedBlockMap));
+            futures.add(hedge);
+            hedges.add(hedge);
+            metrics.incHedgedReadOps();
+          }
+          done = hedgedService.take();
+        }
+        futures.remove(done);
+        try {
+          byte[] result = done.get();
+          System.arraycopy(result, 0, buf, offset, result.length);
+          if (hedges.contains(done)) {
+            metrics.incHedgedReadWins();
+          }
+          return;
+        } catch (ExecutionException e) {
+          // the datanode has been put into the dead list, unless the read
+          // failed for a reason unrelated to the datanode
+          Throwables.propagateIfPossible(e.getCause());
+          if (DFSClient.LOG.isDebugEnabled()) {
+            DFSClient.LOG.debug("Hedged read of " + block.getBlock()
+                + " failed", e.getCause());
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while reading "
+          + block.getBlock() + " of " + src);
+    } finally {
+      // the losers may still be running; let them finish in the background
+      for (Future<byte[]> future : futures) {
+        future.cancel(false);
+      }
+    }
+  }
+
+  private Callable<byte[]> getFromOneDataNode(final DNAddrPair datanode,
+      final LocatedBlock block, final long start, final long end,
+      final Map<ExtendedBlock, Set<DatanodeInfo>> corruptedBlockMap) {
+    return new Callable<byte[]>() {
+      @Override
+      public byte[] call() throws IOException {
+        byte[] buf = new byte[(int) (end - start + 1)];
+        actualGetFromOneDataNode(datanode, block, start, end, buf, 0,
+            corruptedBlockMap);
+        return buf;
+      }
+    };
+  }
+
+  /**
+   * @return a datanode which is neither dead nor already tried, or null if
+   *         there is none. Unlike {@link #chooseDataNode}, never waits or
+   *         refetches the block locations.
+   */
+  private DNAddrPair chooseHedgedDataNode(LocatedBlock block,
+      Map<DatanodeInfo, DatanodeInfo> tried) {
+    HashMap<DatanodeInfo, DatanodeInfo> ignored =
+        new HashMap<DatanodeInfo, DatanodeInfo>(deadNodes);
+    ignored.putAll(tried);
+    final DatanodeInfo chosenNode;
+    try {
+      chosenNode = bestNode(block.getLocations(), ignored);
+    } catch (IOException e) {
+      return null;
+    }
+    final String dnAddr =
+        chosenNode.getXferAddr(dfsClient.connectToDnViaHostname());
+    if (DFSClient.LOG.isDebugEnabled()) {
+      DFSClient.LOG.debug("Hedging read to datanode " + dnAddr);
+    }
+    return new DNAddrPair(chosenNode, NetUtils.createSocketAddr(dnAddr));
+  }
+
   private Peer newTcpPeer(InetSocketAddress addr) throws IOException {
     Peer peer = null;
     boolean success = false;
@@ -1063,13 +1370,35 @@ public int read(long position, byte[] buffer, int offset, int length)
       long targetStart = position - blk.getStartOffset();
       long bytesToRead = Math.min(remaining, blk.getBlockSize() - targetStart);
       try {
-        fetchBlockByteRange(blk, targetStart, 
-            targetStart + bytesToRead - 1, buffer, offset, corruptedBlockMap);
+        if (missingBlocks.contains(blk.getBlock())) {
+          getReconstructor().read(blk.getStartOffset(), targetStart, buffer,
+              offset, (int)bytesToRead);
+        } else if (dfsClient.isHedgedReadsEnabled()) {
+          hedgedFetchBlockByteRange(blk, targetStart,
+              targetStart + bytesToRead - 1, buffer, offset,
+              corruptedBlockMap);
+        } else {
+          fetchBlockByteRange(blk, targetStart,
+              targetStart + bytesToRead - 1, buffer, offset,
+              corruptedBlockMap);
+        }
+      } catch (BlockMissingException e) {
+        if (missingBlocks.contains(blk.getBlock())
+            || getReconstructor() == null) {
+          throw e;
+        }
+        DFSClient.LOG.warn("Reconstructing " + blk.getBlock() + " of " + src
+            + " from its stripe: " + e.getMessage());
+        missingBlocks.add(blk.getBlock());
+        getReconstructor().read(blk.getStartOffset(), targetStart, buffer,
+            offset, (int)bytesToRead);
       } finally {
         // Check and report if any block replicas are corrupted.
         // BlockMissingException may be caught if all block replicas are
         // corrupted.
-        reportCheckSumFailure(corruptedBlockMap, blk.getLocations().length);
+        synchronized (corruptedBlockMap) {
+          reportCheckSumFailure(corruptedBlockMap, blk.getLocations().length);
+        }
       }
 
       remaining -= bytesToRead;
@@ -1148,7 +1477,7 @@ public synchronized void seek(long targetPos) throws IOException {
       throw new IOException("Stream is closed!");
     }
     boolean done = false;
-    if (pos <= targetPos && targetPos <= blockEnd) {
+    if (blockReader != null && pos <= targetPos && targetPos <= blockEnd) {
       //
       // If this seek is to a positive position in the current
       // block, and this piece of data might already be lying in
@@ -114,7 +114,12 @@
 ****************************************************************/
 @InterfaceAudience.Private
 public class DFSOutputStream extends FSOutputSummer implements Syncable {
-  private static final int MAX_PACKETS = 80; // each packet 64K, total 5MB
+  /**
+   * The most buffers of acked packets kept for reuse.  A writer which keeps
+   * the pipeline busy takes a buffer for every one released, so the pool
+   * only needs to absorb bursts.
+   */
+  private static final int MAX_FREE_PACKET_BUFFERS = 16;
   private final DFSClient dfsClient;
   private Socket s;
   // closed is accessed by different threads under different locks.
@@ -145,6 +150,12 @@ public class DFSOutputStream extends FSOutputSummer implements Syncable {
   private Progressable progress;
   private final short blockReplication; // replication factor of file
   private boolean shouldSyncBlock = false; // force blocks to disk upon close
+  // max packets queued or awaiting acks; each packet 64K by default
+  private final int maxPackets;
+  // buffers of acked full-size packets, for reuse by new packets
+  private final LinkedList<byte[]> freePacketBuffers = new LinkedList<byte[]>();
+  private final int fullPacketBufferLength;
+  private final DFSOutputStreamMetrics metrics = new DFSOutputStreamMetrics();
   
   private static class Packet {
     private static final long HEART_BEAT_SEQNO = -1L;
@@ -155,6 +166,7 @@ private static class Packet {
     final int maxChunks; // max chunks in packet
     byte[]  buf;
     private boolean lastPacketInBlock; // is this the last packet in block?
+    long sendNanos; // when the packet was last sent to the pipeline
 
     /**
      * buf is pointed into like follows:
@@ -192,12 +204,21 @@ private static class Packet {
      */
     Packet(int pktSize, int chunksPerPkt, long offsetInBlock, 
                               long seqno, int checksumSize) {
+      this(new byte[PacketHeader.PKT_MAX_HEADER_LEN + pktSize], chunksPerPkt,
+          offsetInBlock, seqno, checksumSize);
+    }
+
+    /**
+     * Create a new packet in the given buffer, whose contents are ignored.
+     */
+    Packet(byte[] buf, int chunksPerPkt, long offsetInBlock, long seqno,
+        int checksumSize) {
       this.lastPacketInBlock = false;
       this.numChunks = 0;
       this.offsetInBlock = offsetInBlock;
       this.seqno = seqno;
       
-      buf = new byte[PacketHeader.PKT_MAX_HEADER_LEN + pktSize];
+      this.buf = buf;
       
       checksumStart = PacketHeader.PKT_MAX_HEADER_LEN;
       checksumPos = checksumStart;
@@ -534,6 +555,8 @@ public void run() {
 
           // write out data to remote datanode
           try {
+            one.sendNanos = System.nanoTime();
+            metrics.packetSent(one.sendNanos);
             one.writeTo(blockStream);
             blockStream.flush();   
           } catch (IOException e) {
@@ -723,14 +746,20 @@ public void run() {
                                     one.seqno + " but received " + seqno);
             }
             isLastPacketInBlock = one.lastPacketInBlock;
-            // update bytesAcked
+            // update bytesAcked; a packet sent by hflush may resend the
+            // last partial chunk, which only counts once
+            final long newlyAcked =
+                one.getLastByteOffsetBlock() - block.getNumBytes();
             block.setNumBytes(one.getLastByteOffsetBlock());
+            metrics.packetAcked(Math.max(newlyAcked, 0), one.sendNanos,
+                System.nanoTime());
 
             synchronized (dataQueue) {
               lastAckedSeqno = seqno;
               ackQueue.removeFirst();
               dataQueue.notifyAll();
             }
+            releasePacketBuffer(one.buf);
           } catch (Exception e) {
             if (!responderClosed) {
               if (e instanceof IOException) {
@@ -1312,6 +1341,10 @@ private DFSOutputStream(DFSClient dfsClient, String src, Progressable progress,
                             
     }
     this.checksum = checksum;
+    this.maxPackets = dfsClient.getConf().writeMaxPackets;
+    final int chunkSize = bytesPerChecksum + checksum.getChecksumSize();
+    this.fullPacketBufferLength = PacketHeader.PKT_MAX_HEADER_LEN + chunkSize
+        * Math.max(dfsClient.getConf().writePacketSize / chunkSize, 1);
   }
 
   /** Construct a new output stream for creating a file. */
@@ -1380,6 +1413,49 @@ static DFSOutputStream newStreamForAppend(DFSClient dfsClient, String src,
     return out;
   }
 
+  /**
+   * Create a data packet, reusing the buffer of an acked packet if one of
+   * the right size is free.
+   */
+  private Packet createPacket(int pktSize, int chunksPerPkt,
+      long offsetInBlock, long seqno) {
+    final int bufLen = PacketHeader.PKT_MAX_HEADER_LEN + pktSize;
+    byte[] buf = null;
+    if (bufLen == fullPacketBufferLength) {
+      synchronized (freePacketBuffers) {
+        buf = freePacketBuffers.poll();
+      }
+    }
+    if (buf == null) {
+      buf = new byte[bufLen];
+    }
+    return new Packet(buf, chunksPerPkt, offsetInBlock, seqno,
+        checksum.getChecksumSize());
+  }
+
+  /**
+   * Make the buffer of an acked packet available to new packets.  Only
+   * buffers of full-size packets are kept, since the last packets of a
+   * block or of a flush are smaller and rare.
+   */
+  private void releasePacketBuffer(byte[] buf) {
+    if (buf.length != fullPacketBufferLength) {
+      return;
+    }
+    synchronized (freePacketBuffers) {
+      if (freePacketBuffers.size() < MAX_FREE_PACKET_BUFFERS) {
+        freePacketBuffers.addFirst(buf);
+      }
+    }
+  }
+
+  /**
+   * @return the throughput and ack latency of this stream.
+   */
+  public DFSOutputStreamMetrics getMetrics() {
+    return metrics;
+  }
+
   private void computePacketChunkSize(int psize, int csize) {
     int chunkSize = csize + checksum.getChecksumSize();
     chunksPerPacket = Math.max(psize/chunkSize, 1);
@@ -1408,7 +1484,7 @@ private void queueCurrentPacket() {
   private void waitAndQueueCurrentPacket() throws IOException {
     synchronized (dataQueue) {
       // If queue is full, then wait till we have enough space
-      while (!closed && dataQueue.size() + ackQueue.size()  > MAX_PACKETS) {
+      while (!closed && dataQueue.size() + ackQueue.size()  > maxPackets) {
         try {
           dataQueue.wait();
         } catch (InterruptedException e) {
@@ -1418,7 +1494,7 @@ private void waitAndQueueCurrentPacket() throws IOException {
           //
           // Rather than wait around for space in the queue, we should instead try to
           // return to the caller as soon as possible, even though we slightly overrun
-          // the MAX_PACKETS iength.
+          // the maxPackets length.
           Thread.currentThread().interrupt();
           break;
         }
@@ -1449,8 +1525,8 @@ protected synchronized void writeChunk(byte[] b, int offset, int len, byte[] che
     }
 
     if (currentPacket == null) {
-      currentPacket = new Packet(packetSize, chunksPerPacket, 
-          bytesCurBlock, currentSeqno++, this.checksum.getChecksumSize());
+      currentPacket = createPacket(packetSize, chunksPerPacket,
+          bytesCurBlock, currentSeqno++);
       if (DFSClient.LOG.isDebugEnabled()) {
         DFSClient.LOG.debug("DFSClient writeChunk allocating new packet seqno=" + 
             currentPacket.seqno +
@@ -1592,8 +1668,8 @@ private void flushOrSync(boolean isSync, EnumSet<SyncFlag> syncFlags)
             // Nothing to send right now,
             // but sync was requested.
             // Send an empty packet
-            currentPacket = new Packet(packetSize, chunksPerPacket,
-                bytesCurBlock, currentSeqno++, this.checksum.getChecksumSize());
+            currentPacket = createPacket(packetSize, chunksPerPacket,
+                bytesCurBlock, currentSeqno++);
           }
         } else {
           // We already flushed up to this offset.
@@ -1609,8 +1685,8 @@ private void flushOrSync(boolean isSync, EnumSet<SyncFlag> syncFlags)
             // and the block was partially written,
             // and sync was requested.
             // So send an empty sync packet.
-            currentPacket = new Packet(packetSize, chunksPerPacket,
-                bytesCurBlock, currentSeqno++, this.checksum.getChecksumSize());
+            currentPacket = createPacket(packetSize, chunksPerPacket,
+                bytesCurBlock, currentSeqno++);
           } else {
             // just discard the current packet since it is already been sent.
             currentPacket = null;
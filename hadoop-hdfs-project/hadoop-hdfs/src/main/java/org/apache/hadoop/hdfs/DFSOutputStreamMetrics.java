@@ -0,0 +1,90 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * Throughput and pipeline latency of one {@link DFSOutputStream}, as seen
+ * from the acks of its data packets.  Updated by the stream's response
+ * processor thread and read by any thread.
+ */
+@InterfaceAudience.Private
+public class DFSOutputStreamMetrics {
+  private long packetsAcked = 0;
+  private long bytesAcked = 0;
+  private long totalAckLatencyNanos = 0;
+  private long maxAckLatencyNanos = 0;
+  private long firstSendNanos = -1;
+  private long lastAckNanos = -1;
+
+  synchronized void packetSent(long sendNanos) {
+    if (firstSendNanos < 0) {
+      firstSendNanos = sendNanos;
+    }
+  }
+
+  synchronized void packetAcked(long newBytes, long sendNanos, long ackNanos) {
+    packetsAcked++;
+    bytesAcked += newBytes;
+    final long latency = ackNanos - sendNanos;
+    totalAckLatencyNanos += latency;
+    maxAckLatencyNanos = Math.max(maxAckLatencyNanos, latency);
+    lastAckNanos = ackNanos;
+  }
+
+  /** @return the number of data packets acked by the whole pipeline. */
+  public synchronized long getPacketsAcked() {
+    return packetsAcked;
+  }
+
+  /** @return the number of data bytes acked by the whole pipeline. */
+  public synchronized long getBytesAcked() {
+    return bytesAcked;
+  }
+
+  /** @return the mean time from sending a packet to its ack, in micros. */
+  public synchronized long getAverageAckLatencyMicros() {
+    return packetsAcked == 0 ? 0 :
+        totalAckLatencyNanos / packetsAcked / 1000;
+  }
+
+  /** @return the longest time from sending a packet to its ack, in micros. */
+  public synchronized long getMaxAckLatencyMicros() {
+    return maxAckLatencyNanos / 1000;
+  }
+
+  /**
+   * @return the acked bytes per second, between sending the first packet
+   *         and receiving the last ack.
+   */
+  public synchronized long getBytesPerSecond() {
+    if (lastAckNanos <= firstSendNanos || firstSendNanos < 0) {
+      return 0;
+    }
+    return (long) (bytesAcked * 1e9 / (lastAckNanos - firstSendNanos));
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "packetsAcked=" + packetsAcked + ", bytesAcked=" + bytesAcked
+        + ", bytesPerSecond=" + getBytesPerSecond()
+        + ", avgAckLatencyMicros=" + getAverageAckLatencyMicros()
+        + ", maxAckLatencyMicros=" + getMaxAckLatencyMicros();
+  }
+}
@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import org.apache.hadoop.HadoopIllegalArgumentException;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+
+/**
+ * The layout of erasure coded files.
+ *
+ * The blocks of an erasure coded file are grouped into stripes of
+ * {@link #getNumDataBlocks()} consecutive blocks, the last stripe being
+ * padded with zeros. The {@link #getNumParityBlocks()} Reed-Solomon parity
+ * blocks of each stripe are stored, stripe after stripe, in a separate
+ * parity file with the same block size, at {@link #getParityPath(String)}.
+ * The parity block of a stripe is as long as the longest block of the
+ * stripe.
+ *
+ * The parity file has the modification time of the file it was computed
+ * from, so that the parity of a file which has been appended to since is
+ * not used.
+ */
+@InterfaceAudience.Private
+public class ErasureCodeSchema {
+  private final int numDataBlocks;
+  private final int numParityBlocks;
+  private final String parityRoot;
+
+  public ErasureCodeSchema(int numDataBlocks, int numParityBlocks,
+      String parityDir) {
+    if (numDataBlocks <= 0 || numParityBlocks <= 0) {
+      throw new HadoopIllegalArgumentException("Invalid erasure code schema: "
+          + numDataBlocks + " data blocks, " + numParityBlocks
+          + " parity blocks");
+    }
+    this.numDataBlocks = numDataBlocks;
+    this.numParityBlocks = numParityBlocks;
+    this.parityRoot = new Path(parityDir, getCodecName()).toUri().getPath();
+  }
+
+  public static ErasureCodeSchema get(Configuration conf) {
+    return new ErasureCodeSchema(
+        conf.getInt(DFSConfigKeys.DFS_ERASURECODE_DATA_BLOCKS_KEY,
+            DFSConfigKeys.DFS_ERASURECODE_DATA_BLOCKS_DEFAULT),
+        conf.getInt(DFSConfigKeys.DFS_ERASURECODE_PARITY_BLOCKS_KEY,
+            DFSConfigKeys.DFS_ERASURECODE_PARITY_BLOCKS_DEFAULT),
+        conf.get(DFSConfigKeys.DFS_ERASURECODE_PARITY_DIR_KEY,
+            DFSConfigKeys.DFS_ERASURECODE_PARITY_DIR_DEFAULT));
+  }
+
+  public int getNumDataBlocks() {
+    return numDataBlocks;
+  }
+
+  public int getNumParityBlocks() {
+    return numParityBlocks;
+  }
+
+  /** @return e.g. rs-6-3 */
+  public String getCodecName() {
+    return "rs-" + numDataBlocks + "-" + numParityBlocks;
+  }
+
+  /** @return the path of the parity file of the given file. */
+  public String getParityPath(String src) {
+    return parityRoot + src;
+  }
+
+  /**
+   * @return the path of the file the given parity file belongs to, or null
+   *         if the given path is not a parity file.
+   */
+  public String getSourcePath(String parityPath) {
+    if (!parityPath.startsWith(parityRoot + Path.SEPARATOR)) {
+      return null;
+    }
+    return parityPath.substring(parityRoot.length());
+  }
+
+  /** @return whether the given path is in the parity directory. */
+  public boolean isParityPath(String path) {
+    return path.equals(parityRoot)
+        || path.startsWith(parityRoot + Path.SEPARATOR);
+  }
+
+  /** @return the number of stripes of a file with the given blocks. */
+  public int getNumStripes(int numBlocks) {
+    return (numBlocks + numDataBlocks - 1) / numDataBlocks;
+  }
+
+  /**
+   * @return whether parity is the parity file of source, computed from the
+   *         current contents of source.
+   */
+  public static boolean isParityValid(HdfsFileStatus source,
+      HdfsFileStatus parity) {
+    return source != null && parity != null
+        && !source.isDir() && !parity.isDir()
+        && parity.getModificationTime() == source.getModificationTime()
+        && parity.getBlockSize() == source.getBlockSize();
+  }
+
+  @Override
+  public String toString() {
+    return getCodecName() + " at " + parityRoot;
+  }
+}
@@ -0,0 +1,177 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.erasurecode.RawErasureCoder;
+
+/**
+ * Reconstructs byte ranges of the blocks of an erasure coded file from the
+ * other blocks of their stripes and from the parity file. See
+ * {@link ErasureCodeSchema} for the layout.
+ *
+ * The other blocks are read through streams which do not reconstruct
+ * blocks themselves. A block which could not be read is not tried again.
+ */
+class StripeReconstructor implements Closeable {
+  private final DFSClient dfsClient;
+  private final String src;
+  private final String parityPath;
+  private final ErasureCodeSchema schema;
+  private final RawErasureCoder coder;
+  private final long blockSize;
+  private final long fileLength;
+  private final long parityLength;
+
+  private DFSInputStream sourceIn;
+  private DFSInputStream parityIn;
+  /** Units which could not be read, by block index in their file. */
+  private final Set<Long> failedDataBlocks = new HashSet<Long>();
+  private final Set<Long> failedParityBlocks = new HashSet<Long>();
+  private byte[][] units;
+  private byte[][] output;
+
+  private StripeReconstructor(DFSClient dfsClient, String src,
+      String parityPath, ErasureCodeSchema schema, HdfsFileStatus source,
+      HdfsFileStatus parity) {
+    this.dfsClient = dfsClient;
+    this.src = src;
+    this.parityPath = parityPath;
+    this.schema = schema;
+    this.coder = RawErasureCoder.getInstance(dfsClient.conf,
+        schema.getNumDataBlocks(), schema.getNumParityBlocks());
+    this.blockSize = source.getBlockSize();
+    this.fileLength = source.getLen();
+    this.parityLength = parity.getLen();
+  }
+
+  /**
+   * @return a reconstructor for the given file, or null if it has no valid
+   *         parity file.
+   */
+  static StripeReconstructor get(DFSClient dfsClient, String src)
+      throws IOException {
+    final ErasureCodeSchema schema = ErasureCodeSchema.get(dfsClient.conf);
+    final String parityPath = schema.getParityPath(src);
+    final HdfsFileStatus source = dfsClient.getFileInfo(src);
+    final HdfsFileStatus parity = dfsClient.getFileInfo(parityPath);
+    if (!ErasureCodeSchema.isParityValid(source, parity)) {
+      return null;
+    }
+    return new StripeReconstructor(dfsClient, src, parityPath, schema,
+        source, parity);
+  }
+
+  /**
+   * Reconstruct len bytes of a block, starting at offsetInBlock.
+   * @param blockStart the offset of the block in the file
+   */
+  synchronized void read(long blockStart, long offsetInBlock, byte[] buf,
+      int off, int len) throws IOException {
+    final int k = schema.getNumDataBlocks();
+    final int m = schema.getNumParityBlocks();
+    final long blockIndex = blockStart / blockSize;
+    final long stripe = blockIndex / k;
+    final int erased = (int)(blockIndex % k);
+
+    if (units == null || units[0].length < len) {
+      units = new byte[k + m][len];
+      output = new byte[1][len];
+    }
+    final byte[][] available = new byte[k + m][];
+    int numAvailable = 0;
+    for (int u = 0; u < k + m && numAvailable < k; u++) {
+      if (u != erased && readUnit(stripe, u, offsetInBlock, units[u], len)) {
+        available[u] = units[u];
+        numAvailable++;
+      }
+    }
+    if (numAvailable < k) {
+      throw new BlockMissingException(src, "Could not reconstruct block "
+          + blockIndex + " of " + src + ": only " + numAvailable
+          + " blocks of its stripe are available", blockStart);
+    }
+    coder.decode(available, new int[] { erased }, output, len);
+    System.arraycopy(output[0], 0, buf, off, len);
+  }
+
+  /**
+   * Read a range of a unit of a stripe, padding it with zeros.
+   * @return whether the unit could be read.
+   */
+  private boolean readUnit(long stripe, int unit, long offsetInBlock,
+      byte[] buf, int len) {
+    final int k = schema.getNumDataBlocks();
+    final boolean isData = unit < k;
+    final long index = isData ? stripe * k + unit
+        : stripe * schema.getNumParityBlocks() + unit - k;
+    final Set<Long> failed = isData ? failedDataBlocks : failedParityBlocks;
+    if (failed.contains(index)) {
+      return false;
+    }
+    final long start = index * blockSize;
+    final long end = Math.min(isData ? fileLength : parityLength,
+        start + blockSize);
+    final int n = (int)Math.max(0,
+        Math.min(len, end - start - offsetInBlock));
+    Arrays.fill(buf, n, len, (byte)0);
+    if (n == 0) {
+      return true;
+    }
+    try {
+      if (isData) {
+        if (sourceIn == null) {
+          sourceIn = open(src);
+        }
+        sourceIn.readFully(start + offsetInBlock, buf, 0, n);
+      } else {
+        if (parityIn == null) {
+          parityIn = open(parityPath);
+        }
+        parityIn.readFully(start + offsetInBlock, buf, 0, n);
+      }
+      return true;
+    } catch (IOException e) {
+      DFSClient.LOG.warn("Failed to read " + (isData ? "" : "parity ")
+          + "block " + index + " of the stripe of a missing block of " + src,
+          e);
+      failed.add(index);
+      return false;
+    }
+  }
+
+  private DFSInputStream open(String path) throws IOException {
+    dfsClient.checkOpen();
+    return new DFSInputStream(dfsClient, path,
+        dfsClient.getConf().ioBufferSize, true, false);
+  }
+
+  @Override
+  public synchronized void close() {
+    IOUtils.cleanup(DFSClient.LOG, sourceIn, parityIn);
+    sourceIn = null;
+    parityIn = null;
+  }
+}
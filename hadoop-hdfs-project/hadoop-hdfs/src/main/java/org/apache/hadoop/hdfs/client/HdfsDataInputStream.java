@@ -18,6 +18,7 @@
 package org.apache.hadoop.hdfs.client;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 import org.apache.hadoop.classification.InterfaceAudience;
@@ -68,4 +69,16 @@ public synchronized List<LocatedBlock> getAllBlocks() throws IOException {
   public long getVisibleLength() throws IOException {
     return ((DFSInputStream) in).getFileLength();
   }
+
+  /**
+   * Read up to maxLength bytes without copying them, from a memory-mapped
+   * local replica.
+   *
+   * @return a read-only buffer, or null if a zero-copy read is not possible
+   *         at the current position.
+   * @see DFSInputStream#readZeroCopy(int)
+   */
+  public ByteBuffer readZeroCopy(int maxLength) throws IOException {
+    return ((DFSInputStream) in).readZeroCopy(maxLength);
+  }
 }
@@ -22,11 +22,17 @@
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configuration;
@@ -38,6 +44,7 @@
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocol;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetEditLogManifestResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournalStateResponseProto;
+import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournaledEditsResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.NewEpochResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.PrepareRecoveryResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.SegmentStateProto;
@@ -60,6 +67,7 @@
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.common.util.concurrent.UncaughtExceptionHandlers;
 
@@ -119,6 +127,32 @@ public class IPCLoggerChannel implements AsyncLogger {
    */
   private final int queueSizeLimitBytes;
 
+  /**
+   * Batches of edits waiting to be sent, in txid order. Batches queued
+   * behind a slow call are coalesced into a single journal() call.
+   */
+  private final LinkedList<QueuedEdits> queuedEdits =
+      new LinkedList<QueuedEdits>();
+
+  /**
+   * The maximum number of bytes of queued edits coalesced into one call, and
+   * the current limit, which is halved after a slow call and doubled after a
+   * fast one.
+   */
+  private final int maxCoalescedBytes;
+  private int coalescedBytesLimit;
+
+  /**
+   * The maximum number of journal() calls in flight to the remote node. If
+   * more than one, the calls are made from {@link #writeExecutor} so that
+   * the next batch can be sent before the previous one is acknowledged, and
+   * the JournalNode writes batches which arrive out of order in order.
+   */
+  private final int maxWritesInFlight;
+  private final Semaphore writeWindow;
+  private final ExecutorService writeExecutor;
+  private final AtomicInteger writesInFlight = new AtomicInteger();
+
   /**
    * If this logger misses some edits, or restarts in the middle of
    * a segment, the writer won't be able to write any more edits until
@@ -135,6 +169,8 @@ public class IPCLoggerChannel implements AsyncLogger {
   private static final long HEARTBEAT_INTERVAL_MILLIS = 1000;
 
   private static final long WARN_JOURNAL_MILLIS_THRESHOLD = 1000;
+
+  private static final int MIN_COALESCED_BYTES = 64 * 1024;
   
   static final Factory FACTORY = new AsyncLogger.Factory() {
     @Override
@@ -156,9 +192,18 @@ public IPCLoggerChannel(Configuration conf,
     this.queueSizeLimitBytes = 1024 * 1024 * conf.getInt(
         DFSConfigKeys.DFS_QJOURNAL_QUEUE_SIZE_LIMIT_KEY,
         DFSConfigKeys.DFS_QJOURNAL_QUEUE_SIZE_LIMIT_DEFAULT);
+    this.maxCoalescedBytes = 1024 * conf.getInt(
+        DFSConfigKeys.DFS_QJOURNAL_COALESCED_EDITS_LIMIT_KEY,
+        DFSConfigKeys.DFS_QJOURNAL_COALESCED_EDITS_LIMIT_DEFAULT);
+    this.coalescedBytesLimit = maxCoalescedBytes;
+    this.maxWritesInFlight = Math.max(1, conf.getInt(
+        DFSConfigKeys.DFS_QJOURNAL_MAX_WRITES_IN_FLIGHT_KEY,
+        DFSConfigKeys.DFS_QJOURNAL_MAX_WRITES_IN_FLIGHT_DEFAULT));
+    this.writeWindow = new Semaphore(maxWritesInFlight);
     
     executor = MoreExecutors.listeningDecorator(
         createExecutor());
+    writeExecutor = maxWritesInFlight > 1 ? createWriteExecutor() : null;
     
     metrics = IPCLoggerChannelMetrics.create(this);
   }
@@ -181,6 +226,9 @@ public synchronized void setCommittedTxId(long txid) {
   public void close() {
     // No more tasks may be submitted after this point.
     executor.shutdown();
+    if (writeExecutor != null) {
+      writeExecutor.shutdown();
+    }
     if (proxy != null) {
       // TODO: this can hang for quite some time if the client
       // is currently in the middle of a call to a downed JN.
@@ -236,6 +284,16 @@ protected ExecutorService createExecutor() {
               UncaughtExceptionHandlers.systemExit())
           .build());
   }
+
+  private ExecutorService createWriteExecutor() {
+    return Executors.newFixedThreadPool(maxWritesInFlight,
+        new ThreadFactoryBuilder()
+          .setDaemon(true)
+          .setNameFormat("Logger channel writer #%d to " + addr)
+          .setUncaughtExceptionHandler(
+              UncaughtExceptionHandlers.systemExit())
+          .build());
+  }
   
   @Override
   public URL buildURLToFetchLogs(long segmentTxId) {
@@ -268,6 +326,19 @@ synchronized long getNextIpcSerial() {
   public synchronized int getQueuedEditsSize() {
     return queuedEditsSizeBytes;
   }
+
+  /** @return the number of journal() calls in flight. */
+  public int getWritesInFlight() {
+    return writesInFlight.get();
+  }
+
+  /**
+   * @return the current limit on the number of bytes of queued edits
+   *         coalesced into one journal() call.
+   */
+  public synchronized int getCoalescedEditsLimit() {
+    return coalescedBytesLimit;
+  }
   
   public InetSocketAddress getRemoteAddress() {
     return addr;
@@ -288,6 +359,7 @@ void waitForAllPendingCalls() throws InterruptedException {
       executor.submit(new Runnable() {
         @Override
         public void run() {
+          waitForWritesInFlight();
         }
       }).get();
     } catch (ExecutionException e) {
@@ -330,6 +402,31 @@ public NewEpochResponseProto call() throws IOException {
     });
   }
   
+  /** A batch of edits waiting to be sent. */
+  private static class QueuedEdits {
+    final long segmentTxId;
+    final long firstTxnId;
+    final int numTxns;
+    final byte[] data;
+    /**
+     * When this batch is acked, we use its submission time in order
+     * to calculate how far we are lagging.
+     */
+    final long submitNanos = System.nanoTime();
+    final SettableFuture<Void> future = SettableFuture.create();
+
+    QueuedEdits(long segmentTxId, long firstTxnId, int numTxns, byte[] data) {
+      this.segmentTxId = segmentTxId;
+      this.firstTxnId = firstTxnId;
+      this.numTxns = numTxns;
+      this.data = data;
+    }
+
+    long getLastTxnId() {
+      return firstTxnId + numTxns - 1;
+    }
+  }
+
   @Override
   public ListenableFuture<Void> sendEdits(
       final long segmentTxId, final long firstTxnId,
@@ -340,81 +437,216 @@ public ListenableFuture<Void> sendEdits(
       return Futures.immediateFailedFuture(e);
     }
     
-    // When this batch is acked, we use its submission time in order
-    // to calculate how far we are lagging.
-    final long submitNanos = System.nanoTime();
-    
-    ListenableFuture<Void> ret = null;
+    final QueuedEdits edits = new QueuedEdits(segmentTxId, firstTxnId,
+        numTxns, data);
+    synchronized (this) {
+      queuedEdits.add(edits);
+    }
     try {
-      ret = executor.submit(new Callable<Void>() {
+      // The batch may be sent by an earlier task, along with the batches
+      // queued before it.
+      executor.submit(new Callable<Void>() {
         @Override
-        public Void call() throws IOException {
-          throwIfOutOfSync();
-
-          long rpcSendTimeNanos = System.nanoTime();
-          try {
-            getProxy().journal(createReqInfo(),
-                segmentTxId, firstTxnId, numTxns, data);
-          } catch (IOException e) {
-            QuorumJournalManager.LOG.warn(
-                "Remote journal " + IPCLoggerChannel.this + " failed to " +
-                "write txns " + firstTxnId + "-" + (firstTxnId + numTxns - 1) +
-                ". Will try to write to this JN again after the next " +
-                "log roll.", e); 
-            synchronized (IPCLoggerChannel.this) {
-              outOfSync = true;
-            }
-            throw e;
-          } finally {
-            long now = System.nanoTime();
-            long rpcTime = TimeUnit.MICROSECONDS.convert(
-                now - rpcSendTimeNanos, TimeUnit.NANOSECONDS);
-            long endToEndTime = TimeUnit.MICROSECONDS.convert(
-                now - submitNanos, TimeUnit.NANOSECONDS);
-            metrics.addWriteEndToEndLatency(endToEndTime);
-            metrics.addWriteRpcLatency(rpcTime);
-            if (rpcTime / 1000 > WARN_JOURNAL_MILLIS_THRESHOLD) {
-              QuorumJournalManager.LOG.warn(
-                  "Took " + (rpcTime / 1000) + "ms to send a batch of " +
-                  numTxns + " edits (" + data.length + " bytes) to " +
-                  "remote journal " + IPCLoggerChannel.this);
-            }
-          }
-          synchronized (IPCLoggerChannel.this) {
-            highestAckedTxId = firstTxnId + numTxns - 1;
-            lastAckNanos = submitNanos;
-          }
+        public Void call() {
+          sendQueuedEdits();
           return null;
         }
       });
-    } finally {
-      if (ret == null) {
-        // it didn't successfully get submitted,
-        // so adjust the queue size back down.
+    } catch (RejectedExecutionException e) {
+      // it didn't successfully get submitted,
+      // so adjust the queue size back down.
+      synchronized (this) {
+        queuedEdits.remove(edits);
+      }
+      unreserveQueueSpace(data.length);
+      throw e;
+    }
+    // It was submitted to the queue, so adjust the length
+    // once the call completes, regardless of whether it
+    // succeeds or fails.
+    Futures.addCallback(edits.future, new FutureCallback<Void>() {
+      @Override
+      public void onFailure(Throwable t) {
         unreserveQueueSpace(data.length);
-      } else {
-        // It was submitted to the queue, so adjust the length
-        // once the call completes, regardless of whether it
-        // succeeds or fails.
-        Futures.addCallback(ret, new FutureCallback<Void>() {
-          @Override
-          public void onFailure(Throwable t) {
-            unreserveQueueSpace(data.length);
-          }
+      }
+
+      @Override
+      public void onSuccess(Void t) {
+        unreserveQueueSpace(data.length);
+      }
+    });
+    return edits.future;
+  }
 
+  /**
+   * Take the next batch of queued edits, coalesced with the contiguous
+   * batches of the same segment queued after it, up to the current limit.
+   */
+  private synchronized List<QueuedEdits> pollQueuedEdits() {
+    final List<QueuedEdits> batch = new ArrayList<QueuedEdits>();
+    QueuedEdits last = queuedEdits.poll();
+    if (last == null) {
+      return batch;
+    }
+    batch.add(last);
+    int bytes = last.data.length;
+    for (QueuedEdits next = queuedEdits.peek(); next != null
+        && next.segmentTxId == last.segmentTxId
+        && next.firstTxnId == last.getLastTxnId() + 1
+        && bytes + next.data.length <= coalescedBytesLimit;
+        next = queuedEdits.peek()) {
+      batch.add(queuedEdits.poll());
+      bytes += next.data.length;
+      last = next;
+    }
+    return batch;
+  }
+
+  /**
+   * Send the queued edits. Runs on {@link #executor}, which waits for a
+   * free slot in the window of writes in flight before handing the call to
+   * {@link #writeExecutor}, if any.
+   */
+  private void sendQueuedEdits() {
+    final List<QueuedEdits> batch = pollQueuedEdits();
+    if (batch.isEmpty()) {
+      return;
+    }
+    try {
+      throwIfOutOfSync();
+      if (writeExecutor == null) {
+        journal(getProxy(), createReqInfo(), batch);
+        return;
+      }
+      final QJournalProtocol proxy = getProxy();
+      writeWindow.acquireUninterruptibly();
+      try {
+        // The request is created here so that IPC serial numbers follow
+        // the order of the edits.
+        final RequestInfo reqInfo = createReqInfo();
+        writeExecutor.execute(new Runnable() {
           @Override
-          public void onSuccess(Void t) {
-            unreserveQueueSpace(data.length);
+          public void run() {
+            try {
+              journal(proxy, reqInfo, batch);
+            } finally {
+              writeWindow.release();
+            }
           }
         });
+      } catch (RuntimeException e) {
+        writeWindow.release();
+        throw e;
+      }
+    } catch (Throwable t) {
+      for (QueuedEdits edits : batch) {
+        edits.future.setException(t);
       }
     }
-    return ret;
+  }
+
+  /** Send a batch of edits and complete the futures of its parts. */
+  private void journal(QJournalProtocol proxy, RequestInfo reqInfo,
+      List<QueuedEdits> batch) {
+    final QueuedEdits first = batch.get(0);
+    final QueuedEdits last = batch.get(batch.size() - 1);
+    final long firstTxnId = first.firstTxnId;
+    final int numTxns = (int)(last.getLastTxnId() - firstTxnId + 1);
+    final byte[] data;
+    if (batch.size() == 1) {
+      data = first.data;
+    } else {
+      int length = 0;
+      for (QueuedEdits edits : batch) {
+        length += edits.data.length;
+      }
+      data = new byte[length];
+      int off = 0;
+      for (QueuedEdits edits : batch) {
+        System.arraycopy(edits.data, 0, data, off, edits.data.length);
+        off += edits.data.length;
+      }
+    }
+
+    writesInFlight.incrementAndGet();
+    long rpcSendTimeNanos = System.nanoTime();
+    try {
+      proxy.journal(reqInfo, first.segmentTxId, firstTxnId, numTxns, data);
+    } catch (Throwable t) {
+      QuorumJournalManager.LOG.warn(
+          "Remote journal " + IPCLoggerChannel.this + " failed to " +
+          "write txns " + firstTxnId + "-" + (firstTxnId + numTxns - 1) +
+          ". Will try to write to this JN again after the next " +
+          "log roll.", t); 
+      synchronized (IPCLoggerChannel.this) {
+        outOfSync = true;
+      }
+      for (QueuedEdits edits : batch) {
+        edits.future.setException(t);
+      }
+      return;
+    } finally {
+      writesInFlight.decrementAndGet();
+      long now = System.nanoTime();
+      long rpcTime = TimeUnit.MICROSECONDS.convert(
+          now - rpcSendTimeNanos, TimeUnit.NANOSECONDS);
+      for (QueuedEdits edits : batch) {
+        metrics.addWriteEndToEndLatency(TimeUnit.MICROSECONDS.convert(
+            now - edits.submitNanos, TimeUnit.NANOSECONDS));
+      }
+      metrics.addWriteRpcLatency(rpcTime);
+      metrics.addWriteBatch(data.length);
+      final boolean slow = rpcTime / 1000 > WARN_JOURNAL_MILLIS_THRESHOLD;
+      if (slow) {
+        QuorumJournalManager.LOG.warn(
+            "Took " + (rpcTime / 1000) + "ms to send a batch of " +
+            numTxns + " edits (" + data.length + " bytes) to " +
+            "remote journal " + IPCLoggerChannel.this);
+      }
+      adjustCoalescedEditsLimit(slow);
+    }
+    synchronized (IPCLoggerChannel.this) {
+      // with several writes in flight, acks may arrive out of order
+      if (last.getLastTxnId() > highestAckedTxId) {
+        highestAckedTxId = last.getLastTxnId();
+        lastAckNanos = last.submitNanos;
+      }
+    }
+    for (QueuedEdits edits : batch) {
+      edits.future.set(null);
+    }
+  }
+
+  /**
+   * Halve the limit on coalesced edits after a slow call, so that a logger
+   * which is falling behind is not sent ever larger calls, and double it
+   * back after a fast one.
+   */
+  private synchronized void adjustCoalescedEditsLimit(boolean slow) {
+    if (slow) {
+      coalescedBytesLimit = Math.min(coalescedBytesLimit,
+          Math.max(coalescedBytesLimit / 2, MIN_COALESCED_BYTES));
+    } else {
+      coalescedBytesLimit = (int)Math.min(maxCoalescedBytes,
+          Math.max(2L * coalescedBytesLimit, MIN_COALESCED_BYTES));
+    }
+  }
+
+  /**
+   * Wait for the journal() calls in flight to complete. Any other call must
+   * wait for them first, since the JournalNode expects IPCs in order.
+   */
+  private void waitForWritesInFlight() {
+    if (writeExecutor != null) {
+      writeWindow.acquireUninterruptibly(maxWritesInFlight);
+      writeWindow.release(maxWritesInFlight);
+    }
   }
 
   private void throwIfOutOfSync()
       throws JournalOutOfSyncException, IOException {
     if (isOutOfSync()) {
+      waitForWritesInFlight();
       // Even if we're out of sync, it's useful to send an RPC
       // to the remote node in order to update its lag metrics, etc.
       heartbeatIfNecessary();
@@ -477,6 +709,7 @@ public ListenableFuture<Void> startLogSegment(final long txid) {
     return executor.submit(new Callable<Void>() {
       @Override
       public Void call() throws IOException {
+        waitForWritesInFlight();
         getProxy().startLogSegment(createReqInfo(), txid);
         synchronized (IPCLoggerChannel.this) {
           if (outOfSync) {
@@ -499,6 +732,7 @@ public ListenableFuture<Void> finalizeLogSegment(
       @Override
       public Void call() throws IOException {
         throwIfOutOfSync();
+        waitForWritesInFlight();
         
         getProxy().finalizeLogSegment(createReqInfo(), startTxId, endTxId);
         return null;
@@ -511,6 +745,7 @@ public ListenableFuture<Void> purgeLogsOlderThan(final long minTxIdToKeep) {
     return executor.submit(new Callable<Void>() {
       @Override
       public Void call() throws Exception {
+        waitForWritesInFlight();
         getProxy().purgeLogsOlderThan(createReqInfo(), minTxIdToKeep);
         return null;
       }
@@ -533,6 +768,18 @@ public RemoteEditLogManifest call() throws IOException {
     });
   }
 
+  @Override
+  public ListenableFuture<GetJournaledEditsResponseProto> getJournaledEdits(
+      final long fromTxnId, final int maxTransactions) {
+    return executor.submit(new Callable<GetJournaledEditsResponseProto>() {
+      @Override
+      public GetJournaledEditsResponseProto call() throws IOException {
+        return getProxy().getJournaledEdits(journalId, fromTxnId,
+            maxTransactions);
+      }
+    });
+  }
+
   @Override
   public ListenableFuture<PrepareRecoveryResponseProto> prepareRecovery(
       final long segmentTxId) {
@@ -544,6 +791,7 @@ public PrepareRecoveryResponseProto call() throws IOException {
           // what the HTTP port should be.
           httpPort = getProxy().getJournalState(journalId).getHttpPort();
         }
+        waitForWritesInFlight();
         return getProxy().prepareRecovery(createReqInfo(), segmentTxId);
       }
     });
@@ -555,6 +803,7 @@ public ListenableFuture<Void> acceptRecovery(
     return executor.submit(new Callable<Void>() {
       @Override
       public Void call() throws IOException {
+        waitForWritesInFlight();
         getProxy().acceptRecovery(createReqInfo(), log, url);
         return null;
       }
@@ -28,6 +28,7 @@
 import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
 import org.apache.hadoop.metrics2.lib.MetricsRegistry;
 import org.apache.hadoop.metrics2.lib.MutableQuantiles;
+import org.apache.hadoop.metrics2.lib.MutableStat;
 
 import com.google.common.collect.Maps;
 
@@ -42,6 +43,9 @@ class IPCLoggerChannelMetrics {
   
   private final MutableQuantiles[] writeEndToEndLatencyQuantiles;
   private final MutableQuantiles[] writeRpcLatencyQuantiles;
+  private final MutableStat writeBatchBytes = registry.newStat(
+      "writeBatchBytes", "Size of the batches of edits sent", "Batches",
+      "Bytes");
 
   
   /**
@@ -136,6 +140,17 @@ public int getQueuedEditsSize() {
     return ch.getQueuedEditsSize();
   }
 
+  @Metric("The number of batches of edits in flight to the remote node")
+  public int getWritesInFlight() {
+    return ch.getWritesInFlight();
+  }
+
+  @Metric("The current limit on the number of bytes of queued edits " +
+          "coalesced into one batch")
+  public int getCoalescedEditsLimit() {
+    return ch.getCoalescedEditsLimit();
+  }
+
   public void addWriteEndToEndLatency(long micros) {
     if (writeEndToEndLatencyQuantiles != null) {
       for (MutableQuantiles q : writeEndToEndLatencyQuantiles) {
@@ -144,6 +159,10 @@ public void addWriteEndToEndLatency(long micros) {
     }
   }
   
+  public void addWriteBatch(int bytes) {
+    writeBatchBytes.add(bytes);
+  }
+
   public void addWriteRpcLatency(long micros) {
     if (writeRpcLatencyQuantiles != null) {
       for (MutableQuantiles q : writeRpcLatencyQuantiles) {
@@ -17,6 +17,8 @@
  */
 package org.apache.hadoop.hdfs.qjournal.client;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.URI;
@@ -35,11 +37,13 @@
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournalStateResponseProto;
+import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournaledEditsResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.NewEpochResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.PrepareRecoveryResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.SegmentStateProto;
 import org.apache.hadoop.hdfs.server.namenode.EditLogFileInputStream;
 import org.apache.hadoop.hdfs.server.namenode.EditLogInputStream;
+import org.apache.hadoop.hdfs.server.namenode.EditLogFileOutputStream;
 import org.apache.hadoop.hdfs.server.namenode.EditLogOutputStream;
 import org.apache.hadoop.hdfs.server.namenode.JournalManager;
 import org.apache.hadoop.hdfs.server.namenode.JournalSet;
@@ -73,6 +77,11 @@ public class QuorumJournalManager implements JournalManager {
   private final int newEpochTimeoutMs;
   private final int writeTxnsTimeoutMs;
 
+  // Whether to read the in-progress segment from the edits caches of the
+  // JournalNodes, and how many transactions to fetch at most in each call.
+  private final boolean inProgressTailingEnabled;
+  private final int maxTxnsPerRpc;
+
   // Since these don't occur during normal operation, we can
   // use rather lengthy timeouts, and don't need to make them
   // configurable.
@@ -128,6 +137,12 @@ public QuorumJournalManager(Configuration conf,
     this.writeTxnsTimeoutMs = conf.getInt(
         DFSConfigKeys.DFS_QJOURNAL_WRITE_TXNS_TIMEOUT_KEY,
         DFSConfigKeys.DFS_QJOURNAL_WRITE_TXNS_TIMEOUT_DEFAULT);
+    this.inProgressTailingEnabled = conf.getBoolean(
+        DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_KEY,
+        DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_DEFAULT);
+    this.maxTxnsPerRpc = conf.getInt(
+        DFSConfigKeys.DFS_HA_TAILEDITS_QJM_RPC_MAX_TXNS_KEY,
+        DFSConfigKeys.DFS_HA_TAILEDITS_QJM_RPC_MAX_TXNS_DEFAULT);
   }
   
   protected List<AsyncLogger> createLoggers(
@@ -449,6 +464,16 @@ public void close() throws IOException {
   @Override
   public void selectInputStreams(Collection<EditLogInputStream> streams,
       long fromTxnId, boolean inProgressOk) throws IOException {
+    if (inProgressOk && inProgressTailingEnabled) {
+      try {
+        selectRpcInputStreams(streams, fromTxnId);
+        return;
+      } catch (IOException ioe) {
+        LOG.info("Unable to read edits from txid " + fromTxnId + " from the " +
+            "edits caches of " + loggers + ", reading finalized segments " +
+            "instead: " + ioe);
+      }
+    }
 
     QuorumCall<AsyncLogger, RemoteEditLogManifest> q =
         loggers.getEditLogManifest(fromTxnId);
@@ -478,6 +503,56 @@ public void selectInputStreams(Collection<EditLogInputStream> streams,
     JournalSet.chainAndMakeRedundantStreams(
         streams, allStreams, fromTxnId, inProgressOk);
   }
+
+  /**
+   * Select a stream of the edits from fromTxnId in the in-memory caches of
+   * the JournalNodes, which holds the transactions of the in-progress
+   * segment. The stream ends with the last transaction which a quorum of
+   * the JournalNodes hold, since the others may not be committed yet.
+   */
+  private void selectRpcInputStreams(Collection<EditLogInputStream> streams,
+      long fromTxnId) throws IOException {
+    QuorumCall<AsyncLogger, GetJournaledEditsResponseProto> q =
+        loggers.getJournaledEdits(fromTxnId, maxTxnsPerRpc);
+    Map<AsyncLogger, GetJournaledEditsResponseProto> resps =
+        loggers.waitForWriteQuorum(q, selectInputStreamsTimeoutMs,
+            "selectRpcInputStreams");
+
+    List<Integer> txnCounts = Lists.newArrayListWithCapacity(resps.size());
+    for (GetJournaledEditsResponseProto resp : resps.values()) {
+      txnCounts.add(resp.getTxnCount());
+    }
+    Collections.sort(txnCounts);
+    // a quorum of the loggers hold at least this many transactions
+    int txnCount = txnCounts.get(txnCounts.size() - loggers.getMajoritySize());
+    if (txnCount == 0) {
+      return;
+    }
+
+    for (Map.Entry<AsyncLogger, GetJournaledEditsResponseProto> e :
+        resps.entrySet()) {
+      GetJournaledEditsResponseProto resp = e.getValue();
+      if (resp.getTxnCount() < txnCount) {
+        continue;
+      }
+      ByteArrayOutputStream bytes =
+          new ByteArrayOutputStream(4 + resp.getEditLog().size());
+      DataOutputStream out = new DataOutputStream(bytes);
+      EditLogFileOutputStream.writeHeader(out);
+      resp.getEditLog().writeTo(out);
+      out.flush();
+
+      PriorityQueue<EditLogInputStream> allStreams =
+          new PriorityQueue<EditLogInputStream>(1,
+              JournalSet.EDIT_LOG_INPUT_STREAM_COMPARATOR);
+      allStreams.add(EditLogFileInputStream.fromBytes(
+          "cached edits from txid " + fromTxnId + " of " + e.getKey(),
+          bytes.toByteArray(), fromTxnId, fromTxnId + txnCount - 1, false));
+      JournalSet.chainAndMakeRedundantStreams(
+          streams, allStreams, fromTxnId, true);
+      return;
+    }
+  }
   
   @Override
   public String toString() {
@@ -22,9 +22,11 @@
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStreamWriter;
 import java.net.URL;
 import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
@@ -32,11 +34,15 @@
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.qjournal.protocol.JournalNotFormattedException;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocol;
 import org.apache.hadoop.hdfs.qjournal.protocol.JournalOutOfSyncException;
+import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournaledEditsResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.NewEpochResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.PersistedRecoveryPaxosData;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.PrepareRecoveryResponseProto;
@@ -56,6 +62,7 @@
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.ipc.Server;
 import org.apache.hadoop.security.SecurityUtil;
+import org.apache.hadoop.util.Time;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
@@ -64,6 +71,7 @@
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Range;
 import com.google.common.collect.Ranges;
+import com.google.protobuf.ByteString;
 import com.google.protobuf.TextFormat;
 
 /**
@@ -133,10 +141,30 @@ class Journal implements Closeable {
    */
   private static final int WARN_SYNC_MILLIS_THRESHOLD = 1000;
 
+  /**
+   * How long a batch of edits which arrived before the edits preceding it
+   * waits for them, in milliseconds.
+   */
+  private final long reorderTimeoutMs;
+
+  /** The most recent edits, for readers tailing the in-progress segment. */
+  private final JournaledEditsCache cache;
+
   Journal(File logDir, String journalId,
       StorageErrorReporter errorReporter) throws IOException {
+    this(new HdfsConfiguration(), logDir, journalId, errorReporter);
+  }
+
+  Journal(Configuration conf, File logDir, String journalId,
+      StorageErrorReporter errorReporter) throws IOException {
     storage = new JNStorage(logDir, errorReporter);
     this.journalId = journalId;
+    this.reorderTimeoutMs = conf.getLong(
+        DFSConfigKeys.DFS_JOURNALNODE_EDITS_REORDER_TIMEOUT_KEY,
+        DFSConfigKeys.DFS_JOURNALNODE_EDITS_REORDER_TIMEOUT_DEFAULT);
+    this.cache = new JournaledEditsCache(conf.getLong(
+        DFSConfigKeys.DFS_JOURNALNODE_EDIT_CACHE_SIZE_KEY,
+        DFSConfigKeys.DFS_JOURNALNODE_EDIT_CACHE_SIZE_DEFAULT));
 
     refreshCachedData();
     
@@ -211,6 +239,7 @@ void format(NamespaceInfo nsInfo) throws IOException {
         nsInfo);
     storage.format(nsInfo);
     refreshCachedData();
+    cache.clear();
   }
 
   /**
@@ -292,6 +321,8 @@ synchronized NewEpochResponseProto newEpoch(
     
     updateLastPromisedEpoch(epoch);
     abortCurSegment();
+    // the new writer may replace the edits which were not committed
+    cache.clear();
     
     NewEpochResponseProto.Builder builder =
         NewEpochResponseProto.newBuilder();
@@ -323,6 +354,8 @@ private void abortCurSegment() throws IOException {
     curSegment.abort();
     curSegment = null;
     curSegmentTxId = HdfsConstants.INVALID_TXID;
+    // wake up the batches waiting for their turn in the segment
+    notifyAll();
   }
 
   /**
@@ -333,6 +366,7 @@ synchronized void journal(RequestInfo reqInfo,
       long segmentTxId, long firstTxnId,
       int numTxns, byte[] records) throws IOException {
     checkFormatted();
+    waitForPrecedingEdits(reqInfo, segmentTxId, firstTxnId);
     checkWriteRequest(reqInfo);
 
     checkSync(curSegment != null,
@@ -388,9 +422,52 @@ synchronized void journal(RequestInfo reqInfo,
     metrics.batchesWritten.incr(1);
     metrics.bytesWritten.incr(records.length);
     metrics.txnsWritten.incr(numTxns);
+
+    cache.storeEdits(records, firstTxnId, lastTxnId);
     
     highestWrittenTxId = lastTxnId;
     nextTxId = lastTxnId + 1;
+    notifyAll();
+  }
+
+  /**
+   * A writer may have several batches of edits in flight to this node,
+   * which the IPC layer does not necessarily deliver in order. If the given
+   * batch is ahead of the segment's next txid while IPCs the writer sent
+   * before it have not arrived yet, wait for them, so that batches are
+   * written and acknowledged in txid order. If they do not arrive in time,
+   * the batch fails the usual checks.
+   */
+  private void waitForPrecedingEdits(RequestInfo reqInfo, long segmentTxId,
+      long firstTxnId) throws IOException {
+    if (!isAheadOfPrecedingEdits(reqInfo, segmentTxId, firstTxnId)) {
+      return;
+    }
+    metrics.batchesReordered.incr(1);
+    final long deadline = Time.monotonicNow() + reorderTimeoutMs;
+    while (isAheadOfPrecedingEdits(reqInfo, segmentTxId, firstTxnId)) {
+      final long remaining = deadline - Time.monotonicNow();
+      if (remaining <= 0) {
+        LOG.warn("Timed out waiting for txid " + nextTxId
+            + " before writing txid " + firstTxnId);
+        return;
+      }
+      try {
+        wait(remaining);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted waiting for txid "
+            + nextTxId + " before writing txid " + firstTxnId);
+      }
+    }
+  }
+
+  private boolean isAheadOfPrecedingEdits(RequestInfo reqInfo,
+      long segmentTxId, long firstTxnId) throws IOException {
+    return curSegment != null && curSegmentTxId == segmentTxId
+        && firstTxnId > nextTxId
+        && reqInfo.getIpcSerialNumber() > currentEpochIpcSerial + 1
+        && reqInfo.getEpoch() == lastPromisedEpoch.get();
   }
 
   public void heartbeat(RequestInfo reqInfo) throws IOException {
@@ -633,11 +710,44 @@ public RemoteEditLogManifest getEditLogManifest(long sinceTxId)
     // of segments.
     checkFormatted();
     
+    // A reader tailing the in-progress segment may have stopped in the
+    // middle of a segment which was finalized since.
     RemoteEditLogManifest manifest = new RemoteEditLogManifest(
-        fjm.getRemoteEditLogs(sinceTxId));
+        fjm.getRemoteEditLogs(sinceTxId, true));
     return manifest;
   }
 
+  /**
+   * @see QJournalProtocol#getJournaledEdits(String, long, int)
+   */
+  public GetJournaledEditsResponseProto getJournaledEdits(long sinceTxId,
+      int maxTxns) throws IOException {
+    // No need to checkRequest() here - anyone may read the edits, and
+    // the cache has its own lock so that reads do not wait for syncs.
+    checkFormatted();
+
+    List<byte[]> batches = new ArrayList<byte[]>();
+    int txnCount;
+    try {
+      txnCount = cache.retrieveEdits(sinceTxId, maxTxns, batches);
+    } catch (JournaledEditsCache.CacheMissException e) {
+      metrics.editsCacheMisses.incr(1);
+      throw e;
+    }
+    metrics.txnsServed.incr(txnCount);
+
+    GetJournaledEditsResponseProto.Builder builder =
+        GetJournaledEditsResponseProto.newBuilder().setTxnCount(txnCount);
+    if (!batches.isEmpty()) {
+      List<ByteString> data = new ArrayList<ByteString>(batches.size());
+      for (byte[] batch : batches) {
+        data.add(ByteString.copyFrom(batch));
+      }
+      builder.setEditLog(ByteString.copyFrom(data));
+    }
+    return builder.build();
+  }
+
   /**
    * @return the current state of the given segment, or null if the
    * segment does not exist.
@@ -721,6 +831,7 @@ public synchronized void acceptRecovery(RequestInfo reqInfo,
     checkRequest(reqInfo);
     
     abortCurSegment();
+    cache.clear();
 
     long segmentTxId = segment.getStartTxId();
 
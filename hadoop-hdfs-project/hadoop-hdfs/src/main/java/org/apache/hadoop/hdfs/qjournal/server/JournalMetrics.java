@@ -45,6 +45,15 @@ class JournalMetrics {
   
   @Metric("Number of batches written where this node was lagging")
   MutableCounterLong batchesWrittenWhileLagging;
+
+  @Metric("Number of batches which arrived before the batches preceding them")
+  MutableCounterLong batchesReordered;
+
+  @Metric("Number of txns served from the edits cache")
+  MutableCounterLong txnsServed;
+
+  @Metric("Number of reads of edits which were not in the edits cache")
+  MutableCounterLong editsCacheMisses;
   
   private final int[] QUANTILE_INTERVALS = new int[] {
       1*60, // 1m
@@ -0,0 +1,149 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.qjournal.server;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+
+/**
+ * An in-memory cache of the most recent edits written to a journal, from
+ * which readers fetch the transactions of the in-progress segment instead
+ * of waiting for it to be finalized.
+ *
+ * The cache holds the batches of edits as they were written, keyed by
+ * their first txid, and evicts the oldest batches once they take more than
+ * its capacity. The transactions in the cache are always contiguous: a
+ * batch which does not follow the previous one, e.g. after recovery,
+ * replaces the content of the cache.
+ */
+class JournaledEditsCache {
+  /**
+   * Thrown when the transactions asked for are not in the cache any more,
+   * or not yet.
+   */
+  static class CacheMissException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    CacheMissException(String msg) {
+      super(msg);
+    }
+  }
+
+  private final long capacity;
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final NavigableMap<Long, byte[]> batches =
+      new TreeMap<Long, byte[]>();
+  private long highestTxId = HdfsConstants.INVALID_TXID;
+  private long size = 0;
+
+  /**
+   * @param capacity the bytes of edits to keep. 0 disables the cache.
+   */
+  JournaledEditsCache(long capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Add a batch of edits which was just written to the journal.
+   */
+  void storeEdits(byte[] data, long firstTxId, long lastTxId) {
+    if (capacity <= 0) {
+      return;
+    }
+    lock.writeLock().lock();
+    try {
+      if (highestTxId == HdfsConstants.INVALID_TXID
+          || firstTxId != highestTxId + 1) {
+        batches.clear();
+        size = 0;
+      }
+      batches.put(firstTxId, data);
+      size += data.length;
+      highestTxId = lastTxId;
+      // always keep the last batch, even if it is larger than the capacity
+      while (size > capacity && batches.size() > 1) {
+        size -= batches.pollFirstEntry().getValue().length;
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Drop the content of the cache, when transactions which were not
+   * committed may be replaced.
+   */
+  void clear() {
+    lock.writeLock().lock();
+    try {
+      batches.clear();
+      size = 0;
+      highestTxId = HdfsConstants.INVALID_TXID;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Add to the given list the batches holding the transactions from
+   * sinceTxId on, up to at least maxTxns of them if the cache holds them.
+   * The first batch may start with transactions before sinceTxId, and the
+   * last one may go beyond maxTxns.
+   *
+   * @return the number of transactions from sinceTxId in the batches, up
+   *         to maxTxns.
+   * @throws CacheMissException if the cache does not hold sinceTxId and the
+   *         transactions following it.
+   */
+  int retrieveEdits(long sinceTxId, int maxTxns, List<byte[]> out)
+      throws CacheMissException {
+    lock.readLock().lock();
+    try {
+      if (batches.isEmpty() || sinceTxId < batches.firstKey()) {
+        throw new CacheMissException("Transaction " + sinceTxId +
+            " is not in the edits cache, which holds " + (batches.isEmpty() ?
+            "no transactions" : "transactions " + batches.firstKey() + "-" +
+            highestTxId));
+      }
+      if (sinceTxId > highestTxId) {
+        return 0;
+      }
+      long lastTxId = sinceTxId - 1;
+      for (Map.Entry<Long, byte[]> e :
+          batches.tailMap(batches.floorKey(sinceTxId), true).entrySet()) {
+        if (lastTxId - sinceTxId + 1 >= maxTxns) {
+          break;
+        }
+        out.add(e.getValue());
+        final Long next = batches.higherKey(e.getKey());
+        lastTxId = next == null ? highestTxId : next - 1;
+      }
+      return (int)Math.min(maxTxns, lastTxId - sinceTxId + 1);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+}
@@ -48,6 +48,7 @@
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -139,6 +140,13 @@
  * administrator changes the value of this property in the configuration 
  * file, the change is observed when HDFS is next restarted.
  * 
+ * <p>The number of concurrent block moves at a datanode is limited by
+ * dfs.datanode.balance.max.concurrent.moves, on both the datanodes and the
+ * balancer. Within that limit the balancer adjusts the number of moves it
+ * schedules on each datanode to the throughput it observes: it backs off
+ * from datanodes where moves fail or slow down, and moves more blocks
+ * through the others. See {@link MoveLimit}.
+ * 
  * <p>MONITERING BALANCER PROGRESS
  * <p>After the balancer is started, an output file name where the balancer 
  * progress will be recorded is printed on the screen.  The administrator 
@@ -186,10 +194,6 @@ public class Balancer {
   final private static long MAX_BLOCKS_SIZE_TO_FETCH = 2*1024*1024*1024L; //2GB
   private static long WIN_WIDTH = 5400*1000L; // 1.5 hour
 
-  /** The maximum number of concurrent blocks moves for 
-   * balancing purpose at a datanode
-   */
-  public static final int MAX_NUM_CONCURRENT_MOVES = 5;
   private static final int MAX_NO_PENDING_BLOCK_ITERATIONS = 5;
   
   private static final String USAGE = "Usage: java "
@@ -224,14 +228,14 @@ public class Balancer {
   // Map storage IDs to BalancerDatanodes
   private Map<String, BalancerDatanode> datanodes
                  = new HashMap<String, BalancerDatanode>();
+  /* Map storage IDs to their move limits, kept across iterations */
+  private final Map<String, MoveLimit> moveLimits
+                 = new HashMap<String, MoveLimit>();
+  private final int maxConcurrentMovesPerNode;
   
   private NetworkTopology cluster;
-  final static private int MOVER_THREAD_POOL_SIZE = 1000;
-  final private ExecutorService moverExecutor = 
-    Executors.newFixedThreadPool(MOVER_THREAD_POOL_SIZE);
-  final static private int DISPATCHER_THREAD_POOL_SIZE = 200;
-  final private ExecutorService dispatcherExecutor =
-    Executors.newFixedThreadPool(DISPATCHER_THREAD_POOL_SIZE);
+  final private ExecutorService moverExecutor;
+  final private ExecutorService dispatcherExecutor;
   
 
   /* This class keeps track of a scheduled block move */
@@ -330,9 +334,11 @@ private boolean addTo(BalancerDatanode bdn) {
     /* Dispatch the block move task to the proxy source & wait for the response
      */
     private void dispatch() {
+      final long startTime = Time.monotonicNow();
       Socket sock = new Socket();
       DataOutputStream out = null;
       DataInputStream in = null;
+      boolean succeeded = false;
       try {
         sock.connect(
             NetUtils.createSocketAddr(target.datanode.getXferAddr()),
@@ -356,6 +362,7 @@ private void dispatch() {
         sendRequest(out);
         receiveResponse(in);
         bytesMoved.inc(block.getNumBytes());
+        succeeded = true;
         LOG.info( "Moving block " + block.getBlock().getBlockId() +
               " from "+ source.getDisplayName() + " to " +
               target.getDisplayName() + " through " +
@@ -372,6 +379,16 @@ private void dispatch() {
         IOUtils.closeStream(in);
         IOUtils.closeSocket(sock);
         
+        if (succeeded) {
+          final long elapsed = Time.monotonicNow() - startTime;
+          proxySource.moveLimit.succeeded(block.getNumBytes(), elapsed);
+          target.moveLimit.succeeded(block.getNumBytes(), elapsed);
+          numMovesSucceeded.incrementAndGet();
+        } else {
+          proxySource.moveLimit.failed();
+          target.moveLimit.failed();
+          numMovesFailed.incrementAndGet();
+        }
         proxySource.removePendingBlock(this);
         target.removePendingBlock(this);
 
@@ -504,6 +521,52 @@ private long getSize() {
   }
   
   
+  /**
+   * The number of concurrent block moves the balancer schedules at a
+   * datanode, whether the datanode sends or receives the block. It starts
+   * at the maximum and follows the outcome of the moves: a move which fails,
+   * for instance because the datanode has no mover threads left, halves the
+   * limit; a move whose throughput falls below half of the average seen at
+   * the datanode lowers it by one, since more concurrent moves only share
+   * the datanode's balancing bandwidth; any other move raises it by one.
+   */
+  static class MoveLimit {
+    /** The weight of a new sample in the average throughput. */
+    private static final double ALPHA = 0.25;
+
+    private final int max;
+    private int limit;
+    /** Average throughput of a move in bytes per millisecond, or -1. */
+    private double avgThroughput = -1;
+
+    MoveLimit(int max) {
+      this.max = Math.max(1, max);
+      this.limit = this.max;
+    }
+
+    /** @return the number of moves which may be pending at a time. */
+    synchronized int get() {
+      return limit;
+    }
+
+    /** Record a move of the given bytes which took elapsed milliseconds. */
+    synchronized void succeeded(long bytes, long elapsed) {
+      final double throughput = (double)bytes / Math.max(1, elapsed);
+      if (avgThroughput >= 0 && throughput < avgThroughput / 2) {
+        limit = Math.max(1, limit - 1);
+      } else {
+        limit = Math.min(max, limit + 1);
+      }
+      avgThroughput = avgThroughput < 0 ? throughput
+          : ALPHA * throughput + (1 - ALPHA) * avgThroughput;
+    }
+
+    /** Record a failed move. */
+    synchronized void failed() {
+      limit = Math.max(1, limit / 2);
+    }
+  }
+
   /* A class that keeps track of a datanode in Balancer */
   private static class BalancerDatanode {
     final private static long MAX_SIZE_TO_MOVE = 10*1024*1024*1024L; //10GB
@@ -513,7 +576,9 @@ private static class BalancerDatanode {
     protected long scheduledSize = 0L;
     //  blocks being moved but not confirmed yet
     private List<PendingBlockMove> pendingBlocks = 
-      new ArrayList<PendingBlockMove>(MAX_NUM_CONCURRENT_MOVES); 
+      new ArrayList<PendingBlockMove>(); 
+    // the number of moves which may be pending at a time
+    private final MoveLimit moveLimit;
     
     @Override
     public String toString() {
@@ -524,8 +589,10 @@ public String toString() {
     /* Constructor 
      * Depending on avgutil & threshold, calculate maximum bytes to move 
      */
-    private BalancerDatanode(DatanodeInfo node, BalancingPolicy policy, double threshold) {
+    private BalancerDatanode(DatanodeInfo node, BalancingPolicy policy,
+        double threshold, MoveLimit moveLimit) {
       datanode = node;
+      this.moveLimit = moveLimit;
       utilization = policy.getUtilization(node);
       final double avgUtil = policy.getAvgUtilization();
       long maxSizeToMove;
@@ -575,7 +642,7 @@ protected void incScheduledSize(long size) {
     
     /* Check if the node can schedule more blocks to move */
     synchronized private boolean isPendingQNotFull() {
-      if ( pendingBlocks.size() < MAX_NUM_CONCURRENT_MOVES ) {
+      if ( pendingBlocks.size() < moveLimit.get() ) {
         return true;
       }
       return false;
@@ -624,8 +691,9 @@ public void run() {
             = new ArrayList<BalancerBlock>();
     
     /* constructor */
-    private Source(DatanodeInfo node, BalancingPolicy policy, double threshold) {
-      super(node, policy, threshold);
+    private Source(DatanodeInfo node, BalancingPolicy policy,
+        double threshold, MoveLimit moveLimit) {
+      super(node, policy, threshold, moveLimit);
     }
     
     /** Add a node task */
@@ -830,6 +898,25 @@ private static void checkReplicationPolicyCompatibility(Configuration conf
     this.policy = p.policy;
     this.nnc = theblockpool;
     cluster = NetworkTopology.getInstance(conf);
+    this.maxConcurrentMovesPerNode = conf.getInt(
+        DFSConfigKeys.DFS_DATANODE_BALANCE_MAX_NUM_CONCURRENT_MOVES_KEY,
+        DFSConfigKeys.DFS_DATANODE_BALANCE_MAX_NUM_CONCURRENT_MOVES_DEFAULT);
+    this.moverExecutor = Executors.newFixedThreadPool(conf.getInt(
+        DFSConfigKeys.DFS_BALANCER_MOVERTHREADS_KEY,
+        DFSConfigKeys.DFS_BALANCER_MOVERTHREADS_DEFAULT));
+    this.dispatcherExecutor = Executors.newFixedThreadPool(conf.getInt(
+        DFSConfigKeys.DFS_BALANCER_DISPATCHERTHREADS_KEY,
+        DFSConfigKeys.DFS_BALANCER_DISPATCHERTHREADS_DEFAULT));
+  }
+  
+  /** @return the move limit of a datanode, creating it if needed. */
+  private MoveLimit getMoveLimit(DatanodeInfo datanode) {
+    MoveLimit limit = moveLimits.get(datanode.getStorageID());
+    if (limit == null) {
+      limit = new MoveLimit(maxConcurrentMovesPerNode);
+      moveLimits.put(datanode.getStorageID(), limit);
+    }
+    return limit;
   }
   
   /* Shuffle datanode array */
@@ -880,7 +967,8 @@ private long initNodes(DatanodeInfo[] datanodes) {
       BalancerDatanode datanodeS;
       final double avg = policy.getAvgUtilization();
       if (policy.getUtilization(datanode) >= avg) {
-        datanodeS = new Source(datanode, policy, threshold);
+        datanodeS = new Source(datanode, policy, threshold,
+            getMoveLimit(datanode));
         if (isAboveAvgUtilized(datanodeS)) {
           this.aboveAvgUtilizedDatanodes.add((Source)datanodeS);
         } else {
@@ -891,7 +979,8 @@ private long initNodes(DatanodeInfo[] datanodes) {
               -threshold)*datanodeS.datanode.getCapacity()/100.0);
         }
       } else {
-        datanodeS = new BalancerDatanode(datanode, policy, threshold);
+        datanodeS = new BalancerDatanode(datanode, policy, threshold,
+            getMoveLimit(datanode));
         if ( isBelowOrEqualAvgUtilized(datanodeS)) {
           this.belowAvgUtilizedDatanodes.add(datanodeS);
         } else {
@@ -1095,6 +1184,8 @@ private long get() {
     }
   };
   private BytesMoved bytesMoved = new BytesMoved();
+  private final AtomicLong numMovesSucceeded = new AtomicLong();
+  private final AtomicLong numMovesFailed = new AtomicLong();
   
   /* Start a thread to dispatch block moves for each source. 
    * The thread selects blocks to move & sends request to proxy source to
@@ -1103,7 +1194,10 @@ private long get() {
    * Return the total number of bytes successfully moved in this iteration.
    */
   private long dispatchBlockMoves() throws InterruptedException {
-    long bytesLastMoved = bytesMoved.get();
+    final long startTime = Time.monotonicNow();
+    final long bytesLastMoved = bytesMoved.get();
+    final long succeededBefore = numMovesSucceeded.get();
+    final long failedBefore = numMovesFailed.get();
     Future<?>[] futures = new Future<?>[sources.size()];
     int i=0;
     for (Source source : sources) {
@@ -1122,7 +1216,14 @@ private long dispatchBlockMoves() throws InterruptedException {
     // wait for all block moving to be done
     waitForMoveCompletion();
     
-    return bytesMoved.get()-bytesLastMoved;
+    final long moved = bytesMoved.get()-bytesLastMoved;
+    final long elapsed = Math.max(1, Time.monotonicNow() - startTime);
+    LOG.info("Moved " + StringUtils.byteDesc(moved) + " in "
+        + time2Str(elapsed) + " ("
+        + StringUtils.byteDesc(moved * 1000 / elapsed) + "/s), "
+        + (numMovesSucceeded.get() - succeededBefore) + " block moves "
+        + "succeeded, " + (numMovesFailed.get() - failedBefore) + " failed");
+    return moved;
   }
   
   // The sleeping period before checking if block move is completed again
@@ -1135,6 +1236,7 @@ static void setBlockMoveWaitTime(long time) {
   
   /* wait for all block move confirmations 
    * by checking each target's pendingMove queue 
+   * after each move completes, or every blockMoveWaitTime
    */
   private void waitForMoveCompletion() {
     boolean shouldWait;
@@ -1147,7 +1249,9 @@ private void waitForMoveCompletion() {
       }
       if (shouldWait) {
         try {
-          Thread.sleep(blockMoveWaitTime);
+          synchronized (this) {
+            wait(blockMoveWaitTime);
+          }
         } catch (InterruptedException ignored) {
         }
       }
@@ -1408,18 +1512,22 @@ private ReturnStatus run(int iteration, Formatter formatter,
     } catch (InterruptedException e) {
       System.out.println(e + ".  Exiting ...");
       return ReturnStatus.INTERRUPTED;
-    } finally {
-      // shutdown thread pools
-      dispatcherExecutor.shutdownNow();
-      moverExecutor.shutdownNow();
     }
   }
 
+  /** Shutdown the thread pools. */
+  private void shutdown() {
+    dispatcherExecutor.shutdownNow();
+    moverExecutor.shutdownNow();
+  }
+
   /**
    * Balance all namenodes.
    * For each iteration,
    * for each namenode,
    * execute a {@link Balancer} to work through all datanodes once.  
+   * The balancer of each namenode is kept across iterations, together with
+   * the blocks it moved recently and the move limits of the datanodes.
    */
   static int run(Collection<URI> namenodes, final Parameters p,
       Configuration conf) throws IOException, InterruptedException {
@@ -1434,17 +1542,20 @@ static int run(Collection<URI> namenodes, final Parameters p,
     
     final List<NameNodeConnector> connectors
         = new ArrayList<NameNodeConnector>(namenodes.size());
+    final List<Balancer> balancers
+        = new ArrayList<Balancer>(namenodes.size());
     try {
       for (URI uri : namenodes) {
-        connectors.add(new NameNodeConnector(uri, conf));
+        final NameNodeConnector nnc = new NameNodeConnector(uri, conf);
+        connectors.add(nnc);
+        balancers.add(new Balancer(nnc, p, conf));
       }
     
       boolean done = false;
       for(int iteration = 0; !done; iteration++) {
         done = true;
-        Collections.shuffle(connectors);
-        for(NameNodeConnector nnc : connectors) {
-          final Balancer b = new Balancer(nnc, p, conf);
+        Collections.shuffle(balancers);
+        for(Balancer b : balancers) {
           final ReturnStatus r = b.run(iteration, formatter, conf);
           // clean all lists
           b.resetData(conf);
@@ -1461,6 +1572,9 @@ static int run(Collection<URI> namenodes, final Parameters p,
         }
       }
     } finally {
+      for(Balancer b : balancers) {
+        b.shutdown();
+      }
       for(NameNodeConnector nnc : connectors) {
         nnc.close();
       }
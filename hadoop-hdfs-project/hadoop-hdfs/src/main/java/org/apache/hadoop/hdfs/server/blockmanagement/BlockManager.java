@@ -20,8 +20,10 @@
 import static org.apache.hadoop.util.ExitUtil.terminate;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
@@ -33,6 +35,7 @@
 import java.util.Queue;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
@@ -142,12 +145,30 @@ public long getPostponedMisreplicatedBlocksCount() {
     return postponedMisreplicatedBlocksCount.get();
   }
   /** Used by metrics */
+  public double getReplicationRate() {
+    return replicationThroughput.getRate();
+  }
+  /** Used by metrics */
+  public long getReplicationEstimatedSeconds() {
+    return replicationThroughput.getEstimatedSeconds(
+        underReplicatedBlocksCount);
+  }
+  /** Used by metrics */
   public int getPendingDataNodeMessageCount() {
     return pendingDNMessages.count();
   }
 
   /**replicationRecheckInterval is how often namenode checks for new replication work*/
   private final long replicationRecheckInterval;
+
+  /**
+   * Number of blocks of an initial block report processed per hold of the
+   * write lock, or 0 to process a report in a single hold.
+   */
+  private final int blockReportChunkSize;
+
+  /** Admits block reports in arrival order; null if unlimited. */
+  private final Semaphore blockReportAdmission;
   
   /**
    * Mapping: Block -> { BlockCollection, datanodes, self ref }
@@ -201,6 +222,8 @@ public int getPendingDataNodeMessageCount() {
    * at one time.
    */
   int replicationStreamsHardLimit;
+  /** Sizes the replication work of each datanode from its throughput. */
+  private final ReplicationThroughput replicationThroughput;
   /** Minimum copies needed or else write is disallowed */
   public final short minReplication;
   /** Default number of replicas */
@@ -235,8 +258,16 @@ public BlockManager(final Namesystem namesystem, final FSClusterStats stats,
     heartbeatManager = datanodeManager.getHeartbeatManager();
     invalidateBlocks = new InvalidateBlocks(datanodeManager);
 
-    // Compute the map capacity by allocating 2% of total memory
-    blocksMap = new BlocksMap(DEFAULT_MAP_LOAD_FACTOR);
+    // Compute the map capacity from a percentage of total memory
+    final float blocksMapPercentage = conf.getFloat(
+        DFSConfigKeys.DFS_NAMENODE_BLOCKSMAP_CAPACITY_PERCENTAGE_KEY,
+        DFSConfigKeys.DFS_NAMENODE_BLOCKSMAP_CAPACITY_PERCENTAGE_DEFAULT);
+    if (blocksMapPercentage <= 0 || blocksMapPercentage > 100) {
+      throw new HadoopIllegalArgumentException(
+          DFSConfigKeys.DFS_NAMENODE_BLOCKSMAP_CAPACITY_PERCENTAGE_KEY
+          + " = " + blocksMapPercentage + " must be in the range (0, 100]");
+    }
+    blocksMap = new BlocksMap(blocksMapPercentage);
     blockplacement = BlockPlacementPolicy.getInstance(
         conf, stats, datanodeManager.getNetworkTopology());
     pendingReplications = new PendingReplicationBlocks(conf.getInt(
@@ -289,18 +320,36 @@ public BlockManager(final Namesystem namesystem, final FSClusterStats stats,
     this.replicationRecheckInterval = 
       conf.getInt(DFSConfigKeys.DFS_NAMENODE_REPLICATION_INTERVAL_KEY, 
                   DFSConfigKeys.DFS_NAMENODE_REPLICATION_INTERVAL_DEFAULT) * 1000L;
+    final int adaptiveStreamsLimit = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_MAX_STREAMS_ADAPTIVE_LIMIT_KEY,
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_MAX_STREAMS_ADAPTIVE_LIMIT_DEFAULT);
+    this.replicationThroughput = new ReplicationThroughput(
+        maxReplicationStreams, adaptiveStreamsLimit,
+        replicationRecheckInterval, Time.now());
     
     this.encryptDataTransfer =
         conf.getBoolean(DFSConfigKeys.DFS_ENCRYPT_DATA_TRANSFER_KEY,
             DFSConfigKeys.DFS_ENCRYPT_DATA_TRANSFER_DEFAULT);
+
+    this.blockReportChunkSize = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_BLOCKREPORT_CHUNK_SIZE_KEY,
+        DFSConfigKeys.DFS_NAMENODE_BLOCKREPORT_CHUNK_SIZE_DEFAULT);
+    final int maxConcurrentBlockReports = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_BLOCKREPORT_MAX_CONCURRENT_KEY,
+        DFSConfigKeys.DFS_NAMENODE_BLOCKREPORT_MAX_CONCURRENT_DEFAULT);
+    this.blockReportAdmission = maxConcurrentBlockReports > 0 ?
+        new Semaphore(maxConcurrentBlockReports, true) : null;
     
     LOG.info("defaultReplication         = " + defaultReplication);
     LOG.info("maxReplication             = " + maxReplication);
     LOG.info("minReplication             = " + minReplication);
     LOG.info("maxReplicationStreams      = " + maxReplicationStreams);
+    LOG.info("adaptiveStreamsLimit       = " + adaptiveStreamsLimit);
     LOG.info("shouldCheckForEnoughRacks  = " + shouldCheckForEnoughRacks);
     LOG.info("replicationRecheckInterval = " + replicationRecheckInterval);
     LOG.info("encryptDataTransfer        = " + encryptDataTransfer);
+    LOG.info("blockReportChunkSize       = " + blockReportChunkSize);
+    LOG.info("maxConcurrentBlockReports  = " + maxConcurrentBlockReports);
   }
 
   private static BlockTokenSecretManager createBlockTokenSecretManager(
@@ -496,6 +545,19 @@ public int getMaxReplicationStreams() {
     return maxReplicationStreams;
   }
 
+  /**
+   * @return the number of replications the given datanode may have queued
+   *         or in progress, which adapts to the datanode's throughput if
+   *         {@link DFSConfigKeys#DFS_NAMENODE_REPLICATION_MAX_STREAMS_ADAPTIVE_LIMIT_KEY}
+   *         is set.
+   */
+  public int getMaxReplicationStreams(DatanodeID nodeID) {
+    final DatanodeDescriptor node =
+        datanodeManager.getDatanode(nodeID.getStorageID());
+    return node == null ? maxReplicationStreams
+        : replicationThroughput.getMaxStreams(node, maxReplicationStreams);
+  }
+
   /**
    * @param block
    * @return true if the block has minimum replicas
@@ -1215,7 +1277,7 @@ int computeReplicationWorkForBlocks(List<List<Block>> blocksToReplicate) {
       // choose replication targets: NOT HOLDING THE GLOBAL LOCK
       // It is costly to extract the filename for which chooseTargets is called,
       // so for now we pass in the block collection itself.
-      rw.targets = blockplacement.chooseTarget(rw.bc,
+      rw.targets = blockplacement.chooseTarget(rw.bc, rw.block,
           rw.additionalReplRequired, rw.srcNode, rw.liveReplicaNodes,
           excludedNodes, rw.block.getNumBytes());
     }
@@ -1280,7 +1342,7 @@ int computeReplicationWorkForBlocks(List<List<Block>> blocksToReplicate) {
           // Move the block-replication into a "pending" state.
           // The reason we use 'pending' is so we can retry
           // replications that fail after an appropriate amount of time.
-          pendingReplications.increment(block, targets.length);
+          pendingReplications.increment(block, rw.srcNode, targets.length);
           if(blockLog.isDebugEnabled()) {
             blockLog.debug(
                 "BLOCK* block " + block
@@ -1414,12 +1476,15 @@ else if (excessBlocks != null && excessBlocks.contains(block)) {
       // If so, do not select the node as src node
       if ((nodesCorrupt != null) && nodesCorrupt.contains(node))
         continue;
+      final int nodeStreams =
+          replicationThroughput.getMaxStreams(node, maxReplicationStreams);
       if(priority != UnderReplicatedBlocks.QUEUE_HIGHEST_PRIORITY
-          && node.getNumberOfBlocksToBeReplicated() >= maxReplicationStreams)
+          && node.getNumberOfBlocksToBeReplicated() >= nodeStreams)
       {
         continue; // already reached replication limit
       }
-      if (node.getNumberOfBlocksToBeReplicated() >= replicationStreamsHardLimit)
+      if (node.getNumberOfBlocksToBeReplicated() >= nodeStreams
+          + replicationStreamsHardLimit - maxReplicationStreams)
       {
         continue;
       }
@@ -1463,7 +1528,8 @@ private void processPendingReplications() {
             neededReplications.add(timedOutItems[i],
                                    num.liveReplicas(),
                                    num.decommissionedReplicas(),
-                                   getReplication(timedOutItems[i]));
+                                   getReplication(timedOutItems[i]),
+                                   !blockHasEnoughRacks(timedOutItems[i]));
           }
         }
       } finally {
@@ -1536,6 +1602,30 @@ public String toString() {
    */
   public void processReport(final DatanodeID nodeID, final String poolId,
       final BlockListAsLongs newReport) throws IOException {
+    final NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    if (blockReportAdmission != null) {
+      final long queueStart = Time.now();
+      try {
+        blockReportAdmission.acquire();
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException(
+            "Interrupted waiting to process block report from " + nodeID);
+      }
+      if (metrics != null) {
+        metrics.addBlockReportQueueTime(Time.now() - queueStart);
+      }
+    }
+    try {
+      processReportAdmitted(nodeID, newReport);
+    } finally {
+      if (blockReportAdmission != null) {
+        blockReportAdmission.release();
+      }
+    }
+  }
+
+  private void processReportAdmitted(final DatanodeID nodeID,
+      final BlockListAsLongs newReport) throws IOException {
     namesystem.writeLock();
     final long startTime = Time.now(); //after acquiring write lock
     final long endTime;
@@ -1558,7 +1648,7 @@ public void processReport(final DatanodeID nodeID, final String poolId,
       if (node.numBlocks() == 0) {
         // The first block report can be processed a lot more efficiently than
         // ordinary block reports.  This shortens restart times.
-        processFirstBlockReport(node, newReport);
+        processFirstBlockReport(nodeID, node, newReport);
       } else {
         processReport(node, newReport);
       }
@@ -1661,18 +1751,36 @@ private void processReport(final DatanodeDescriptor node,
    * a toRemove list (since there won't be any).  It also silently discards 
    * any invalid blocks, thereby deferring their processing until 
    * the next block report.
+   *
+   * Since it only ever adds replicas, the report may be processed in
+   * chunks of {@link #blockReportChunkSize} blocks, releasing the write lock
+   * in between so that other operations are not stalled by a large report.
+   * @param nodeID - the ID of the node that sent the report
    * @param node - DatanodeDescriptor of the node that sent the report
    * @param report - the initial block report, to be processed
-   * @throws IOException 
+   * @throws IOException if the node is removed while the lock is released
    */
-  private void processFirstBlockReport(final DatanodeDescriptor node,
+  private void processFirstBlockReport(final DatanodeID nodeID,
+      final DatanodeDescriptor node,
       final BlockListAsLongs report) throws IOException {
     if (report == null) return;
     assert (namesystem.hasWriteLock());
     assert (node.numBlocks() == 0);
     BlockReportIterator itBR = report.getBlockReportIterator();
 
+    int processed = 0;
     while(itBR.hasNext()) {
+      if (blockReportChunkSize > 0 && processed > 0
+          && processed % blockReportChunkSize == 0) {
+        // let other operations in between chunks
+        namesystem.writeUnlock();
+        namesystem.writeLock();
+        if (datanodeManager.getDatanode(nodeID) != node || !node.isAlive) {
+          throw new IOException("Datanode " + nodeID + " was removed while"
+              + " processing its block report");
+        }
+      }
+      processed++;
       Block iblk = itBR.next();
       ReplicaState reportedState = itBR.getCurrentReplicaState();
       
@@ -2045,8 +2153,11 @@ private void addStoredBlockImmediate(BlockInfo storedBlock,
       return;
     }
 
-    // just add it
-    node.addBlock(storedBlock);
+    // just add it, unless it was added while the lock was released
+    // during a chunked initial block report
+    if (!node.addBlock(storedBlock)) {
+      return;
+    }
 
     // Now check for completion of blocks and safe block count
     int numCurrentReplica = countLiveNodes(storedBlock);
@@ -2282,7 +2393,8 @@ private MisReplicationResult processMisReplicatedBlock(BlockInfo block) {
     // add to under-replicated queue if need to be
     if (isNeededReplication(block, expectedReplication, numCurrentReplica)) {
       if (neededReplications.add(block, numCurrentReplica, num
-          .decommissionedReplicas(), expectedReplication)) {
+          .decommissionedReplicas(), expectedReplication,
+          !blockHasEnoughRacks(block))) {
         return MisReplicationResult.UNDER_REPLICATED;
       }
     }
@@ -2553,7 +2665,11 @@ void addBlock(DatanodeDescriptor node, Block block, String delHint)
     //
     // Modify the blocks->datanode map and node's map.
     //
-    pendingReplications.decrement(block);
+    final DatanodeDescriptor replicationSource =
+        pendingReplications.decrement(block);
+    if (replicationSource != null) {
+      replicationThroughput.replicationCompleted(replicationSource);
+    }
     processAndHandleReportedBlock(node, block, ReplicaState.FINALIZED,
         delHintNode);
   }
@@ -2804,7 +2920,8 @@ boolean isReplicationInProgress(DatanodeDescriptor srcNode) {
             neededReplications.add(block,
                                    curReplicas,
                                    num.decommissionedReplicas(),
-                                   curExpectedReplicas);
+                                   curExpectedReplicas,
+                                   !blockHasEnoughRacks(block));
           }
         }
       }
@@ -2866,7 +2983,7 @@ private void updateNeededReplications(final Block block,
       if (isNeededReplication(block, curExpectedReplicas, repl.liveReplicas())) {
         neededReplications.update(block, repl.liveReplicas(), repl
             .decommissionedReplicas(), curExpectedReplicas, curReplicasDelta,
-            expectedReplicasDelta);
+            expectedReplicasDelta, !blockHasEnoughRacks(block));
       } else {
         int oldReplicas = repl.liveReplicas()-curReplicasDelta;
         int oldExpectedReplicas = curExpectedReplicas-expectedReplicasDelta;
@@ -2890,7 +3007,7 @@ public void checkReplication(BlockCollection bc) {
       final NumberReplicas n = countNodes(block);
       if (isNeededReplication(block, expected, n.liveReplicas())) { 
         neededReplications.add(block, n.liveReplicas(),
-            n.decommissionedReplicas(), expected);
+            n.decommissionedReplicas(), expected, !blockHasEnoughRacks(block));
       } else if (n.liveReplicas() > expected) {
         processOverReplicatedBlock(block, expected, null, null);
       }
@@ -2945,6 +3062,25 @@ private int invalidateWorkForOneNode(String nodeId) {
     return toInvalidate.size();
   }
 
+  /**
+   * Hand the next batch of blocks to be invalidated on the given datanode
+   * to its heartbeat, so that deletions do not wait for the replication
+   * monitor to visit the datanode. The caller need only hold the namesystem
+   * read lock, since {@link InvalidateBlocks} is thread safe.
+   * @return the blocks, or null if there are none.
+   */
+  Block[] pollInvalidateWork(final DatanodeDescriptor dn) {
+    if (namesystem.isInSafeMode()) {
+      return null;
+    }
+    final Block[] toInvalidate = invalidateBlocks.poll(dn.getStorageID());
+    if (toInvalidate != null && blockLog.isInfoEnabled()) {
+      blockLog.info("BLOCK* " + getClass().getSimpleName()
+          + ": ask " + dn + " to delete " + Arrays.asList(toInvalidate));
+    }
+    return toInvalidate;
+  }
+
   boolean blockHasEnoughRacks(Block b) {
     if (!this.shouldCheckForEnoughRacks) {
       return true;
@@ -3097,9 +3233,24 @@ int computeDatanodeWork() {
       return 0;
     }
 
-    final int numlive = heartbeatManager.getLiveDatanodeCount();
-    final int blocksToProcess = numlive
+    final DatanodeDescriptor[] live = heartbeatManager.getDatanodes();
+    replicationThroughput.update(live, Time.now());
+    final int numlive = live.length;
+    int blocksToProcess = numlive
         * this.blocksReplWorkMultiplier;
+    if (replicationThroughput.isAdaptive()) {
+      // scan as many blocks as the datanodes can take, relative to the
+      // default number of streams
+      long streams = 0;
+      for (DatanodeDescriptor node : live) {
+        streams +=
+            replicationThroughput.getMaxStreams(node, maxReplicationStreams);
+      }
+      blocksToProcess = (int)Math.min(Integer.MAX_VALUE, Math.max(
+          blocksToProcess,
+          streams * blocksReplWorkMultiplier
+              / Math.max(1, maxReplicationStreams)));
+    }
     final int nodesToProcess = (int) Math.ceil(numlive
         * this.blocksInvalidateWorkPct);
 
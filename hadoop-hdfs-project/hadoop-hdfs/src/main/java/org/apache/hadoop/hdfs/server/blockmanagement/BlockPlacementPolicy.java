@@ -119,6 +119,32 @@ DatanodeDescriptor[] chooseTarget(BlockCollection srcBC,
                         chosenNodes, false, excludedNodes, blocksize);
   }
 
+  /**
+   * choose <i>numOfReplicas</i> data nodes for new replicas of the given
+   * existing block of srcBC, e.g. when it is under-replicated. By default,
+   * the same as
+   * {@link #chooseTarget(BlockCollection, int, DatanodeDescriptor, List, HashMap, long)}.
+   *
+   * @param srcBC block collection of file for which chooseTarget is invoked.
+   * @param block the block to replicate.
+   * @param numOfReplicas additional number of replicas wanted.
+   * @param writer the writer's machine, null if not in the cluster.
+   * @param chosenNodes datanodes that have been chosen as targets.
+   * @param blocksize size of the data to be written.
+   * @return array of DatanodeDescriptor instances chosen as target 
+   * and sorted as a pipeline.
+   */
+  DatanodeDescriptor[] chooseTarget(BlockCollection srcBC,
+                                    Block block,
+                                    int numOfReplicas,
+                                    DatanodeDescriptor writer,
+                                    List<DatanodeDescriptor> chosenNodes,
+                                    HashMap<Node, Node> excludedNodes,
+                                    long blocksize) {
+    return chooseTarget(srcBC, numOfReplicas, writer, chosenNodes,
+                        excludedNodes, blocksize);
+  }
+
   /**
    * Verify that the block is replicated on at least minRacks different racks
    * if there is more than minRacks rack in the system.
@@ -0,0 +1,313 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.blockmanagement;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.UnresolvedLinkException;
+import org.apache.hadoop.hdfs.ErasureCodeSchema;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.server.namenode.FSClusterStats;
+import org.apache.hadoop.hdfs.server.namenode.Namesystem;
+import org.apache.hadoop.net.NetworkTopology;
+import org.apache.hadoop.net.Node;
+
+import com.google.common.collect.Iterables;
+
+/**
+ * A block placement policy for erasure coded files, which spreads the
+ * blocks of each stripe, data and parity, over as many racks as possible,
+ * so that a rack failure loses as few blocks of a stripe as possible. See
+ * {@link ErasureCodeSchema} for the layout of erasure coded files.
+ *
+ * A new block of a parity file, or a new replica of one of its blocks, is
+ * placed off the racks holding the other blocks of its stripe, or failing
+ * that off their nodes. When the
+ * replication of an erasure coded file is reduced, the replicas deleted are
+ * those on the racks holding the most other blocks of the stripe. Blocks of
+ * other files are placed as by {@link BlockPlacementPolicyDefault}.
+ */
+@InterfaceAudience.Private
+public class BlockPlacementPolicyErasureCode
+    extends BlockPlacementPolicyDefault {
+  private Namesystem namesystem;
+  private ErasureCodeSchema schema;
+
+  @Override
+  public void initialize(Configuration conf, FSClusterStats stats,
+      NetworkTopology clusterMap) {
+    super.initialize(conf, stats, clusterMap);
+    this.namesystem = stats instanceof Namesystem ? (Namesystem)stats : null;
+    this.schema = ErasureCodeSchema.get(conf);
+  }
+
+  @Override
+  public DatanodeDescriptor[] chooseTarget(String srcPath,
+      int numOfReplicas, DatanodeDescriptor writer,
+      List<DatanodeDescriptor> chosenNodes, long blocksize) {
+    return chooseTarget(srcPath, numOfReplicas, writer, chosenNodes, false,
+        null, blocksize);
+  }
+
+  @Override
+  public DatanodeDescriptor[] chooseTarget(String srcPath,
+      int numOfReplicas, DatanodeDescriptor writer,
+      List<DatanodeDescriptor> chosenNodes, boolean returnChosenNodes,
+      HashMap<Node, Node> excludedNodes, long blocksize) {
+    return chooseTarget(srcPath, null, numOfReplicas, writer, chosenNodes,
+        returnChosenNodes, excludedNodes, blocksize);
+  }
+
+  @Override
+  DatanodeDescriptor[] chooseTarget(BlockCollection srcBC, Block block,
+      int numOfReplicas, DatanodeDescriptor writer,
+      List<DatanodeDescriptor> chosenNodes,
+      HashMap<Node, Node> excludedNodes, long blocksize) {
+    return chooseTarget(srcBC.getName(), block, numOfReplicas, writer,
+        chosenNodes, false, excludedNodes, blocksize);
+  }
+
+  /**
+   * Choose the targets of the given existing block of srcPath, or of its
+   * next block if null.
+   */
+  private DatanodeDescriptor[] chooseTarget(String srcPath, Block block,
+      int numOfReplicas, DatanodeDescriptor writer,
+      List<DatanodeDescriptor> chosenNodes, boolean returnChosenNodes,
+      HashMap<Node, Node> excludedNodes, long blocksize) {
+    final List<DatanodeDescriptor> stripeNodes =
+        getStripeNodesOfParityBlock(srcPath, block);
+    if (!stripeNodes.isEmpty()) {
+      final int wanted = numOfReplicas
+          + (returnChosenNodes ? chosenNodes.size() : 0);
+      for (boolean excludeRacks : new boolean[] { true, false }) {
+        final HashMap<Node, Node> excluded = excludedNodes == null
+            ? new HashMap<Node, Node>()
+            : new HashMap<Node, Node>(excludedNodes);
+        for (DatanodeDescriptor dn : stripeNodes) {
+          if (excludeRacks) {
+            for (Node n : clusterMap.getLeaves(dn.getNetworkLocation())) {
+              if (n != null) {
+                excluded.put(n, n);
+              }
+            }
+          } else {
+            excluded.put(dn, dn);
+          }
+        }
+        final DatanodeDescriptor[] targets = super.chooseTarget(srcPath,
+            numOfReplicas, writer, chosenNodes, returnChosenNodes, excluded,
+            blocksize);
+        if (targets.length >= wanted) {
+          return targets;
+        }
+      }
+    }
+    return super.chooseTarget(srcPath, numOfReplicas, writer, chosenNodes,
+        returnChosenNodes, excludedNodes, blocksize);
+  }
+
+  @Override
+  public DatanodeDescriptor chooseReplicaToDelete(BlockCollection bc,
+      Block block, short replicationFactor,
+      Collection<DatanodeDescriptor> first,
+      Collection<DatanodeDescriptor> second) {
+    final Map<String, Integer> rackCounts = getStripeRackCounts(bc, block);
+    if (rackCounts == null) {
+      return super.chooseReplicaToDelete(bc, block, replicationFactor,
+          first, second);
+    }
+
+    // Pick from the replicas on the racks with the most blocks of the
+    // stripe, counting the other replicas of this block too.
+    final Iterable<DatanodeDescriptor> replicas = Iterables.concat(first,
+        second);
+    for (DatanodeDescriptor dn : replicas) {
+      increment(rackCounts, dn.getNetworkLocation());
+    }
+    final List<DatanodeDescriptor> candidates =
+        new ArrayList<DatanodeDescriptor>();
+    int max = 0;
+    for (DatanodeDescriptor dn : replicas) {
+      final int count = rackCounts.get(dn.getNetworkLocation());
+      if (count > max) {
+        candidates.clear();
+        max = count;
+      }
+      if (count == max) {
+        candidates.add(dn);
+      }
+    }
+    return super.chooseReplicaToDelete(bc, block, replicationFactor,
+        candidates, Collections.<DatanodeDescriptor>emptyList());
+  }
+
+  /**
+   * @return the nodes holding the other blocks of the stripe of the given
+   *         block of srcPath, or of its next block if null, if it is a
+   *         parity file; empty otherwise.
+   */
+  private List<DatanodeDescriptor> getStripeNodesOfParityBlock(
+      String srcPath, Block block) {
+    final List<DatanodeDescriptor> nodes = new ArrayList<DatanodeDescriptor>();
+    if (namesystem == null || srcPath == null) {
+      return nodes;
+    }
+    final String source = schema.getSourcePath(srcPath);
+    if (source == null) {
+      return nodes;
+    }
+    namesystem.readLock();
+    try {
+      final BlockCollection parity = namesystem.getBlockCollection(srcPath);
+      final BlockCollection file = namesystem.getBlockCollection(source);
+      if (parity == null || file == null) {
+        return nodes;
+      }
+      final int m = schema.getNumParityBlocks();
+      final int k = schema.getNumDataBlocks();
+      final int index = block == null ? parity.numBlocks()
+          : indexOf(parity, block);
+      if (index < 0) {
+        return nodes;
+      }
+      final int stripe = index / m;
+      for (BlockInfo b : getStripeBlocks(parity, stripe * m, m)) {
+        if (!b.equals(block)) {
+          addNodes(b, nodes);
+        }
+      }
+      for (BlockInfo b : getStripeBlocks(file, stripe * k, k)) {
+        addNodes(b, nodes);
+      }
+    } catch (UnresolvedLinkException e) {
+      // place the block as any other
+    } finally {
+      namesystem.readUnlock();
+    }
+    return nodes;
+  }
+
+  /**
+   * @return for each rack, the number of the other blocks of the stripe of
+   *         the given block with a replica on it; null if the block is not
+   *         part of an erasure coded file.
+   */
+  private Map<String, Integer> getStripeRackCounts(BlockCollection bc,
+      Block block) {
+    if (namesystem == null || bc == null) {
+      return null;
+    }
+    final String name = bc.getName();
+    final int k = schema.getNumDataBlocks();
+    final int m = schema.getNumParityBlocks();
+    final int index = indexOf(bc, block);
+    if (index < 0) {
+      return null;
+    }
+    final List<BlockInfo> members = new ArrayList<BlockInfo>();
+    try {
+      final String source = schema.getSourcePath(name);
+      if (source != null) {
+        final int stripe = index / m;
+        members.addAll(getStripeBlocks(bc, stripe * m, m));
+        final BlockCollection file = namesystem.getBlockCollection(source);
+        if (file != null) {
+          members.addAll(getStripeBlocks(file, stripe * k, k));
+        }
+      } else {
+        final BlockCollection parity =
+            namesystem.getBlockCollection(schema.getParityPath(name));
+        if (parity == null) {
+          return null;
+        }
+        final int stripe = index / k;
+        members.addAll(getStripeBlocks(bc, stripe * k, k));
+        members.addAll(getStripeBlocks(parity, stripe * m, m));
+      }
+    } catch (UnresolvedLinkException e) {
+      return null;
+    }
+
+    final Map<String, Integer> counts = new HashMap<String, Integer>();
+    final Set<String> racks = new HashSet<String>();
+    for (BlockInfo b : members) {
+      if (b.equals(block)) {
+        continue;
+      }
+      racks.clear();
+      for (int i = 0; i < b.numNodes(); i++) {
+        final DatanodeDescriptor dn = b.getDatanode(i);
+        if (dn != null && racks.add(dn.getNetworkLocation())) {
+          increment(counts, dn.getNetworkLocation());
+        }
+      }
+    }
+    return counts;
+  }
+
+  private static int indexOf(BlockCollection bc, Block block) {
+    final BlockInfo[] blocks = bc.getBlocks();
+    if (blocks != null) {
+      for (int i = 0; i < blocks.length; i++) {
+        if (blocks[i].equals(block)) {
+          return i;
+        }
+      }
+    }
+    return -1;
+  }
+
+  /** @return the existing blocks of bc in [start, start + count). */
+  private static List<BlockInfo> getStripeBlocks(BlockCollection bc,
+      int start, int count) {
+    final BlockInfo[] blocks = bc.getBlocks();
+    if (blocks == null || start >= blocks.length) {
+      return Collections.emptyList();
+    }
+    final List<BlockInfo> result = new ArrayList<BlockInfo>(count);
+    for (int i = start; i < Math.min(start + count, blocks.length); i++) {
+      result.add(blocks[i]);
+    }
+    return result;
+  }
+
+  private static void addNodes(BlockInfo block,
+      List<DatanodeDescriptor> nodes) {
+    for (int i = 0; i < block.numNodes(); i++) {
+      final DatanodeDescriptor dn = block.getDatanode(i);
+      if (dn != null) {
+        nodes.add(dn);
+      }
+    }
+  }
+
+  private static void increment(Map<String, Integer> counts, String rack) {
+    final Integer count = counts.get(rack);
+    counts.put(rack, count == null ? 1 : count + 1);
+  }
+}
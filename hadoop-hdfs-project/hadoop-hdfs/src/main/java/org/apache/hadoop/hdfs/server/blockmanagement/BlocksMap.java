@@ -59,9 +59,13 @@ public void remove()  {
   
   private GSet<Block, BlockInfo> blocks;
 
-  BlocksMap(final float loadFactor) {
-    // Use 2% of total memory to size the GSet capacity
-    this.capacity = LightWeightGSet.computeCapacity(2.0, "BlocksMap");
+  /**
+   * @param capacityPercentage the percentage of the maximum heap to use
+   *        for the hash table of the map
+   */
+  BlocksMap(final double capacityPercentage) {
+    this.capacity = LightWeightGSet.computeCapacity(capacityPercentage,
+        "BlocksMap");
     this.blocks = new LightWeightGSet<Block, BlockInfo>(capacity);
   }
 
@@ -23,6 +23,8 @@
 import org.apache.hadoop.ipc.Server;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 /**
  * Stores information about all corrupt blocks in the File System.
@@ -30,14 +32,19 @@
  * corrupt. While reporting replicas of a Block, we hide any corrupt
  * copies. These copies are removed once Block is found to have 
  * expected number of good replicas.
- * Mapping: Block -> TreeSet<DatanodeDescriptor> 
+ * Mapping: Block ID -> sorted List<DatanodeDescriptor>
+ *
+ * The map is keyed by block id, so it does not hold on to the blocks, and
+ * the nodes of a block are an immutable list replaced on every change.
+ * Lookups therefore take no lock, while changes are serialized.
  */
 
 @InterfaceAudience.Private
 public class CorruptReplicasMap{
 
-  private SortedMap<Block, Collection<DatanodeDescriptor>> corruptReplicasMap =
-    new TreeMap<Block, Collection<DatanodeDescriptor>>();
+  private final ConcurrentNavigableMap<Long, List<DatanodeDescriptor>>
+      corruptReplicasMap =
+        new ConcurrentSkipListMap<Long, List<DatanodeDescriptor>>();
   
   /**
    * Mark the block belonging to datanode as corrupt.
@@ -48,10 +55,20 @@
    */
   public void addToCorruptReplicasMap(Block blk, DatanodeDescriptor dn,
       String reason) {
-    Collection<DatanodeDescriptor> nodes = getNodes(blk);
-    if (nodes == null) {
-      nodes = new TreeSet<DatanodeDescriptor>();
-      corruptReplicasMap.put(blk, nodes);
+    final boolean added;
+    synchronized (this) {
+      final List<DatanodeDescriptor> nodes = corruptReplicasMap.get(
+          blk.getBlockId());
+      added = nodes == null || !nodes.contains(dn);
+      if (added) {
+        final List<DatanodeDescriptor> copy = nodes == null
+            ? new ArrayList<DatanodeDescriptor>(1)
+            : new ArrayList<DatanodeDescriptor>(nodes);
+        copy.add(dn);
+        Collections.sort(copy);
+        corruptReplicasMap.put(blk.getBlockId(),
+            Collections.unmodifiableList(copy));
+      }
     }
     
     String reasonText;
@@ -61,8 +78,7 @@ public void addToCorruptReplicasMap(Block blk, DatanodeDescriptor dn,
       reasonText = "";
     }
     
-    if (!nodes.contains(dn)) {
-      nodes.add(dn);
+    if (added) {
       NameNode.blockStateChangeLog.info("BLOCK NameSystem.addToCorruptReplicasMap: "+
                                    blk.getBlockName() +
                                    " added as corrupt on " + dn +
@@ -83,10 +99,8 @@ public void addToCorruptReplicasMap(Block blk, DatanodeDescriptor dn,
    *
    * @param blk Block to be removed
    */
-  void removeFromCorruptReplicasMap(Block blk) {
-    if (corruptReplicasMap != null) {
-      corruptReplicasMap.remove(blk);
-    }
+  synchronized void removeFromCorruptReplicasMap(Block blk) {
+    corruptReplicasMap.remove(blk.getBlockId());
   }
 
   /**
@@ -96,18 +110,24 @@ void removeFromCorruptReplicasMap(Block blk) {
    * @return true if the removal is successful; 
              false if the replica is not in the map
    */ 
-  boolean removeFromCorruptReplicasMap(Block blk, DatanodeDescriptor datanode) {
-    Collection<DatanodeDescriptor> datanodes = corruptReplicasMap.get(blk);
-    if (datanodes==null)
+  synchronized boolean removeFromCorruptReplicasMap(Block blk,
+      DatanodeDescriptor datanode) {
+    final List<DatanodeDescriptor> datanodes = corruptReplicasMap.get(
+        blk.getBlockId());
+    if (datanodes == null || !datanodes.contains(datanode)) {
       return false;
-    if (datanodes.remove(datanode)) { // remove the replicas
-      if (datanodes.isEmpty()) {
-        // remove the block if there is no more corrupted replicas
-        corruptReplicasMap.remove(blk);
-      }
-      return true;
     }
-    return false;
+    if (datanodes.size() == 1) {
+      // remove the block if there is no more corrupted replicas
+      corruptReplicasMap.remove(blk.getBlockId());
+    } else {
+      final List<DatanodeDescriptor> copy =
+          new ArrayList<DatanodeDescriptor>(datanodes);
+      copy.remove(datanode);
+      corruptReplicasMap.put(blk.getBlockId(),
+          Collections.unmodifiableList(copy));
+    }
+    return true;
   }
     
 
@@ -115,10 +135,10 @@ boolean removeFromCorruptReplicasMap(Block blk, DatanodeDescriptor datanode) {
    * Get Nodes which have corrupt replicas of Block
    * 
    * @param blk Block for which nodes are requested
-   * @return collection of nodes. Null if does not exists
+   * @return an unmodifiable collection of nodes. Null if does not exists
    */
   Collection<DatanodeDescriptor> getNodes(Block blk) {
-    return corruptReplicasMap.get(blk);
+    return corruptReplicasMap.get(blk.getBlockId());
   }
 
   /**
@@ -162,31 +182,22 @@ long[] getCorruptReplicaBlockIds(int numExpectedBlocks,
       return null;
     }
     
-    Iterator<Block> blockIt = corruptReplicasMap.keySet().iterator();
-    
-    // if the starting block id was specified, iterate over keys until
-    // we find the matching block. If we find a matching block, break
-    // to leave the iterator on the next block after the specified block. 
-    if (startingBlockId != null) {
-      boolean isBlockFound = false;
-      while (blockIt.hasNext()) {
-        Block b = blockIt.next();
-        if (b.getBlockId() == startingBlockId) {
-          isBlockFound = true;
-          break; 
-        }
-      }
-      
-      if (!isBlockFound) {
-        return null;
-      }
+    final Iterator<Long> blockIt;
+    if (startingBlockId == null) {
+      blockIt = corruptReplicasMap.keySet().iterator();
+    } else if (corruptReplicasMap.containsKey(startingBlockId)) {
+      // start at the next block after the specified block
+      blockIt = corruptReplicasMap.tailMap(startingBlockId, false)
+          .keySet().iterator();
+    } else {
+      return null;
     }
 
     ArrayList<Long> corruptReplicaBlockIds = new ArrayList<Long>();
 
     // append up to numExpectedBlocks blockIds to our list
     for(int i=0; i<numExpectedBlocks && blockIt.hasNext(); i++) {
-      corruptReplicaBlockIds.add(blockIt.next().getBlockId());
+      corruptReplicaBlockIds.add(blockIt.next());
     }
     
     long[] ret = new long[corruptReplicaBlockIds.size()];
@@ -27,7 +27,7 @@
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.DatanodeID;
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
-import org.apache.hadoop.hdfs.util.LightWeightHashSet;
+import org.apache.hadoop.hdfs.util.BlockIdSet;
 import org.apache.hadoop.util.Time;
 
 /**
@@ -132,7 +132,7 @@ synchronized void clear() {
   private BlockQueue<BlockInfoUnderConstruction> recoverBlocks =
                                 new BlockQueue<BlockInfoUnderConstruction>();
   /** A set of blocks to be invalidated by this datanode */
-  private LightWeightHashSet<Block> invalidateBlocks = new LightWeightHashSet<Block>();
+  private final BlockIdSet invalidateBlocks = new BlockIdSet();
 
   /* Variables for maintaining number of blocks scheduled to be written to
    * this datanode. This count is approximate and might be slightly bigger
@@ -143,6 +143,13 @@ synchronized void clear() {
   private int prevApproxBlocksScheduled = 0;
   private long lastBlocksScheduledRollTime = 0;
   private static final int BLOCKS_SCHEDULED_ROLL_INTERVAL = 600*1000; //10min
+
+  /* Variables for sizing the replication work of this datanode, see
+   * ReplicationThroughput. They are updated by the replication monitor.
+   */
+  private int replicationsCompleted = 0;
+  private double replicationRate = 0;
+  private volatile int replicationStreamsLimit = 0;
   private int volumeFailures = 0;
   
   /** Set to false after processing first block report */
@@ -413,8 +420,7 @@ public BlockInfoUnderConstruction[] getLeaseRecoveryCommand(int maxTransfers) {
    */
   public Block[] getInvalidateBlocks(int maxblocks) {
     synchronized (invalidateBlocks) {
-      Block[] deleteList = invalidateBlocks.pollToArray(new Block[Math.min(
-          invalidateBlocks.size(), maxblocks)]);
+      Block[] deleteList = invalidateBlocks.pollN(maxblocks);
       return deleteList.length == 0 ? null : deleteList;
     }
   }
@@ -457,6 +463,36 @@ private void rollBlocksScheduled(long now) {
       lastBlocksScheduledRollTime = now;
     }
   }
+
+  /** A replication from this datanode completed. */
+  void incReplicationsCompleted() {
+    replicationsCompleted++;
+  }
+
+  /**
+   * Update the average replication rate of this datanode with the
+   * replications completed in the given period, and start a new period.
+   * @return the average number of replications completed per second
+   */
+  double rollReplicationRate(double seconds, double alpha) {
+    replicationRate = alpha * replicationsCompleted / seconds
+        + (1 - alpha) * replicationRate;
+    replicationsCompleted = 0;
+    return replicationRate;
+  }
+
+  /**
+   * @return the number of replications this datanode may have queued or in
+   *         progress, or the given default if it has not been set.
+   */
+  int getReplicationStreamsLimit(int defaultLimit) {
+    final int limit = replicationStreamsLimit;
+    return limit > 0 ? limit : defaultLimit;
+  }
+
+  void setReplicationStreamsLimit(int limit) {
+    replicationStreamsLimit = limit;
+  }
   
   @Override
   public int hashCode() {
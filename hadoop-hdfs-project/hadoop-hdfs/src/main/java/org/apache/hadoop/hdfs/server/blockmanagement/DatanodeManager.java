@@ -1159,6 +1159,9 @@ public DatanodeCommand[] handleHeartbeat(DatanodeRegistration nodeReg,
         }
         //check block invalidation
         Block[] blks = nodeinfo.getInvalidateBlocks(blockInvalidateLimit);
+        if (blks == null) {
+          blks = blockManager.pollInvalidateWork(nodeinfo);
+        }
         if (blks != null) {
           cmds.add(new BlockCommand(DatanodeProtocol.DNA_INVALIDATE,
               blockPoolId, blks));
@@ -19,28 +19,36 @@
 
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
 import org.apache.hadoop.hdfs.server.namenode.NameNode;
-import org.apache.hadoop.hdfs.util.LightWeightHashSet;
+import org.apache.hadoop.hdfs.util.BlockIdSet;
 
 /**
  * Keeps a Collection for every named machine containing blocks
  * that have recently been invalidated and are thought to live
  * on the machine in question.
+ *
+ * The blocks of each storage are kept in a {@link BlockIdSet} guarded by
+ * its own lock, so that block reports and heartbeats from different
+ * datanodes do not contend with each other, and a mass deletion does not
+ * leave an object per block on the heap.
  */
 @InterfaceAudience.Private
 class InvalidateBlocks {
   /** Mapping: StorageID -> Collection of Blocks */
-  private final Map<String, LightWeightHashSet<Block>> node2blocks =
-      new TreeMap<String, LightWeightHashSet<Block>>();
+  private final ConcurrentMap<String, BlockIdSet> node2blocks =
+      new ConcurrentHashMap<String, BlockIdSet>();
   /** The total number of blocks in the map. */
-  private long numBlocks = 0L;
+  private final AtomicLong numBlocks = new AtomicLong();
 
   private final DatanodeManager datanodeManager;
 
@@ -49,8 +57,8 @@ class InvalidateBlocks {
   }
 
   /** @return the number of blocks to be invalidated . */
-  synchronized long numBlocks() {
-    return numBlocks;
+  long numBlocks() {
+    return numBlocks.get();
   }
 
   /**
@@ -62,12 +70,15 @@ synchronized long numBlocks() {
    * @param the block to look for
    * 
    */
-  synchronized boolean contains(final String storageID, final Block block) {
-    final LightWeightHashSet<Block> s = node2blocks.get(storageID);
+  boolean contains(final String storageID, final Block block) {
+    final BlockIdSet s = node2blocks.get(storageID);
     if (s == null) {
       return false; // no invalidate blocks for this storage ID
     }
-    Block blockInSet = s.getElement(block);
+    final Block blockInSet;
+    synchronized (s) {
+      blockInSet = s.get(block.getBlockId());
+    }
     return blockInSet != null &&
         block.getGenerationStamp() == blockInSet.getGenerationStamp();
   }
@@ -76,15 +87,29 @@ synchronized boolean contains(final String storageID, final Block block) {
    * Add a block to the block collection
    * which will be invalidated on the specified datanode.
    */
-  synchronized void add(final Block block, final DatanodeInfo datanode,
+  void add(final Block block, final DatanodeInfo datanode,
       final boolean log) {
-    LightWeightHashSet<Block> set = node2blocks.get(datanode.getStorageID());
-    if (set == null) {
-      set = new LightWeightHashSet<Block>();
-      node2blocks.put(datanode.getStorageID(), set);
+    final String storageID = datanode.getStorageID();
+    boolean added;
+    for (;;) {
+      BlockIdSet set = node2blocks.get(storageID);
+      if (set == null) {
+        set = new BlockIdSet();
+        final BlockIdSet existing = node2blocks.putIfAbsent(storageID, set);
+        if (existing != null) {
+          set = existing;
+        }
+      }
+      synchronized (set) {
+        if (node2blocks.get(storageID) != set) {
+          continue; // the set was emptied and removed concurrently
+        }
+        added = set.add(block);
+      }
+      break;
     }
-    if (set.add(block)) {
-      numBlocks++;
+    if (added) {
+      numBlocks.incrementAndGet();
       if (log) {
         NameNode.blockStateChangeLog.info("BLOCK* " + getClass().getSimpleName()
             + ": add " + block + " to " + datanode);
@@ -93,70 +118,97 @@ synchronized void add(final Block block, final DatanodeInfo datanode,
   }
 
   /** Remove a storage from the invalidatesSet */
-  synchronized void remove(final String storageID) {
-    final LightWeightHashSet<Block> blocks = node2blocks.remove(storageID);
+  void remove(final String storageID) {
+    final BlockIdSet blocks = node2blocks.remove(storageID);
     if (blocks != null) {
-      numBlocks -= blocks.size();
+      synchronized (blocks) {
+        numBlocks.addAndGet(-blocks.size());
+        blocks.clear();
+      }
     }
   }
 
   /** Remove the block from the specified storage. */
-  synchronized void remove(final String storageID, final Block block) {
-    final LightWeightHashSet<Block> v = node2blocks.get(storageID);
-    if (v != null && v.remove(block)) {
-      numBlocks--;
-      if (v.isEmpty()) {
-        node2blocks.remove(storageID);
+  void remove(final String storageID, final Block block) {
+    final BlockIdSet v = node2blocks.get(storageID);
+    if (v == null) {
+      return;
+    }
+    synchronized (v) {
+      if (v.remove(block)) {
+        numBlocks.decrementAndGet();
+        if (v.isEmpty()) {
+          node2blocks.remove(storageID, v);
+        }
       }
     }
   }
 
   /** Print the contents to out. */
-  synchronized void dump(final PrintWriter out) {
-    final int size = node2blocks.values().size();
-    out.println("Metasave: Blocks " + numBlocks 
+  void dump(final PrintWriter out) {
+    final int size = node2blocks.size();
+    out.println("Metasave: Blocks " + numBlocks
         + " waiting deletion from " + size + " datanodes.");
     if (size == 0) {
       return;
     }
 
-    for(Map.Entry<String,LightWeightHashSet<Block>> entry : node2blocks.entrySet()) {
-      final LightWeightHashSet<Block> blocks = entry.getValue();
-      if (blocks.size() > 0) {
-        out.println(datanodeManager.getDatanode(entry.getKey()));
-        out.println(blocks);
+    for(Map.Entry<String,BlockIdSet> entry : node2blocks.entrySet()) {
+      final BlockIdSet blocks = entry.getValue();
+      synchronized (blocks) {
+        if (blocks.size() > 0) {
+          out.println(datanodeManager.getDatanode(entry.getKey()));
+          for(Block b : blocks) {
+            out.println(b);
+          }
+        }
       }
     }
   }
 
   /** @return a list of the storage IDs. */
-  synchronized List<String> getStorageIDs() {
+  List<String> getStorageIDs() {
     return new ArrayList<String>(node2blocks.keySet());
   }
 
-  synchronized List<Block> invalidateWork(
-      final String storageId, final DatanodeDescriptor dn) {
-    final LightWeightHashSet<Block> set = node2blocks.get(storageId);
+  /**
+   * Remove up to the invalidate limit of blocks of the given storage.
+   * @return the blocks, or null if there are none.
+   */
+  Block[] poll(final String storageId) {
+    final BlockIdSet set = node2blocks.get(storageId);
     if (set == null) {
       return null;
     }
 
     // # blocks that can be sent in one message is limited
     final int limit = datanodeManager.blockInvalidateLimit;
-    final List<Block> toInvalidate = set.pollN(limit);
-
-    // If we send everything in this message, remove this node entry
-    if (set.isEmpty()) {
-      remove(storageId);
+    final Block[] toInvalidate;
+    synchronized (set) {
+      toInvalidate = set.pollN(limit);
+      // If we send everything in this message, remove this node entry
+      if (set.isEmpty()) {
+        node2blocks.remove(storageId, set);
+      }
     }
+    numBlocks.addAndGet(-toInvalidate.length);
+    return toInvalidate.length == 0 ? null : toInvalidate;
+  }
 
-    dn.addBlocksToBeInvalidated(toInvalidate);
-    numBlocks -= toInvalidate.size();
-    return toInvalidate;
+  List<Block> invalidateWork(
+      final String storageId, final DatanodeDescriptor dn) {
+    final Block[] toInvalidate = poll(storageId);
+    if (toInvalidate == null) {
+      return null;
+    }
+    final List<Block> list = Arrays.asList(toInvalidate);
+    dn.addBlocksToBeInvalidated(list);
+    return list;
   }
   
-  synchronized void clear() {
-    node2blocks.clear();
-    numBlocks = 0;
+  void clear() {
+    for (String storageID : getStorageIDs()) {
+      remove(storageID);
+    }
   }
 }
@@ -73,13 +73,23 @@ void start() {
    * Add a block to the list of pending Replications
    */
   void increment(Block block, int numReplicas) {
+    increment(block, null, numReplicas);
+  }
+
+  /**
+   * Add a block to the list of pending Replications
+   * @param source the datanode the block is replicated from, if known
+   */
+  void increment(Block block, DatanodeDescriptor source, int numReplicas) {
     synchronized (pendingReplications) {
       PendingBlockInfo found = pendingReplications.get(block);
       if (found == null) {
-        pendingReplications.put(block, new PendingBlockInfo(numReplicas));
+        pendingReplications.put(block,
+            new PendingBlockInfo(source, numReplicas));
       } else {
         found.incrementReplicas(numReplicas);
         found.setTimeStamp();
+        found.setSource(source);
       }
     }
   }
@@ -88,8 +98,10 @@ void increment(Block block, int numReplicas) {
    * One replication request for this block has finished.
    * Decrement the number of pending replication requests
    * for this block.
+   * @return the datanode the block was last replicated from, or null if
+   *         the block was not pending replication or its source is unknown
    */
-  void decrement(Block block) {
+  DatanodeDescriptor decrement(Block block) {
     synchronized (pendingReplications) {
       PendingBlockInfo found = pendingReplications.get(block);
       if (found != null) {
@@ -100,8 +112,10 @@ void decrement(Block block) {
         if (found.getNumReplicas() <= 0) {
           pendingReplications.remove(block);
         }
+        return found.getSource();
       }
     }
+    return null;
   }
 
   /**
@@ -169,10 +183,20 @@ Block[] getTimedOutBlocks() {
   static class PendingBlockInfo {
     private long timeStamp;
     private int numReplicasInProgress;
+    private DatanodeDescriptor source;
 
-    PendingBlockInfo(int numReplicas) {
+    PendingBlockInfo(DatanodeDescriptor source, int numReplicas) {
       this.timeStamp = now();
       this.numReplicasInProgress = numReplicas;
+      this.source = source;
+    }
+
+    DatanodeDescriptor getSource() {
+      return source;
+    }
+
+    void setSource(DatanodeDescriptor source) {
+      this.source = source;
     }
 
     long getTimeStamp() {
@@ -0,0 +1,118 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.blockmanagement;
+
+/**
+ * Tracks the rate at which replications complete, for each source datanode
+ * and for the cluster, and sizes the replication work of each datanode from
+ * it.
+ *
+ * The replication monitor schedules work once per interval, so a datanode
+ * which finishes its replications early stays idle until the next pass.
+ * When adaptive, the number of replications a datanode may have queued or
+ * in progress is therefore set to the number it completes in two intervals
+ * at its observed rate, between the configured max-streams and the adaptive
+ * limit. A datanode whose transfers finish quickly gets more streams on each
+ * pass, until its bandwidth is saturated and its rate stops growing.
+ */
+class ReplicationThroughput {
+  /** The weight of the last interval in the average rates. */
+  private static final double ALPHA = 0.5;
+
+  private final int minStreams;
+  private final int maxStreams;
+  private final long interval;
+
+  private long lastUpdate;
+  private int completed = 0;
+  /** Replications completed per second in the cluster, on average. */
+  private double rate = 0;
+
+  /**
+   * @param minStreams the replication streams of a datanode by default
+   * @param maxStreams the maximum replication streams of a datanode
+   * @param interval the replication monitor interval in milliseconds
+   * @param now the current time in milliseconds
+   */
+  ReplicationThroughput(int minStreams, int maxStreams, long interval,
+      long now) {
+    this.minStreams = minStreams;
+    this.maxStreams = Math.max(minStreams, maxStreams);
+    this.interval = interval;
+    this.lastUpdate = now;
+  }
+
+  /** @return whether the replication streams of a datanode are adaptive. */
+  boolean isAdaptive() {
+    return maxStreams > minStreams;
+  }
+
+  /**
+   * @param defaultStreams the replication streams if not adaptive
+   * @return the number of replications the given datanode may have queued
+   *         or in progress.
+   */
+  int getMaxStreams(DatanodeDescriptor node, int defaultStreams) {
+    return isAdaptive() ? node.getReplicationStreamsLimit(defaultStreams)
+        : defaultStreams;
+  }
+
+  /** A replication from the given datanode completed. */
+  synchronized void replicationCompleted(DatanodeDescriptor source) {
+    completed++;
+    source.incReplicationsCompleted();
+  }
+
+  /**
+   * Update the rates from the replications completed since the last update,
+   * and the replication streams of the given datanodes from their rates.
+   */
+  synchronized void update(DatanodeDescriptor[] nodes, long now) {
+    final double seconds = Math.max(1, now - lastUpdate) / 1000.0;
+    lastUpdate = now;
+    rate = ALPHA * completed / seconds + (1 - ALPHA) * rate;
+    completed = 0;
+
+    final double window = 2 * interval / 1000.0;
+    for (DatanodeDescriptor node : nodes) {
+      final double nodeRate = node.rollReplicationRate(seconds, ALPHA);
+      if (isAdaptive()) {
+        final long streams = (long)Math.ceil(nodeRate * window);
+        node.setReplicationStreamsLimit(
+            (int)Math.max(minStreams, Math.min(maxStreams, streams)));
+      }
+    }
+  }
+
+  /** @return the replications completed per second, on average. */
+  synchronized double getRate() {
+    return rate;
+  }
+
+  /**
+   * @return the estimated number of seconds needed to replicate the given
+   *         number of blocks at the current rate, or -1 if nothing is being
+   *         replicated.
+   */
+  synchronized long getEstimatedSeconds(long blocks) {
+    if (blocks == 0) {
+      return 0;
+    }
+    return rate > 0 ? (long)Math.ceil(blocks / rate) : -1;
+  }
+}
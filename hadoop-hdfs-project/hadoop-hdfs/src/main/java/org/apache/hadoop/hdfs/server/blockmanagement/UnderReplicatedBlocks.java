@@ -38,7 +38,7 @@
  *
  * <p/>
  * The policy for choosing which priority to give added blocks
- * is implemented in {@link #getPriority(Block, int, int, int)}.
+ * is implemented in {@link #getPriority(Block, int, int, int, boolean)}.
  * </p>
  * <p>The queue order is as follows:</p>
  * <ol>
@@ -51,7 +51,10 @@
  *   under-replicated compared to their expected values. Currently
  *   that means the ratio of the ratio of actual:expected means that
  *   there is <i>less than</i> 1:3.</li>. These blocks may not be at risk,
- *   but they are clearly considered "important".
+ *   but they are clearly considered "important". Under-replicated blocks
+ *   whose replicas are all on one rack also go here, as the loss of that
+ *   rack would lose them: after a rack failure, they are replicated before
+ *   the blocks which still span two racks.
  *   <li>{@link #QUEUE_UNDER_REPLICATED}: blocks that are also under
  *   replicated, and the ratio of actual:expected is good enough that
  *   they do not need to go into the {@link #QUEUE_VERY_UNDER_REPLICATED}
@@ -143,12 +146,15 @@ synchronized boolean contains(Block block) {
    * @param block a under replicated block
    * @param curReplicas current number of replicas of the block
    * @param expectedReplicas expected number of replicas of the block
+   * @param onOneRack whether the replicas of the block are all on one rack
+   *                  of a multi-rack cluster
    * @return the priority for the blocks, between 0 and ({@link #LEVEL}-1)
    */
   private int getPriority(Block block,
                           int curReplicas, 
                           int decommissionedReplicas,
-                          int expectedReplicas) {
+                          int expectedReplicas,
+                          boolean onOneRack) {
     assert curReplicas >= 0 : "Negative replicas!";
     if (curReplicas >= expectedReplicas) {
       // Block has enough copies, but not enough racks
@@ -165,8 +171,9 @@ private int getPriority(Block block,
       //only on replica -risk of loss
       // highest priority
       return QUEUE_HIGHEST_PRIORITY;
-    } else if ((curReplicas * 3) < expectedReplicas) {
-      //there is less than a third as many blocks as requested;
+    } else if ((curReplicas * 3) < expectedReplicas || onOneRack) {
+      //there is less than a third as many blocks as requested,
+      //or a single rack failure would lose all of them;
       //this is considered very under-replicated
       return QUEUE_VERY_UNDER_REPLICATED;
     } else {
@@ -186,9 +193,26 @@ synchronized boolean add(Block block,
                            int curReplicas, 
                            int decomissionedReplicas,
                            int expectedReplicas) {
+    return add(block, curReplicas, decomissionedReplicas, expectedReplicas,
+        false);
+  }
+
+  /** add a block to a under replication queue according to its priority
+   * @param block a under replication block
+   * @param curReplicas current number of replicas of the block
+   * @param decomissionedReplicas the number of decommissioned replicas
+   * @param expectedReplicas expected number of replicas of the block
+   * @param onOneRack whether the replicas of the block are all on one rack
+   * @return true if the block was added to a queue.
+   */
+  synchronized boolean add(Block block,
+                           int curReplicas, 
+                           int decomissionedReplicas,
+                           int expectedReplicas,
+                           boolean onOneRack) {
     assert curReplicas >= 0 : "Negative replicas!";
     int priLevel = getPriority(block, curReplicas, decomissionedReplicas,
-                               expectedReplicas);
+                               expectedReplicas, onOneRack);
     if(priorityQueues.get(priLevel).add(block)) {
       if(NameNode.blockStateChangeLog.isDebugEnabled()) {
         NameNode.blockStateChangeLog.debug(
@@ -211,7 +235,7 @@ synchronized boolean remove(Block block,
                               int oldExpectedReplicas) {
     int priLevel = getPriority(block, oldReplicas, 
                                decommissionedReplicas,
-                               oldExpectedReplicas);
+                               oldExpectedReplicas, false);
     return remove(block, priLevel);
   }
 
@@ -278,10 +302,26 @@ synchronized void update(Block block, int curReplicas,
                            int decommissionedReplicas,
                            int curExpectedReplicas,
                            int curReplicasDelta, int expectedReplicasDelta) {
+    update(block, curReplicas, decommissionedReplicas, curExpectedReplicas,
+        curReplicasDelta, expectedReplicasDelta, false);
+  }
+
+  /**
+   * Recalculate and potentially update the priority level of a block,
+   * as {@link #update(Block, int, int, int, int, int)} does.
+   * @param onOneRack whether the replicas of the block are all on one rack
+   */
+  synchronized void update(Block block, int curReplicas,
+                           int decommissionedReplicas,
+                           int curExpectedReplicas,
+                           int curReplicasDelta, int expectedReplicasDelta,
+                           boolean onOneRack) {
     int oldReplicas = curReplicas-curReplicasDelta;
     int oldExpectedReplicas = curExpectedReplicas-expectedReplicasDelta;
-    int curPri = getPriority(block, curReplicas, decommissionedReplicas, curExpectedReplicas);
-    int oldPri = getPriority(block, oldReplicas, decommissionedReplicas, oldExpectedReplicas);
+    int curPri = getPriority(block, curReplicas, decommissionedReplicas,
+        curExpectedReplicas, onOneRack);
+    int oldPri = getPriority(block, oldReplicas, decommissionedReplicas,
+        oldExpectedReplicas, onOneRack);
     if(NameNode.stateChangeLog.isDebugEnabled()) {
       NameNode.stateChangeLog.debug("UnderReplicationBlocks.update " + 
         block +
@@ -292,7 +332,9 @@ synchronized void update(Block block, int curReplicas,
         " curPri  " + curPri +
         " oldPri  " + oldPri);
     }
-    if(oldPri != curPri) {
+    // The racks of the replicas may have changed too, so the block may be
+    // in another queue than oldPri even if the counts give the same one.
+    if(oldPri != curPri || !priorityQueues.get(curPri).contains(block)) {
       remove(block, oldPri);
     }
     if(priorityQueues.get(curPri).add(block)) {
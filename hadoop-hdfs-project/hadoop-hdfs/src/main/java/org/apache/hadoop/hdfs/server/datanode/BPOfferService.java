@@ -535,6 +535,9 @@ private boolean processCommandFromActive(DatanodeCommand cmd,
         if (dn.blockScanner != null) {
           dn.blockScanner.deleteBlocks(bcmd.getBlockPoolId(), toDelete);
         }
+        if (dn.blockCache != null) {
+          dn.blockCache.uncache(bcmd.getBlockPoolId(), toDelete);
+        }
         // using global fsdataset
         dn.getFSDataset().invalidate(bcmd.getBlockPoolId(), toDelete);
       } catch(IOException e) {
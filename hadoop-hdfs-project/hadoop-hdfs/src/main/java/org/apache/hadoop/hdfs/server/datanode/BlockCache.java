@@ -0,0 +1,444 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
+import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.ReplicaState;
+import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.nativeio.NativeIO;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Caches the data of frequently read finalized replicas in memory.
+ *
+ * A replica is cached once it has been read
+ * {@link DFSConfigKeys#DFS_DATANODE_BLOCK_CACHE_MIN_READS_KEY} times. Its
+ * block file is then memory-mapped, and the mapping is faulted in or, if
+ * configured, locked into memory with mlock, on a background thread. The
+ * mappings live outside the Java heap; their total size is bounded by
+ * {@link DFSConfigKeys#DFS_DATANODE_BLOCK_CACHE_SIZE_KEY}, and the least
+ * recently or least frequently read replica is evicted to make room.
+ *
+ * {@link BlockSender} copies the data of a cached replica from the mapping,
+ * and leaves transferTo to the OS, whose page cache shares the pages of the
+ * mapping. Short-circuit readers on the same host share them too.
+ *
+ * A cached replica is identified by its block pool and block ID; it is
+ * only used while the replica keeps the generation stamp and length it had
+ * when it was cached. Deleted replicas are uncached by
+ * {@link #uncache(String, Block[])}.
+ */
+class BlockCache {
+  static final Log LOG = LogFactory.getLog(BlockCache.class);
+
+  enum EvictionPolicy {
+    /** Evict the least recently read replica. */
+    LRU,
+    /** Evict the least frequently read replica. */
+    LFU
+  }
+
+  /** The number of uncached replicas whose reads are counted. */
+  static final int MAX_CANDIDATES = 4096;
+
+  /**
+   * The mapped data of a replica. A cached block is referenced by the
+   * {@link BlockSender}s using it, and is unmapped once it has been evicted
+   * and the last of them has released it.
+   */
+  static class CachedBlock {
+    private final ExtendedBlock key;
+    private final long genStamp;
+    private final long length;
+    private final MappedByteBuffer mmap;
+    private final boolean locked;
+    /** Hits since the replica was cached, halved as it ages. */
+    private long hits;
+    private int refCount;
+    private boolean evicted;
+
+    CachedBlock(ExtendedBlock key, long genStamp, long length,
+        MappedByteBuffer mmap, boolean locked) {
+      this.key = key;
+      this.genStamp = genStamp;
+      this.length = length;
+      this.mmap = mmap;
+      this.locked = locked;
+    }
+
+    /** @return a view of the replica's data, positioned at 0. */
+    ByteBuffer getData() {
+      return mmap.duplicate();
+    }
+
+    long getLength() {
+      return length;
+    }
+
+    boolean isLocked() {
+      return locked;
+    }
+
+    @Override
+    public String toString() {
+      return key + "_" + genStamp + "(length=" + length
+          + ", locked=" + locked + ")";
+    }
+  }
+
+  private final DataNode datanode;
+  private final DataNodeMetrics metrics;
+  private final long capacity;
+  private final EvictionPolicy policy;
+  private final boolean mlock;
+  private final int minReads;
+
+  /** Cached replicas, in LRU order. */
+  private final LinkedHashMap<ExtendedBlock, CachedBlock> cached =
+      new LinkedHashMap<ExtendedBlock, CachedBlock>(16, 0.75f, true);
+  /** Read counts of uncached replicas, in LRU order. */
+  private final LinkedHashMap<ExtendedBlock, Integer> candidates =
+      new LinkedHashMap<ExtendedBlock, Integer>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(
+            Map.Entry<ExtendedBlock, Integer> eldest) {
+          return size() > MAX_CANDIDATES;
+        }
+      };
+  /** Replicas being cached; their length is already in usedBytes. */
+  private final Set<ExtendedBlock> loading = new HashSet<ExtendedBlock>();
+  private long usedBytes = 0;
+  private boolean warnedMlockFailure = false;
+
+  private final ExecutorService loader;
+
+  BlockCache(DataNode datanode, Configuration conf, DataNodeMetrics metrics) {
+    this.datanode = datanode;
+    this.metrics = metrics;
+    this.capacity = conf.getLong(
+        DFSConfigKeys.DFS_DATANODE_BLOCK_CACHE_SIZE_KEY,
+        DFSConfigKeys.DFS_DATANODE_BLOCK_CACHE_SIZE_DEFAULT);
+    this.policy = EvictionPolicy.valueOf(conf.get(
+        DFSConfigKeys.DFS_DATANODE_BLOCK_CACHE_EVICTION_POLICY_KEY,
+        DFSConfigKeys.DFS_DATANODE_BLOCK_CACHE_EVICTION_POLICY_DEFAULT)
+        .trim().toUpperCase());
+    this.minReads = Math.max(1, conf.getInt(
+        DFSConfigKeys.DFS_DATANODE_BLOCK_CACHE_MIN_READS_KEY,
+        DFSConfigKeys.DFS_DATANODE_BLOCK_CACHE_MIN_READS_DEFAULT));
+    boolean mlock = conf.getBoolean(
+        DFSConfigKeys.DFS_DATANODE_BLOCK_CACHE_MLOCK_KEY,
+        DFSConfigKeys.DFS_DATANODE_BLOCK_CACHE_MLOCK_DEFAULT);
+    if (mlock && capacity > 0 && !NativeIO.isAvailable()) {
+      LOG.warn(DFSConfigKeys.DFS_DATANODE_BLOCK_CACHE_MLOCK_KEY + " is set, "
+          + "but the native hadoop library is not available. Cached "
+          + "replicas will not be locked into memory.");
+      mlock = false;
+    }
+    this.mlock = mlock;
+
+    if (capacity > 0) {
+      // a single thread, so that caching does not compete with the readers
+      // for more than one disk at a time
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1,
+          60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+          new ThreadFactoryBuilder().setDaemon(true)
+              .setNameFormat("BlockCache loader %d").build());
+      executor.allowCoreThreadTimeOut(true);
+      this.loader = executor;
+      LOG.info("Caching up to " + capacity + " bytes of replicas, policy="
+          + policy + ", mlock=" + mlock + ", minReads=" + minReads);
+    } else {
+      this.loader = null;
+    }
+  }
+
+  boolean isEnabled() {
+    return loader != null;
+  }
+
+  /**
+   * Look up the cached data of the given replica, and count the read.
+   * The returned block must be released with {@link #release(CachedBlock)}.
+   *
+   * @return the cached block, or null if the replica is not cached.
+   */
+  CachedBlock getBlock(ExtendedBlock block, Replica replica) {
+    if (!isEnabled() || replica.getState() != ReplicaState.FINALIZED) {
+      return null;
+    }
+    final ExtendedBlock key =
+        new ExtendedBlock(block.getBlockPoolId(), block.getBlockId());
+    final long genStamp = replica.getGenerationStamp();
+    final long length = replica.getNumBytes();
+    synchronized (this) {
+      final CachedBlock cb = cached.get(key);
+      if (cb != null) {
+        if (cb.genStamp == genStamp && cb.length == length) {
+          cb.refCount++;
+          cb.hits++;
+          metrics.incrBlockCacheHits();
+          return cb;
+        }
+        // the replica was appended to or recovered since it was cached
+        evict(cb);
+      }
+      metrics.incrBlockCacheMisses();
+      if (length <= 0 || length > capacity || length > Integer.MAX_VALUE
+          || loading.contains(key)) {
+        return null;
+      }
+      final Integer reads = candidates.get(key);
+      final int count = reads == null ? 1 : reads + 1;
+      if (count < minReads) {
+        candidates.put(key, count);
+        return null;
+      }
+      candidates.remove(key);
+      loading.add(key);
+      usedBytes += length;
+    }
+    try {
+      loader.execute(new Runnable() {
+        @Override
+        public void run() {
+          load(key, genStamp, length);
+        }
+      });
+    } catch (RuntimeException e) {
+      // the loader was shut down
+      synchronized (this) {
+        loading.remove(key);
+        usedBytes -= length;
+      }
+    }
+    return null;
+  }
+
+  /** Release a block returned by {@link #getBlock(ExtendedBlock, Replica)}. */
+  synchronized void release(CachedBlock cb) {
+    if (--cb.refCount == 0 && cb.evicted) {
+      NativeIO.POSIX.munmap(cb.mmap);
+    }
+  }
+
+  /** Uncache the given replicas, e.g. because they were deleted. */
+  synchronized void uncache(String bpid, Block[] blocks) {
+    if (!isEnabled()) {
+      return;
+    }
+    for (Block b : blocks) {
+      final ExtendedBlock key = new ExtendedBlock(bpid, b.getBlockId());
+      candidates.remove(key);
+      loading.remove(key);
+      final CachedBlock cb = cached.get(key);
+      if (cb != null) {
+        evict(cb);
+      }
+    }
+  }
+
+  /** Stop caching, and uncache all the replicas. */
+  void shutdown() {
+    if (!isEnabled()) {
+      return;
+    }
+    loader.shutdownNow();
+    synchronized (this) {
+      for (CachedBlock cb : new ArrayList<CachedBlock>(cached.values())) {
+        evict(cb);
+      }
+      candidates.clear();
+      loading.clear();
+    }
+  }
+
+  /** Map the given replica and add it to the cache. */
+  private void load(ExtendedBlock key, long genStamp, long length) {
+    boolean success = false;
+    MappedByteBuffer mmap = null;
+    try {
+      if (!makeRoom(key, length)) {
+        return;
+      }
+      final ExtendedBlock block = new ExtendedBlock(key.getBlockPoolId(),
+          key.getBlockId(), length, genStamp);
+      final InputStream in = datanode.data.getBlockInputStream(block, 0);
+      try {
+        if (!(in instanceof FileInputStream)) {
+          LOG.debug("Not caching " + block + ": not stored in a file");
+          return;
+        }
+        final FileChannel channel = ((FileInputStream)in).getChannel();
+        if (channel.size() < length) {
+          LOG.debug("Not caching " + block + ": block file is too short");
+          return;
+        }
+        mmap = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+      } finally {
+        IOUtils.closeStream(in);
+      }
+
+      boolean locked = false;
+      if (mlock) {
+        try {
+          NativeIO.POSIX.mlock(mmap, length);
+          locked = true;
+        } catch (IOException e) {
+          synchronized (this) {
+            if (!warnedMlockFailure) {
+              warnedMlockFailure = true;
+              LOG.warn("Failed to mlock " + block + ". Replicas will be "
+                  + "cached without being locked. Is the DN's memlock limit "
+                  + "(ulimit -l) at least the cache size?", e);
+            }
+          }
+        }
+      }
+      if (!locked) {
+        mmap.load();
+      }
+
+      synchronized (this) {
+        if (!loading.remove(key)) {
+          // uncached while loading
+          return;
+        }
+        final CachedBlock cb =
+            new CachedBlock(key, genStamp, length, mmap, locked);
+        cached.put(key, cb);
+        metrics.incrBlocksCached();
+        success = true;
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Cached " + cb + ", usedBytes=" + usedBytes);
+        }
+      }
+    } catch (IOException e) {
+      LOG.warn("Failed to cache " + key + "_" + genStamp, e);
+    } finally {
+      if (!success) {
+        if (mmap != null) {
+          NativeIO.POSIX.munmap(mmap);
+        }
+        synchronized (this) {
+          loading.remove(key);
+          usedBytes -= length;
+        }
+      }
+    }
+  }
+
+  /**
+   * Evict cached replicas until the given one, whose length is already
+   * counted, fits.
+   *
+   * @return false if it cannot be cached.
+   */
+  private synchronized boolean makeRoom(ExtendedBlock key, long length) {
+    if (!loading.contains(key)) {
+      return false;
+    }
+    if (policy == EvictionPolicy.LFU) {
+      // age the hit counts, so that replicas which were hot a long time ago
+      // are eventually evicted too
+      for (CachedBlock cb : cached.values()) {
+        cb.hits >>= 1;
+      }
+    }
+    while (usedBytes > capacity) {
+      final CachedBlock victim = chooseVictim();
+      if (victim == null) {
+        return false;
+      }
+      evict(victim);
+    }
+    return true;
+  }
+
+  private CachedBlock chooseVictim() {
+    final Iterator<CachedBlock> it = cached.values().iterator();
+    if (!it.hasNext()) {
+      return null;
+    }
+    CachedBlock victim = it.next();
+    if (policy == EvictionPolicy.LFU) {
+      while (it.hasNext()) {
+        final CachedBlock cb = it.next();
+        if (cb.hits < victim.hits) {
+          victim = cb;
+        }
+      }
+    }
+    return victim;
+  }
+
+  private void evict(CachedBlock cb) {
+    assert Thread.holdsLock(this);
+    cached.remove(cb.key);
+    usedBytes -= cb.length;
+    cb.evicted = true;
+    metrics.incrBlocksUncached();
+    if (cb.refCount == 0) {
+      NativeIO.POSIX.munmap(cb.mmap);
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Uncached " + cb + ", usedBytes=" + usedBytes);
+    }
+  }
+
+  @VisibleForTesting
+  synchronized long getUsedBytes() {
+    return usedBytes;
+  }
+
+  @VisibleForTesting
+  synchronized List<Long> getCachedBlockIds() {
+    final List<Long> ids = new ArrayList<Long>(cached.size());
+    for (ExtendedBlock key : cached.keySet()) {
+      ids.add(key.getBlockId());
+    }
+    return ids;
+  }
+}
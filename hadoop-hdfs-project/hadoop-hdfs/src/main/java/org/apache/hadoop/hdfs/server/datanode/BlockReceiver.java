@@ -43,8 +43,10 @@
 import org.apache.hadoop.hdfs.protocol.datatransfer.PacketReceiver;
 import org.apache.hadoop.hdfs.protocol.datatransfer.PipelineAck;
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.Status;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.ReplicaInputStreams;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.ReplicaOutputStreams;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.VolumeIOStats;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeRegistration;
 import org.apache.hadoop.hdfs.util.DataTransferThrottler;
 import org.apache.hadoop.io.IOUtils;
@@ -108,6 +110,10 @@ class BlockReceiver implements Closeable {
   private final ExtendedBlock block; 
   /** the replica to write */
   private final ReplicaInPipelineInterface replicaInfo;
+  /** I/O statistics of the replica's volume, or null if unknown */
+  private VolumeIOStats ioStats;
+  /** Start time of the disk write in progress, or 0 if there is none */
+  private long diskWriteStartNanos = 0;
   /** pipeline stage */
   private final BlockConstructionStage stage;
   private final boolean isTransfer;
@@ -198,6 +204,13 @@ class BlockReceiver implements Closeable {
           || stage == BlockConstructionStage.PIPELINE_SETUP_CREATE;
       streams = replicaInfo.createStreams(isCreate, requestedChecksum);
       assert streams != null : "null streams!";
+      if (replicaInfo instanceof ReplicaInfo) {
+        final FsVolumeSpi volume = ((ReplicaInfo)replicaInfo).getVolume();
+        ioStats = volume == null ? null : volume.getIOStats();
+        if (ioStats != null) {
+          ioStats.writerStarted();
+        }
+      }
 
       // read checksum meta information
       this.clientChecksum = requestedChecksum;
@@ -245,6 +258,19 @@ class BlockReceiver implements Closeable {
   /** Return the datanode object. */
   DataNode getDataNode() {return datanode;}
 
+  private void beginDiskWrite() {
+    if (ioStats != null) {
+      diskWriteStartNanos = ioStats.beginIO();
+    }
+  }
+
+  private void endDiskWrite() {
+    if (ioStats != null && diskWriteStartNanos != 0) {
+      ioStats.endWrite(diskWriteStartNanos);
+      diskWriteStartNanos = 0;
+    }
+  }
+
   /**
    * close files.
    */
@@ -253,6 +279,12 @@ public void close() throws IOException {
     if (packetReceiver != null) {
       packetReceiver.close();
     }
+    if (ioStats != null) {
+      // a disk write may have failed part way
+      endDiskWrite();
+      ioStats.writerFinished();
+      ioStats = null;
+    }
     
     IOException ioe = null;
     if (syncOnClose && (out != null || checksumOut != null)) {
@@ -534,6 +566,7 @@ private int receivePacket() throws IOException {
           int numBytesToDisk = (int)(offsetInBlock-onDiskLen);
           
           // Write data to disk.
+          beginDiskWrite();
           out.write(dataBuf.array(), startByteToDisk, numBytesToDisk);
 
           // If this is a partial chunk, then verify that this is the only
@@ -567,6 +600,7 @@ private int receivePacket() throws IOException {
           }
           /// flush entire packet, sync if requested
           flushOrSync(syncBlock);
+          endDiskWrite();
           
           replicaInfo.setLastChecksumAndDataLen(
             offsetInBlock, lastChunkChecksum
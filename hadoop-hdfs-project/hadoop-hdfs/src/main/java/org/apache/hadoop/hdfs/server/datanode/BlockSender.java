@@ -37,6 +37,8 @@
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.protocol.datatransfer.PacketHeader;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.VolumeIOStats;
 import org.apache.hadoop.hdfs.util.DataTransferThrottler;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.LongWritable;
@@ -135,6 +137,12 @@ class BlockSender implements java.io.Closeable {
   private final String clientTraceFmt;
   private volatile ChunkChecksum lastChunkChecksum = null;
   private DataNode datanode;
+  /** I/O statistics of the replica's volume, or null if unknown */
+  private VolumeIOStats ioStats;
+  /** The replica's entry in the block cache, or null if it is not cached */
+  private BlockCache.CachedBlock cachedBlock;
+  /** The cached data of the replica */
+  private ByteBuffer cachedData;
   
   /** The file descriptor of the block being sent */
   private FileDescriptor blockInFd;
@@ -194,6 +202,10 @@ class BlockSender implements java.io.Closeable {
       }
       // if there is a write in progress
       ChunkChecksum chunkChecksum = null;
+      if (replica instanceof ReplicaInfo) {
+        final FsVolumeSpi volume = ((ReplicaInfo)replica).getVolume();
+        ioStats = volume == null ? null : volume.getIOStats();
+      }
       if (replica instanceof ReplicaBeingWritten) {
         final ReplicaBeingWritten rbw = (ReplicaBeingWritten)replica;
         waitForMinLength(rbw, startOffset + length);
@@ -323,6 +335,13 @@ class BlockSender implements java.io.Closeable {
       } else {
         blockInFd = null;
       }
+      final BlockCache blockCache = datanode.blockCache;
+      if (blockCache != null) {
+        cachedBlock = blockCache.getBlock(block, replica);
+        if (cachedBlock != null) {
+          cachedData = cachedBlock.getData();
+        }
+      }
     } catch (IOException ioe) {
       IOUtils.closeStream(this);
       IOUtils.closeStream(blockIn);
@@ -335,7 +354,8 @@ class BlockSender implements java.io.Closeable {
    */
   @Override
   public void close() throws IOException {
-    if (blockInFd != null && shouldDropCacheBehindRead && isLongRead()) {
+    if (blockInFd != null && shouldDropCacheBehindRead && isLongRead()
+        && cachedBlock == null) {
       // drop the last few MB of the file from cache
       try {
         NativeIO.POSIX.posixFadviseIfPossible(
@@ -367,6 +387,11 @@ public void close() throws IOException {
       blockIn = null;
       blockInFd = null;
     }
+    if (cachedBlock != null) {
+      datanode.blockCache.release(cachedBlock);
+      cachedBlock = null;
+      cachedData = null;
+    }
     // throw IOException if there is any
     if(ioe!= null) {
       throw ioe;
@@ -489,7 +514,19 @@ private int sendPacket(ByteBuffer pkt, int maxChunks, OutputStream out,
     
     int dataOff = checksumOff + checksumDataLen;
     if (!transferTo) { // normal transfer
-      IOUtils.readFully(blockIn, buf, dataOff, dataLen);
+      if (cachedData != null) {
+        cachedData.position((int)offset);
+        cachedData.get(buf, dataOff, dataLen);
+      } else {
+        final long ioStartNanos = ioStats == null ? 0 : ioStats.beginIO();
+        try {
+          IOUtils.readFully(blockIn, buf, dataOff, dataLen);
+        } finally {
+          if (ioStats != null) {
+            ioStats.endRead(ioStartNanos);
+          }
+        }
+      }
 
       if (verifyChecksum) {
         verifyChecksum(buf, dataOff, dataLen, numChunks, checksumOff);
@@ -592,23 +629,10 @@ private void readChecksum(byte[] buf, final int checksumOffset,
   public void verifyChecksum(final byte[] buf, final int dataOffset,
       final int datalen, final int numChunks, final int checksumOffset)
       throws ChecksumException {
-    int dOff = dataOffset;
-    int cOff = checksumOffset;
-    int dLeft = datalen;
-
-    for (int i = 0; i < numChunks; i++) {
-      checksum.reset();
-      int dLen = Math.min(dLeft, chunkSize);
-      checksum.update(buf, dOff, dLen);
-      if (!checksum.compare(buf, cOff)) {
-        long failedPos = offset + datalen - dLeft;
-        throw new ChecksumException("Checksum failed at " + failedPos,
-            failedPos);
-      }
-      dLeft -= dLen;
-      dOff += dLen;
-      cOff += checksumSize;
-    }
+    // verify the whole packet at once, natively if possible
+    checksum.verifyChunkedSums(ByteBuffer.wrap(buf, dataOffset, datalen),
+        ByteBuffer.wrap(buf, checksumOffset, numChunks * checksumSize),
+        block.toString(), offset);
   }
   
   /**
@@ -710,6 +734,11 @@ private void manageOsCache() throws IOException {
       // HBase random read workloads.
       return;
     }
+    if (cachedBlock != null) {
+      // the data is already in memory, and dropping it from the OS buffer
+      // cache would evict the cached pages
+      return;
+    }
 
     // Perform readahead if necessary
     if (readaheadLength > 0 && datanode.readaheadPool != null) {
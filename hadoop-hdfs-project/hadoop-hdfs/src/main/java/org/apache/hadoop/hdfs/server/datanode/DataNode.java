@@ -273,6 +273,7 @@ public static InetSocketAddress createSocketAddr(String target) {
   
   volatile DataBlockScanner blockScanner = null;
   private DirectoryScanner directoryScanner = null;
+  volatile BlockCache blockCache = null;
   
   /** Activated plug-ins. */
   private List<ServicePlugin> plugins;
@@ -531,7 +532,7 @@ private synchronized void initDirectoryScanner(Configuration conf) {
       reason = "verifcation is not supported by SimulatedFSDataset";
     } 
     if (reason == null) {
-      directoryScanner = new DirectoryScanner(data, conf);
+      directoryScanner = new DirectoryScanner(data, conf, metrics);
       directoryScanner.start();
     } else {
       LOG.info("Periodic Directory Tree Verification scan is disabled because " +
@@ -745,6 +746,7 @@ void startDataNode(Configuration conf,
     initIpcServer(conf);
 
     metrics = DataNodeMetrics.create(conf, getDisplayName());
+    blockCache = new BlockCache(this, conf, metrics);
 
     blockPoolManager = new BlockPoolManager(this);
     blockPoolManager.refreshNamenodes(conf);
@@ -1269,6 +1271,9 @@ public void shutdown() {
         LOG.warn("Exception when unlocking storage: " + ie, ie);
       }
     }
+    if (blockCache != null) {
+      blockCache.shutdown();
+    }
     if (data != null) {
       data.shutdown();
     }
@@ -1340,7 +1345,19 @@ private void handleDiskError(String errMsgr) {
   /** Number of concurrent xceivers per node. */
   @Override // DataNodeMXBean
   public int getXceiverCount() {
-    return threadGroup == null ? 0 : threadGroup.activeCount();
+    if (threadGroup == null) {
+      return 0;
+    }
+    // pooled connections don't have a thread of their own in the group
+    int count = threadGroup.activeCount();
+    for (Daemon server : new Daemon[] {dataXceiverServer,
+                                       localDataXceiverServer}) {
+      if (server != null) {
+        count += ((DataXceiverServer) server.getRunnable())
+            .getNumPooledPeers();
+      }
+    }
+    return count;
   }
   
   int getXmitsInProgress() {
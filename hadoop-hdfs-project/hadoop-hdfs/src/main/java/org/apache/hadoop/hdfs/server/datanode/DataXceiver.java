@@ -100,6 +100,17 @@ class DataXceiver extends Receiver implements Runnable {
    * on the socket.
    */
   private String previousOpClientName;
+
+  /** Whether the streams have been set up; see {@link #run()}. */
+  private boolean initialized = false;
+  private int opsProcessed = 0;
+  /**
+   * When parked by a pooled {@link DataXceiverServer}, the time at which
+   * the idle connection is closed.
+   */
+  long idleDeadline;
+  /** Set when the peer became readable while parked. */
+  boolean readable = false;
   
   public static DataXceiver create(Peer peer, DataNode dn,
       DataXceiverServer dataXceiverServer) throws IOException {
@@ -150,42 +161,45 @@ private OutputStream getOutputStream() {
     return socketOut;
   }
 
+  Peer getPeer() {
+    return peer;
+  }
+
   /**
    * Read/write data from/to the DataXceiverServer.
+   *
+   * When the server has a worker pool, this may return while the connection
+   * is idle, leaving it parked on the server's selector; it is then run again
+   * on some worker thread once the next request arrives.
    */
   @Override
   public void run() {
-    int opsProcessed = 0;
     Op op = null;
+    boolean parked = false;
 
-    dataXceiverServer.addPeer(peer);
     try {
-      peer.setWriteTimeout(datanode.getDnConf().socketWriteTimeout);
-      InputStream input = socketIn;
-      if (dnConf.encryptDataTransfer) {
-        IOStreamPair encryptedStreams = null;
-        try {
-          encryptedStreams = DataTransferEncryptor.getEncryptedStreams(socketOut,
-              socketIn, datanode.blockPoolTokenSecretManager,
-              dnConf.encryptionAlgorithm);
-        } catch (InvalidMagicNumberException imne) {
-          LOG.info("Failed to read expected encryption handshake from client " +
-              "at " + peer.getRemoteAddressString() + ". Perhaps the client " +
-              "is running an older version of Hadoop which does not support " +
-              "encryption");
+      if (!initialized) {
+        setUpStreams();
+        if (in == null) {
           return;
         }
-        input = encryptedStreams.in;
-        socketOut = encryptedStreams.out;
+        initialized = true;
       }
-      input = new BufferedInputStream(input, HdfsConstants.SMALL_BUFFER_SIZE);
-      
-      super.initialize(new DataInputStream(input));
       
       // We process requests in a loop, and stay around for a short timeout.
       // This optimistic behaviour allows the other end to reuse connections.
       // Setting keepalive timeout to 0 disable this behavior.
       do {
+        // With a worker pool, wait for the next request on the selector
+        // instead of on this thread, unless it is already buffered or the
+        // stream is encrypted (the cipher stream may hold decrypted bytes).
+        if (opsProcessed != 0 && !readable && !dnConf.encryptDataTransfer
+            && in.available() == 0
+            && dataXceiverServer.park(this, dnConf.socketKeepaliveTimeout)) {
+          parked = true;
+          return;
+        }
+        readable = false;
         updateCurrentThreadName("Waiting for operation #" + (opsProcessed + 1));
 
         try {
@@ -227,14 +241,45 @@ public void run() {
                 " src: " + remoteAddress +
                 " dest: " + localAddress, t);
     } finally {
-      if (LOG.isDebugEnabled()) {
-        LOG.debug(datanode.getDisplayName() + ":Number of active connections is: "
-            + datanode.getXceiverCount());
+      if (!parked) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug(datanode.getDisplayName() + ":Number of active connections is: "
+              + datanode.getXceiverCount());
+        }
+        updateCurrentThreadName("Cleaning up");
+        dataXceiverServer.closePeer(peer);
+        IOUtils.closeStream(in);
+      }
+    }
+  }
+
+  /**
+   * Set up the streams for the first operation on the connection. Leaves
+   * {@link #in} null if the encryption handshake failed.
+   */
+  private void setUpStreams() throws IOException {
+    dataXceiverServer.addPeer(peer);
+    peer.setWriteTimeout(datanode.getDnConf().socketWriteTimeout);
+    InputStream input = socketIn;
+    if (dnConf.encryptDataTransfer) {
+      IOStreamPair encryptedStreams = null;
+      try {
+        encryptedStreams = DataTransferEncryptor.getEncryptedStreams(socketOut,
+            socketIn, datanode.blockPoolTokenSecretManager,
+            dnConf.encryptionAlgorithm);
+      } catch (InvalidMagicNumberException imne) {
+        LOG.info("Failed to read expected encryption handshake from client " +
+            "at " + peer.getRemoteAddressString() + ". Perhaps the client " +
+            "is running an older version of Hadoop which does not support " +
+            "encryption");
+        return;
       }
-      updateCurrentThreadName("Cleaning up");
-      dataXceiverServer.closePeer(peer);
-      IOUtils.closeStream(in);
+      input = encryptedStreams.in;
+      socketOut = encryptedStreams.out;
     }
+    input = new BufferedInputStream(input, HdfsConstants.SMALL_BUFFER_SIZE);
+    
+    super.initialize(new DataInputStream(input));
   }
 
   @Override
@@ -20,18 +20,33 @@
 import java.io.IOException;
 import java.net.SocketTimeoutException;
 import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.net.Peer;
 import org.apache.hadoop.hdfs.net.PeerServer;
-import org.apache.hadoop.hdfs.server.balancer.Balancer;
 import org.apache.hadoop.hdfs.util.DataTransferThrottler;
 import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.net.SocketInputStream;
 import org.apache.hadoop.util.Daemon;
+import org.apache.hadoop.util.Time;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 
 /**
@@ -39,6 +54,12 @@
  * This is created to listen for requests from clients or 
  * other DataNodes.  This small server does not use the 
  * Hadoop IPC mechanism.
+ *
+ * By default each connection is served by its own thread. If
+ * {@link DFSConfigKeys#DFS_DATANODE_TRANSFER_WORKER_THREADS_KEY} is set,
+ * connections are instead served by a bounded pool of worker threads, and
+ * TCP connections that are waiting for their next request are parked on a
+ * selector until they become readable or their timeout expires.
  */
 class DataXceiverServer implements Runnable {
   public static final Log LOG = DataNode.LOG;
@@ -63,14 +84,18 @@ class DataXceiverServer implements Runnable {
    */
   static class BlockBalanceThrottler extends DataTransferThrottler {
    private int numThreads;
+   private final int maxThreads;
    
    /**Constructor
     * 
     * @param bandwidth Total amount of bandwidth can be used for balancing 
+    * @param maxThreads Maximum number of concurrent block moves
     */
-   private BlockBalanceThrottler(long bandwidth) {
+   private BlockBalanceThrottler(long bandwidth, int maxThreads) {
      super(bandwidth);
+     this.maxThreads = maxThreads;
      LOG.info("Balancing bandwith is "+ bandwidth + " bytes/s");
+     LOG.info("Number threads for balancing is "+ maxThreads);
    }
    
    /** Check if the block move can start. 
@@ -79,7 +104,7 @@ private BlockBalanceThrottler(long bandwidth) {
     * the counter is incremented; False otherwise.
     */
    synchronized boolean acquire() {
-     if (numThreads >= Balancer.MAX_NUM_CONCURRENT_MOVES) {
+     if (numThreads >= maxThreads) {
        return false;
      }
      numThreads++;
@@ -103,10 +128,18 @@ synchronized void release() {
    * i.e. either the actual block size or the default block size.
    */
   long estimateBlockSize;
+
+  /**
+   * The threads which run the DataXceivers, or null if each connection
+   * gets its own thread.
+   */
+  private final ThreadPoolExecutor workerPool;
+  private final ThreadGroup workerThreadGroup;
+  private final IdleConnectionSelector idleSelector;
   
   
   DataXceiverServer(PeerServer peerServer, Configuration conf,
-      DataNode datanode) {
+      DataNode datanode) throws IOException {
     
     this.peerServer = peerServer;
     this.datanode = datanode;
@@ -121,12 +154,48 @@ synchronized void release() {
     //set up parameter for cluster balancing
     this.balanceThrottler = new BlockBalanceThrottler(
       conf.getLong(DFSConfigKeys.DFS_DATANODE_BALANCE_BANDWIDTHPERSEC_KEY, 
-                   DFSConfigKeys.DFS_DATANODE_BALANCE_BANDWIDTHPERSEC_DEFAULT));
+                   DFSConfigKeys.DFS_DATANODE_BALANCE_BANDWIDTHPERSEC_DEFAULT),
+      conf.getInt(DFSConfigKeys.DFS_DATANODE_BALANCE_MAX_NUM_CONCURRENT_MOVES_KEY,
+                  DFSConfigKeys.DFS_DATANODE_BALANCE_MAX_NUM_CONCURRENT_MOVES_DEFAULT));
+
+    final int workerThreads =
+      conf.getInt(DFSConfigKeys.DFS_DATANODE_TRANSFER_WORKER_THREADS_KEY,
+                  DFSConfigKeys.DFS_DATANODE_TRANSFER_WORKER_THREADS_DEFAULT);
+    if (workerThreads > 0) {
+      // Keep the workers out of the DataNode's thread group, which would
+      // otherwise count them as xceivers even when they are idle.
+      this.workerThreadGroup = new ThreadGroup("dataXceiverWorkers");
+      this.workerPool = new ThreadPoolExecutor(workerThreads, workerThreads,
+          60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+          new ThreadFactoryBuilder().setDaemon(true)
+              .setNameFormat("DataXceiver worker %d")
+              .setThreadFactory(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                  return new Thread(workerThreadGroup, r);
+                }
+              }).build());
+      this.workerPool.allowCoreThreadTimeOut(true);
+      this.idleSelector = new IdleConnectionSelector();
+      LOG.info("Serving " + peerServer + " with " + workerThreads
+          + " worker threads");
+    } else {
+      this.workerThreadGroup = null;
+      this.workerPool = null;
+      this.idleSelector = null;
+    }
   }
 
   @Override
   public void run() {
     Peer peer = null;
+    Daemon idleSelectorThread = null;
+    if (idleSelector != null) {
+      idleSelectorThread = new Daemon(workerThreadGroup, idleSelector);
+      idleSelectorThread.setName("DataXceiverServer idle connections for "
+          + peerServer.getListeningString());
+      idleSelectorThread.start();
+    }
     while (datanode.shouldRun) {
       try {
         peer = peerServer.accept();
@@ -139,9 +208,18 @@ public void run() {
               + maxXceiverCount);
         }
 
-        new Daemon(datanode.threadGroup,
-            DataXceiver.create(peer, datanode, this))
-            .start();
+        if (workerPool == null) {
+          new Daemon(datanode.threadGroup,
+              DataXceiver.create(peer, datanode, this))
+              .start();
+        } else {
+          // count the connection before any worker picks it up
+          addPeer(peer);
+          DataXceiver xceiver = DataXceiver.create(peer, datanode, this);
+          if (!park(xceiver, datanode.getDnConf().socketTimeout)) {
+            execute(xceiver);
+          }
+        }
       } catch (SocketTimeoutException ignored) {
         // wake up to see if should continue to run
       } catch (AsynchronousCloseException ace) {
@@ -170,6 +248,10 @@ public void run() {
         datanode.shouldRun = false;
       }
     }
+    shutdownWorkers();
+    if (idleSelectorThread != null) {
+      idleSelectorThread.interrupt();
+    }
     synchronized (this) {
       for (Peer p : peers) {
         IOUtils.cleanup(LOG, p);
@@ -191,6 +273,16 @@ void kill() {
     } catch (IOException ie) {
       LOG.warn(datanode.getDisplayName() + ":DataXceiverServer.kill(): ", ie);
     }
+    shutdownWorkers();
+  }
+
+  private void shutdownWorkers() {
+    if (workerPool != null) {
+      // interrupt the workers, as DataNode#shutdown does for the
+      // threads in its thread group
+      workerPool.shutdownNow();
+      idleSelector.close();
+    }
   }
   
   synchronized void addPeer(Peer peer) {
@@ -201,4 +293,157 @@ synchronized void closePeer(Peer peer) {
     peers.remove(peer);
     IOUtils.cleanup(null, peer);
   }
+
+  /**
+   * @return the number of connections served by the worker pool, whether
+   *         busy or parked; 0 if each connection has its own thread.
+   */
+  synchronized int getNumPooledPeers() {
+    return workerPool == null ? 0 : peers.size();
+  }
+
+  /** Run the given DataXceiver on a worker thread. */
+  private void execute(final DataXceiver xceiver) {
+    try {
+      workerPool.execute(new Runnable() {
+        @Override
+        public void run() {
+          final Thread t = Thread.currentThread();
+          final String name = t.getName();
+          try {
+            xceiver.run();
+          } finally {
+            // DataXceiver renames its thread to describe the current op
+            t.setName(name);
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // the server is shutting down
+      closePeer(xceiver.getPeer());
+    }
+  }
+
+  /**
+   * Wait on the selector, rather than on a thread, for the given
+   * DataXceiver's next request. Once the connection is readable the
+   * DataXceiver is run again on a worker thread; if it stays idle for
+   * longer than the timeout, or the server shuts down, it is closed.
+   *
+   * @return true if the DataXceiver was parked, in which case the caller
+   *         must not use it any more; false if its peer does not have a
+   *         selectable channel, or there is no worker pool.
+   */
+  boolean park(DataXceiver xceiver, int timeoutMs) {
+    if (workerPool == null || workerPool.isShutdown()
+        || !(xceiver.getPeer().getInputStreamChannel()
+            instanceof SocketInputStream)) {
+      return false;
+    }
+    xceiver.idleDeadline = Time.monotonicNow() + timeoutMs;
+    idleSelector.add(xceiver);
+    return true;
+  }
+
+  /**
+   * Waits for parked connections to become readable, and closes those which
+   * have been idle for too long.
+   *
+   * Each connection stays registered with the selector until it is closed,
+   * with no interest ops while a worker is serving it. The worker's own
+   * reads and writes go through {@link SocketInputStream} and its output
+   * counterpart, which use their own selectors.
+   */
+  private class IdleConnectionSelector implements Runnable {
+    private final Selector selector;
+    private final Queue<DataXceiver> pending =
+        new ConcurrentLinkedQueue<DataXceiver>();
+
+    IdleConnectionSelector() throws IOException {
+      this.selector = Selector.open();
+    }
+
+    void add(DataXceiver xceiver) {
+      pending.add(xceiver);
+      selector.wakeup();
+    }
+
+    void close() {
+      IOUtils.cleanup(LOG, selector);
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (datanode.shouldRun && selector.isOpen()) {
+          registerPending();
+          selector.select(closeExpired());
+          for (Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+               it.hasNext(); ) {
+            final SelectionKey key = it.next();
+            it.remove();
+            if (key.isValid()) {
+              key.interestOps(0);
+              final DataXceiver xceiver = (DataXceiver)key.attachment();
+              // the request has arrived, so don't park again until it is read
+              xceiver.readable = true;
+              execute(xceiver);
+            }
+          }
+        }
+      } catch (Throwable t) {
+        if (datanode.shouldRun && selector.isOpen()) {
+          LOG.error(datanode.getDisplayName()
+              + ":DataXceiverServer: idle connection selector failed", t);
+        }
+      } finally {
+        // parked connections are closed along with the other peers
+        close();
+      }
+    }
+
+    private void registerPending() {
+      for (DataXceiver xceiver; (xceiver = pending.poll()) != null; ) {
+        final SelectableChannel channel = (SelectableChannel)
+            ((SocketInputStream)xceiver.getPeer().getInputStreamChannel())
+            .getChannel();
+        try {
+          final SelectionKey key = channel.keyFor(selector);
+          if (key != null && key.isValid()) {
+            key.interestOps(SelectionKey.OP_READ);
+          } else {
+            channel.register(selector, SelectionKey.OP_READ, xceiver);
+          }
+        } catch (ClosedChannelException e) {
+          closePeer(xceiver.getPeer());
+        }
+      }
+    }
+
+    /**
+     * Close the parked connections whose timeout has expired.
+     * @return how long to wait for the next timeout, in milliseconds
+     */
+    private long closeExpired() {
+      final long now = Time.monotonicNow();
+      long wait = 0;
+      for (SelectionKey key : selector.keys()) {
+        if (!key.isValid() || key.interestOps() == 0) {
+          continue;
+        }
+        final DataXceiver xceiver = (DataXceiver)key.attachment();
+        final long remaining = xceiver.idleDeadline - now;
+        if (remaining <= 0) {
+          key.cancel();
+          if (LOG.isDebugEnabled()) {
+            LOG.debug("Closing idle " + xceiver.getPeer());
+          }
+          closePeer(xceiver.getPeer());
+        } else if (wait == 0 || remaining < wait) {
+          wait = remaining;
+        }
+      }
+      return wait;
+    }
+  }
 }
@@ -27,6 +27,7 @@
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -45,12 +46,22 @@
 import org.apache.hadoop.hdfs.server.common.GenerationStamp;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsDatasetSpi;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
+import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics;
 import org.apache.hadoop.util.Daemon;
 import org.apache.hadoop.util.Time;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
 /**
  * Periodically scans the data directories for block and block metadata files.
  * Reconciles the differences with block information maintained in the dataset.
+ *
+ * The listing of each directory is kept between scans, and reused if the
+ * directory's modification time has not changed, so a scan of mostly
+ * unchanged volumes costs one stat per directory and one per block file
+ * rather than a listing of every directory and a stat of every file.
+ * Each volume's scan can be throttled to a fraction of each second.
  */
 @InterfaceAudience.Private
 public class DirectoryScanner implements Runnable {
@@ -60,6 +71,17 @@ public class DirectoryScanner implements Runnable {
   private final ExecutorService reportCompileThreadPool;
   private final ScheduledExecutorService masterThread;
   private final long scanPeriodMsecs;
+  private final int throttleLimitMsPerSec;
+  private final DataNodeMetrics metrics;
+  /**
+   * The listings from the last scan which may be reused, by directory.
+   * Replaced at the end of each scan, so that removed directories are
+   * dropped.
+   */
+  private Map<File, DirListing> dirListings =
+      new ConcurrentHashMap<File, DirListing>();
+  /** Totals for the last scan, for reporting and testing. */
+  private volatile ScanTotals lastScanTotals = new ScanTotals();
   private volatile boolean shouldRun = false;
   private boolean retainDiffs = false;
 
@@ -97,6 +119,28 @@ public String toString() {
     }
   }
   
+  /** Totals of the work done by a scan, across all volumes. */
+  static class ScanTotals {
+    long dirsListed = 0;
+    long dirsUnchanged = 0;
+    long blocks = 0;
+    long scanTimeMs = 0;
+
+    void add(ScanTotals that) {
+      dirsListed += that.dirsListed;
+      dirsUnchanged += that.dirsUnchanged;
+      blocks += that.blocks;
+    }
+
+    @Override
+    public String toString() {
+      return "Scanned " + (dirsListed + dirsUnchanged) + " directories ("
+          + dirsUnchanged + " unchanged since the last scan) and found "
+          + blocks + " blocks in " + scanTimeMs + " ms ("
+          + (blocks * 1000 / Math.max(1, scanTimeMs)) + " blocks/s)";
+    }
+  }
+
   static class ScanInfoPerBlockPool extends 
                      HashMap<String, LinkedList<ScanInfo>> {
     
@@ -221,8 +265,85 @@ public long getGenStamp() {
     }
   }
 
+  /**
+   * The block and metadata files directly in one directory, and its
+   * subdirectories, as found by the last scan of the directory. The files
+   * are kept as block IDs and generation stamps, which is much smaller than
+   * keeping a {@link ScanInfo} for each.
+   */
+  private static class DirListing {
+    /** Meta file generation stamp of a block without a meta file. */
+    private static final long NO_META_FILE = Long.MIN_VALUE;
+
+    private final long mtime;
+    private final File[] subdirs;
+    private final long[] blockIds;
+    private final long[] genStamps;
+    private final boolean[] hasBlockFile;
+
+    private DirListing(long mtime, File[] subdirs, long[] blockIds,
+        long[] genStamps, boolean[] hasBlockFile) {
+      this.mtime = mtime;
+      this.subdirs = subdirs;
+      this.blockIds = blockIds;
+      this.genStamps = genStamps;
+      this.hasBlockFile = hasBlockFile;
+    }
+
+    /**
+     * @return the listing of the given files, or null if the file names
+     *         cannot be recreated from block IDs and generation stamps.
+     */
+    static DirListing create(long mtime, List<File> subdirs,
+        List<ScanInfo> infos) {
+      final int n = infos.size();
+      final long[] blockIds = new long[n];
+      final long[] genStamps = new long[n];
+      final boolean[] hasBlockFile = new boolean[n];
+      int i = 0;
+      for (ScanInfo info : infos) {
+        final String blockName = Block.BLOCK_FILE_PREFIX + info.getBlockId();
+        blockIds[i] = info.getBlockId();
+        hasBlockFile[i] = info.getBlockFile() != null;
+        if (hasBlockFile[i] && !info.getBlockFile().getName().equals(
+            blockName)) {
+          return null;
+        }
+        if (info.getMetaFile() == null) {
+          genStamps[i] = NO_META_FILE;
+        } else {
+          genStamps[i] = info.getGenStamp();
+          if (!info.getMetaFile().getName().equals(
+              DatanodeUtil.getMetaName(blockName, genStamps[i]))) {
+            return null;
+          }
+        }
+        i++;
+      }
+      return new DirListing(mtime, subdirs.toArray(new File[subdirs.size()]),
+          blockIds, genStamps, hasBlockFile);
+    }
+
+    void addTo(List<ScanInfo> report, File dir, FsVolumeSpi vol) {
+      for (int i = 0; i < blockIds.length; i++) {
+        final String blockName = Block.BLOCK_FILE_PREFIX + blockIds[i];
+        report.add(new ScanInfo(blockIds[i],
+            hasBlockFile[i] ? new File(dir, blockName) : null,
+            genStamps[i] == NO_META_FILE ? null : new File(dir,
+                DatanodeUtil.getMetaName(blockName, genStamps[i])),
+            vol));
+      }
+    }
+  }
+
   DirectoryScanner(FsDatasetSpi<?> dataset, Configuration conf) {
+    this(dataset, conf, null);
+  }
+
+  DirectoryScanner(FsDatasetSpi<?> dataset, Configuration conf,
+      DataNodeMetrics metrics) {
     this.dataset = dataset;
+    this.metrics = metrics;
     int interval = conf.getInt(DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_INTERVAL_KEY,
         DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_INTERVAL_DEFAULT);
     scanPeriodMsecs = interval * 1000L; //msec
@@ -230,6 +351,15 @@ public long getGenStamp() {
         conf.getInt(DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THREADS_KEY,
                     DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THREADS_DEFAULT);
 
+    throttleLimitMsPerSec = conf.getInt(
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THROTTLE_LIMIT_MS_PER_SEC_KEY,
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THROTTLE_LIMIT_MS_PER_SEC_DEFAULT);
+    Preconditions.checkArgument(
+        throttleLimitMsPerSec > 0 && throttleLimitMsPerSec <= 1000,
+        "%s = %s must be between 1 and 1000",
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THROTTLE_LIMIT_MS_PER_SEC_KEY,
+        throttleLimitMsPerSec);
+
     reportCompileThreadPool = Executors.newFixedThreadPool(threads, 
         new Daemon.DaemonFactory());
     masterThread = new ScheduledThreadPoolExecutor(1,
@@ -251,6 +381,11 @@ boolean getRunStatus() {
     return shouldRun;
   }
 
+  @VisibleForTesting
+  ScanTotals getLastScanTotals() {
+    return lastScanTotals;
+  }
+
   private void clear() {
     diffs.clear();
     stats.clear();
@@ -315,6 +450,8 @@ void shutdown() {
    */
   void reconcile() {
     scan();
+    // Each difference is checked again, and fixed, under the dataset lock,
+    // so the lock is only held for one block at a time.
     for (Entry<String, LinkedList<ScanInfo>> entry : diffs.entrySet()) {
       String bpid = entry.getKey();
       LinkedList<ScanInfo> diff = entry.getValue();
@@ -323,6 +460,9 @@ void reconcile() {
         dataset.checkAndUpdate(bpid, info.getBlockId(), info.getBlockFile(),
             info.getMetaFile(), info.getVolume());
       }
+      if (metrics != null) {
+        metrics.incrDirectoryScanDifferences(diff.size());
+      }
     }
     if (!retainDiffs) clear();
   }
@@ -330,71 +470,73 @@ void reconcile() {
   /**
    * Scan for the differences between disk and in-memory blocks
    * Scan only the "finalized blocks" lists of both disk and memory.
+   *
+   * The comparison is made against a copy of the in-memory blocks, without
+   * holding the dataset lock, since the disk report may be out of date by
+   * the time it is compared anyway; {@link FsDatasetSpi#checkAndUpdate}
+   * checks each difference against the current state before fixing it.
    */
   void scan() {
     clear();
     Map<String, ScanInfo[]> diskReport = getDiskReport();
 
-    // Hold FSDataset lock to prevent further changes to the block map
-    synchronized(dataset) {
-      for (Entry<String, ScanInfo[]> entry : diskReport.entrySet()) {
-        String bpid = entry.getKey();
-        ScanInfo[] blockpoolReport = entry.getValue();
-        
-        Stats statsRecord = new Stats(bpid);
-        stats.put(bpid, statsRecord);
-        LinkedList<ScanInfo> diffRecord = new LinkedList<ScanInfo>();
-        diffs.put(bpid, diffRecord);
-        
-        statsRecord.totalBlocks = blockpoolReport.length;
-        List<Block> bl = dataset.getFinalizedBlocks(bpid);
-        Block[] memReport = bl.toArray(new Block[bl.size()]);
-        Arrays.sort(memReport); // Sort based on blockId
-  
-        int d = 0; // index for blockpoolReport
-        int m = 0; // index for memReprot
-        while (m < memReport.length && d < blockpoolReport.length) {
-          Block memBlock = memReport[Math.min(m, memReport.length - 1)];
-          ScanInfo info = blockpoolReport[Math.min(
-              d, blockpoolReport.length - 1)];
-          if (info.getBlockId() < memBlock.getBlockId()) {
-            // Block is missing in memory
-            statsRecord.missingMemoryBlocks++;
-            addDifference(diffRecord, statsRecord, info);
-            d++;
-            continue;
-          }
-          if (info.getBlockId() > memBlock.getBlockId()) {
-            // Block is missing on the disk
-            addDifference(diffRecord, statsRecord, memBlock.getBlockId());
-            m++;
-            continue;
-          }
-          // Block file and/or metadata file exists on the disk
-          // Block exists in memory
-          if (info.getBlockFile() == null) {
-            // Block metadata file exits and block file is missing
-            addDifference(diffRecord, statsRecord, info);
-          } else if (info.getGenStamp() != memBlock.getGenerationStamp()
-              || info.getBlockFile().length() != memBlock.getNumBytes()) {
-            // Block metadata file is missing or has wrong generation stamp,
-            // or block file length is different than expected
-            statsRecord.mismatchBlocks++;
-            addDifference(diffRecord, statsRecord, info);
-          }
+    for (Entry<String, ScanInfo[]> entry : diskReport.entrySet()) {
+      String bpid = entry.getKey();
+      ScanInfo[] blockpoolReport = entry.getValue();
+      
+      Stats statsRecord = new Stats(bpid);
+      stats.put(bpid, statsRecord);
+      LinkedList<ScanInfo> diffRecord = new LinkedList<ScanInfo>();
+      diffs.put(bpid, diffRecord);
+      
+      statsRecord.totalBlocks = blockpoolReport.length;
+      List<Block> bl = dataset.getFinalizedBlocks(bpid);
+      Block[] memReport = bl.toArray(new Block[bl.size()]);
+      Arrays.sort(memReport); // Sort based on blockId
+
+      int d = 0; // index for blockpoolReport
+      int m = 0; // index for memReprot
+      while (m < memReport.length && d < blockpoolReport.length) {
+        Block memBlock = memReport[Math.min(m, memReport.length - 1)];
+        ScanInfo info = blockpoolReport[Math.min(
+            d, blockpoolReport.length - 1)];
+        if (info.getBlockId() < memBlock.getBlockId()) {
+          // Block is missing in memory
+          statsRecord.missingMemoryBlocks++;
+          addDifference(diffRecord, statsRecord, info);
           d++;
-          m++;
+          continue;
         }
-        while (m < memReport.length) {
-          addDifference(diffRecord, statsRecord, memReport[m++].getBlockId());
+        if (info.getBlockId() > memBlock.getBlockId()) {
+          // Block is missing on the disk
+          addDifference(diffRecord, statsRecord, memBlock.getBlockId());
+          m++;
+          continue;
         }
-        while (d < blockpoolReport.length) {
-          statsRecord.missingMemoryBlocks++;
-          addDifference(diffRecord, statsRecord, blockpoolReport[d++]);
+        // Block file and/or metadata file exists on the disk
+        // Block exists in memory
+        if (info.getBlockFile() == null) {
+          // Block metadata file exits and block file is missing
+          addDifference(diffRecord, statsRecord, info);
+        } else if (info.getGenStamp() != memBlock.getGenerationStamp()
+            || info.getBlockFile().length() != memBlock.getNumBytes()) {
+          // Block metadata file is missing or has wrong generation stamp,
+          // or block file length is different than expected
+          statsRecord.mismatchBlocks++;
+          addDifference(diffRecord, statsRecord, info);
         }
-        LOG.info(statsRecord.toString());
-      } //end for
-    } //end synchronized
+        d++;
+        m++;
+      }
+      while (m < memReport.length) {
+        addDifference(diffRecord, statsRecord, memReport[m++].getBlockId());
+      }
+      while (d < blockpoolReport.length) {
+        statsRecord.missingMemoryBlocks++;
+        addDifference(diffRecord, statsRecord, blockpoolReport[d++]);
+      }
+      LOG.info(statsRecord.toString());
+    } //end for
   }
 
   /**
@@ -429,6 +571,7 @@ private static boolean isValid(final FsDatasetSpi<?> dataset,
 
   /** Get lists of blocks on the disk sorted by blockId, per blockpool */
   private Map<String, ScanInfo[]> getDiskReport() {
+    final long startTime = Time.monotonicNow();
     // First get list of data directories
     final List<? extends FsVolumeSpi> volumes = dataset.getVolumes();
 
@@ -438,14 +581,18 @@ private Map<String, ScanInfo[]> getDiskReport() {
 
     Map<Integer, Future<ScanInfoPerBlockPool>> compilersInProgress =
       new HashMap<Integer, Future<ScanInfoPerBlockPool>>();
+    List<ReportCompiler> compilers = new ArrayList<ReportCompiler>();
+    final Map<File, DirListing> newDirListings =
+        new ConcurrentHashMap<File, DirListing>();
 
     for (int i = 0; i < volumes.size(); i++) {
       if (isValid(dataset, volumes.get(i))) {
-        ReportCompiler reportCompiler =
-          new ReportCompiler(volumes.get(i));
+        ReportCompiler reportCompiler = new ReportCompiler(volumes.get(i),
+            dirListings, newDirListings, throttleLimitMsPerSec);
         Future<ScanInfoPerBlockPool> result = 
           reportCompileThreadPool.submit(reportCompiler);
         compilersInProgress.put(i, result);
+        compilers.add(reportCompiler);
       }
     }
     
@@ -459,6 +606,8 @@ private Map<String, ScanInfo[]> getDiskReport() {
         throw new RuntimeException(ex);
       }
     }
+    // Only keep the listings of directories which still exist
+    dirListings = newDirListings;
 
     // Compile consolidated report for all the volumes
     ScanInfoPerBlockPool list = new ScanInfoPerBlockPool();
@@ -469,6 +618,17 @@ private Map<String, ScanInfo[]> getDiskReport() {
       }
     }
 
+    final ScanTotals totals = new ScanTotals();
+    for (ReportCompiler compiler : compilers) {
+      totals.add(compiler.totals);
+    }
+    totals.scanTimeMs = Time.monotonicNow() - startTime;
+    lastScanTotals = totals;
+    LOG.info(totals);
+    if (metrics != null) {
+      metrics.addDirectoryScan(totals.scanTimeMs, totals.dirsListed,
+          totals.dirsUnchanged, totals.blocks);
+    }
     return list.toSortedArrays();
   }
 
@@ -479,14 +639,35 @@ private static boolean isBlockMetaFile(String blockId, String metaFile) {
 
   private static class ReportCompiler 
   implements Callable<ScanInfoPerBlockPool> {
-    private FsVolumeSpi volume;
+    /**
+     * A directory listing is only kept if it was made this long after the
+     * directory's modification time, so that a later change to the
+     * directory is sure to change its modification time, even on file
+     * systems with a coarse timestamp granularity.
+     */
+    private static final long MTIME_GRANULARITY_MS = 2000;
 
-    public ReportCompiler(FsVolumeSpi volume) {
+    private final FsVolumeSpi volume;
+    private final Map<File, DirListing> oldDirListings;
+    private final Map<File, DirListing> newDirListings;
+    private final int throttleLimitMsPerSec;
+    /** Start of the time spent scanning since the last throttling pause. */
+    private long runStartMs;
+    final ScanTotals totals = new ScanTotals();
+
+    public ReportCompiler(FsVolumeSpi volume,
+        Map<File, DirListing> oldDirListings,
+        Map<File, DirListing> newDirListings, int throttleLimitMsPerSec) {
       this.volume = volume;
+      this.oldDirListings = oldDirListings;
+      this.newDirListings = newDirListings;
+      this.throttleLimitMsPerSec = throttleLimitMsPerSec;
     }
 
     @Override
     public ScanInfoPerBlockPool call() throws Exception {
+      final long startTime = Time.monotonicNow();
+      runStartMs = startTime;
       String[] bpList = volume.getBlockPoolList();
       ScanInfoPerBlockPool result = new ScanInfoPerBlockPool(bpList.length);
       for (String bpid : bpList) {
@@ -494,12 +675,50 @@ public ScanInfoPerBlockPool call() throws Exception {
         File bpFinalizedDir = volume.getFinalizedDir(bpid);
         result.put(bpid, compileReport(volume, bpFinalizedDir, report));
       }
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Volume " + volume + ": "
+            + totals.dirsListed + " directories listed, "
+            + totals.dirsUnchanged + " unchanged, " + totals.blocks
+            + " blocks, in " + (Time.monotonicNow() - startTime)
+            + " ms");
+      }
       return result;
     }
 
+    /**
+     * After running for throttleLimitMsPerSec, pause for long enough that
+     * the scan only uses that many milliseconds of each second.
+     */
+    private void throttle() throws InterruptedException {
+      if (throttleLimitMsPerSec >= 1000) {
+        return;
+      }
+      final long runMs = Time.monotonicNow() - runStartMs;
+      if (runMs >= throttleLimitMsPerSec) {
+        Thread.sleep(runMs * (1000 - throttleLimitMsPerSec)
+            / throttleLimitMsPerSec);
+        runStartMs = Time.monotonicNow();
+      }
+    }
+
     /** Compile list {@link ScanInfo} for the blocks in the directory <dir> */
     private LinkedList<ScanInfo> compileReport(FsVolumeSpi vol, File dir,
-        LinkedList<ScanInfo> report) {
+        LinkedList<ScanInfo> report) throws InterruptedException {
+      throttle();
+      final long mtime = dir.lastModified();
+      DirListing listing = oldDirListings.get(dir);
+      if (listing != null && listing.mtime == mtime) {
+        totals.dirsUnchanged++;
+        newDirListings.put(dir, listing);
+        final int start = report.size();
+        listing.addTo(report, dir, vol);
+        totals.blocks += report.size() - start;
+        for (File subdir : listing.subdirs) {
+          compileReport(vol, subdir, report);
+        }
+        return report;
+      }
+
       File[] files;
       try {
         files = FileUtil.listFiles(dir);
@@ -508,7 +727,11 @@ private LinkedList<ScanInfo> compileReport(FsVolumeSpi vol, File dir,
         // Ignore this directory and proceed.
         return report;
       }
+      totals.dirsListed++;
+      final long listTime = Time.now();
       Arrays.sort(files);
+      final List<File> subdirs = new ArrayList<File>();
+      final List<ScanInfo> infos = new ArrayList<ScanInfo>();
       /*
        * Assumption: In the sorted list of files block file appears immediately
        * before block metadata file. This is true for the current naming
@@ -517,13 +740,13 @@ private LinkedList<ScanInfo> compileReport(FsVolumeSpi vol, File dir,
        */
       for (int i = 0; i < files.length; i++) {
         if (files[i].isDirectory()) {
-          compileReport(vol, files[i], report);
+          subdirs.add(files[i]);
           continue;
         }
         if (!Block.isBlockFilename(files[i])) {
           if (isBlockMetaFile("blk_", files[i].getName())) {
             long blockId = Block.getBlockId(files[i].getName());
-            report.add(new ScanInfo(blockId, null, files[i], vol));
+            infos.add(new ScanInfo(blockId, null, files[i], vol));
           }
           continue;
         }
@@ -541,7 +764,19 @@ private LinkedList<ScanInfo> compileReport(FsVolumeSpi vol, File dir,
             break;
           }
         }
-        report.add(new ScanInfo(blockId, blockFile, metaFile, vol));
+        infos.add(new ScanInfo(blockId, blockFile, metaFile, vol));
+      }
+      report.addAll(infos);
+      totals.blocks += infos.size();
+
+      if (mtime != 0 && listTime - mtime > MTIME_GRANULARITY_MS) {
+        listing = DirListing.create(mtime, subdirs, infos);
+        if (listing != null) {
+          newDirListings.put(dir, listing);
+        }
+      }
+      for (File subdir : subdirs) {
+        compileReport(vol, subdir, report);
       }
       return report;
     }
@@ -35,4 +35,7 @@ public interface FsVolumeSpi {
 
   /** @return the directory for the finalized blocks in the block pool. */
   public File getFinalizedDir(String bpid) throws IOException;
+
+  /** @return the live I/O statistics of the volume. */
+  public VolumeIOStats getIOStats();
 }
\ No newline at end of file
@@ -0,0 +1,105 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.util.DiskChecker.DiskOutOfSpaceException;
+
+/**
+ * A DN volume choosing policy which places each new replica on the least
+ * loaded volume with enough space, according to the volumes'
+ * {@link VolumeIOStats}. This keeps new writes away from a degraded or
+ * saturated disk, which would otherwise slow down every pipeline it is in.
+ *
+ * The load of a volume is its average packet write time multiplied by the
+ * number of replicas being written to it plus the disk I/Os in progress.
+ * Write times are rounded down to a power of two, so that volumes of similar
+ * speed are treated alike; ties are broken in round-robin order.
+ */
+public class LatencyAwareVolumeChoosingPolicy<V extends FsVolumeSpi>
+    implements VolumeChoosingPolicy<V> {
+  private static final Log LOG =
+      LogFactory.getLog(LatencyAwareVolumeChoosingPolicy.class);
+
+  /**
+   * The write time assumed for volumes faster than this, or without any
+   * samples, so that their load still grows with the number of writers.
+   */
+  static final long MIN_WRITE_NANOS = 1L << 16;
+
+  private int curVolume = 0;
+
+  @Override
+  public synchronized V chooseVolume(final List<V> volumes,
+      final long replicaSize) throws IOException {
+    if (volumes.size() < 1) {
+      throw new DiskOutOfSpaceException("No more available volumes");
+    }
+
+    // since volumes could've been removed because of the failure
+    // make sure we are not out of bounds
+    if (curVolume >= volumes.size()) {
+      curVolume = 0;
+    }
+
+    V chosen = null;
+    long chosenLoad = Long.MAX_VALUE;
+    long maxAvailable = 0;
+    for (int i = 0; i < volumes.size(); i++) {
+      final V volume = volumes.get((curVolume + i) % volumes.size());
+      final long available = volume.getAvailable();
+      if (available <= replicaSize) {
+        maxAvailable = Math.max(maxAvailable, available);
+        continue;
+      }
+      final long load = getLoad(volume);
+      if (load < chosenLoad) {
+        chosen = volume;
+        chosenLoad = load;
+      }
+    }
+    curVolume = (curVolume + 1) % volumes.size();
+
+    if (chosen == null) {
+      throw new DiskOutOfSpaceException("Out of space: "
+          + "The volume with the most available space (=" + maxAvailable
+          + " B) is less than the block size (=" + replicaSize + " B).");
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Selecting " + chosen + " with load " + chosenLoad
+          + " (" + chosen.getIOStats() + ") for write of block size "
+          + replicaSize);
+    }
+    return chosen;
+  }
+
+  static long getLoad(FsVolumeSpi volume) {
+    final VolumeIOStats stats = volume.getIOStats();
+    if (stats == null) {
+      return 0;
+    }
+    final long writeNanos = Long.highestOneBit(
+        Math.max(MIN_WRITE_NANOS, stats.getAverageWriteNanos()));
+    return writeNanos
+        * (1 + stats.getActiveWriters() + stats.getOutstandingIOs());
+  }
+}
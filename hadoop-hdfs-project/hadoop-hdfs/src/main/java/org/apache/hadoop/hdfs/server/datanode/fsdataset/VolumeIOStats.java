@@ -0,0 +1,128 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.util.Time;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Live I/O statistics of a volume, as seen by the block receivers and
+ * senders: moving averages of the time taken by each packet's disk write
+ * and read, the number of disk I/Os in progress, and the number of
+ * replicas being written.
+ *
+ * The averages are exponentially weighted, giving each new sample a weight
+ * of 1/8 as TCP does for its RTT estimate. An average also halves for each
+ * {@link #IDLE_DECAY_MS} without samples, so that a volume which was slow
+ * once, and has been avoided since, is eventually tried again.
+ */
+@InterfaceAudience.Private
+public class VolumeIOStats {
+  static final long IDLE_DECAY_MS = 10000;
+
+  private final AtomicInteger outstandingIOs = new AtomicInteger();
+  private final AtomicInteger activeWriters = new AtomicInteger();
+  private final MovingAverage writeNanos = new MovingAverage();
+  private final MovingAverage readNanos = new MovingAverage();
+
+  /** @return the start time to pass to {@link #endWrite} or {@link #endRead}. */
+  public long beginIO() {
+    outstandingIOs.incrementAndGet();
+    return System.nanoTime();
+  }
+
+  public void endWrite(long startNanos) {
+    outstandingIOs.decrementAndGet();
+    writeNanos.add(System.nanoTime() - startNanos);
+  }
+
+  public void endRead(long startNanos) {
+    outstandingIOs.decrementAndGet();
+    readNanos.add(System.nanoTime() - startNanos);
+  }
+
+  /** A replica started being written to the volume. */
+  public void writerStarted() {
+    activeWriters.incrementAndGet();
+  }
+
+  /** A replica stopped being written to the volume. */
+  public void writerFinished() {
+    activeWriters.decrementAndGet();
+  }
+
+  /** @return the number of disk reads and writes in progress. */
+  public int getOutstandingIOs() {
+    return outstandingIOs.get();
+  }
+
+  /** @return the number of replicas being written. */
+  public int getActiveWriters() {
+    return activeWriters.get();
+  }
+
+  /** @return the average packet write time in ns, or 0 if unknown. */
+  public long getAverageWriteNanos() {
+    return writeNanos.get(Time.monotonicNow());
+  }
+
+  /** @return the average packet read time in ns, or 0 if unknown. */
+  public long getAverageReadNanos() {
+    return readNanos.get(Time.monotonicNow());
+  }
+
+  @VisibleForTesting
+  long getAverageWriteNanos(long nowMs) {
+    return writeNanos.get(nowMs);
+  }
+
+  @Override
+  public String toString() {
+    return "avgWriteNanos=" + getAverageWriteNanos()
+        + ", avgReadNanos=" + getAverageReadNanos()
+        + ", outstandingIOs=" + getOutstandingIOs()
+        + ", activeWriters=" + getActiveWriters();
+  }
+
+  private static class MovingAverage {
+    private final AtomicLong average = new AtomicLong();
+    private volatile long lastSampleMs = Time.monotonicNow();
+
+    void add(long sample) {
+      lastSampleMs = Time.monotonicNow();
+      for (;;) {
+        final long old = average.get();
+        final long updated = old == 0 ? sample : old + ((sample - old) >> 3);
+        if (average.compareAndSet(old, updated)) {
+          return;
+        }
+      }
+    }
+
+    long get(long nowMs) {
+      final long idleMs = nowMs - lastSampleMs;
+      final long halvings = idleMs / IDLE_DECAY_MS;
+      return halvings >= 63 ? 0 : average.get() >> halvings;
+    }
+  }
+}
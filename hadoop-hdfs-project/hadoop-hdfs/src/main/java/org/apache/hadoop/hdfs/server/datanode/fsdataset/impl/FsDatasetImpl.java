@@ -27,6 +27,7 @@
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -73,6 +74,7 @@
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.RollingLogs;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.RoundRobinVolumeChoosingPolicy;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.VolumeChoosingPolicy;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.VolumeIOStats;
 import org.apache.hadoop.hdfs.server.datanode.metrics.FSDatasetMBean;
 import org.apache.hadoop.hdfs.server.protocol.BlockRecoveryCommand.RecoveringBlock;
 import org.apache.hadoop.hdfs.server.protocol.ReplicaRecoveryInfo;
@@ -93,6 +95,8 @@
 @InterfaceAudience.Private
 class FsDatasetImpl implements FsDatasetSpi<FsVolumeImpl> {
   static final Log LOG = LogFactory.getLog(FsDatasetImpl.class);
+  /** See {@link #getSlowVolumeWriteNanos(Collection)} */
+  static final int SLOW_VOLUME_FACTOR = 3;
   private final static boolean isNativeIOAvailable;
   static {
     isNativeIOAvailable = NativeIO.isAvailable();
@@ -109,21 +113,34 @@ public List<FsVolumeImpl> getVolumes() {
   }
 
   @Override
-  public synchronized FsVolumeImpl getVolume(final ExtendedBlock b) {
+  public FsVolumeImpl getVolume(final ExtendedBlock b) {
     final ReplicaInfo r =  volumeMap.get(b.getBlockPoolId(), b.getLocalBlock());
     return r != null? (FsVolumeImpl)r.getVolume(): null;
   }
 
+  /**
+   * This does not take the dataset lock, since it lists the replica's
+   * directory and a slow disk must not stall the other volumes' writers.
+   */
   @Override // FsDatasetSpi
-  public synchronized Block getStoredBlock(String bpid, long blkid)
+  public Block getStoredBlock(String bpid, long blkid)
       throws IOException {
-    File blockfile = getFile(bpid, blkid);
-    if (blockfile == null) {
-      return null;
+    while (true) {
+      File blockfile = getFile(bpid, blkid);
+      if (blockfile == null) {
+        return null;
+      }
+      try {
+        final File metafile = FsDatasetUtil.findMetaFile(blockfile);
+        final long gs = FsDatasetUtil.parseGenerationStamp(blockfile, metafile);
+        return new Block(blkid, blockfile.length(), gs);
+      } catch (IOException e) {
+        // the replica may have been moved, e.g. finalized, meanwhile
+        if (blockfile.equals(getFile(bpid, blkid))) {
+          throw e;
+        }
+      }
     }
-    final File metafile = FsDatasetUtil.findMetaFile(blockfile);
-    final long gs = FsDatasetUtil.parseGenerationStamp(blockfile, metafile);
-    return new Block(blkid, blockfile.length(), gs);
   }
 
 
@@ -1143,7 +1160,7 @@ public void invalidate(String bpid, Block invalidBlks[]) throws IOException {
   }
 
   @Override // FsDatasetSpi
-  public synchronized boolean contains(final ExtendedBlock block) {
+  public boolean contains(final ExtendedBlock block) {
     final long blockId = block.getLocalBlock().getBlockId();
     return getFile(block.getBlockPoolId(), blockId) != null;
   }
@@ -1431,7 +1448,7 @@ public ReplicaInfo getReplica(String bpid, long blockId) {
   }
 
   @Override 
-  public synchronized String getReplicaString(String bpid, long blockId) {
+  public String getReplicaString(String bpid, long blockId) {
     final Replica r = volumeMap.get(bpid, blockId);
     return r == null? "null": r.toString();
   }
@@ -1632,12 +1649,14 @@ private static class VolumeInfo {
     final long usedSpace;
     final long freeSpace;
     final long reservedSpace;
+    final VolumeIOStats ioStats;
 
     VolumeInfo(FsVolumeImpl v, long usedSpace, long freeSpace) {
       this.directory = v.toString();
       this.usedSpace = usedSpace;
       this.freeSpace = freeSpace;
       this.reservedSpace = v.getReserved();
+      this.ioStats = v.getIOStats();
     }
   }  
 
@@ -1664,16 +1683,43 @@ private Collection<VolumeInfo> getVolumeInfo() {
   public Map<String, Object> getVolumeInfoMap() {
     final Map<String, Object> info = new HashMap<String, Object>();
     Collection<VolumeInfo> volumes = getVolumeInfo();
+    final long slowWriteNanos = getSlowVolumeWriteNanos(volumes);
     for (VolumeInfo v : volumes) {
       final Map<String, Object> innerInfo = new HashMap<String, Object>();
       innerInfo.put("usedSpace", v.usedSpace);
       innerInfo.put("freeSpace", v.freeSpace);
       innerInfo.put("reservedSpace", v.reservedSpace);
+      final long writeNanos = v.ioStats.getAverageWriteNanos();
+      innerInfo.put("avgWriteLatencyMicros", writeNanos / 1000);
+      innerInfo.put("avgReadLatencyMicros",
+          v.ioStats.getAverageReadNanos() / 1000);
+      innerInfo.put("outstandingIOs", v.ioStats.getOutstandingIOs());
+      innerInfo.put("activeWriters", v.ioStats.getActiveWriters());
+      innerInfo.put("slow", writeNanos > slowWriteNanos);
       info.put(v.directory, innerInfo);
     }
     return info;
   }
 
+  /**
+   * A volume is reported as slow if its average write latency is more than
+   * {@link #SLOW_VOLUME_FACTOR} times the median across the volumes.
+   * @return the write latency above which a volume is slow
+   */
+  private static long getSlowVolumeWriteNanos(Collection<VolumeInfo> volumes) {
+    final long[] writeNanos = new long[volumes.size()];
+    int i = 0;
+    for (VolumeInfo v : volumes) {
+      writeNanos[i++] = v.ioStats.getAverageWriteNanos();
+    }
+    if (writeNanos.length < 2) {
+      return Long.MAX_VALUE;
+    }
+    Arrays.sort(writeNanos);
+    final long median = writeNanos[writeNanos.length / 2];
+    return median == 0 ? Long.MAX_VALUE : median * SLOW_VOLUME_FACTOR;
+  }
+
   @Override //FsDatasetSpi
   public synchronized void deleteBlockPool(String bpid, boolean force)
       throws IOException {
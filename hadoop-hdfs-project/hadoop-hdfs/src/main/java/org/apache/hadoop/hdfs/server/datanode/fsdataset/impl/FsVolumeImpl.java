@@ -32,6 +32,7 @@
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.server.datanode.DataStorage;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.VolumeIOStats;
 import org.apache.hadoop.util.DiskChecker.DiskErrorException;
 
 /**
@@ -48,6 +49,7 @@ class FsVolumeImpl implements FsVolumeSpi {
   private final File currentDir;    // <StorageDirectory>/current
   private final DF usage;           
   private final long reserved;
+  private final VolumeIOStats ioStats = new VolumeIOStats();
   
   FsVolumeImpl(FsDatasetImpl dataset, String storageID, File currentDir,
       Configuration conf) throws IOException {
@@ -204,6 +206,11 @@ public String toString() {
     return currentDir.getAbsolutePath();
   }
 
+  @Override
+  public VolumeIOStats getIOStats() {
+    return ioStats;
+  }
+
   void shutdown() {
     Set<Entry<String, BlockPoolSlice>> set = bpSlices.entrySet();
     for (Entry<String, BlockPoolSlice> entry : set) {
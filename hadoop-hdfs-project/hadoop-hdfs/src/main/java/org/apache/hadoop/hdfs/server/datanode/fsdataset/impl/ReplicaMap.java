@@ -18,8 +18,8 @@
 package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
 
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.hadoop.HadoopIllegalArgumentException;
 import org.apache.hadoop.hdfs.protocol.Block;
@@ -27,14 +27,19 @@
 
 /**
  * Maintains the replica map. 
+ *
+ * Lookups do not lock: the maps are concurrent, so a reader never waits for
+ * the dataset lock, which may be held across slow disk operations.  Updates
+ * are serialized on the mutex, so that compound checks such as
+ * {@link #remove(String, Block)} stay atomic.
  */
 class ReplicaMap {
   // Object using which this class is synchronized
   private final Object mutex;
   
   // Map of block pool Id to another map of block Id to ReplicaInfo.
-  private Map<String, Map<Long, ReplicaInfo>> map = 
-    new HashMap<String, Map<Long, ReplicaInfo>>();
+  private final Map<String, Map<Long, ReplicaInfo>> map = 
+    new ConcurrentHashMap<String, Map<Long, ReplicaInfo>>();
   
   ReplicaMap(Object mutex) {
     if (mutex == null) {
@@ -45,9 +50,7 @@ class ReplicaMap {
   }
   
   String[] getBlockPoolList() {
-    synchronized(mutex) {
-      return map.keySet().toArray(new String[map.keySet().size()]);   
-    }
+    return map.keySet().toArray(new String[0]);
   }
   
   private void checkBlockPool(String bpid) {
@@ -90,10 +93,8 @@ ReplicaInfo get(String bpid, Block block) {
    */
   ReplicaInfo get(String bpid, long blockId) {
     checkBlockPool(bpid);
-    synchronized(mutex) {
-      Map<Long, ReplicaInfo> m = map.get(bpid);
-      return m != null ? m.get(blockId) : null;
-    }
+    Map<Long, ReplicaInfo> m = map.get(bpid);
+    return m != null ? m.get(blockId) : null;
   }
   
   /**
@@ -111,7 +112,7 @@ ReplicaInfo add(String bpid, ReplicaInfo replicaInfo) {
       Map<Long, ReplicaInfo> m = map.get(bpid);
       if (m == null) {
         // Add an entry for block pool if it does not exist already
-        m = new HashMap<Long, ReplicaInfo>();
+        m = new ConcurrentHashMap<Long, ReplicaInfo>();
         map.put(bpid, m);
       }
       return  m.put(replicaInfo.getBlockId(), replicaInfo);
@@ -167,19 +168,15 @@ ReplicaInfo remove(String bpid, long blockId) {
    * @return the number of replicas in the map
    */
   int size(String bpid) {
-    Map<Long, ReplicaInfo> m = null;
-    synchronized(mutex) {
-      m = map.get(bpid);
-      return m != null ? m.size() : 0;
-    }
+    Map<Long, ReplicaInfo> m = map.get(bpid);
+    return m != null ? m.size() : 0;
   }
   
   /**
    * Get a collection of the replicas for given block pool
-   * This method is <b>not synchronized</b>. It needs to be synchronized
-   * externally using the mutex, both for getting the replicas
-   * values from the map and iterating over it. Mutex can be accessed using
-   * {@link #getMutext()} method.
+   * Iterating over it never throws ConcurrentModificationException, but
+   * only sees a consistent set of replicas if synchronized externally using
+   * the mutex, which can be accessed using {@link #getMutext()} method.
    * 
    * @param bpid block pool id
    * @return a collection of the replicas belonging to the block pool
@@ -196,7 +193,7 @@ void initBlockPool(String bpid) {
       Map<Long, ReplicaInfo> m = map.get(bpid);
       if (m == null) {
         // Add an entry for block pool if it does not exist already
-        m = new HashMap<Long, ReplicaInfo>();
+        m = new ConcurrentHashMap<Long, ReplicaInfo>();
         map.put(bpid, m);
       }
     }
@@ -67,6 +67,24 @@ public class DataNodeMetrics {
   
   @Metric MutableCounterLong volumeFailures;
 
+  @Metric("Directories listed by the directory scanner")
+  MutableCounterLong directoryScanDirsListed;
+  @Metric("Directories whose previous listing the directory scanner reused")
+  MutableCounterLong directoryScanDirsUnchanged;
+  @Metric("Blocks found by the directory scanner")
+  MutableCounterLong directoryScanBlocks;
+  @Metric("Differences reconciled by the directory scanner")
+  MutableCounterLong directoryScanDifferences;
+
+  @Metric("Reads served from the block cache")
+  MutableCounterLong blockCacheHits;
+  @Metric("Reads of finalized replicas not in the block cache")
+  MutableCounterLong blockCacheMisses;
+  @Metric("Replicas added to the block cache")
+  MutableCounterLong blocksCached;
+  @Metric("Replicas evicted from the block cache")
+  MutableCounterLong blocksUncached;
+
   @Metric MutableRate readBlockOp;
   @Metric MutableRate writeBlockOp;
   @Metric MutableRate blockChecksumOp;
@@ -74,6 +92,7 @@ public class DataNodeMetrics {
   @Metric MutableRate replaceBlockOp;
   @Metric MutableRate heartbeats;
   @Metric MutableRate blockReports;
+  @Metric MutableRate directoryScans;
   @Metric MutableRate packetAckRoundTripTimeNanos;
   MutableQuantiles[] packetAckRoundTripTimeNanosQuantiles;
   
@@ -151,6 +170,34 @@ public void addBlockReport(long latency) {
     blockReports.add(latency);
   }
 
+  public void addDirectoryScan(long latency, long dirsListed,
+      long dirsUnchanged, long blocks) {
+    directoryScans.add(latency);
+    directoryScanDirsListed.incr(dirsListed);
+    directoryScanDirsUnchanged.incr(dirsUnchanged);
+    directoryScanBlocks.incr(blocks);
+  }
+
+  public void incrDirectoryScanDifferences(long delta) {
+    directoryScanDifferences.incr(delta);
+  }
+
+  public void incrBlockCacheHits() {
+    blockCacheHits.incr();
+  }
+
+  public void incrBlockCacheMisses() {
+    blockCacheMisses.incr();
+  }
+
+  public void incrBlocksCached() {
+    blocksCached.incr();
+  }
+
+  public void incrBlocksUncached() {
+    blocksUncached.incr();
+  }
+
   public void incrBlocksReplicated(int delta) {
     blocksReplicated.incr(delta);
   }
@@ -0,0 +1,257 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.net.InetAddress;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.util.Daemon;
+
+/**
+ * Passes the audit events to the audit loggers from a background thread,
+ * so that the RPC handlers do not format and write them, possibly while
+ * holding the namesystem lock.
+ *
+ * The events wait in a ring buffer of records allocated upfront. A handler
+ * claims the next sequence number with a compare-and-set, fills the record
+ * of that slot and publishes it; no lock is taken unless the buffer is
+ * full. The writer thread takes the published events in order, in batches,
+ * and frees their slots once the whole batch is logged.
+ *
+ * When the buffer is full, a handler either waits for room, or drops the
+ * event and counts it, depending on whether the log is blocking.
+ *
+ * Once stopped, the writer exits by swapping the next sequence number for
+ * {@link #CLOSED}, which only succeeds when no handler has claimed a slot
+ * it has not logged yet. A handler which finds the log closed logs its
+ * event itself, so that no event is lost to a concurrent stop.
+ */
+class AsyncAuditLog implements Runnable {
+  static final Log LOG = LogFactory.getLog(AsyncAuditLog.class);
+
+  /** The most events the writer logs before freeing their slots. */
+  private static final int MAX_BATCH = 256;
+  /** How long the writer sleeps without being woken up, at most. */
+  private static final long MAX_PARK_NANOS = TimeUnit.SECONDS.toNanos(1);
+  /** The value of nextSeq once the writer has exited. */
+  private static final long CLOSED = -1;
+
+  /** An audit event. The records are reused once the event is logged. */
+  private static class Record {
+    boolean succeeded;
+    UserGroupInformation ugi;
+    InetAddress addr;
+    String cmd;
+    String src;
+    String dst;
+    HdfsFileStatus stat;
+
+    void clear() {
+      ugi = null;
+      addr = null;
+      cmd = src = dst = null;
+      stat = null;
+    }
+  }
+
+  private final List<AuditLogger> loggers;
+  private final boolean blocking;
+
+  private final Record[] records;
+  private final int mask;
+  /** records[s & mask] holds event s once published[s & mask] == s. */
+  private final AtomicLongArray published;
+  /** The sequence number of the next event, or CLOSED. */
+  private final AtomicLong nextSeq = new AtomicLong();
+  /** The events before this one are logged, and their slots free. */
+  private volatile long writtenSeq = 0;
+  private final AtomicLong dropped = new AtomicLong();
+
+  private final Daemon writer = new Daemon(this);
+  private volatile boolean running = true;
+  private volatile boolean writerParked = false;
+  /** The handlers waiting for room wait on this. */
+  private final Object roomLock = new Object();
+  /** The number of handlers waiting for room, changed under roomLock. */
+  private volatile int waitingForRoom = 0;
+
+  /**
+   * @param loggers the audit loggers
+   * @param capacity the number of events which may wait to be logged,
+   *        rounded up to a power of two
+   * @param blocking whether to wait for room rather than drop an event when
+   *        the buffer is full
+   */
+  AsyncAuditLog(List<AuditLogger> loggers, int capacity, boolean blocking) {
+    this.loggers = loggers;
+    this.blocking = blocking;
+    int size = 1;
+    while (size < capacity && size < (1 << 30)) {
+      size <<= 1;
+    }
+    records = new Record[size];
+    published = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      records[i] = new Record();
+      published.set(i, -1);
+    }
+    mask = size - 1;
+    writer.setName("AsyncAuditLog");
+  }
+
+  void start() {
+    writer.start();
+  }
+
+  /**
+   * Log the events which are waiting, and stop the writer. The events
+   * which come afterwards are logged synchronously.
+   */
+  void stop() {
+    running = false;
+    LockSupport.unpark(writer);
+    try {
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      LOG.warn("Interrupted while waiting for the audit events to be logged");
+    }
+  }
+
+  /** @return the number of events waiting to be logged. */
+  int getQueueDepth() {
+    return (int)Math.max(0, nextSeq.get() - writtenSeq);
+  }
+
+  /** @return the number of events dropped because the buffer was full. */
+  long getDroppedEvents() {
+    return dropped.get();
+  }
+
+  /** Queue an audit event. */
+  void logAuditEvent(boolean succeeded, UserGroupInformation ugi,
+      InetAddress addr, String cmd, String src, String dst,
+      HdfsFileStatus stat) {
+    if (!running) {
+      FSNamesystem.writeAuditEvent(loggers, succeeded, ugi, addr, cmd, src,
+          dst, stat);
+      return;
+    }
+    long seq;
+    for (;;) {
+      seq = nextSeq.get();
+      if (seq == CLOSED) {
+        // stopped after the check above, and the writer is gone
+        FSNamesystem.writeAuditEvent(loggers, succeeded, ugi, addr, cmd, src,
+            dst, stat);
+        return;
+      } else if (seq - writtenSeq >= records.length) {
+        if (!blocking || !waitForRoom(seq)) {
+          dropped.incrementAndGet();
+          return;
+        }
+      } else if (nextSeq.compareAndSet(seq, seq + 1)) {
+        break;
+      }
+    }
+    final int i = (int)seq & mask;
+    final Record r = records[i];
+    r.succeeded = succeeded;
+    r.ugi = ugi;
+    r.addr = addr;
+    r.cmd = cmd;
+    r.src = src;
+    r.dst = dst;
+    r.stat = stat;
+    published.set(i, seq);
+    if (writerParked) {
+      LockSupport.unpark(writer);
+    }
+  }
+
+  /**
+   * Wait until the writer frees the slot of the given event.
+   * @return false if interrupted
+   */
+  private boolean waitForRoom(long seq) {
+    synchronized (roomLock) {
+      waitingForRoom++;
+      try {
+        while (seq - writtenSeq >= records.length) {
+          roomLock.wait();
+        }
+        return true;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      } finally {
+        waitingForRoom--;
+      }
+    }
+  }
+
+  @Override
+  public void run() {
+    long seq = writtenSeq;
+    for (;;) {
+      int n = 0;
+      while (n < MAX_BATCH
+          && published.get((int)(seq + n) & mask) == seq + n) {
+        n++;
+      }
+      if (n == 0) {
+        // a handler which claims a slot from now on fails the swap, and
+        // the writer keeps going until that slot is published
+        if (!running && nextSeq.compareAndSet(seq, CLOSED)) {
+          return;
+        }
+        writerParked = true;
+        if (published.get((int)seq & mask) != seq && running) {
+          LockSupport.parkNanos(this, MAX_PARK_NANOS);
+        }
+        writerParked = false;
+        continue;
+      }
+      for (int k = 0; k < n; k++) {
+        final Record r = records[(int)(seq + k) & mask];
+        try {
+          FSNamesystem.writeAuditEvent(loggers, r.succeeded, r.ugi, r.addr,
+              r.cmd, r.src, r.dst, r.stat);
+        } catch (Throwable t) {
+          LOG.warn("Failed to log audit event " + r.cmd + " " + r.src, t);
+        }
+        r.clear();
+      }
+      seq += n;
+      writtenSeq = seq;
+      if (waitingForRoom > 0) {
+        synchronized (roomLock) {
+          roomLock.notifyAll();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,317 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+/**
+ * The children of a large directory, kept sorted by name in a list of
+ * bounded chunks rather than in one array.
+ *
+ * Inserting or removing a child copies at most one chunk plus the chunk
+ * index, instead of half of all the children, and the chunk arrays never
+ * over-allocate by more than half a chunk. Lookup by name and by position
+ * are both logarithmic in the number of children.
+ *
+ * The caller is responsible for keeping the list sorted; see
+ * {@link #search(byte[])}.
+ */
+class ChunkedINodeList extends AbstractList<INode> implements RandomAccess {
+  static final int DEFAULT_CHUNK_CAPACITY = 1024;
+  private static final int INITIAL_CHUNK_LENGTH =
+      INodeDirectory.DEFAULT_FILES_PER_DIRECTORY;
+
+  private final int chunkCapacity;
+  /** The chunks in name order; only the first numChunks are in use. */
+  private INode[][] chunks;
+  /** ends[c] is the list index one past the last child in chunk c. */
+  private int[] ends;
+  private int numChunks;
+
+  /**
+   * @param sorted the initial children, which must be sorted by name
+   */
+  ChunkedINodeList(List<INode> sorted) {
+    this(sorted, DEFAULT_CHUNK_CAPACITY);
+  }
+
+  @VisibleForTesting
+  ChunkedINodeList(List<INode> sorted, int chunkCapacity) {
+    Preconditions.checkArgument(chunkCapacity >= 4,
+        "chunkCapacity = %s < 4", chunkCapacity);
+    this.chunkCapacity = chunkCapacity;
+    final int n = sorted.size();
+    final int initialChunks =
+        Math.max(1, (n + chunkCapacity - 1) / chunkCapacity);
+    this.chunks = new INode[initialChunks][];
+    this.ends = new int[initialChunks];
+    for (int start = 0; start < n; start += chunkCapacity) {
+      final int end = Math.min(n, start + chunkCapacity);
+      chunks[numChunks] = sorted.subList(start, end).toArray(
+          new INode[end - start]);
+      ends[numChunks] = end;
+      numChunks++;
+    }
+  }
+
+  @Override
+  public int size() {
+    return numChunks == 0 ? 0 : ends[numChunks - 1];
+  }
+
+  private int chunkStart(int c) {
+    return c == 0 ? 0 : ends[c - 1];
+  }
+
+  private int chunkSize(int c) {
+    return ends[c] - chunkStart(c);
+  }
+
+  /** @return the chunk holding the given list index. */
+  private int chunkOf(int index) {
+    int low = 0;
+    int high = numChunks - 1;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (ends[mid] <= index) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private void checkIndex(int index, int bound) {
+    if (index < 0 || index >= bound) {
+      throw new IndexOutOfBoundsException(
+          "index=" + index + ", size=" + size());
+    }
+  }
+
+  @Override
+  public INode get(int index) {
+    checkIndex(index, size());
+    final int c = chunkOf(index);
+    return chunks[c][index - chunkStart(c)];
+  }
+
+  @Override
+  public INode set(int index, INode element) {
+    checkIndex(index, size());
+    final int c = chunkOf(index);
+    final int i = index - chunkStart(c);
+    final INode old = chunks[c][i];
+    chunks[c][i] = element;
+    return old;
+  }
+
+  /**
+   * Search for a child by name.
+   * @return the index of the child, or (-(insertion point) - 1) if absent,
+   *         as with {@link java.util.Collections#binarySearch(List, Object)}.
+   */
+  int search(byte[] name) {
+    if (numChunks == 0) {
+      return -1;
+    }
+    // find the first chunk whose last child is not less than name
+    int low = 0;
+    int high = numChunks - 1;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (chunks[mid][chunkSize(mid) - 1].compareTo(name) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    final INode[] chunk = chunks[low];
+    final int start = chunkStart(low);
+    final int i = Arrays.binarySearch(chunk, 0, chunkSize(low), name);
+    return i >= 0 ? start + i : i - start;
+  }
+
+  @Override
+  public void add(int index, INode element) {
+    checkIndex(index, size() + 1);
+    modCount++;
+    if (numChunks == 0) {
+      insertChunk(0, new INode[INITIAL_CHUNK_LENGTH], 0);
+    }
+    int c = index == size() ? numChunks - 1 : chunkOf(index);
+    int i = index - chunkStart(c);
+    if (chunkSize(c) == chunkCapacity) {
+      if (i == chunkCapacity) {
+        // appending after a full chunk, as when loading the directory
+        insertChunk(c + 1, new INode[INITIAL_CHUNK_LENGTH], ends[c]);
+        c++;
+        i = 0;
+      } else {
+        splitChunk(c);
+        if (i >= chunkSize(c)) {
+          i -= chunkSize(c);
+          c++;
+        }
+      }
+    }
+
+    final int n = chunkSize(c);
+    INode[] chunk = chunks[c];
+    if (n == chunk.length) {
+      final int newLength = Math.min(chunkCapacity, n + (n >> 1) + 1);
+      chunk = chunks[c] = Arrays.copyOf(chunk, newLength);
+    }
+    System.arraycopy(chunk, i, chunk, i + 1, n - i);
+    chunk[i] = element;
+    for (int k = c; k < numChunks; k++) {
+      ends[k]++;
+    }
+  }
+
+  @Override
+  public INode remove(int index) {
+    checkIndex(index, size());
+    modCount++;
+    final int c = chunkOf(index);
+    final int i = index - chunkStart(c);
+    final int n = chunkSize(c);
+    final INode[] chunk = chunks[c];
+    final INode old = chunk[i];
+    System.arraycopy(chunk, i + 1, chunk, i, n - i - 1);
+    chunk[n - 1] = null;
+    for (int k = c; k < numChunks; k++) {
+      ends[k]--;
+    }
+
+    if (n == 1) {
+      removeChunk(c);
+    } else if (c + 1 < numChunks
+        && n - 1 + chunkSize(c + 1) <= chunkCapacity / 2) {
+      mergeWithNext(c);
+    } else if (chunk.length > 2 * (n - 1)
+        && chunk.length > INITIAL_CHUNK_LENGTH) {
+      chunks[c] = Arrays.copyOf(chunk, n - 1);
+    }
+    return old;
+  }
+
+  @Override
+  public void clear() {
+    modCount++;
+    chunks = new INode[1][];
+    ends = new int[1];
+    numChunks = 0;
+  }
+
+  /** Insert a new chunk at position c, which ends at the given index. */
+  private void insertChunk(int c, INode[] chunk, int end) {
+    if (numChunks == chunks.length) {
+      final int newLength = numChunks + (numChunks >> 1) + 1;
+      chunks = Arrays.copyOf(chunks, newLength);
+      ends = Arrays.copyOf(ends, newLength);
+    }
+    System.arraycopy(chunks, c, chunks, c + 1, numChunks - c);
+    System.arraycopy(ends, c, ends, c + 1, numChunks - c);
+    chunks[c] = chunk;
+    ends[c] = end;
+    numChunks++;
+  }
+
+  private void removeChunk(int c) {
+    System.arraycopy(chunks, c + 1, chunks, c, numChunks - c - 1);
+    System.arraycopy(ends, c + 1, ends, c, numChunks - c - 1);
+    numChunks--;
+    chunks[numChunks] = null;
+  }
+
+  /** Split a chunk into two halves. */
+  private void splitChunk(int c) {
+    final int n = chunkSize(c);
+    final int half = n / 2;
+    final INode[] chunk = chunks[c];
+    final INode[] second = Arrays.copyOfRange(chunk, half,
+        half + Math.min(chunkCapacity, n - half + (n >> 2)));
+    final INode[] first = Arrays.copyOf(chunk,
+        Math.min(chunkCapacity, half + (n >> 2)));
+    Arrays.fill(first, half, first.length, null);
+    chunks[c] = first;
+    final int end = ends[c];
+    ends[c] = chunkStart(c) + half;
+    insertChunk(c + 1, second, end);
+  }
+
+  private void mergeWithNext(int c) {
+    final int n = chunkSize(c);
+    final int m = chunkSize(c + 1);
+    final INode[] merged = Arrays.copyOf(chunks[c], n + m);
+    System.arraycopy(chunks[c + 1], 0, merged, n, m);
+    chunks[c] = merged;
+    ends[c] = ends[c + 1];
+    removeChunk(c + 1);
+  }
+
+  /** @return the number of chunks, for testing. */
+  @VisibleForTesting
+  int getNumChunks() {
+    return numChunks;
+  }
+
+  @Override
+  public Iterator<INode> iterator() {
+    return new Iterator<INode>() {
+      private final int expectedModCount = modCount;
+      private int c = 0;
+      private int i = 0;
+
+      @Override
+      public boolean hasNext() {
+        return c < numChunks && (i < chunkSize(c) || c + 1 < numChunks);
+      }
+
+      @Override
+      public INode next() {
+        if (modCount != expectedModCount) {
+          throw new ConcurrentModificationException();
+        }
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        if (i == chunkSize(c)) {
+          c++;
+          i = 0;
+        }
+        return chunks[c][i++];
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+}
@@ -71,6 +71,7 @@
 import org.apache.hadoop.hdfs.server.protocol.NamespaceInfo;
 import org.apache.hadoop.hdfs.server.protocol.RemoteEditLogManifest;
 import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.ipc.Server;
 import org.apache.hadoop.security.token.delegation.DelegationKey;
 
 import com.google.common.annotations.VisibleForTesting;
@@ -122,10 +123,13 @@ private enum State {
   private EditLogOutputStream editLogStream = null;
 
   // a monotonically increasing counter that represents transactionIds.
-  private long txid = 0;
+  // Only written under the lock of the log, but volatile so that it can be
+  // read without contending with the writers.
+  private volatile long txid = 0;
 
-  // stores the last synced transactionId.
-  private long synctxid = 0;
+  // stores the last synced transactionId. Volatile for the same reason as
+  // txid.
+  private volatile long synctxid = 0;
 
   // the first txid of the log that's currently open for writing.
   // If this value is N, we are currently writing to edits_inprogress_N
@@ -148,6 +152,10 @@ private enum State {
 
   private NNStorage storage;
   private Configuration conf;
+
+  // should RPC responses be sent from a background syncer?
+  private boolean asyncLogging;
+  private EditLogSyncer syncer;
   
   private List<URI> editsDirs;
 
@@ -204,6 +212,10 @@ private void init(Configuration conf, NNStorage storage, List<URI> editsDirs) {
     this.editsDirs = Lists.newArrayList(editsDirs);
 
     this.sharedEditsDirs = FSNamesystem.getSharedEditsDirs(conf);
+
+    this.asyncLogging = conf.getBoolean(
+        DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING_KEY,
+        DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING_DEFAULT);
   }
   
   public synchronized void initJournalsForWrite() {
@@ -333,6 +345,11 @@ synchronized void close() {
         }
       }
       state = State.CLOSED;
+      if (syncer != null) {
+        // the syncer may be blocked on this monitor, so don't wait for it
+        syncer.stop();
+        syncer = null;
+      }
     }
   }
 
@@ -463,7 +480,7 @@ private void endTransaction(long start) {
   /**
    * Return the transaction ID of the last transaction written to the log.
    */
-  public synchronized long getLastWrittenTxId() {
+  public long getLastWrittenTxId() {
     return txid;
   }
   
@@ -536,11 +553,46 @@ void logSyncAll() {
    * waitForSyncToFinish() before assuming they are running alone.
    */
   public void logSync() {
+    // Fetch the transactionId of this thread. 
+    logSync(myTransactionId.get().txid);
+  }
+
+  /**
+   * Sync all modifications done by this thread, or, if asynchronous logging
+   * is enabled and the current RPC allows it, postpone the response of the
+   * RPC until a background thread has synced them. In the latter case the
+   * caller returns immediately and must not rely on its edits being durable.
+   */
+  public void logSyncOrPostpone() {
+    if (asyncLogging) {
+      Server.PostponedResponse response = Server.postponeResponse();
+      if (response != null) {
+        if (getSyncer().add(myTransactionId.get().txid, response)) {
+          return;
+        }
+        logSync();
+        try {
+          response.sendResponse();
+        } catch (IOException e) {
+          LOG.warn("Failed to send a postponed RPC response", e);
+        }
+        return;
+      }
+    }
+    logSync();
+  }
+
+  private synchronized EditLogSyncer getSyncer() {
+    if (syncer == null) {
+      syncer = new EditLogSyncer();
+      syncer.start();
+    }
+    return syncer;
+  }
+
+  private void logSync(long mytxid) {
     long syncStart = 0;
 
-    // Fetch the transactionId of this thread. 
-    long mytxid = myTransactionId.get().txid;
-    
     boolean sync = false;
     try {
       EditLogOutputStream logStream = null;
@@ -631,6 +683,96 @@ public void logSync() {
     }
   }
 
+  /**
+   * Syncs the edit log on behalf of RPCs whose responses have been postponed
+   * by {@link #logSyncOrPostpone()}, and sends those responses once their
+   * edits are durable. All responses pending at the start of a sync share
+   * it, so a single flush can complete many calls.
+   */
+  private class EditLogSyncer implements Runnable {
+    private final List<Long> txids = new ArrayList<Long>();
+    private final List<Server.PostponedResponse> responses =
+        new ArrayList<Server.PostponedResponse>();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    EditLogSyncer() {
+      thread = new Thread(this, "FSEditLogAsyncSyncer");
+      thread.setDaemon(true);
+    }
+
+    void start() {
+      thread.start();
+    }
+
+    void stop() {
+      synchronized (this) {
+        running = false;
+      }
+      thread.interrupt();
+    }
+
+    /**
+     * @return false if the syncer has been stopped, in which case the caller
+     *         must sync and release the response itself.
+     */
+    synchronized boolean add(long txid, Server.PostponedResponse response) {
+      if (!running) {
+        return false;
+      }
+      txids.add(txid);
+      responses.add(response);
+      notify();
+      return true;
+    }
+
+    @Override
+    public void run() {
+      List<Server.PostponedResponse> toSend =
+          new ArrayList<Server.PostponedResponse>();
+      while (running) {
+        long maxTxId = HdfsConstants.INVALID_TXID;
+        synchronized (this) {
+          while (running && responses.isEmpty()) {
+            try {
+              wait();
+            } catch (InterruptedException ie) {
+            }
+          }
+          for (long txid : txids) {
+            maxTxId = Math.max(maxTxId, txid);
+          }
+          toSend.addAll(responses);
+          txids.clear();
+          responses.clear();
+        }
+        if (!running) {
+          break;
+        }
+        logSync(maxTxId);
+        sendResponses(toSend);
+      }
+      // The log has been closed, which syncs every edit that was written.
+      synchronized (this) {
+        toSend.addAll(responses);
+        txids.clear();
+        responses.clear();
+      }
+      sendResponses(toSend);
+    }
+
+    private void sendResponses(List<Server.PostponedResponse> toSend) {
+      for (Server.PostponedResponse response : toSend) {
+        try {
+          response.sendResponse();
+        } catch (IOException e) {
+          LOG.warn("Failed to send a postponed RPC response", e);
+        }
+      }
+      toSend.clear();
+    }
+  }
+
   //
   // print statistics every 1 minute.
   //
@@ -1088,12 +1230,20 @@ synchronized void waitForSyncToFinish() {
 
   /**
    * Return the txid of the last synced transaction.
-   * For test use only
    */
-  synchronized long getSyncTxId() {
+  long getSyncTxId() {
     return synctxid;
   }
 
+  /**
+   * @return the txid of the last transaction written by the calling thread,
+   *         which may not be synced yet, or 0 if it has written none.
+   */
+  long getMyLastWrittenTxId() {
+    long mytxid = myTransactionId.get().txid;
+    return mytxid == Long.MAX_VALUE ? 0 : mytxid;
+  }
+
 
   // sets the initial capacity of the flush buffer.
   synchronized void setOutputBufferCapacity(int size) {
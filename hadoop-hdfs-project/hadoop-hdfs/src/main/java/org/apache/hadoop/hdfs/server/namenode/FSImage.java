@@ -89,7 +89,7 @@ public class FSImage implements Closeable {
    * The last transaction ID that was either loaded from an image
    * or loaded by loading edits files.
    */
-  protected long lastAppliedTxId = 0;
+  protected volatile long lastAppliedTxId = 0;
 
   final private Configuration conf;
 
@@ -796,7 +796,7 @@ void saveFSImage(SaveNamespaceContext context, StorageDirectory sd)
     File newFile = NNStorage.getStorageFile(sd, NameNodeFile.IMAGE_NEW, txid);
     File dstFile = NNStorage.getStorageFile(sd, NameNodeFile.IMAGE, txid);
     
-    FSImageFormat.Saver saver = new FSImageFormat.Saver(context);
+    FSImageFormat.Saver saver = new FSImageFormat.Saver(context, conf);
     FSImageCompression compression = FSImageCompression.createCompression(conf);
     saver.save(newFile, compression);
     
@@ -1194,6 +1194,15 @@ public long getLastAppliedOrWrittenTxId() {
         editLog != null ? editLog.getLastWrittenTxId() : 0);
   }
 
+  /**
+   * @return the id of the last transaction applied, or written and synced
+   *         to the edit log, which is durable unlike the last written one.
+   */
+  public long getLastAppliedOrSyncedTxId() {
+    return Math.max(lastAppliedTxId,
+        editLog != null ? editLog.getSyncTxId() : 0);
+  }
+
   public void updateLastAppliedTxIdFromWritten() {
     this.lastAppliedTxId = editLog.getLastWrittenTxId();
   }
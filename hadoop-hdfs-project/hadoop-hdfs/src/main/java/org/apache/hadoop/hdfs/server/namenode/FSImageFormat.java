@@ -19,18 +19,28 @@
 
 import static org.apache.hadoop.util.Time.now;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
 import java.security.DigestInputStream;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 import org.apache.commons.logging.Log;
 import org.apache.hadoop.HadoopIllegalArgumentException;
@@ -39,6 +49,7 @@
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.permission.PermissionStatus;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.DFSUtil;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.protocol.LayoutVersion;
@@ -49,6 +60,8 @@
 import org.apache.hadoop.io.MD5Hash;
 import org.apache.hadoop.io.Text;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 /**
  * Contains inner classes for reading or writing the on-disk format for
  * FSImages.
@@ -128,6 +141,12 @@ static class Loader {
     /** The MD5 sum of the loaded file */
     private MD5Hash imgDigest;
 
+    /**
+     * Populates the blocks map in the background while the image is
+     * parsed, or null if the blocks map is populated inline.
+     */
+    private BlocksMapLoader blocksMapLoader;
+
     Loader(Configuration conf, FSNamesystem namesystem) {
       this.conf = conf;
       this.namesystem = namesystem;
@@ -234,11 +253,30 @@ void load(File curFile)
         
         // load all inodes
         LOG.info("Number of files = " + numFiles);
-        if (LayoutVersion.supports(Feature.FSIMAGE_NAME_OPTIMIZATION,
-            imgVersion)) {
-          loadLocalNameINodes(numFiles, in);
-        } else {
-          loadFullNameINodes(numFiles, in);
+        if (conf.getBoolean(DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY,
+            DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_DEFAULT)) {
+          blocksMapLoader = new BlocksMapLoader(
+              namesystem.getBlockManager(), conf.getInt(
+                  DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_BATCH_SIZE_KEY,
+                  DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_BATCH_SIZE_DEFAULT));
+        }
+        try {
+          if (LayoutVersion.supports(Feature.FSIMAGE_NAME_OPTIMIZATION,
+              imgVersion)) {
+            loadLocalNameINodes(numFiles, in);
+          } else {
+            loadFullNameINodes(numFiles, in);
+          }
+          if (blocksMapLoader != null) {
+            // files under construction replace blocks in the blocks map,
+            // so every file must have been added to it first
+            blocksMapLoader.finish();
+          }
+        } finally {
+          if (blocksMapLoader != null) {
+            blocksMapLoader.shutdown();
+            blocksMapLoader = null;
+          }
         }
 
         loadFilesUnderConstruction(in);
@@ -368,7 +406,7 @@ private void loadFullNameINodes(long numFiles,
    * This method is only used for image loading so that synchronization,
    * modification time update and space count update are not needed.
    */
-  void addToParent(INodeDirectory parent, INode child) {
+  void addToParent(INodeDirectory parent, INode child) throws IOException {
     FSDirectory fsDir = namesystem.dir;
     if (parent == fsDir.rootDir && FSDirectory.isReservedName(child)) {
         throw new HadoopIllegalArgumentException("File name \""
@@ -385,10 +423,108 @@ void addToParent(INodeDirectory parent, INode child) {
     if (child.isFile()) {
       // Add file->block mapping
       final INodeFile file = (INodeFile)child;
-      final BlockInfo[] blocks = file.getBlocks();
-      final BlockManager bm = namesystem.getBlockManager();
-      for (int i = 0; i < blocks.length; i++) {
-        file.setBlock(i, bm.addBlockCollection(blocks[i], file));
+      if (blocksMapLoader != null) {
+        blocksMapLoader.add(file);
+      } else {
+        addBlocksToBlocksMap(namesystem.getBlockManager(), file);
+      }
+    }
+  }
+
+  private static void addBlocksToBlocksMap(BlockManager bm, INodeFile file) {
+    final BlockInfo[] blocks = file.getBlocks();
+    for (int i = 0; i < blocks.length; i++) {
+      file.setBlock(i, bm.addBlockCollection(blocks[i], file));
+    }
+  }
+
+  /**
+   * Adds the blocks of loaded files to the blocks map on a single
+   * background thread, so that the blocks map updates overlap with
+   * reading and parsing the rest of the image. Files are handed over in
+   * batches; the number of outstanding batches is bounded so that parsing
+   * cannot run arbitrarily far ahead of the blocks map. Only the background
+   * thread touches the blocks map until {@link #finish()} returns.
+   */
+  private static class BlocksMapLoader {
+    private static final int MAX_OUTSTANDING_BATCHES = 16;
+
+    private final BlockManager bm;
+    private final int batchSize;
+    private final ExecutorService executor;
+    private final Semaphore outstanding =
+        new Semaphore(MAX_OUTSTANDING_BATCHES);
+    private volatile Throwable error;
+    private List<INodeFile> batch;
+
+    BlocksMapLoader(BlockManager bm, int batchSize) {
+      this.bm = bm;
+      this.batchSize = Math.max(1, batchSize);
+      this.executor = Executors.newSingleThreadExecutor(
+          new ThreadFactoryBuilder().setDaemon(true)
+              .setNameFormat("FSImage blocks map loader").build());
+      this.batch = new ArrayList<INodeFile>(this.batchSize);
+    }
+
+    void add(INodeFile file) throws IOException {
+      batch.add(file);
+      if (batch.size() >= batchSize) {
+        submitBatch();
+      }
+    }
+
+    private void submitBatch() throws IOException {
+      checkError();
+      final List<INodeFile> toAdd = batch;
+      batch = new ArrayList<INodeFile>(batchSize);
+      try {
+        outstanding.acquire();
+      } catch (InterruptedException ie) {
+        throw (IOException) new InterruptedIOException(
+            "Interrupted while loading the blocks map").initCause(ie);
+      }
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            if (error == null) {
+              for (INodeFile file : toAdd) {
+                addBlocksToBlocksMap(bm, file);
+              }
+            }
+          } catch (Throwable t) {
+            error = t;
+          } finally {
+            outstanding.release();
+          }
+        }
+      });
+    }
+
+    /**
+     * Wait until the blocks of every added file are in the blocks map.
+     */
+    void finish() throws IOException {
+      if (!batch.isEmpty()) {
+        submitBatch();
+      }
+      try {
+        outstanding.acquire(MAX_OUTSTANDING_BATCHES);
+        outstanding.release(MAX_OUTSTANDING_BATCHES);
+      } catch (InterruptedException ie) {
+        throw (IOException) new InterruptedIOException(
+            "Interrupted while loading the blocks map").initCause(ie);
+      }
+      checkError();
+    }
+
+    void shutdown() {
+      executor.shutdownNow();
+    }
+
+    private void checkError() throws IOException {
+      if (error != null) {
+        throw new IOException("Failed to load the blocks map", error);
       }
     }
   }
@@ -526,6 +662,9 @@ byte[][] getParent(byte[][] path) {
    */
   static class Saver {
     private final SaveNamespaceContext context;
+    /** Number of threads serializing the image, or 0 to save serially */
+    private final int parallelThreads;
+    private final int parallelBatchSize;
     /** Set to true once an image has been written */
     private boolean saved = false;
     
@@ -551,6 +690,24 @@ private void checkNotSaved() {
 
     Saver(SaveNamespaceContext context) {
       this.context = context;
+      this.parallelThreads = 0;
+      this.parallelBatchSize = 0;
+    }
+
+    Saver(SaveNamespaceContext context, Configuration conf) {
+      this.context = context;
+      if (conf.getBoolean(DFSConfigKeys.DFS_IMAGE_PARALLEL_SAVE_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_SAVE_DEFAULT)) {
+        this.parallelThreads = Math.max(1, conf.getInt(
+            DFSConfigKeys.DFS_IMAGE_PARALLEL_SAVE_THREADS_KEY,
+            DFSConfigKeys.DFS_IMAGE_PARALLEL_SAVE_THREADS_DEFAULT));
+        this.parallelBatchSize = Math.max(1, conf.getInt(
+            DFSConfigKeys.DFS_IMAGE_PARALLEL_SAVE_BATCH_SIZE_KEY,
+            DFSConfigKeys.DFS_IMAGE_PARALLEL_SAVE_BATCH_SIZE_DEFAULT));
+      } else {
+        this.parallelThreads = 0;
+        this.parallelBatchSize = 0;
+      }
     }
 
     /**
@@ -600,10 +757,20 @@ void save(File newFile,
         ByteBuffer strbuf = ByteBuffer.wrap(byteStore);
         // save the root
         FSImageSerialization.saveINode2Image(fsDir.rootDir, out);
-        // save the rest of the nodes
-        saveImage(strbuf, fsDir.rootDir, out);
-        // save files under construction
-        sourceNamesystem.saveFilesUnderConstruction(out);
+        if (parallelThreads > 0) {
+          // save the rest of the nodes and files under construction
+          ParallelSaver parallelSaver = new ParallelSaver(out);
+          try {
+            parallelSaver.save(strbuf, fsDir.rootDir, sourceNamesystem);
+          } finally {
+            parallelSaver.shutdown();
+          }
+        } else {
+          // save the rest of the nodes
+          saveImage(strbuf, fsDir.rootDir, out);
+          // save files under construction
+          sourceNamesystem.saveFilesUnderConstruction(out);
+        }
         context.checkCancelled();
         sourceNamesystem.saveSecretManagerState(out);
         strbuf = null;
@@ -634,30 +801,160 @@ private void saveImage(ByteBuffer currentDirName,
       final List<INode> children = current.getChildrenList();
       if (children.isEmpty())
         return;
-      // print prefix (parent directory name)
       int prefixLen = currentDirName.position();
       if (prefixLen == 0) {  // root
-        out.writeShort(PATH_SEPARATOR.length);
-        out.write(PATH_SEPARATOR);
+        saveChildren(PATH_SEPARATOR, PATH_SEPARATOR.length, children, out);
       } else {  // non-root directories
-        out.writeShort(prefixLen);
-        out.write(currentDirName.array(), 0, prefixLen);
+        saveChildren(currentDirName.array(), prefixLen, children, out);
       }
+      for(INode child : children) {
+        if(!child.isDirectory())
+          continue;
+        currentDirName.put(PATH_SEPARATOR).put(child.getLocalNameBytes());
+        saveImage(currentDirName, (INodeDirectory)child, out);
+        currentDirName.position(prefixLen);
+      }
+    }
+
+    /**
+     * Save the children of one directory, prefixed by the directory name.
+     */
+    private void saveChildren(byte[] prefix, int prefixLen,
+        List<INode> children, DataOutputStream out) throws IOException {
+      // print prefix (parent directory name)
+      out.writeShort(prefixLen);
+      out.write(prefix, 0, prefixLen);
       out.writeInt(children.size());
       int i = 0;
       for(INode child : children) {
-        // print all children first
         FSImageSerialization.saveINode2Image(child, out);
         if (i++ % 50 == 0) {
           context.checkCancelled();
         }
       }
-      for(INode child : children) {
-        if(!child.isDirectory())
-          continue;
-        currentDirName.put(PATH_SEPARATOR).put(child.getLocalNameBytes());
-        saveImage(currentDirName, (INodeDirectory)child, out);
-        currentDirName.position(prefixLen);
+    }
+
+    /**
+     * Serializes the file tree and the files under construction on a pool
+     * of threads. The tree is walked in the same order as
+     * {@link Saver#saveImage}, and the directories met are handed to the
+     * pool in batches; each batch is serialized into its own buffer, and
+     * the buffers are written out in the order of the walk, so the image is
+     * the same as a serial save would write. The number of outstanding
+     * batches is bounded, which bounds the memory held in buffers.
+     */
+    private class ParallelSaver {
+      private final DataOutputStream out;
+      private final ExecutorService executor;
+      private final int maxOutstanding;
+      private final LinkedList<Future<byte[]>> outstanding =
+          new LinkedList<Future<byte[]>>();
+      private List<byte[]> batchPrefixes = new ArrayList<byte[]>();
+      private List<INodeDirectory> batchDirs = new ArrayList<INodeDirectory>();
+      private int batchINodes = 0;
+
+      ParallelSaver(DataOutputStream out) {
+        this.out = out;
+        this.maxOutstanding = 2 * parallelThreads;
+        this.executor = Executors.newFixedThreadPool(parallelThreads,
+            new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat("FSImage saver #%d").build());
+      }
+
+      void save(ByteBuffer currentDirName, INodeDirectory root,
+          final FSNamesystem sourceNamesystem) throws IOException {
+        Future<byte[]> underConstruction = executor.submit(
+            new Callable<byte[]>() {
+              @Override
+              public byte[] call() throws IOException {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                sourceNamesystem.saveFilesUnderConstruction(
+                    new DataOutputStream(bytes));
+                return bytes.toByteArray();
+              }
+            });
+        saveTree(currentDirName, root);
+        if (!batchDirs.isEmpty()) {
+          submitBatch();
+        }
+        while (!outstanding.isEmpty()) {
+          writeNext();
+        }
+        out.write(getBytes(underConstruction));
+      }
+
+      private void saveTree(ByteBuffer currentDirName, INodeDirectory current)
+          throws IOException {
+        final List<INode> children = current.getChildrenList();
+        if (children.isEmpty())
+          return;
+        int prefixLen = currentDirName.position();
+        batchPrefixes.add(prefixLen == 0 ? PATH_SEPARATOR
+            : Arrays.copyOf(currentDirName.array(), prefixLen));
+        batchDirs.add(current);
+        batchINodes += children.size();
+        if (batchINodes >= parallelBatchSize) {
+          submitBatch();
+        }
+        for(INode child : children) {
+          if(!child.isDirectory())
+            continue;
+          currentDirName.put(PATH_SEPARATOR).put(child.getLocalNameBytes());
+          saveTree(currentDirName, (INodeDirectory)child);
+          currentDirName.position(prefixLen);
+        }
+      }
+
+      private void submitBatch() throws IOException {
+        final List<byte[]> prefixes = batchPrefixes;
+        final List<INodeDirectory> dirs = batchDirs;
+        batchPrefixes = new ArrayList<byte[]>();
+        batchDirs = new ArrayList<INodeDirectory>();
+        batchINodes = 0;
+        outstanding.add(executor.submit(new Callable<byte[]>() {
+          @Override
+          public byte[] call() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream dirOut = new DataOutputStream(bytes);
+            for (int i = 0; i < dirs.size(); i++) {
+              byte[] prefix = prefixes.get(i);
+              saveChildren(prefix, prefix.length,
+                  dirs.get(i).getChildrenList(), dirOut);
+            }
+            dirOut.flush();
+            return bytes.toByteArray();
+          }
+        }));
+        while (outstanding.size() > maxOutstanding) {
+          writeNext();
+        }
+      }
+
+      private void writeNext() throws IOException {
+        out.write(getBytes(outstanding.removeFirst()));
+      }
+
+      private byte[] getBytes(Future<byte[]> future) throws IOException {
+        try {
+          return future.get();
+        } catch (InterruptedException ie) {
+          throw (IOException) new InterruptedIOException(
+              "Interrupted while saving the image").initCause(ie);
+        } catch (ExecutionException ee) {
+          Throwable cause = ee.getCause();
+          if (cause instanceof IOException) {
+            throw (IOException) cause;
+          } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+          } else if (cause instanceof Error) {
+            throw (Error) cause;
+          }
+          throw new IOException(cause);
+        }
+      }
+
+      void shutdown() {
+        executor.shutdownNow();
       }
     }
   }
@@ -36,6 +36,12 @@
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_ACCESSTIME_PRECISION_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_ACCESSTIME_PRECISION_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOGGERS_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_ASYNC_BLOCKING_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_ASYNC_BLOCKING_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_ASYNC_BUFFER_SIZE_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_ASYNC_BUFFER_SIZE_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_ASYNC_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_ASYNC_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_DEFAULT_AUDIT_LOGGER_NAME;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_DELEGATION_KEY_UPDATE_INTERVAL_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_DELEGATION_KEY_UPDATE_INTERVAL_KEY;
@@ -47,6 +53,8 @@
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_DELEGATION_TOKEN_RENEW_INTERVAL_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_EDITS_DIR_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_EDITS_DIR_REQUIRED_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_LEASE_RELEASE_BATCH_SIZE_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_LEASE_RELEASE_BATCH_SIZE_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_MAX_OBJECTS_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_MAX_OBJECTS_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_NAME_DIR_KEY;
@@ -152,6 +160,7 @@
 import org.apache.hadoop.hdfs.security.token.block.BlockTokenSecretManager.AccessMode;
 import org.apache.hadoop.hdfs.security.token.delegation.DelegationTokenIdentifier;
 import org.apache.hadoop.hdfs.security.token.delegation.DelegationTokenSecretManager;
+import org.apache.hadoop.hdfs.server.blockmanagement.BlockCollection;
 import org.apache.hadoop.hdfs.server.blockmanagement.BlockInfo;
 import org.apache.hadoop.hdfs.server.blockmanagement.BlockInfoUnderConstruction;
 import org.apache.hadoop.hdfs.server.blockmanagement.BlockManager;
@@ -278,6 +287,17 @@ private void logAuditEvent(boolean succeeded, String cmd, String src,
   private void logAuditEvent(boolean succeeded,
       UserGroupInformation ugi, InetAddress addr, String cmd, String src,
       String dst, HdfsFileStatus stat) {
+    if (asyncAuditLog != null) {
+      asyncAuditLog.logAuditEvent(succeeded, ugi, addr, cmd, src, dst, stat);
+    } else {
+      writeAuditEvent(auditLoggers, succeeded, ugi, addr, cmd, src, dst, stat);
+    }
+  }
+
+  /** Pass an audit event to the given audit loggers. */
+  static void writeAuditEvent(List<AuditLogger> auditLoggers,
+      boolean succeeded, UserGroupInformation ugi, InetAddress addr,
+      String cmd, String src, String dst, HdfsFileStatus stat) {
     FileStatus status = null;
     if (stat != null) {
       Path symlink = stat.isSymlink() ? new Path(stat.getSymlink()) : null;
@@ -329,6 +349,8 @@ private void logAuditEvent(boolean succeeded,
   // underlying logger is disabled, and avoid some unnecessary work.
   private final boolean isDefaultAuditLogger;
   private final List<AuditLogger> auditLoggers;
+  /** Logs the audit events in the background, if enabled. */
+  private final AsyncAuditLog asyncAuditLog;
 
   /** The namespace tree. */
   FSDirectory dir;
@@ -373,7 +395,7 @@ private void logAuditEvent(boolean succeeded,
   private final long accessTimePrecision;
 
   /** Lock to protect FSNamesystem. */
-  private ReentrantReadWriteLock fsLock = new ReentrantReadWriteLock(true);
+  private final FSNamesystemLock fsLock;
 
   /**
    * Used when this NN is in standby state to read from the shared edit log.
@@ -535,6 +557,7 @@ public static FSNamesystem loadFromDisk(Configuration conf)
    * @throws IOException on bad configuration
    */
   FSNamesystem(Configuration conf, FSImage fsImage) throws IOException {
+    fsLock = new FSNamesystemLock(conf);
     try {
       resourceRecheckInterval = conf.getLong(
           DFS_NAMENODE_RESOURCE_CHECK_INTERVAL_KEY,
@@ -616,9 +639,23 @@ public static FSNamesystem loadFromDisk(Configuration conf)
       this.dtSecretManager = createDelegationTokenSecretManager(conf);
       this.dir = new FSDirectory(fsImage, this, conf);
       this.safeMode = new SafeModeInfo(conf);
+      this.leaseManager.setReleaseBatchSize(conf.getInt(
+          DFS_NAMENODE_LEASE_RELEASE_BATCH_SIZE_KEY,
+          DFS_NAMENODE_LEASE_RELEASE_BATCH_SIZE_DEFAULT));
       this.auditLoggers = initAuditLoggers(conf);
       this.isDefaultAuditLogger = auditLoggers.size() == 1 &&
         auditLoggers.get(0) instanceof DefaultAuditLogger;
+      if (conf.getBoolean(DFS_NAMENODE_AUDIT_LOG_ASYNC_KEY,
+          DFS_NAMENODE_AUDIT_LOG_ASYNC_DEFAULT)) {
+        this.asyncAuditLog = new AsyncAuditLog(auditLoggers,
+            conf.getInt(DFS_NAMENODE_AUDIT_LOG_ASYNC_BUFFER_SIZE_KEY,
+                DFS_NAMENODE_AUDIT_LOG_ASYNC_BUFFER_SIZE_DEFAULT),
+            conf.getBoolean(DFS_NAMENODE_AUDIT_LOG_ASYNC_BLOCKING_KEY,
+                DFS_NAMENODE_AUDIT_LOG_ASYNC_BLOCKING_DEFAULT));
+        this.asyncAuditLog.start();
+      } else {
+        this.asyncAuditLog = null;
+      }
     } catch(IOException e) {
       LOG.error(getClass().getSimpleName() + " initialization failed.", e);
       close();
@@ -1033,23 +1070,23 @@ public static List<URI> getSharedEditsDirs(Configuration conf) {
 
   @Override
   public void readLock() {
-    this.fsLock.readLock().lock();
+    this.fsLock.readLock();
   }
   @Override
   public void readUnlock() {
-    this.fsLock.readLock().unlock();
+    this.fsLock.readUnlock();
   }
   @Override
   public void writeLock() {
-    this.fsLock.writeLock().lock();
+    this.fsLock.writeLock();
   }
   @Override
   public void writeLockInterruptibly() throws InterruptedException {
-    this.fsLock.writeLock().lockInterruptibly();
+    this.fsLock.writeLockInterruptibly();
   }
   @Override
   public void writeUnlock() {
-    this.fsLock.writeLock().unlock();
+    this.fsLock.writeUnlock();
   }
   @Override
   public boolean hasWriteLock() {
@@ -1103,6 +1140,10 @@ void close() {
       } catch (IOException ie) {
         LOG.error("Error closing FSDirectory", ie);
         IOUtils.cleanup(LOG, dir);
+      } finally {
+        if (asyncAuditLog != null) {
+          asyncAuditLog.stop();
+        }
       }
     }
   }
@@ -1221,7 +1262,7 @@ private void setPermissionInt(String src, FsPermission permission)
     } finally {
       writeUnlock();
     }
-    getEditLog().logSync();
+    getEditLog().logSyncOrPostpone();
     logAuditEvent(true, "setPermission", src, null, resultingStat);
   }
 
@@ -1268,7 +1309,7 @@ private void setOwnerInt(String src, String username, String group)
     } finally {
       writeUnlock();
     }
-    getEditLog().logSync();
+    getEditLog().logSyncOrPostpone();
     logAuditEvent(true, "setOwner", src, null, resultingStat);
   }
 
@@ -1460,7 +1501,7 @@ private void concatInt(String target, String [] srcs)
     } finally {
       writeUnlock();
     }
-    getEditLog().logSync();
+    getEditLog().logSyncOrPostpone();
     logAuditEvent(true, "concat", Arrays.toString(srcs), target, resultingStat);
   }
 
@@ -1675,7 +1716,7 @@ private void createSymlinkInt(String target, String link,
     } finally {
       writeUnlock();
     }
-    getEditLog().logSync();
+    getEditLog().logSyncOrPostpone();
     logAuditEvent(true, "createSymlink", link, target, resultingStat);
   }
 
@@ -1730,7 +1771,7 @@ private boolean setReplicationInt(String src, final short replication)
       writeUnlock();
     }
 
-    getEditLog().logSync();
+    getEditLog().logSyncOrPostpone();
     if (isFile) {
       logAuditEvent(true, "setReplication", src);
     }
@@ -1837,7 +1878,7 @@ private HdfsFileStatus startFileInt(String src, PermissionStatus permissions,
       // There might be transactions logged while trying to recover the lease.
       // They need to be sync'ed even when an exception was thrown.
       if (!skipSync) {
-        getEditLog().logSync();
+        getEditLog().logSyncOrPostpone();
       }
     } 
 
@@ -2292,7 +2333,7 @@ LocatedBlock getAdditionalBlock(String src, long fileId, String clientName,
       writeUnlock();
     }
     if (persistBlocks) {
-      getEditLog().logSync();
+      getEditLog().logSyncOrPostpone();
     }
 
     // Return located block
@@ -2561,7 +2602,7 @@ boolean completeFile(String src, String holder, ExtendedBlock last)
     } finally {
       writeUnlock();
     }
-    getEditLog().logSync();
+    getEditLog().logSyncOrPostpone();
     NameNode.stateChangeLog.info("DIR* completeFile: " + src + " is closed by "
         + holder);
     return success;
@@ -2731,7 +2772,7 @@ private boolean renameToInt(String src, String dst)
     } finally {
       writeUnlock();
     }
-    getEditLog().logSync();
+    getEditLog().logSyncOrPostpone();
     if (status) {
       logAuditEvent(true, "rename", src, dst, resultingStat);
     }
@@ -2789,7 +2830,7 @@ void renameTo(String src, String dst, Options.Rename... options)
     } finally {
       writeUnlock();
     }
-    getEditLog().logSync();
+    getEditLog().logSyncOrPostpone();
     if (resultingStat != null) {
       StringBuilder cmd = new StringBuilder("rename options=");
       for (Rename option : options) {
@@ -3085,7 +3126,7 @@ private boolean mkdirsInt(String src, PermissionStatus permissions,
     } finally {
       writeUnlock();
     }
-    getEditLog().logSync();
+    getEditLog().logSyncOrPostpone();
     if (status) {
       logAuditEvent(true, "mkdirs", src, null, resultingStat);
     }
@@ -3489,7 +3530,9 @@ void commitBlockSynchronization(ExtendedBlock lastblock,
    */
   void renewLease(String holder) throws IOException {
     checkOperation(OperationCategory.WRITE);
-    writeLock();
+    // The renewal of a lease does not take the LeaseManager lock, and does
+    // not need to exclude the other readers.
+    readLock();
     try {
       checkOperation(OperationCategory.WRITE);
       if (isInSafeMode()) {
@@ -3497,7 +3540,7 @@ void renewLease(String holder) throws IOException {
       }
       leaseManager.renewLease(holder);
     } finally {
-      writeUnlock();
+      readUnlock();
     }
   }
 
@@ -3616,7 +3659,7 @@ HeartbeatResponse handleHeartbeat(DatanodeRegistration nodeReg,
         throws IOException {
     readLock();
     try {
-      final int maxTransfer = blockManager.getMaxReplicationStreams()
+      final int maxTransfer = blockManager.getMaxReplicationStreams(nodeReg)
           - xmitsInProgress;
       DatanodeCommand[] cmds = blockManager.getDatanodeManager().handleHeartbeat(
           nodeReg, blockPoolId, capacity, dfsUsed, remaining, blockPoolUsed,
@@ -3740,6 +3783,24 @@ public long getLastWrittenTransactionId() {
     return getEditLog().getLastWrittenTxId();
   }
   
+  @Metric({"AuditQueueDepth",
+      "Number of audit events waiting to be logged asynchronously"})
+  public int getAuditQueueDepth() {
+    return asyncAuditLog == null ? 0 : asyncAuditLog.getQueueDepth();
+  }
+
+  @Metric({"AuditEventsDropped",
+      "Number of audit events dropped because the audit buffer was full"})
+  public long getAuditEventsDropped() {
+    return asyncAuditLog == null ? 0 : asyncAuditLog.getDroppedEvents();
+  }
+
+  @Metric({"LockQueueLength", "Number of threads waiting to acquire " +
+      "the namesystem lock"})
+  public int getFsLockQueueLength() {
+    return fsLock.getQueueLength();
+  }
+
   @Metric({"LastCheckpointTime",
       "Time in milliseconds since the epoch of the last checkpoint"})
   public long getLastCheckpointTime() {
@@ -4540,7 +4601,7 @@ private long getCompleteBlocksTotal() {
     long numUCBlocks = 0;
     readLock();
     try {
-      for (Lease lease : leaseManager.getSortedLeases()) {
+      for (Lease lease : leaseManager.getLeases()) {
         for (String path : lease.getPaths()) {
           final INodeFileUnderConstruction cons;
           try {
@@ -4803,6 +4864,17 @@ public long getScheduledReplicationBlocks() {
     return blockManager.getScheduledReplicationBlocksCount();
   }
 
+  @Metric({"ReplicationRate", "Replications completed per second"})
+  public double getReplicationRate() {
+    return blockManager.getReplicationRate();
+  }
+
+  @Metric({"ReplicationEstimatedSeconds", "Estimated seconds to replicate "
+      + "the under-replicated blocks at the current rate, or -1"})
+  public long getReplicationEstimatedSeconds() {
+    return blockManager.getReplicationEstimatedSeconds();
+  }
+
   @Metric
   public long getPendingDeletionBlocks() {
     return blockManager.getPendingDeletionBlocksCount();
@@ -5682,6 +5754,18 @@ public String getClusterId() {
   public String getBlockPoolId() {
     return blockPoolId;
   }
+
+  @Override // Namesystem
+  public BlockCollection getBlockCollection(String src)
+      throws UnresolvedLinkException {
+    readLock();
+    try {
+      final INode inode = dir.getINode(src);
+      return inode != null && inode.isFile() ? (INodeFile)inode : null;
+    } finally {
+      readUnlock();
+    }
+  }
   
   @Override  // NameNodeMXBean
   public String getNameDirStatuses() {
@@ -5738,12 +5822,12 @@ public EditLogTailer getEditLogTailer() {
   
   @VisibleForTesting
   void setFsLockForTests(ReentrantReadWriteLock lock) {
-    this.fsLock = lock;
+    this.fsLock.setCoarseLock(lock);
   }
   
   @VisibleForTesting
   ReentrantReadWriteLock getFsLockForTests() {
-    return fsLock;
+    return fsLock.getCoarseLock();
   }
 
   @VisibleForTesting
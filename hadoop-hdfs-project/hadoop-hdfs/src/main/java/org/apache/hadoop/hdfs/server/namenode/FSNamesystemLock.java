@@ -0,0 +1,135 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_FSLOCK_FAIR_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_FSLOCK_FAIR_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_WRITE_LOCK_REPORTING_THRESHOLD_MS_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_WRITE_LOCK_REPORTING_THRESHOLD_MS_KEY;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.Time;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * The namesystem lock. It wraps a {@link ReentrantReadWriteLock} whose
+ * fairness is configurable, and reports write lock holds which exceed a
+ * threshold, since every other operation is stalled while they last.
+ */
+class FSNamesystemLock {
+  static final Log LOG = LogFactory.getLog(FSNamesystemLock.class);
+
+  private ReentrantReadWriteLock coarseLock;
+
+  /** Write lock holds longer than this are logged. */
+  private final long writeLockReportingThreshold;
+
+  /** Time at which the write lock was last acquired, not reentrantly. */
+  private volatile long writeLockHeldTimeStamp;
+
+  FSNamesystemLock(Configuration conf) {
+    this(conf.getBoolean(DFS_NAMENODE_FSLOCK_FAIR_KEY,
+        DFS_NAMENODE_FSLOCK_FAIR_DEFAULT),
+        conf.getLong(DFS_NAMENODE_WRITE_LOCK_REPORTING_THRESHOLD_MS_KEY,
+        DFS_NAMENODE_WRITE_LOCK_REPORTING_THRESHOLD_MS_DEFAULT));
+  }
+
+  FSNamesystemLock(boolean fair, long writeLockReportingThreshold) {
+    this.coarseLock = new ReentrantReadWriteLock(fair);
+    this.writeLockReportingThreshold = writeLockReportingThreshold;
+    LOG.info("fsLock is fair: " + fair);
+  }
+
+  void readLock() {
+    coarseLock.readLock().lock();
+  }
+
+  void readUnlock() {
+    coarseLock.readLock().unlock();
+  }
+
+  void writeLock() {
+    coarseLock.writeLock().lock();
+    if (coarseLock.getWriteHoldCount() == 1) {
+      writeLockHeldTimeStamp = Time.monotonicNow();
+    }
+  }
+
+  void writeLockInterruptibly() throws InterruptedException {
+    coarseLock.writeLock().lockInterruptibly();
+    if (coarseLock.getWriteHoldCount() == 1) {
+      writeLockHeldTimeStamp = Time.monotonicNow();
+    }
+  }
+
+  void writeUnlock() {
+    final boolean needReport = coarseLock.getWriteHoldCount() == 1 &&
+        coarseLock.isWriteLockedByCurrentThread();
+    final long writeLockInterval =
+        Time.monotonicNow() - writeLockHeldTimeStamp;
+
+    coarseLock.writeLock().unlock();
+
+    if (needReport && writeLockInterval >= writeLockReportingThreshold) {
+      LOG.info("FSNamesystem write lock held for " + writeLockInterval +
+          " ms via\n" + getCurrentStackTrace());
+    }
+  }
+
+  private static String getCurrentStackTrace() {
+    StringBuilder sb = new StringBuilder();
+    for (StackTraceElement e : Thread.currentThread().getStackTrace()) {
+      sb.append("\tat ").append(e).append("\n");
+    }
+    return sb.toString();
+  }
+
+  boolean isWriteLockedByCurrentThread() {
+    return coarseLock.isWriteLockedByCurrentThread();
+  }
+
+  int getReadHoldCount() {
+    return coarseLock.getReadHoldCount();
+  }
+
+  boolean isFair() {
+    return coarseLock.isFair();
+  }
+
+  /**
+   * @return the number of threads waiting to acquire either lock
+   */
+  int getQueueLength() {
+    return coarseLock.getQueueLength();
+  }
+
+  @VisibleForTesting
+  ReentrantReadWriteLock getCoarseLock() {
+    return coarseLock;
+  }
+
+  @VisibleForTesting
+  void setCoarseLock(ReentrantReadWriteLock lock) {
+    this.coarseLock = lock;
+  }
+}
@@ -168,6 +168,19 @@ public void purgeLogsOlderThan(long minTxIdToKeep)
    * @throws IOException if edit logs cannot be listed.
    */
   public List<RemoteEditLog> getRemoteEditLogs(long firstTxId) throws IOException {
+    return getRemoteEditLogs(firstTxId, false);
+  }
+
+  /**
+   * Find all editlog segments starting at or above the given txid.
+   * @param fromTxId the txnid which to start looking
+   * @param inMiddleOk whether to include the finalized segment containing
+   *        the given txid, if it does not start there, rather than fail
+   * @return a list of remote edit logs
+   * @throws IOException if edit logs cannot be listed.
+   */
+  public List<RemoteEditLog> getRemoteEditLogs(long firstTxId,
+      boolean inMiddleOk) throws IOException {
     File currentDir = sd.getCurrentDir();
     List<EditLogFile> allLogFiles = matchEditLogs(currentDir);
     List<RemoteEditLog> ret = Lists.newArrayListWithCapacity(
@@ -179,9 +192,12 @@ public List<RemoteEditLog> getRemoteEditLogs(long firstTxId) throws IOException
         ret.add(new RemoteEditLog(elf.firstTxId, elf.lastTxId));
       } else if ((firstTxId > elf.getFirstTxId()) &&
                  (firstTxId <= elf.getLastTxId())) {
-        // Note that this behavior is different from getLogFiles below.
-        throw new IllegalStateException("Asked for firstTxId " + firstTxId
-            + " which is in the middle of file " + elf.file);
+        if (!inMiddleOk) {
+          // Note that this behavior is different from getLogFiles below.
+          throw new IllegalStateException("Asked for firstTxId " + firstTxId
+              + " which is in the middle of file " + elf.file);
+        }
+        ret.add(new RemoteEditLog(elf.firstTxId, elf.lastTxId));
       }
     }
     
@@ -0,0 +1,102 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.ipc.AlignmentContext;
+import org.apache.hadoop.ipc.StandbyException;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcRequestHeaderProto;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcResponseHeaderProto;
+
+/**
+ * The server side {@link AlignmentContext} of the NameNode. The state of the
+ * namespace is the id of the last transaction synced by the active, or
+ * applied by the standby.
+ *
+ * Clients send back the highest transaction id they have seen, so a standby
+ * which serves reads refuses the reads of the clients which have seen, e.g.
+ * written, transactions it has not applied yet. The clients then read from
+ * the active instead.
+ *
+ * The active never refuses a call: after a failover, a client may have seen
+ * transactions beyond those of the new active, if the previous active
+ * reported them before it failed, and the new active is the only one to
+ * serve the client anyway. The active reports the synced transactions
+ * rather than the written ones, which it could lose, to keep that rare;
+ * but never less than the transactions of the call being answered.
+ */
+@InterfaceAudience.Private
+class GlobalStateIdContext implements AlignmentContext {
+  private static final Log LOG = LogFactory.getLog(GlobalStateIdContext.class);
+
+  private final FSNamesystem namesystem;
+
+  GlobalStateIdContext(FSNamesystem namesystem) {
+    this.namesystem = namesystem;
+  }
+
+  @Override
+  public void updateResponseState(RpcResponseHeaderProto.Builder header) {
+    final FSImage fsImage = namesystem.getFSImage();
+    if (namesystem.isInStandbyState()) {
+      header.setStateId(fsImage.getLastAppliedOrWrittenTxId());
+      return;
+    }
+    // The response is built by the handler which made the call's edits.
+    // With asynchronous edit logging it is built before they are synced,
+    // and must still cover them, so that the client reads its own writes.
+    final FSEditLog editLog = fsImage.getEditLog();
+    header.setStateId(Math.max(fsImage.getLastAppliedOrSyncedTxId(),
+        editLog != null ? editLog.getMyLastWrittenTxId() : 0));
+  }
+
+  @Override
+  public void receiveResponseState(RpcResponseHeaderProto header) {
+    // client side only
+  }
+
+  @Override
+  public void updateRequestState(RpcRequestHeaderProto.Builder header) {
+    // client side only
+  }
+
+  @Override
+  public void receiveRequestState(RpcRequestHeaderProto header)
+      throws StandbyException {
+    if (!header.hasStateId()) {
+      return;
+    }
+    final FSImage fsImage = namesystem.getFSImage();
+    if (!namesystem.isInStandbyState()) {
+      if (LOG.isDebugEnabled()
+          && header.getStateId() > fsImage.getLastAppliedOrSyncedTxId()) {
+        LOG.debug("The client has seen transaction " + header.getStateId()
+            + ", beyond the transactions synced by the active NameNode");
+      }
+      return;
+    }
+    final long txid = fsImage.getLastAppliedOrWrittenTxId();
+    if (header.getStateId() > txid) {
+      throw new StandbyException("The NameNode has applied the transactions"
+          + " up to " + txid + ", but the client has seen transaction "
+          + header.getStateId());
+    }
+  }
+}
@@ -49,6 +49,13 @@ public static INodeDirectory valueOf(INode inode, Object path
   }
 
   protected static final int DEFAULT_FILES_PER_DIRECTORY = 5;
+  /**
+   * Directories with more children than this keep them in a
+   * {@link ChunkedINodeList}, so that inserting and removing a child does
+   * not copy the whole children array.
+   */
+  static final int LARGE_DIRECTORY_THRESHOLD =
+      2 * ChunkedINodeList.DEFAULT_CHUNK_CAPACITY;
   final static String ROOT_NAME = "";
 
   private List<INode> children = null;
@@ -93,7 +100,14 @@ private void assertChildrenNonNull() {
   }
 
   private int searchChildren(INode inode) {
-    return Collections.binarySearch(children, inode.getLocalNameBytes());
+    return searchChildren(inode.getLocalNameBytes());
+  }
+
+  private int searchChildren(byte[] name) {
+    if (children instanceof ChunkedINodeList) {
+      return ((ChunkedINodeList)children).search(name);
+    }
+    return Collections.binarySearch(children, name);
   }
 
   INode removeChild(INode node) {
@@ -126,7 +140,7 @@ private INode getChildINode(byte[] name) {
     if (children == null) {
       return null;
     }
-    int low = Collections.binarySearch(children, name);
+    int low = searchChildren(name);
     if (low >= 0) {
       return children.get(low);
     }
@@ -270,7 +284,7 @@ int nextChild(byte[] name) {
     if (name.length == 0) { // empty name
       return 0;
     }
-    int nextPos = Collections.binarySearch(children, name) + 1;
+    int nextPos = searchChildren(name) + 1;
     if (nextPos >= 0) {
       return nextPos;
     }
@@ -297,6 +311,10 @@ boolean addChild(final INode node, final boolean setModTime) {
     }
     node.parent = this;
     children.add(-low - 1, node);
+    if (children.size() > LARGE_DIRECTORY_THRESHOLD
+        && !(children instanceof ChunkedINodeList)) {
+      children = new ChunkedINodeList(children);
+    }
     // update modification time of the parent directory
     if (setModTime)
       setModificationTime(node.getModificationTime());
@@ -23,18 +23,22 @@
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.SortedMap;
-import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.UnresolvedLinkException;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants;
 import org.apache.hadoop.util.Daemon;
@@ -63,6 +67,16 @@
  * 2.9) Namenode removes f from the lease
  *      and removes the lease once all files have been removed
  * 2.10) Namenode commit changes to edit log
+ *
+ * Leases are renewed by every client every few seconds, so a renewal only
+ * updates the timestamp of the lease, without any lock. To find the expired
+ * leases without keeping them sorted, the leases are kept in buckets of
+ * {@link #EXPIRY_TICK} milliseconds, by their last renewal when they were
+ * added to the bucket. The monitor only looks at the buckets old enough to
+ * hold expired leases, and moves the leases renewed since then to the
+ * bucket of their last renewal, so a lease is moved at most once per hard
+ * limit period. The other changes to the leases are made under the lock of
+ * the LeaseManager, and the namesystem write lock.
  */
 @InterfaceAudience.Private
 public class LeaseManager {
@@ -70,19 +84,30 @@ public class LeaseManager {
 
   private final FSNamesystem fsnamesystem;
 
-  private long softLimit = HdfsConstants.LEASE_SOFTLIMIT_PERIOD;
-  private long hardLimit = HdfsConstants.LEASE_HARDLIMIT_PERIOD;
+  /** The time span of the expiry buckets, in milliseconds. */
+  static final long EXPIRY_TICK = 1000;
+
+  private volatile long softLimit = HdfsConstants.LEASE_SOFTLIMIT_PERIOD;
+  private volatile long hardLimit = HdfsConstants.LEASE_HARDLIMIT_PERIOD;
+  /** The number of paths released for each hold of the namesystem lock. */
+  private int releaseBatchSize =
+      DFSConfigKeys.DFS_NAMENODE_LEASE_RELEASE_BATCH_SIZE_DEFAULT;
 
   //
   // Used for handling lock-leases
   // Mapping: leaseHolder -> Lease
   //
-  private SortedMap<String, Lease> leases = new TreeMap<String, Lease>();
-  // Set of: Lease
-  private SortedSet<Lease> sortedLeases = new TreeSet<Lease>();
+  private final Map<String, Lease> leases =
+      new ConcurrentHashMap<String, Lease>();
+  //
+  // The expiry buckets: tick -> leases last renewed in the tick, at the
+  // time they were added to the bucket. Protected by the LeaseManager lock.
+  //
+  private final SortedMap<Long, Set<Lease>> expiryBuckets =
+      new TreeMap<Long, Set<Lease>>();
 
   // 
-  // Map path names to leases. It is protected by the sortedLeases lock.
+  // Map path names to leases. It is protected by the LeaseManager lock.
   // The map stores pathnames in lexicographical order.
   //
   private SortedMap<String, Lease> sortedLeasesByPath = new TreeMap<String, Lease>();
@@ -96,18 +121,19 @@ Lease getLease(String holder) {
     return leases.get(holder);
   }
   
-  SortedSet<Lease> getSortedLeases() {return sortedLeases;}
+  /** @return the leases currently in the system, in no particular order */
+  Collection<Lease> getLeases() {return leases.values();}
 
   /** @return the lease containing src */
   public Lease getLeaseByPath(String src) {return sortedLeasesByPath.get(src);}
 
   /** @return the number of leases currently in the system */
-  public synchronized int countLease() {return sortedLeases.size();}
+  public int countLease() {return leases.size();}
 
   /** @return the number of paths contained in all leases */
   synchronized int countPath() {
     int count = 0;
-    for(Lease lease : sortedLeases) {
+    for(Lease lease : leases.values()) {
       count += lease.getPaths().size();
     }
     return count;
@@ -121,7 +147,7 @@ synchronized Lease addLease(String holder, String src) {
     if (lease == null) {
       lease = new Lease(holder);
       leases.put(holder, lease);
-      sortedLeases.add(lease);
+      addToExpiryBucket(lease);
     } else {
       renewLease(lease);
     }
@@ -143,8 +169,8 @@ synchronized void removeLease(Lease lease, String src) {
 
     if (!lease.hasPath()) {
       leases.remove(lease.holder);
-      if (!sortedLeases.remove(lease)) {
-        LOG.error(lease + " not found in sortedLeases");
+      if (!removeFromExpiryBucket(lease)) {
+        LOG.error(lease + " not found in the expiry buckets");
       }
     }
   }
@@ -163,7 +189,7 @@ synchronized void removeLease(String holder, String src) {
   }
 
   synchronized void removeAllLeases() {
-    sortedLeases.clear();
+    expiryBuckets.clear();
     sortedLeasesByPath.clear();
     leases.clear();
   }
@@ -196,23 +222,22 @@ public synchronized String findPath(INodeFileUnderConstruction pendingFile)
   }
 
   /**
-   * Renew the lease(s) held by the given client
+   * Renew the lease(s) held by the given client.
+   * This does not take any lock.
    */
-  synchronized void renewLease(String holder) {
+  void renewLease(String holder) {
     renewLease(getLease(holder));
   }
-  synchronized void renewLease(Lease lease) {
+  void renewLease(Lease lease) {
     if (lease != null) {
-      sortedLeases.remove(lease);
       lease.renew();
-      sortedLeases.add(lease);
     }
   }
 
   /**
    * Renew all of the currently open leases.
    */
-  synchronized void renewAllLeases() {
+  void renewAllLeases() {
     for (Lease l : leases.values()) {
       renewLease(l);
     }
@@ -225,9 +250,11 @@ synchronized void renewAllLeases() {
    * checks in.  If the client dies and allows its lease to
    * expire, all the corresponding locks can be released.
    *************************************************************/
-  class Lease implements Comparable<Lease> {
+  class Lease {
     private final String holder;
-    private long lastUpdate;
+    private volatile long lastUpdate;
+    /** The expiry bucket holding the lease. */
+    private long expiryTick;
     private final Collection<String> paths = new TreeSet<String>();
   
     /** Only LeaseManager object can create a lease */
@@ -278,39 +305,6 @@ public String toString() {
       return "[Lease.  Holder: " + holder
           + ", pendingcreates: " + paths.size() + "]";
     }
-  
-    @Override
-    public int compareTo(Lease o) {
-      Lease l1 = this;
-      Lease l2 = o;
-      long lu1 = l1.lastUpdate;
-      long lu2 = l2.lastUpdate;
-      if (lu1 < lu2) {
-        return -1;
-      } else if (lu1 > lu2) {
-        return 1;
-      } else {
-        return l1.holder.compareTo(l2.holder);
-      }
-    }
-  
-    @Override
-    public boolean equals(Object o) {
-      if (!(o instanceof Lease)) {
-        return false;
-      }
-      Lease obj = (Lease) o;
-      if (lastUpdate == obj.lastUpdate &&
-          holder.equals(obj.holder)) {
-        return true;
-      }
-      return false;
-    }
-  
-    @Override
-    public int hashCode() {
-      return holder.hashCode();
-    }
     
     Collection<String> getPaths() {
       return paths;
@@ -389,6 +383,83 @@ public void setLeasePeriod(long softLimit, long hardLimit) {
     this.softLimit = softLimit;
     this.hardLimit = hardLimit; 
   }
+
+  /**
+   * Set the number of paths the monitor releases for each hold of the
+   * namesystem write lock.
+   */
+  void setReleaseBatchSize(int releaseBatchSize) {
+    Preconditions.checkArgument(releaseBatchSize > 0,
+        "The lease release batch size must be positive");
+    this.releaseBatchSize = releaseBatchSize;
+  }
+
+  private static long getExpiryTick(long time) {
+    return time / EXPIRY_TICK;
+  }
+
+  /** Add the lease to the bucket of its last renewal. */
+  private void addToExpiryBucket(Lease lease) {
+    lease.expiryTick = getExpiryTick(lease.lastUpdate);
+    Set<Lease> bucket = expiryBuckets.get(lease.expiryTick);
+    if (bucket == null) {
+      bucket = new HashSet<Lease>();
+      expiryBuckets.put(lease.expiryTick, bucket);
+    }
+    bucket.add(lease);
+  }
+
+  /** @return whether the lease was in the expiry buckets. */
+  private boolean removeFromExpiryBucket(Lease lease) {
+    final Set<Lease> bucket = expiryBuckets.get(lease.expiryTick);
+    if (bucket == null || !bucket.remove(lease)) {
+      return false;
+    }
+    if (bucket.isEmpty()) {
+      expiryBuckets.remove(lease.expiryTick);
+    }
+    return true;
+  }
+
+  /**
+   * Get the leases which expired hard limit, beginning from the oldest
+   * buckets, until they hold at least the given number of paths. The leases
+   * renewed since they were added to the buckets looked at are moved to the
+   * bucket of their last renewal.
+   */
+  @VisibleForTesting
+  synchronized List<Lease> getExpiredLeases(long now, int maxPaths) {
+    final long limit = hardLimit;
+    final List<Lease> expired = new ArrayList<Lease>();
+    final List<Lease> renewed = new ArrayList<Lease>();
+    int numPaths = 0;
+    for(Iterator<Map.Entry<Long, Set<Lease>>> i
+        = expiryBuckets.entrySet().iterator();
+        numPaths < maxPaths && i.hasNext(); ) {
+      final Map.Entry<Long, Set<Lease>> bucket = i.next();
+      // the leases of a bucket were renewed in its tick at the earliest
+      if (now - bucket.getKey() * EXPIRY_TICK <= limit) {
+        break;
+      }
+      for(Lease lease : bucket.getValue()) {
+        final long lastUpdate = lease.lastUpdate;
+        if (getExpiryTick(lastUpdate) != bucket.getKey()) {
+          renewed.add(lease);
+        } else if (now - lastUpdate > limit) {
+          expired.add(lease);
+          numPaths += lease.getPaths().size();
+          if (numPaths >= maxPaths) {
+            break;
+          }
+        }
+      }
+    }
+    for(Lease lease : renewed) {
+      removeFromExpiryBucket(lease);
+      addToExpiryBucket(lease);
+    }
+    return expired;
+  }
   
   /******************************************************
    * Monitor checks for leases that have expired,
@@ -401,18 +472,23 @@ class Monitor implements Runnable {
     @Override
     public void run() {
       for(; shouldRunMonitor && fsnamesystem.isRunning(); ) {
-        boolean needSync = false;
         try {
-          fsnamesystem.writeLockInterruptibly();
-          try {
-            if (!fsnamesystem.isInSafeMode()) {
-              needSync = checkLeases();
-            }
-          } finally {
-            fsnamesystem.writeUnlock();
-            // lease reassignments should to be sync'ed.
-            if (needSync) {
-              fsnamesystem.getEditLog().logSync();
+          // Release the expired leases in batches, so that the other
+          // operations can take the namesystem lock between the batches.
+          for(int released = releaseBatchSize;
+              shouldRunMonitor && released >= releaseBatchSize; ) {
+            released = 0;
+            fsnamesystem.writeLockInterruptibly();
+            try {
+              if (!fsnamesystem.isInSafeMode()) {
+                released = checkLeases();
+              }
+            } finally {
+              fsnamesystem.writeUnlock();
+              // lease releases and reassignments should to be sync'ed.
+              if (released > 0) {
+                fsnamesystem.getEditLog().logSync();
+              }
             }
           }
   
@@ -446,18 +522,15 @@ Map<String, INodeFileUnderConstruction> getINodesUnderConstruction() {
     return inodes;
   }
   
-  /** Check the leases beginning from the oldest.
-   *  @return true is sync is needed.
+  /** Check the leases beginning from the oldest, and release the paths of
+   *  the expired ones, up to the release batch size.
+   *  @return the number of paths released.
    */
-  private synchronized boolean checkLeases() {
-    boolean needSync = false;
+  @VisibleForTesting
+  int checkLeases() {
+    int released = 0;
     assert fsnamesystem.hasWriteLock();
-    for(; sortedLeases.size() > 0; ) {
-      final Lease oldest = sortedLeases.first();
-      if (!oldest.expiredHardLimit()) {
-        return needSync;
-      }
-
+    for(Lease oldest : getExpiredLeases(now(), releaseBatchSize)) {
       LOG.info(oldest + " has expired hard limit");
 
       final List<String> removing = new ArrayList<String>();
@@ -468,6 +541,10 @@ private synchronized boolean checkLeases() {
       String[] leasePaths = new String[oldest.getPaths().size()];
       oldest.getPaths().toArray(leasePaths);
       for(String p : leasePaths) {
+        if (released >= releaseBatchSize) {
+          break;
+        }
+        released++;
         try {
           boolean completed = fsnamesystem.internalReleaseLease(oldest, p,
               HdfsServerConstants.NAMENODE_LEASE_HOLDER);
@@ -478,10 +555,6 @@ private synchronized boolean checkLeases() {
               LOG.debug("Started block recovery " + p + " lease " + oldest);
             }
           }
-          // If a lease recovery happened, we need to sync later.
-          if (!needSync && !completed) {
-            needSync = true;
-          }
         } catch (IOException e) {
           LOG.error("Cannot release the path " + p + " in the lease "
               + oldest, e);
@@ -493,14 +566,14 @@ private synchronized boolean checkLeases() {
         removeLease(oldest, p);
       }
     }
-    return needSync;
+    return released;
   }
 
   @Override
   public synchronized String toString() {
     return getClass().getSimpleName() + "= {"
         + "\n leases=" + leases
-        + "\n sortedLeases=" + sortedLeases
+        + "\n expiryBuckets=" + expiryBuckets
         + "\n sortedLeasesByPath=" + sortedLeasesByPath
         + "\n}";
   }
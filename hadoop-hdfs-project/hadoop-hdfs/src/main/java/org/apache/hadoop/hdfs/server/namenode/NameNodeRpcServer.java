@@ -250,6 +250,10 @@ public NameNodeRpcServer(Configuration conf, NameNode nn)
         .setVerbose(false)
         .setSecretManager(namesystem.getDelegationTokenSecretManager())
         .build();
+    // Tell the clients which transactions the namespace reflects, so that
+    // they read from a standby only once it has caught up with them.
+    clientRpcServer.setAlignmentContext(
+        new GlobalStateIdContext(namesystem));
 
     // Add all the RPC protocols that the namenode implements
     DFSUtil.addPBProtocol(conf, HAServiceProtocolPB.class, haPbService,
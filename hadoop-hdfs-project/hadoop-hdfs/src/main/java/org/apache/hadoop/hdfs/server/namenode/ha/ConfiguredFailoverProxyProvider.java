@@ -36,6 +36,7 @@
 import org.apache.hadoop.hdfs.NameNodeProxies;
 import org.apache.hadoop.hdfs.server.protocol.NamenodeProtocols;
 import org.apache.hadoop.io.retry.FailoverProxyProvider;
+import org.apache.hadoop.ipc.AlignmentContext;
 import org.apache.hadoop.ipc.RPC;
 import org.apache.hadoop.security.UserGroupInformation;
 
@@ -57,15 +58,26 @@
       new ArrayList<AddressRpcProxyPair<T>>();
   private final UserGroupInformation ugi;
   private final Class<T> xface;
+  private final AlignmentContext alignmentContext;
   
   private int currentProxyIndex = 0;
 
   public ConfiguredFailoverProxyProvider(Configuration conf, URI uri,
       Class<T> xface) {
+    this(conf, uri, xface, null);
+  }
+
+  /**
+   * @param alignmentContext the context with which the proxies exchange the
+   *        state of the client with the NNs, or null
+   */
+  protected ConfiguredFailoverProxyProvider(Configuration conf, URI uri,
+      Class<T> xface, AlignmentContext alignmentContext) {
     Preconditions.checkArgument(
         xface.isAssignableFrom(NamenodeProtocols.class),
         "Interface class %s is not a valid NameNode protocol!");
     this.xface = xface;
+    this.alignmentContext = alignmentContext;
     
     this.conf = new Configuration(conf);
     int maxRetries = this.conf.getInt(
@@ -113,17 +125,21 @@ public Class<T> getInterface() {
     return xface;
   }
 
+  @Override
+  public synchronized T getProxy() {
+    return getProxy(currentProxyIndex);
+  }
+
   /**
-   * Lazily initialize the RPC proxy object.
+   * Lazily initialize the RPC proxy object to the NN at the given index.
    */
   @SuppressWarnings("unchecked")
-  @Override
-  public synchronized T getProxy() {
-    AddressRpcProxyPair current = proxies.get(currentProxyIndex);
+  protected synchronized T getProxy(int index) {
+    AddressRpcProxyPair current = proxies.get(index);
     if (current.namenode == null) {
       try {
         current.namenode = NameNodeProxies.createNonHAProxy(conf,
-            current.address, xface, ugi, false).getProxy();
+            current.address, xface, ugi, false, alignmentContext).getProxy();
       } catch (IOException e) {
         LOG.error("Failed to create RPC proxy to NameNode", e);
         throw new RuntimeException(e);
@@ -137,6 +153,16 @@ public synchronized void performFailover(T currentProxy) {
     currentProxyIndex = (currentProxyIndex + 1) % proxies.size();
   }
 
+  /** @return the index of the NN which {@link #getProxy()} connects to. */
+  protected synchronized int getCurrentProxyIndex() {
+    return currentProxyIndex;
+  }
+
+  /** @return the number of configured NNs. */
+  protected int getProxyCount() {
+    return proxies.size();
+  }
+
   /**
    * A little pair object to store the address and connected RPC proxy object to
    * an NN. Note that {@link AddressRpcProxyPair#namenode} may be null.
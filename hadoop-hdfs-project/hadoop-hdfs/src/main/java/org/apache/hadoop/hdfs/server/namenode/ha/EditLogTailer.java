@@ -98,6 +98,12 @@ public class EditLogTailer {
    * available to be read from.
    */
   private long sleepTimeMs;
+
+  /**
+   * Whether to tail the in-progress edit log segment too, rather than
+   * only finalized segments.
+   */
+  private final boolean inProgressOk;
   
   public EditLogTailer(FSNamesystem namesystem, Configuration conf) {
     this.tailerThread = new EditLogTailerThread();
@@ -123,6 +129,10 @@ public EditLogTailer(FSNamesystem namesystem, Configuration conf) {
     
     sleepTimeMs = conf.getInt(DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY,
         DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_DEFAULT) * 1000;
+
+    inProgressOk = conf.getBoolean(
+        DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_KEY,
+        DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_DEFAULT);
     
     LOG.debug("logRollPeriodMs=" + logRollPeriodMs +
         " sleepTime=" + sleepTimeMs);
@@ -206,7 +216,8 @@ void doTailEdits() throws IOException, InterruptedException {
       }
       Collection<EditLogInputStream> streams;
       try {
-        streams = editLog.selectInputStreams(lastTxnId + 1, 0, null, false);
+        streams = editLog.selectInputStreams(lastTxnId + 1, 0, null,
+            inProgressOk);
       } catch (IOException ioe) {
         // This is acceptable. If we try to tail edits in the middle of an edits
         // log roll, i.e. the last one has been finalized but the new inprogress
@@ -301,6 +312,7 @@ public Object run() {
     
     private void doWork() {
       while (shouldRun) {
+        boolean caughtUp = true;
         try {
           // There's no point in triggering a log roll if the Standby hasn't
           // read any more transactions since the last time a roll was
@@ -318,7 +330,11 @@ private void doWork() {
           if (!shouldRun) {
             break;
           }
+          long lastTxnId = lastLoadedTxnId;
           doTailEdits();
+          // When tailing the in-progress segment, keep going without
+          // sleeping as long as there are new edits.
+          caughtUp = !inProgressOk || lastLoadedTxnId == lastTxnId;
         } catch (EditLogInputException elie) {
           LOG.warn("Error while reading edits from disk. Will try again.", elie);
         } catch (InterruptedException ie) {
@@ -330,6 +346,9 @@ private void doWork() {
           terminate(1, t);
         }
 
+        if (!caughtUp) {
+          continue;
+        }
         try {
           Thread.sleep(sleepTimeMs);
         } catch (InterruptedException e) {
@@ -0,0 +1,191 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode.ha;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.protocol.ClientProtocol;
+import org.apache.hadoop.ipc.AlignmentContext;
+import org.apache.hadoop.ipc.RPC;
+import org.apache.hadoop.ipc.RemoteException;
+import org.apache.hadoop.ipc.RpcInvocationHandler;
+import org.apache.hadoop.ipc.StandbyException;
+import org.apache.hadoop.ipc.Client.ConnectionId;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcRequestHeaderProto;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcResponseHeaderProto;
+import org.apache.hadoop.util.Time;
+
+/**
+ * A {@link ConfiguredFailoverProxyProvider} which sends the {@link ReadOnly}
+ * calls of {@link ClientProtocol} to the standby NNs, and all the other calls
+ * to the active NN. The standby NNs must allow reads, see
+ * {@link org.apache.hadoop.hdfs.HAUtil#setAllowStandbyReads}.
+ *
+ * The client keeps the id of the last transaction it has seen in the
+ * responses of the NNs, e.g. the transaction of its last write, and sends it
+ * with every call. A standby which has not applied this transaction yet
+ * refuses the read with a {@link StandbyException}, so the client never
+ * reads an older state than it has already seen. A read refused by the
+ * standbys, or which cannot reach them, is sent to the active.
+ */
+public class StandbyReadProxyProvider<T>
+    extends ConfiguredFailoverProxyProvider<T> {
+  private static final Log LOG =
+      LogFactory.getLog(StandbyReadProxyProvider.class);
+
+  /** How long a standby which could not be reached is not read from. */
+  static final long UNREACHABLE_STANDBY_RETRY_MS = 60 * 1000;
+
+  /** The proxy dispatching the calls, or null if xface has no reads. */
+  private final T readProxy;
+  /** When each NN which could not be reached may be read from again. */
+  private final long[] retryTimes;
+
+  public StandbyReadProxyProvider(Configuration conf, URI uri,
+      Class<T> xface) {
+    super(conf, uri, xface, xface == ClientProtocol.class ?
+        new ClientStateIdContext() : null);
+    retryTimes = new long[getProxyCount()];
+    if (xface == ClientProtocol.class) {
+      readProxy = xface.cast(Proxy.newProxyInstance(xface.getClassLoader(),
+          new Class<?>[] { xface }, new ReadInvocationHandler()));
+    } else {
+      readProxy = null;
+    }
+  }
+
+  @Override
+  public synchronized T getProxy() {
+    return readProxy != null ? readProxy : super.getProxy();
+  }
+
+  /**
+   * @return whether the failure of a read on a standby means that it cannot
+   *         serve it, rather than being the answer to the read.
+   */
+  private static boolean isStandbyFailure(Throwable t) {
+    if (t instanceof RemoteException) {
+      return StandbyException.class.getName().equals(
+          ((RemoteException)t).getClassName());
+    }
+    // the standby could not be reached
+    return t instanceof IOException;
+  }
+
+  private class ReadInvocationHandler implements RpcInvocationHandler {
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args)
+        throws Throwable {
+      final int active = getCurrentProxyIndex();
+      if (method.isAnnotationPresent(ReadOnly.class)) {
+        for (int i = 0; i < getProxyCount(); i++) {
+          if (i == active || !isReachable(i)) {
+            continue;
+          }
+          try {
+            return method.invoke(getProxy(i), args);
+          } catch (InvocationTargetException e) {
+            final Throwable cause = e.getCause();
+            if (!isStandbyFailure(cause)) {
+              throw cause;
+            }
+            if (!(cause instanceof RemoteException)) {
+              setUnreachable(i);
+            }
+            if (LOG.isDebugEnabled()) {
+              LOG.debug("Standby NN #" + i + " did not serve "
+                  + method.getName() + ": " + cause);
+            }
+          }
+        }
+      }
+      try {
+        return method.invoke(getProxy(active), args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      // the proxies are closed with the provider
+    }
+
+    @Override
+    public ConnectionId getConnectionId() {
+      return RPC.getConnectionIdForProxy(
+          StandbyReadProxyProvider.super.getProxy());
+    }
+  }
+
+  private synchronized boolean isReachable(int index) {
+    return Time.monotonicNow() >= retryTimes[index];
+  }
+
+  private synchronized void setUnreachable(int index) {
+    retryTimes[index] = Time.monotonicNow() + UNREACHABLE_STANDBY_RETRY_MS;
+  }
+
+  /**
+   * Keeps the id of the last transaction seen by the client in the responses
+   * of the NNs, and sends it with the requests.
+   */
+  private static class ClientStateIdContext implements AlignmentContext {
+    private final AtomicLong lastSeenStateId = new AtomicLong(Long.MIN_VALUE);
+
+    @Override
+    public void updateResponseState(RpcResponseHeaderProto.Builder header) {
+      // server side only
+    }
+
+    @Override
+    public void receiveResponseState(RpcResponseHeaderProto header) {
+      if (!header.hasStateId()) {
+        return;
+      }
+      final long stateId = header.getStateId();
+      for (long last = lastSeenStateId.get(); stateId > last;
+          last = lastSeenStateId.get()) {
+        if (lastSeenStateId.compareAndSet(last, stateId)) {
+          break;
+        }
+      }
+    }
+
+    @Override
+    public void updateRequestState(RpcRequestHeaderProto.Builder header) {
+      final long stateId = lastSeenStateId.get();
+      if (stateId != Long.MIN_VALUE) {
+        header.setStateId(stateId);
+      }
+    }
+
+    @Override
+    public void receiveRequestState(RpcRequestHeaderProto header) {
+      // server side only
+    }
+  }
+}
@@ -65,6 +65,8 @@ public class NameNodeMetrics {
   MutableCounterLong transactionsBatchedInSync;
   @Metric("Block report") MutableRate blockReport;
   MutableQuantiles[] blockReportQuantiles;
+  @Metric("Block report admission wait") MutableRate blockReportQueueTime;
+  MutableQuantiles[] blockReportQueueTimeQuantiles;
 
   @Metric("Duration in SafeMode at startup") MutableGaugeInt safeModeTime;
   @Metric("Time loading FS Image at startup") MutableGaugeInt fsImageLoadTime;
@@ -75,6 +77,7 @@ public class NameNodeMetrics {
     final int len = intervals.length;
     syncsQuantiles = new MutableQuantiles[len];
     blockReportQuantiles = new MutableQuantiles[len];
+    blockReportQueueTimeQuantiles = new MutableQuantiles[len];
     
     for (int i = 0; i < len; i++) {
       int interval = intervals[i];
@@ -84,6 +87,9 @@ public class NameNodeMetrics {
       blockReportQuantiles[i] = registry.newQuantiles(
           "blockReport" + interval + "s", 
           "Block report", "ops", "latency", interval);
+      blockReportQueueTimeQuantiles[i] = registry.newQuantiles(
+          "blockReportQueueTime" + interval + "s",
+          "Block report admission wait", "ops", "latency", interval);
     }
   }
 
@@ -185,6 +191,13 @@ public void addBlockReport(long latency) {
     }
   }
 
+  public void addBlockReportQueueTime(long latency) {
+    blockReportQueueTime.add(latency);
+    for (MutableQuantiles q : blockReportQueueTimeQuantiles) {
+      q.add(latency);
+    }
+  }
+
   public void setSafeModeTime(long elapsed) {
     safeModeTime.set((int) elapsed);
   }
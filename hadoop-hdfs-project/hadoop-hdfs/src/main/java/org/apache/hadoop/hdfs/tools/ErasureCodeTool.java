@@ -0,0 +1,339 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.tools;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSClient;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSUtil;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.ErasureCodeSchema;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.erasurecode.RawErasureCoder;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * Converts replicated files to erasure coded files: computes the parity
+ * file of each file, see {@link ErasureCodeSchema}, and then reduces the
+ * replication of the file. This is an offline batch job, meant for cold
+ * files which are no longer written to.
+ *
+ * Files which are open for write, have blocks shorter than their block
+ * size other than the last one, or are too small for erasure coding to save
+ * space are skipped. The parity blocks of a stripe but the first are spilled
+ * to local temporary files, so that the source file is read only once.
+ */
+@InterfaceAudience.Private
+public class ErasureCodeTool extends Configured implements Tool {
+  static {
+    HdfsConfiguration.init();
+  }
+  private static final Log LOG = LogFactory.getLog(ErasureCodeTool.class);
+
+  private static final String USAGE = "Usage: hdfs ec "
+      + "[-replication <replication>] <path> ...\n"
+      + "\tErasure code the files under the given paths and reduce their\n"
+      + "\treplication, to 1 by default. The parity files are written under\n"
+      + "\t" + DFSConfigKeys.DFS_ERASURECODE_PARITY_DIR_KEY + ".";
+
+  /** The number of bytes of each block encoded at a time. */
+  static final int CHUNK_SIZE = 1024 * 1024;
+
+  private final PrintStream out;
+  private DistributedFileSystem dfs;
+  private ErasureCodeSchema schema;
+  private RawErasureCoder coder;
+  private short replication = 1;
+  private int numConverted = 0;
+  private int numSkipped = 0;
+  private int numFailed = 0;
+
+  public ErasureCodeTool(Configuration conf) {
+    this(conf, System.out);
+  }
+
+  public ErasureCodeTool(Configuration conf, PrintStream out) {
+    super(conf);
+    this.out = out;
+  }
+
+  private static void printUsage(PrintStream out) {
+    out.println(USAGE + "\n");
+    ToolRunner.printGenericCommandUsage(out);
+  }
+
+  @Override
+  public int run(String[] args) throws IOException {
+    final List<Path> paths = new ArrayList<Path>();
+    for (int i = 0; i < args.length; i++) {
+      if ("-replication".equals(args[i]) && i + 1 < args.length) {
+        replication = Short.parseShort(args[++i]);
+      } else {
+        paths.add(new Path(args[i]));
+      }
+    }
+    if (paths.isEmpty() || replication < 1) {
+      printUsage(System.err);
+      return -1;
+    }
+    final FileSystem fs = FileSystem.get(getConf());
+    if (!(fs instanceof DistributedFileSystem)) {
+      System.err.println("FileSystem is " + fs.getUri());
+      return -1;
+    }
+    dfs = (DistributedFileSystem)fs;
+    schema = ErasureCodeSchema.get(getConf());
+    coder = RawErasureCoder.getInstance(getConf(), schema.getNumDataBlocks(),
+        schema.getNumParityBlocks());
+
+    for (Path p : paths) {
+      try {
+        convertTree(dfs.getFileStatus(p));
+      } catch (FileNotFoundException e) {
+        System.err.println(p + ": no such file or directory");
+        numFailed++;
+      }
+    }
+    out.println("Erasure coded " + numConverted + " files with "
+        + schema.getCodecName() + ", skipped " + numSkipped + ", failed "
+        + numFailed);
+    return numFailed == 0 ? 0 : 1;
+  }
+
+  private void convertTree(FileStatus status) throws IOException {
+    final String path = status.getPath().toUri().getPath();
+    if (schema.isParityPath(path)) {
+      return;
+    }
+    if (status.isDirectory()) {
+      for (FileStatus child : dfs.listStatus(status.getPath())) {
+        convertTree(child);
+      }
+      return;
+    }
+    try {
+      convert(path);
+    } catch (IOException e) {
+      System.err.println("Failed to erasure code " + path + ": " + e);
+      LOG.warn("Failed to erasure code " + path, e);
+      numFailed++;
+    }
+  }
+
+  private void skip(String src, String reason) {
+    out.println("Skipped " + src + ": " + reason);
+    numSkipped++;
+  }
+
+  private void convert(String src) throws IOException {
+    final DFSClient client = dfs.getClient();
+    final HdfsFileStatus source = client.getFileInfo(src);
+    final String parityPath = schema.getParityPath(src);
+    if (source == null) {
+      skip(src, "deleted");
+      return;
+    }
+    if (ErasureCodeSchema.isParityValid(source,
+        client.getFileInfo(parityPath))) {
+      // an earlier run may have failed before reducing the replication
+      if (source.getReplication() > replication) {
+        dfs.setReplication(new Path(src), replication);
+      }
+      skip(src, "already erasure coded");
+      return;
+    }
+    if (source.getLen() == 0) {
+      skip(src, "empty");
+      return;
+    }
+    final LocatedBlocks blocks =
+        client.getLocatedBlocks(src, 0, source.getLen());
+    if (blocks.isUnderConstruction()) {
+      skip(src, "open for write");
+      return;
+    }
+    final List<LocatedBlock> list = blocks.getLocatedBlocks();
+    for (int i = 0; i < list.size() - 1; i++) {
+      if (list.get(i).getBlockSize() != source.getBlockSize()) {
+        skip(src, "block " + i + " is not full");
+        return;
+      }
+    }
+    final int numBlocks = list.size();
+    final int numParityBlocks =
+        schema.getNumStripes(numBlocks) * schema.getNumParityBlocks();
+    if ((long)(source.getReplication() - replication) * numBlocks
+        <= (long)numParityBlocks * replication) {
+      skip(src, "erasure coding " + numBlocks + " blocks would not save space");
+      return;
+    }
+
+    encode(src, source, numBlocks, parityPath);
+
+    final HdfsFileStatus after = client.getFileInfo(src);
+    if (after == null
+        || after.getModificationTime() != source.getModificationTime()) {
+      dfs.delete(new Path(parityPath), false);
+      throw new IOException("Modified while being erasure coded");
+    }
+    dfs.setReplication(new Path(src), replication);
+    out.println("Erasure coded " + src + ": " + numBlocks + " blocks, "
+        + numParityBlocks + " parity blocks");
+    numConverted++;
+  }
+
+  /** Write the parity file of src. */
+  private void encode(String src, HdfsFileStatus source, int numBlocks,
+      String parityPath) throws IOException {
+    final int k = schema.getNumDataBlocks();
+    final int m = schema.getNumParityBlocks();
+    final long blockSize = source.getBlockSize();
+    final long fileLength = source.getLen();
+    final int bufferSize = (int)Math.min(CHUNK_SIZE, blockSize);
+    final byte[][] data = new byte[k][bufferSize];
+    final byte[][] parity = new byte[m][bufferSize];
+    final Path parityFile = new Path(parityPath);
+
+    dfs.mkdirs(parityFile.getParent());
+    FSDataInputStream in = null;
+    FSDataOutputStream parityOut = null;
+    final File[] spillFiles = new File[m];
+    final OutputStream[] spillOuts = new OutputStream[m];
+    try {
+      in = dfs.open(new Path(src));
+      parityOut = dfs.create(parityFile, source.getPermission(), true,
+          getConf().getInt("io.file.buffer.size", 4096), replication,
+          blockSize, null);
+      final int numStripes = schema.getNumStripes(numBlocks);
+      for (int s = 0; s < numStripes; s++) {
+        final long stripeStart = (long)s * k * blockSize;
+        // the parity blocks are as long as the first block of the stripe
+        final long length = Math.min(blockSize, fileLength - stripeStart);
+        for (int p = 1; p < m; p++) {
+          spillFiles[p] = File.createTempFile("ec-parity", null);
+          spillOuts[p] = new BufferedOutputStream(
+              new FileOutputStream(spillFiles[p]));
+        }
+        for (long off = 0; off < length; off += bufferSize) {
+          final int n = (int)Math.min(bufferSize, length - off);
+          for (int d = 0; d < k; d++) {
+            readChunk(in, stripeStart + d * blockSize + off, fileLength,
+                data[d], n);
+          }
+          coder.encode(data, parity, n);
+          parityOut.write(parity[0], 0, n);
+          for (int p = 1; p < m; p++) {
+            spillOuts[p].write(parity[p], 0, n);
+          }
+        }
+        // Every parity block but the last one of the file must be full, so
+        // that each parity block starts on a block boundary.
+        final boolean lastStripe = s == numStripes - 1;
+        writeZeros(parityOut, m == 1 && lastStripe ? 0 : blockSize - length,
+            data[0]);
+        for (int p = 1; p < m; p++) {
+          spillOuts[p].close();
+          spillOuts[p] = null;
+          final InputStream spilled = new FileInputStream(spillFiles[p]);
+          try {
+            IOUtils.copyBytes(spilled, parityOut, bufferSize, false);
+          } finally {
+            spilled.close();
+          }
+          writeZeros(parityOut,
+              p == m - 1 && lastStripe ? 0 : blockSize - length, data[0]);
+          spillFiles[p].delete();
+          spillFiles[p] = null;
+        }
+      }
+      parityOut.close();
+      parityOut = null;
+    } finally {
+      IOUtils.cleanup(LOG, in, parityOut);
+      for (int p = 1; p < m; p++) {
+        IOUtils.cleanup(LOG, spillOuts[p]);
+        if (spillFiles[p] != null) {
+          spillFiles[p].delete();
+        }
+      }
+    }
+    // marks the parity as computed from this version of the file
+    dfs.setTimes(parityFile, source.getModificationTime(), -1);
+  }
+
+  /** Read n bytes at position, padding with zeros past the end of file. */
+  private static void readChunk(FSDataInputStream in, long position,
+      long fileLength, byte[] buf, int n) throws IOException {
+    final int available = (int)Math.max(0,
+        Math.min(n, fileLength - position));
+    if (available > 0) {
+      in.readFully(position, buf, 0, available);
+    }
+    for (int i = available; i < n; i++) {
+      buf[i] = 0;
+    }
+  }
+
+  private static void writeZeros(OutputStream out, long count, byte[] buf)
+      throws IOException {
+    Arrays.fill(buf, (byte)0);
+    while (count > 0) {
+      final int n = (int)Math.min(count, buf.length);
+      out.write(buf, 0, n);
+      count -= n;
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    int res = -1;
+    if (DFSUtil.parseHelpArgument(args, USAGE, System.out, true)) {
+      res = 0;
+    } else {
+      res = ToolRunner.run(new ErasureCodeTool(new HdfsConfiguration()),
+          args);
+    }
+    System.exit(res);
+  }
+}
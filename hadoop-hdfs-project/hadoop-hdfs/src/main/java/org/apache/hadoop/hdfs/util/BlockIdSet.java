@@ -0,0 +1,254 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.util;
+
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hdfs.protocol.Block;
+
+/**
+ * A compact set of blocks, keyed by block id like {@link Block#equals}.
+ *
+ * The id, length and generation stamp of each block are kept in primitive
+ * arrays with open addressing and linear probing, so the set holds no
+ * object per element: a block costs 24 bytes per slot of a table kept
+ * between a quarter and three quarters full, and nothing for the garbage
+ * collector to trace, where a {@link LightWeightHashSet} of blocks costs a
+ * set entry and a {@link Block} object per element. Blocks are created only
+ * when they are returned.
+ *
+ * This class is not thread safe.
+ */
+@InterfaceAudience.Private
+public class BlockIdSet implements Iterable<Block> {
+  private static final int MINIMUM_CAPACITY = 16;
+  private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+  private long[] ids;
+  private long[] lengths;
+  private long[] genStamps;
+  /** The slots holding a block. */
+  private BitSet used;
+  private int mask;
+  private int size = 0;
+  /** Where the next {@link #pollN(int)} starts looking for blocks. */
+  private int pollIndex = 0;
+
+  public BlockIdSet() {
+    allocate(MINIMUM_CAPACITY);
+  }
+
+  private void allocate(int capacity) {
+    ids = new long[capacity];
+    lengths = new long[capacity];
+    genStamps = new long[capacity];
+    used = new BitSet(capacity);
+    mask = capacity - 1;
+    pollIndex = 0;
+  }
+
+  private static int hash(long blockId) {
+    final long h = blockId * 0x9E3779B97F4A7C15L;
+    return (int)(h ^ (h >>> 32));
+  }
+
+  /** @return the slot of the given block id, or -1 if it is not in the set */
+  private int indexOf(long blockId) {
+    for (int i = hash(blockId) & mask; used.get(i); i = (i + 1) & mask) {
+      if (ids[i] == blockId) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /** @return whether the set contains a block with the given id. */
+  public boolean contains(long blockId) {
+    return indexOf(blockId) >= 0;
+  }
+
+  /**
+   * @return the block in the set with the given id, or null if there is
+   *         none.
+   */
+  public Block get(long blockId) {
+    final int i = indexOf(blockId);
+    return i < 0 ? null : new Block(ids[i], lengths[i], genStamps[i]);
+  }
+
+  /**
+   * Add a block, unless the set already contains a block with its id.
+   * @return whether the block was added.
+   */
+  public boolean add(Block block) {
+    final long blockId = block.getBlockId();
+    int i = hash(blockId) & mask;
+    for (; used.get(i); i = (i + 1) & mask) {
+      if (ids[i] == blockId) {
+        return false;
+      }
+    }
+    ids[i] = blockId;
+    lengths[i] = block.getNumBytes();
+    genStamps[i] = block.getGenerationStamp();
+    used.set(i);
+    size++;
+    if (size > (mask + 1) / 4 * 3 && mask + 1 < MAXIMUM_CAPACITY) {
+      resize((mask + 1) << 1);
+    }
+    return true;
+  }
+
+  /**
+   * Remove the block with the id of the given block.
+   * @return whether the set contained it.
+   */
+  public boolean remove(Block block) {
+    final int i = indexOf(block.getBlockId());
+    if (i < 0) {
+      return false;
+    }
+    removeAt(i);
+    shrinkIfSparse();
+    return true;
+  }
+
+  /**
+   * Empty a slot, then move back the following blocks of its probe sequence
+   * which may not be found any more otherwise.
+   */
+  private void removeAt(int hole) {
+    used.clear(hole);
+    size--;
+    for (int j = (hole + 1) & mask; used.get(j); j = (j + 1) & mask) {
+      final int home = hash(ids[j]) & mask;
+      // the block may move to the hole if the hole is between its home
+      // slot and its current slot
+      if (((j - home) & mask) >= ((j - hole) & mask)) {
+        ids[hole] = ids[j];
+        lengths[hole] = lengths[j];
+        genStamps[hole] = genStamps[j];
+        used.set(hole);
+        used.clear(j);
+        hole = j;
+      }
+    }
+  }
+
+  private void shrinkIfSparse() {
+    if (mask + 1 > MINIMUM_CAPACITY && size < (mask + 1) / 8) {
+      resize((mask + 1) >> 1);
+    }
+  }
+
+  private void resize(int capacity) {
+    final long[] oldIds = ids;
+    final long[] oldLengths = lengths;
+    final long[] oldGenStamps = genStamps;
+    final BitSet oldUsed = used;
+    allocate(capacity);
+    for (int j = oldUsed.nextSetBit(0); j >= 0;
+        j = oldUsed.nextSetBit(j + 1)) {
+      int i = hash(oldIds[j]) & mask;
+      while (used.get(i)) {
+        i = (i + 1) & mask;
+      }
+      ids[i] = oldIds[j];
+      lengths[i] = oldLengths[j];
+      genStamps[i] = oldGenStamps[j];
+      used.set(i);
+    }
+  }
+
+  /**
+   * Remove and return up to n blocks. Successive calls continue where the
+   * previous one stopped, so draining the set in batches visits each slot
+   * about once.
+   */
+  public Block[] pollN(int n) {
+    final Block[] polled = new Block[Math.min(n, size)];
+    int i = pollIndex;
+    for (int k = 0; k < polled.length; ) {
+      if (used.get(i)) {
+        polled[k++] = new Block(ids[i], lengths[i], genStamps[i]);
+        // removing the block may move a following block into this slot
+        removeAt(i);
+      } else {
+        i = (i + 1) & mask;
+      }
+    }
+    pollIndex = i;
+    shrinkIfSparse();
+    return polled;
+  }
+
+  /**
+   * @return an iterator over the blocks of the set, which does not support
+   *         removal. The set must not be modified during the iteration.
+   */
+  @Override
+  public Iterator<Block> iterator() {
+    return new Iterator<Block>() {
+      private int next = used.nextSetBit(0);
+
+      @Override
+      public boolean hasNext() {
+        return next >= 0;
+      }
+
+      @Override
+      public Block next() {
+        if (next < 0) {
+          throw new NoSuchElementException();
+        }
+        final Block b = new Block(ids[next], lengths[next], genStamps[next]);
+        next = used.nextSetBit(next + 1);
+        return b;
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  public void clear() {
+    if (size > 0 || mask + 1 > MINIMUM_CAPACITY) {
+      allocate(MINIMUM_CAPACITY);
+      size = 0;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "(size=" + size + ", capacity="
+        + (mask + 1) + ")";
+  }
+}
@@ -17,12 +17,15 @@
  */
 package org.apache.hadoop.hdfs;
 
+import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.util.Random;
 import java.util.concurrent.TimeoutException;
 
 import org.apache.hadoop.fs.ChecksumException;
@@ -31,7 +34,9 @@
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hdfs.protocol.DatanodeID;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
+import org.apache.hadoop.hdfs.server.datanode.BlockMetadataHeader;
 import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.util.DataChecksum;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -83,8 +88,14 @@ public void doTest(BlockReaderLocal reader, byte original[])
   
   public void runBlockReaderLocalTest(BlockReaderLocalTest test,
       boolean checksum) throws IOException {
+    runBlockReaderLocalTest(test, checksum, false);
+  }
+
+  public void runBlockReaderLocalTest(BlockReaderLocalTest test,
+      boolean checksum, boolean mmap) throws IOException {
     MiniDFSCluster cluster = null;
     HdfsConfiguration conf = new HdfsConfiguration();
+    conf.setBoolean(DFSConfigKeys.DFS_CLIENT_MMAP_ENABLED, mmap);
     conf.setBoolean(DFSConfigKeys.
         DFS_CLIENT_READ_SHORTCIRCUIT_SKIP_CHECKSUM_KEY, !checksum);
     conf.set(DFSConfigKeys.DFS_CHECKSUM_TYPE_KEY, "CRC32C");
@@ -346,4 +357,123 @@ public void testBlockReaderLocalReadCorrupt()
     runBlockReaderLocalTest(new TestBlockReaderLocalReadCorrupt(), true);
     runBlockReaderLocalTest(new TestBlockReaderLocalReadCorrupt(), false);
   }
+
+  @Test
+  public void testBlockReaderLocalMmapReads() throws IOException {
+    runBlockReaderLocalTest(new TestBlockReaderSimpleReads(), true, true);
+    runBlockReaderLocalTest(new TestBlockReaderLocalArrayReads2(), true, true);
+    runBlockReaderLocalTest(
+        new TestBlockReaderLocalByteBufferReads(), false, true);
+  }
+
+  /** A mapping which fails verification must not be used. */
+  @Test
+  public void testBlockReaderLocalMmapReadCorrupt() throws IOException {
+    runBlockReaderLocalTest(new TestBlockReaderLocalReadCorrupt(), true, true);
+    runBlockReaderLocalTest(
+        new TestBlockReaderLocalReadCorruptStart(), true, true);
+  }
+
+  private static class TestBlockReaderLocalZeroCopyReads
+      implements BlockReaderLocalTest {
+    @Override
+    public void setup(File blockFile, boolean usingChecksums)
+        throws IOException { }
+    @Override
+    public void doTest(BlockReaderLocal reader, byte original[])
+        throws IOException {
+      ByteBuffer buf = reader.readZeroCopy(1000);
+      Assert.assertTrue(buf.isReadOnly());
+      Assert.assertEquals(1000, buf.remaining());
+      byte data[] = new byte[TEST_LENGTH];
+      buf.get(data, 0, 1000);
+      assertArrayRegionsEqual(original, 0, data, 0, 1000);
+      reader.readFully(data, 1000, 10);
+      assertArrayRegionsEqual(original, 1000, data, 1000, 10);
+      buf = reader.readZeroCopy(TEST_LENGTH);
+      Assert.assertEquals(TEST_LENGTH - 1010, buf.remaining());
+      buf.get(data, 1010, TEST_LENGTH - 1010);
+      assertArrayRegionsEqual(original, 1010, data, 1010, TEST_LENGTH - 1010);
+      Assert.assertEquals(0, reader.readZeroCopy(10).remaining());
+      Assert.assertEquals(-1, reader.read(data, 0, 10));
+    }
+  }
+
+  @Test
+  public void testBlockReaderLocalZeroCopyReads() throws IOException {
+    runBlockReaderLocalTest(new TestBlockReaderLocalZeroCopyReads(), true, true);
+  }
+
+  /**
+   * A reader verifies only the chunks of a mapping covering its range, and
+   * the mapping is marked verified once all of its chunks have been.
+   */
+  @Test
+  public void testClientMmapVerifiesReadRange() throws IOException {
+    final int bytesPerChecksum = 512;
+    final DataChecksum checksum = DataChecksum.newDataChecksum(
+        DataChecksum.Type.CRC32C, bytesPerChecksum);
+    byte data[] = new byte[3 * bytesPerChecksum + 100];
+    new Random(4567L).nextBytes(data);
+    ByteBuffer sums = ByteBuffer.allocate(4 * checksum.getChecksumSize());
+    checksum.calculateChunkedSums(ByteBuffer.wrap(data), sums);
+
+    File dir = new File(System.getProperty(
+        MiniDFSCluster.PROP_TEST_BUILD_DATA, "build/test/data"),
+        "testClientMmapVerifiesReadRange");
+    Assert.assertTrue(dir.isDirectory() || dir.mkdirs());
+    File dataFile = new File(dir, "blk");
+    File metaFile = new File(dir, "blk.meta");
+    // corrupt the third chunk
+    data[2 * bytesPerChecksum + 10]++;
+    FileOutputStream dataOut = new FileOutputStream(dataFile);
+    try {
+      dataOut.write(data);
+    } finally {
+      dataOut.close();
+    }
+    DataOutputStream metaOut =
+        new DataOutputStream(new FileOutputStream(metaFile));
+    try {
+      metaOut.writeShort(BlockMetadataHeader.VERSION);
+      checksum.writeHeader(metaOut);
+      metaOut.write(sums.array());
+    } finally {
+      metaOut.close();
+    }
+
+    ExtendedBlock block = new ExtendedBlock("bp", 1, data.length, 1);
+    FileInputStream dataIn = new FileInputStream(dataFile);
+    FileInputStream checkIn = new FileInputStream(metaFile);
+    try {
+      ClientMmapCache.ClientMmap mmap = new ClientMmapCache(1).getOrMap(
+          DFSTestUtil.getLocalDatanodeID(), block, dataIn);
+      // the first two chunks, and the last one
+      mmap.verify(checkIn, checksum, "blk", 10, 2 * bytesPerChecksum - 20);
+      mmap.verify(checkIn, checksum, "blk", 3 * bytesPerChecksum + 1, 99);
+      Assert.assertFalse(mmap.isVerified());
+      try {
+        mmap.verify(checkIn, checksum, "blk", 0, data.length);
+        Assert.fail("expected a ChecksumException");
+      } catch (ChecksumException e) {
+        Assert.assertEquals(2 * bytesPerChecksum, e.getPos());
+      }
+      Assert.assertFalse(mmap.isVerified());
+
+      // once the third chunk is fixed, verifying it completes the mapping
+      data[2 * bytesPerChecksum + 10]--;
+      RandomAccessFile raf = new RandomAccessFile(dataFile, "rw");
+      try {
+        raf.seek(2 * bytesPerChecksum + 10);
+        raf.write(data[2 * bytesPerChecksum + 10]);
+      } finally {
+        raf.close();
+      }
+      mmap.verify(checkIn, checksum, "blk", 2 * bytesPerChecksum, 1);
+      Assert.assertTrue(mmap.isVerified());
+    } finally {
+      dataIn.close();
+      checkIn.close();
+    }
+  }
 }
@@ -0,0 +1,82 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.junit.Test;
+
+/**
+ * Test the packet window, packet buffer reuse and metrics of
+ * {@link DFSOutputStream}.
+ */
+public class TestDFSOutputStream {
+  private static final int BLOCK_SIZE = 64 * 1024;
+  private static final int PACKET_SIZE = 4 * 1024;
+
+  @Test(timeout=120000)
+  public void testSmallPacketWindow() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, BLOCK_SIZE);
+    conf.setInt(DFSConfigKeys.DFS_CLIENT_WRITE_PACKET_SIZE_KEY, PACKET_SIZE);
+    conf.setInt(DFSConfigKeys.DFS_CLIENT_WRITE_MAX_PACKETS_KEY, 2);
+    MiniDFSCluster cluster =
+        new MiniDFSCluster.Builder(conf).numDataNodes(3).build();
+    try {
+      FileSystem fs = cluster.getFileSystem();
+      Path file = new Path("/testSmallPacketWindow");
+      // several blocks, written with a mix of small and large writes
+      byte[] data = new byte[5 * BLOCK_SIZE + 1234];
+      new Random(0).nextBytes(data);
+      FSDataOutputStream out = fs.create(file, (short)3);
+      DFSOutputStream dfsOut = (DFSOutputStream) out.getWrappedStream();
+      int off = 0;
+      Random r = new Random(1);
+      while (off < data.length) {
+        int len = Math.min(data.length - off, r.nextInt(3 * PACKET_SIZE) + 1);
+        out.write(data, off, len);
+        off += len;
+        if (r.nextInt(50) == 0) {
+          out.hflush();
+        }
+      }
+      out.close();
+
+      DFSOutputStreamMetrics metrics = dfsOut.getMetrics();
+      assertEquals(data.length, metrics.getBytesAcked());
+      assertTrue(metrics.getPacketsAcked() >= data.length / PACKET_SIZE);
+      assertTrue(metrics.getMaxAckLatencyMicros()
+          >= metrics.getAverageAckLatencyMicros());
+
+      byte[] read = new byte[data.length];
+      IOUtils.readFully(fs.open(file), read, 0, read.length);
+      assertArrayEquals(data, read);
+    } finally {
+      cluster.shutdown();
+    }
+  }
+}
@@ -51,10 +51,10 @@
 public class TestDataTransferKeepalive {
   Configuration conf = new HdfsConfiguration();
   private MiniDFSCluster cluster;
-  private FileSystem fs;
+  FileSystem fs;
   private InetSocketAddress dnAddr;
   private DataNode dn;
-  private DFSClient dfsClient;
+  DFSClient dfsClient;
   private static Path TEST_FILE = new Path("/test");
   
   private static final int KEEPALIVE_TIMEOUT = 1000;
@@ -189,7 +189,7 @@ public void testManyClosedSocketsInCache() throws Exception {
     DFSTestUtil.readFile(fs, TEST_FILE);
   }
 
-  private void assertXceiverCount(int expected) {
+  void assertXceiverCount(int expected) {
     // Subtract 1, since the DataXceiverServer
     // counts as one
     int count = dn.getXceiverCount() - 1;
@@ -0,0 +1,73 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_TRANSFER_WORKER_THREADS_KEY;
+import static org.junit.Assert.assertEquals;
+
+import java.io.InputStream;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.junit.Test;
+
+import com.google.common.io.NullOutputStream;
+
+/**
+ * Run the keepalive tests against a DataNode which serves connections from
+ * a bounded worker pool and parks idle connections on a selector.
+ */
+public class TestDataTransferKeepaliveWithWorkerPool
+    extends TestDataTransferKeepalive {
+  private static final int WORKER_THREADS = 2;
+
+  public TestDataTransferKeepaliveWithWorkerPool() {
+    conf.setInt(DFS_DATANODE_TRANSFER_WORKER_THREADS_KEY, WORKER_THREADS);
+  }
+
+  /**
+   * More connections than worker threads can be kept alive and reused,
+   * since the idle ones do not hold a thread.
+   */
+  @Test(timeout=30000)
+  public void testMoreIdleConnectionsThanWorkers() throws Exception {
+    final Path file = new Path("/testMoreIdleConnectionsThanWorkers");
+    DFSTestUtil.createFile(fs, file, 1L, (short)1, 0L);
+
+    InputStream[] stms = new InputStream[WORKER_THREADS * 3];
+    try {
+      for (int i = 0; i < stms.length; i++) {
+        stms[i] = fs.open(file);
+      }
+      for (InputStream stm : stms) {
+        IOUtils.copyBytes(stm, new NullOutputStream(), 1024);
+      }
+    } finally {
+      IOUtils.cleanup(null, stms);
+    }
+    assertEquals(stms.length, dfsClient.peerCache.size());
+    assertXceiverCount(stms.length);
+
+    // each cached connection can serve another request
+    for (int i = 0; i < stms.length; i++) {
+      DFSTestUtil.readFile(fs, file);
+    }
+    assertEquals(stms.length, dfsClient.peerCache.size());
+    assertXceiverCount(stms.length);
+  }
+}
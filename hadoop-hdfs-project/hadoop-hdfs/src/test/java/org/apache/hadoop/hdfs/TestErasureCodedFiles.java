@@ -0,0 +1,230 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
+import org.apache.hadoop.hdfs.server.blockmanagement.BlockPlacementPolicyErasureCode;
+import org.apache.hadoop.hdfs.tools.ErasureCodeTool;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.apache.hadoop.util.ToolRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Supplier;
+
+public class TestErasureCodedFiles {
+  private static final int BLOCK_SIZE = 16 * 1024;
+  private static final String PARITY_ROOT = "/.erasurecode/rs-3-2";
+
+  private Configuration conf;
+  private MiniDFSCluster cluster;
+  private FileSystem fs;
+
+  @Before
+  public void setUp() throws Exception {
+    conf = new HdfsConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_ERASURECODE_DATA_BLOCKS_KEY, 3);
+    conf.setInt(DFSConfigKeys.DFS_ERASURECODE_PARITY_BLOCKS_KEY, 2);
+    conf.setClass("dfs.block.replicator.classname",
+        BlockPlacementPolicyErasureCode.class, Object.class);
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, BLOCK_SIZE);
+    conf.setInt(DFSConfigKeys.DFS_CLIENT_RETRY_WINDOW_BASE, 10);
+    conf.setLong(DFSConfigKeys.DFS_HEARTBEAT_INTERVAL_KEY, 1);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(6)
+        .racks(new String[] { "/r1", "/r1", "/r2", "/r2", "/r3", "/r3" })
+        .build();
+    cluster.waitActive();
+    fs = cluster.getFileSystem();
+  }
+
+  @After
+  public void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  private String runTool(int expectedExitCode, String... args)
+      throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    PrintStream out = new PrintStream(bytes, true);
+    assertEquals(expectedExitCode,
+        ToolRunner.run(new ErasureCodeTool(conf, out), args));
+    return bytes.toString();
+  }
+
+  private byte[] read(Path p, int length) throws Exception {
+    byte[] buf = new byte[length];
+    FSDataInputStream in = fs.open(p);
+    try {
+      IOUtils.readFully(in, buf, 0, length);
+      assertEquals(-1, in.read());
+    } finally {
+      in.close();
+    }
+    return buf;
+  }
+
+  /**
+   * Wait for the excess replicas of a file to be deleted. The datanodes
+   * report deleted replicas lazily, so ask them for their reports.
+   */
+  private void waitForSingleReplicas(final Path p) throws Exception {
+    GenericTestUtils.waitFor(new Supplier<Boolean>() {
+      @Override
+      public Boolean get() {
+        try {
+          cluster.triggerDeletionReports();
+          cluster.triggerHeartbeats();
+          LocatedBlocks blocks = cluster.getNameNodeRpc()
+              .getBlockLocations(p.toString(), 0, Long.MAX_VALUE);
+          for (LocatedBlock b : blocks.getLocatedBlocks()) {
+            if (b.getLocations().length != 1) {
+              return false;
+            }
+          }
+          return true;
+        } catch (IOException e) {
+          return false;
+        }
+      }
+    }, 500, 60000);
+  }
+
+  /** Delete the replicas of the index-th block of a file. */
+  private void deleteBlock(Path p, int index) throws Exception {
+    List<LocatedBlock> blocks = cluster.getNameNodeRpc()
+        .getBlockLocations(p.toString(), 0, Long.MAX_VALUE)
+        .getLocatedBlocks();
+    File[] files = cluster.getAllBlockFiles(blocks.get(index).getBlock());
+    assertEquals(1, files.length);
+    assertTrue(files[0].delete());
+  }
+
+  @Test(timeout=120000)
+  public void testConvertAndReconstruct() throws Exception {
+    // eight blocks in three stripes, the last block is partial
+    final int length = 7 * BLOCK_SIZE + 1000;
+    final Path p = new Path("/cold/file");
+    final Path parity = new Path(PARITY_ROOT + "/cold/file");
+    DFSTestUtil.createFile(fs, p, length, (short)3, 0xec);
+    final byte[] expected = read(p, length);
+    final long mtime = fs.getFileStatus(p).getModificationTime();
+
+    String out = runTool(0, "/cold");
+    assertTrue(out, out.contains("Erasure coded /cold/file: 8 blocks, "
+        + "6 parity blocks"));
+    assertEquals(6 * BLOCK_SIZE, fs.getFileStatus(parity).getLen());
+    assertEquals(mtime, fs.getFileStatus(parity).getModificationTime());
+    assertEquals(1, fs.getFileStatus(p).getReplication());
+    waitForSingleReplicas(p);
+
+    // lose two blocks of the first stripe and the last block
+    deleteBlock(p, 0);
+    deleteBlock(p, 1);
+    deleteBlock(p, 7);
+    assertArrayEquals(expected, read(p, length));
+
+    // positional reads across the lost blocks
+    FSDataInputStream in = fs.open(p);
+    try {
+      byte[] buf = new byte[BLOCK_SIZE];
+      in.readFully(BLOCK_SIZE / 2, buf);
+      for (int i = 0; i < buf.length; i++) {
+        assertEquals(expected[BLOCK_SIZE / 2 + i], buf[i]);
+      }
+      buf = new byte[1000];
+      in.readFully(7 * BLOCK_SIZE, buf);
+      for (int i = 0; i < buf.length; i++) {
+        assertEquals(expected[7 * BLOCK_SIZE + i], buf[i]);
+      }
+    } finally {
+      in.close();
+    }
+
+    // converting again does nothing
+    out = runTool(0, "/cold/file");
+    assertTrue(out, out.contains("already erasure coded"));
+  }
+
+  @Test(timeout=120000)
+  public void testStaleParityIsNotUsed() throws Exception {
+    final int length = 3 * BLOCK_SIZE;
+    final Path p = new Path("/cold/file");
+    DFSTestUtil.createFile(fs, p, length, (short)3, 0xec);
+    runTool(0, "/cold");
+    waitForSingleReplicas(p);
+    fs.delete(new Path(PARITY_ROOT + "/cold/file"), false);
+    DFSTestUtil.createFile(fs, new Path(PARITY_ROOT + "/cold/file"),
+        2 * BLOCK_SIZE, (short)1, 0);
+
+    // the parity file was not computed from the file
+    deleteBlock(p, 1);
+    try {
+      read(p, length);
+      fail("read a lost block");
+    } catch (BlockMissingException e) {
+      // expected
+    }
+  }
+
+  @Test(timeout=120000)
+  public void testSkippedFiles() throws Exception {
+    // a single block file would need more parity blocks than it saves
+    final Path small = new Path("/cold/small");
+    DFSTestUtil.createFile(fs, small, BLOCK_SIZE, (short)3, 0);
+    // an open file
+    final Path open = new Path("/cold/open");
+    final byte[] data = new byte[4 * BLOCK_SIZE];
+    FSDataOutputStream stm = fs.create(open);
+    stm.write(data);
+    stm.hflush();
+
+    try {
+      String out = runTool(0, "/cold");
+      assertTrue(out, out.contains("Skipped /cold/small: erasure coding 1 "
+          + "blocks would not save space"));
+      assertTrue(out, out.contains("Skipped /cold/open: open for write"));
+      assertFalse(fs.exists(new Path(PARITY_ROOT + "/cold/small")));
+      assertFalse(fs.exists(new Path(PARITY_ROOT + "/cold/open")));
+      assertEquals(3, fs.getFileStatus(small).getReplication());
+    } finally {
+      stm.close();
+    }
+  }
+}
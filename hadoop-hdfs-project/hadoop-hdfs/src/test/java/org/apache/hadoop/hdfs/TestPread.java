@@ -18,19 +18,23 @@
 package org.apache.hadoop.hdfs;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.logging.impl.Log4JLogger;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
 import org.apache.hadoop.hdfs.protocol.datatransfer.DataTransferProtocol;
 import org.apache.hadoop.hdfs.server.datanode.SimulatedFSDataset;
+import org.apache.hadoop.util.Time;
 import org.apache.log4j.Level;
 import org.junit.Test;
 
@@ -234,6 +238,91 @@ private void dfsPreadTest(boolean disableTransferTo, boolean verifyChecksum)
     }
   }
   
+  /**
+   * Tests positional read with hedged reads, using a zero threshold so that
+   * every read is sent to a second datanode.
+   */
+  @Test
+  public void testHedgedPreadDFS() throws IOException {
+    Configuration conf = new HdfsConfiguration();
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, 4096);
+    conf.setLong(DFSConfigKeys.DFS_CLIENT_READ_PREFETCH_SIZE_KEY, 4096);
+    conf.setInt(DFSConfigKeys.DFS_CLIENT_HEDGED_READ_THREADPOOL_SIZE_KEY, 5);
+    conf.setLong(DFSConfigKeys.DFS_CLIENT_HEDGED_READ_THRESHOLD_MILLIS_KEY, 0);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).numDataNodes(3).build();
+    DistributedFileSystem fileSys = cluster.getFileSystem();
+    try {
+      Path file1 = new Path("hedgedpreadtest.dat");
+      DFSTestUtil.createFile(fileSys, file1, 12 * blockSize, 12 * blockSize,
+          blockSize, (short) 3, seed);
+      pReadFile(fileSys, file1);
+      DFSHedgedReadMetrics metrics = fileSys.getClient().getHedgedReadMetrics();
+      assertTrue(metrics.getHedgedReadOps() > 0);
+      assertTrue(metrics.getHedgedReadWins() <= metrics.getHedgedReadOps());
+      cleanupFile(fileSys, file1);
+    } finally {
+      fileSys.close();
+      cluster.shutdown();
+    }
+  }
+
+  /**
+   * Tests that when the first datanode asked for a block is slow, the read
+   * hedged to another datanode returns the data well before it answers.
+   */
+  @Test(timeout=60000)
+  public void testHedgedReadFromSlowDatanode() throws Exception {
+    final long delayMillis = 10000;
+    Configuration conf = new HdfsConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_CLIENT_HEDGED_READ_THREADPOOL_SIZE_KEY, 5);
+    conf.setLong(DFSConfigKeys.DFS_CLIENT_HEDGED_READ_THRESHOLD_MILLIS_KEY,
+        100);
+    // the first datanode the client reads from is slow
+    final AtomicReference<DatanodeInfo> slowDatanode =
+        new AtomicReference<DatanodeInfo>();
+    DFSClientFaultInjector.instance = new DFSClientFaultInjector() {
+      @Override
+      public void startFetchFromDatanode(DatanodeInfo datanode) {
+        slowDatanode.compareAndSet(null, datanode);
+        if (datanode.equals(slowDatanode.get())) {
+          try {
+            Thread.sleep(delayMillis);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      }
+    };
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).numDataNodes(3).build();
+    DistributedFileSystem fileSys = cluster.getFileSystem();
+    try {
+      Path file1 = new Path("hedgedslowtest.dat");
+      DFSTestUtil.createFile(fileSys, file1, 12 * blockSize, 12 * blockSize,
+          blockSize, (short) 3, seed);
+      byte[] expected = new byte[12 * blockSize];
+      new Random(seed).nextBytes(expected);
+
+      FSDataInputStream stm = fileSys.open(file1);
+      byte[] actual = new byte[blockSize];
+      long start = Time.monotonicNow();
+      stm.readFully(blockSize, actual, 0, blockSize);
+      long elapsed = Time.monotonicNow() - start;
+      stm.close();
+      checkAndEraseData(actual, blockSize, expected, "Hedged read test");
+
+      assertNotNull(slowDatanode.get());
+      assertTrue("The read took " + elapsed + " ms",
+          elapsed < delayMillis / 2);
+      DFSHedgedReadMetrics metrics = fileSys.getClient().getHedgedReadMetrics();
+      assertTrue(metrics.getHedgedReadOps() >= 1);
+      assertTrue(metrics.getHedgedReadWins() >= 1);
+    } finally {
+      DFSClientFaultInjector.instance = new DFSClientFaultInjector();
+      fileSys.close();
+      cluster.shutdown();
+    }
+  }
+
   @Test
   public void testPreadDFSSimulated() throws IOException {
     simulatedStorage = true;
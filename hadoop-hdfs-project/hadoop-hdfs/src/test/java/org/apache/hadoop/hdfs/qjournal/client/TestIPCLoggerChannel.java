@@ -21,6 +21,8 @@
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
@@ -38,8 +40,10 @@
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
 
 import com.google.common.base.Supplier;
+import com.google.common.util.concurrent.ListenableFuture;
 
 public class TestIPCLoggerChannel {
   private static final Log LOG = LogFactory.getLog(
@@ -93,11 +97,12 @@ public void testSimpleCall() throws Exception {
   public void testQueueLimiting() throws Exception {
     
     // Block the underlying fake proxy from actually completing any calls.
+    // The first call may carry several of the queued batches.
     DelayAnswer delayer = new DelayAnswer(LOG);
     Mockito.doAnswer(delayer).when(mockProxy).journal(
         Mockito.<RequestInfo>any(),
         Mockito.eq(1L), Mockito.eq(1L),
-        Mockito.eq(1), Mockito.same(FAKE_DATA));
+        Mockito.anyInt(), Mockito.<byte[]>any());
     
     // Queue up the maximum number of calls.
     int numToQueue = LIMIT_QUEUE_SIZE_BYTES / FAKE_DATA.length;
@@ -129,6 +134,81 @@ public Boolean get() {
     }, 10, 1000);
   }
   
+  /**
+   * Test that the batches queued behind a slow call are sent in a single
+   * call once it completes.
+   */
+  @Test
+  public void testCoalesceQueuedEdits() throws Exception {
+    DelayAnswer delayer = new JournalDelayAnswer();
+    Mockito.doAnswer(delayer).when(mockProxy).journal(
+        Mockito.<RequestInfo>any(),
+        Mockito.eq(1L), Mockito.eq(1L),
+        Mockito.eq(1), Mockito.same(FAKE_DATA));
+
+    ListenableFuture<Void> first = ch.sendEdits(1L, 1L, 1, FAKE_DATA);
+    delayer.waitForCall();
+    List<ListenableFuture<Void>> queued =
+        new ArrayList<ListenableFuture<Void>>();
+    for (long txid = 2; txid <= 4; txid++) {
+      queued.add(ch.sendEdits(1L, txid, 1, FAKE_DATA));
+    }
+    assertEquals(1, ch.getWritesInFlight());
+    delayer.proceed();
+
+    first.get();
+    for (ListenableFuture<Void> f : queued) {
+      f.get();
+    }
+    Mockito.verify(mockProxy).journal(Mockito.<RequestInfo>any(),
+        Mockito.eq(1L), Mockito.eq(2L), Mockito.eq(3),
+        Mockito.<byte[]>any());
+    Mockito.verify(mockProxy, Mockito.times(2)).journal(
+        Mockito.<RequestInfo>any(), Mockito.anyLong(), Mockito.anyLong(),
+        Mockito.anyInt(), Mockito.<byte[]>any());
+    assertEquals(0, ch.getQueuedEditsSize());
+  }
+
+  /**
+   * Test that, with several writes in flight allowed, a batch is sent
+   * before the previous one is acknowledged, while other calls wait for
+   * the writes in flight.
+   */
+  @Test
+  public void testPipelinedWrites() throws Exception {
+    conf.setInt(DFSConfigKeys.DFS_QJOURNAL_MAX_WRITES_IN_FLIGHT_KEY, 2);
+    ch = new IPCLoggerChannel(conf, FAKE_NSINFO, JID, FAKE_ADDR) {
+      @Override
+      protected QJournalProtocol getProxy() throws IOException {
+        return mockProxy;
+      }
+    };
+    ch.setEpoch(1);
+
+    DelayAnswer delayer = new JournalDelayAnswer();
+    Mockito.doAnswer(delayer).when(mockProxy).journal(
+        Mockito.<RequestInfo>any(),
+        Mockito.eq(1L), Mockito.eq(1L),
+        Mockito.eq(1), Mockito.same(FAKE_DATA));
+
+    ListenableFuture<Void> first = ch.sendEdits(1L, 1L, 1, FAKE_DATA);
+    delayer.waitForCall();
+    ch.sendEdits(1L, 2L, 1, FAKE_DATA).get();
+    assertFalse(first.isDone());
+    assertEquals(1, ch.getWritesInFlight());
+
+    ListenableFuture<Void> finalize = ch.finalizeLogSegment(1L, 2L);
+    Thread.sleep(100);
+    assertFalse(finalize.isDone());
+    Mockito.verify(mockProxy, Mockito.never()).finalizeLogSegment(
+        Mockito.<RequestInfo>any(), Mockito.anyLong(), Mockito.anyLong());
+
+    delayer.proceed();
+    first.get();
+    finalize.get();
+    assertEquals(0, ch.getWritesInFlight());
+  }
+
   /**
    * Test that, if the remote node gets unsynchronized (eg some edits were
    * missed or the node rebooted), the client stops sending edits until
@@ -178,4 +258,18 @@ public void testStopSendingEditsWhenOutOfSync() throws Exception {
 
     ch.sendEdits(3L, 3L, 1, FAKE_DATA).get();
   }
+
+  /**
+   * Delays journal calls to the mock proxy, then lets them succeed.
+   */
+  private static class JournalDelayAnswer extends DelayAnswer {
+    JournalDelayAnswer() {
+      super(LOG);
+    }
+
+    @Override
+    protected Object passThrough(InvocationOnMock invocation) {
+      return null;
+    }
+  }
 }
@@ -39,6 +39,7 @@
 import org.apache.commons.logging.impl.Log4JLogger;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.CommonConfigurationKeysPublic;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.qjournal.MiniJournalCluster;
 import org.apache.hadoop.hdfs.qjournal.QJMTestUtil;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.SegmentStateProto;
@@ -200,6 +201,55 @@ public void testReaderWhileAnotherWrites() throws Exception {
     }
   }
   
+  /**
+   * Test that a reader tails the in-progress segment from the edits caches
+   * of the JournalNodes, and reads the finalized segments once the caches
+   * do not hold the edits it asks for.
+   */
+  @Test
+  public void testReaderTailsInProgressSegment() throws Exception {
+    conf.setBoolean(DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_KEY, true);
+    QuorumJournalManager readerQjm = createSpyingQJM();
+    List<EditLogInputStream> streams = Lists.newArrayList();
+
+    EditLogOutputStream stm = writeSegment(cluster, qjm, 1, 3, false);
+    readerQjm.selectInputStreams(streams, 1, true);
+    try {
+      verifyEdits(streams, 1, 3);
+    } finally {
+      IOUtils.cleanup(LOG, streams.toArray(new Closeable[0]));
+      streams.clear();
+    }
+
+    // Read from the middle of a batch.
+    writeTxns(stm, 4, 3);
+    readerQjm.selectInputStreams(streams, 5, true);
+    try {
+      verifyEdits(streams, 5, 6);
+    } finally {
+      IOUtils.cleanup(LOG, streams.toArray(new Closeable[0]));
+      streams.clear();
+    }
+
+    // Nothing new to read.
+    readerQjm.selectInputStreams(streams, 7, true);
+    assertTrue(streams.isEmpty());
+
+    // A new writer empties the caches, so the reader reads the finalized
+    // segment, from its middle.
+    stm.close();
+    qjm.finalizeLogSegment(1, 6);
+    QuorumJournalManager newWriter = createSpyingQJM();
+    newWriter.recoverUnfinalizedSegments();
+    readerQjm.selectInputStreams(streams, 4, true);
+    try {
+      verifyEdits(streams, 4, 6);
+    } finally {
+      IOUtils.cleanup(LOG, streams.toArray(new Closeable[0]));
+      streams.clear();
+    }
+  }
+  
   /**
    * Regression test for HDFS-3725. One of the journal nodes is down
    * during the writing of one segment, then comes back up later to
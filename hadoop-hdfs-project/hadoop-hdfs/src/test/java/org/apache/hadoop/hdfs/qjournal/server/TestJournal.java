@@ -22,11 +22,14 @@
 import java.io.File;
 import java.io.IOException;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
 import org.apache.hadoop.hdfs.qjournal.QJMTestUtil;
 import org.apache.hadoop.hdfs.qjournal.protocol.RequestInfo;
 import org.apache.hadoop.hdfs.qjournal.protocol.JournalOutOfSyncException;
+import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournaledEditsResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.NewEpochResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.NewEpochResponseProtoOrBuilder;
 import org.apache.hadoop.hdfs.qjournal.server.Journal;
@@ -34,11 +37,15 @@
 import org.apache.hadoop.hdfs.server.common.Storage;
 import org.apache.hadoop.hdfs.server.common.StorageErrorReporter;
 import org.apache.hadoop.hdfs.server.protocol.NamespaceInfo;
+import org.apache.hadoop.hdfs.util.Holder;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.test.GenericTestUtils;
 import org.junit.*;
 import org.mockito.Mockito;
 
+import com.google.common.base.Supplier;
+import com.google.common.primitives.Bytes;
+
 public class TestJournal {
   private static final NamespaceInfo FAKE_NSINFO = new NamespaceInfo(
       12345, "mycluster", "my-bp", 0L);
@@ -341,6 +348,90 @@ public void testStartLogSegmentWhenAlreadyExists() throws Exception {
 
   }
   
+  /**
+   * A batch which arrives before the batch preceding it, as may happen
+   * when the writer has several batches in flight, waits for it.
+   */
+  @Test (timeout = 10000)
+  public void testOutOfOrderBatches() throws Exception {
+    journal.newEpoch(FAKE_NSINFO, 1);
+    journal.startLogSegment(makeRI(1), 1);
+
+    final Holder<Throwable> error = new Holder<Throwable>(null);
+    final Thread second = new Thread() {
+      @Override
+      public void run() {
+        try {
+          journal.journal(makeRI(3), 1, 4, 3,
+              QJMTestUtil.createTxnData(4, 3));
+        } catch (Throwable t) {
+          error.held = t;
+        }
+      }
+    };
+    second.start();
+    GenericTestUtils.waitFor(new Supplier<Boolean>() {
+      @Override
+      public Boolean get() {
+        return second.getState() == Thread.State.TIMED_WAITING;
+      }
+    }, 10, 5000);
+    assertEquals(0, journal.getHighestWrittenTxId());
+
+    journal.journal(makeRI(2), 1, 1, 3,
+        QJMTestUtil.createTxnData(1, 3));
+    second.join();
+    assertNull(error.held);
+    assertEquals(6, journal.getHighestWrittenTxId());
+    journal.finalizeLogSegment(makeRI(4), 1, 6);
+  }
+
+  @Test (timeout = 10000)
+  public void testGetJournaledEdits() throws Exception {
+    final byte[] batch = QJMTestUtil.createTxnData(1, 3);
+    Configuration conf = new Configuration();
+    // room for two batches of three txns
+    conf.setLong(DFSConfigKeys.DFS_JOURNALNODE_EDIT_CACHE_SIZE_KEY,
+        2 * batch.length);
+    journal.close();
+    journal = new Journal(conf, TEST_LOG_DIR, JID, mockErrorReporter);
+    journal.newEpoch(FAKE_NSINFO, 1);
+    journal.startLogSegment(makeRI(1), 1);
+    assertCacheMiss(1);
+
+    journal.journal(makeRI(2), 1, 1, 3, batch);
+    journal.journal(makeRI(3), 1, 4, 3, QJMTestUtil.createTxnData(4, 3));
+    GetJournaledEditsResponseProto resp = journal.getJournaledEdits(2, 10);
+    assertEquals(5, resp.getTxnCount());
+    assertArrayEquals(Bytes.concat(batch, QJMTestUtil.createTxnData(4, 3)),
+        resp.getEditLog().toByteArray());
+    // whole batches, up to maxTxns
+    resp = journal.getJournaledEdits(2, 2);
+    assertEquals(2, resp.getTxnCount());
+    assertArrayEquals(batch, resp.getEditLog().toByteArray());
+    resp = journal.getJournaledEdits(7, 10);
+    assertEquals(0, resp.getTxnCount());
+    assertFalse(resp.hasEditLog());
+
+    // the oldest batch is evicted
+    journal.journal(makeRI(4), 1, 7, 3, QJMTestUtil.createTxnData(7, 3));
+    assertCacheMiss(3);
+    assertEquals(6, journal.getJournaledEdits(4, 10).getTxnCount());
+
+    // a new writer may replace the edits which were not committed
+    journal.newEpoch(FAKE_NSINFO, 2);
+    assertCacheMiss(4);
+  }
+
+  private void assertCacheMiss(long sinceTxId) {
+    try {
+      journal.getJournaledEdits(sinceTxId, 10);
+      fail("Read txid " + sinceTxId + " which is not in the cache");
+    } catch (IOException ioe) {
+      GenericTestUtils.assertExceptionContains("not in the edits cache", ioe);
+    }
+  }
+
   private static RequestInfo makeRI(int serial) {
     return new RequestInfo(JID, 1, serial, 0);
   }
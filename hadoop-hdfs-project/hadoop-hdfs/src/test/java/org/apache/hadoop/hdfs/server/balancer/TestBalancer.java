@@ -518,6 +518,43 @@ public void testBalancerCliParseWithWrongParams() {
 
   }
 
+  /** Test balancing with more concurrent moves per datanode */
+  @Test(timeout=100000)
+  public void testBalancerWithMoreConcurrentMoves() throws Exception {
+    final Configuration conf = new HdfsConfiguration();
+    conf.setInt(
+        DFSConfigKeys.DFS_DATANODE_BALANCE_MAX_NUM_CONCURRENT_MOVES_KEY, 20);
+    conf.setInt(DFSConfigKeys.DFS_BALANCER_DISPATCHERTHREADS_KEY, 2);
+    conf.setInt(DFSConfigKeys.DFS_BALANCER_MOVERTHREADS_KEY, 20);
+    testBalancer1Internal(conf);
+  }
+
+  @Test
+  public void testMoveLimit() {
+    final Balancer.MoveLimit limit = new Balancer.MoveLimit(4);
+    assertEquals(4, limit.get());
+
+    // failed moves halve the limit, down to one
+    limit.failed();
+    assertEquals(2, limit.get());
+    limit.failed();
+    limit.failed();
+    assertEquals(1, limit.get());
+
+    // moves which keep up with the average throughput raise it
+    limit.succeeded(1000, 10);
+    limit.succeeded(1000, 10);
+    assertEquals(3, limit.get());
+    limit.succeeded(1000, 12);
+    limit.succeeded(1000, 8);
+    limit.succeeded(1000, 10);
+    assertEquals(4, limit.get());
+
+    // a move much slower than the average lowers it
+    limit.succeeded(1000, 30);
+    assertEquals(3, limit.get());
+  }
+
   /**
    * Verify balancer exits 0 on success.
    */
@@ -22,6 +22,7 @@
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -29,6 +30,7 @@
 import java.util.List;
 import java.util.Map.Entry;
 
+import org.apache.hadoop.HadoopIllegalArgumentException;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.DFSTestUtil;
@@ -554,4 +556,54 @@ public void testSafeModeIBRAfterIncremental() throws Exception {
     verify(node).receivedBlockReport();
     assertFalse(node.isFirstBlockReport());
   }
+
+  @Test
+  public void testBlocksMapCapacityPercentage() throws IOException {
+    final int defaultCapacity = bm.getCapacity();
+    conf.setFloat(
+        DFSConfigKeys.DFS_NAMENODE_BLOCKSMAP_CAPACITY_PERCENTAGE_KEY, 0.5f);
+    // a quarter of the memory gives a quarter of the capacity
+    assertEquals(defaultCapacity / 4,
+        new BlockManager(fsn, fsn, conf).getCapacity());
+
+    conf.setFloat(
+        DFSConfigKeys.DFS_NAMENODE_BLOCKSMAP_CAPACITY_PERCENTAGE_KEY, 0f);
+    try {
+      new BlockManager(fsn, fsn, conf);
+      fail("Expected an exception for a zero percentage");
+    } catch (HadoopIllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testChunkedFirstBlockReport() throws Exception {
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_BLOCKREPORT_CHUNK_SIZE_KEY, 10);
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_BLOCKREPORT_MAX_CONCURRENT_KEY, 1);
+    bm = new BlockManager(fsn, fsn, conf);
+    DatanodeDescriptor node = nodes.get(0);
+    node.setStorageID("dummy-storage");
+    node.isAlive = true;
+    bm.getDatanodeManager().registerDatanode(
+        new DatanodeRegistration(node, null, null, ""));
+    bm.getDatanodeManager().addDatanode(node);
+
+    final int numBlocks = 95;
+    List<Block> blocks = new ArrayList<Block>();
+    for (int i = 0; i < numBlocks; i++) {
+      Block block = new Block(i, 1024, 1);
+      blocks.add(block);
+      bm.blocksMap.addBlockCollection(new BlockInfo(block, 3),
+          Mockito.mock(BlockCollection.class));
+    }
+
+    reset(fsn);
+    doReturn(true).when(fsn).hasWriteLock();
+    doReturn(true).when(fsn).isInStartupSafeMode();
+    bm.processReport(node, "pool", new BlockListAsLongs(blocks, null));
+    assertEquals(numBlocks, node.numBlocks());
+    // the lock is released after every 10 blocks, and at the end
+    verify(fsn, times(numBlocks / 10 + 1)).writeUnlock();
+    assertFalse(node.isFirstBlockReport());
+  }
 }
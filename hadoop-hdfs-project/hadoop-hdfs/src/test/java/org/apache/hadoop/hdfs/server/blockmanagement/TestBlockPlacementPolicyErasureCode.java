@@ -0,0 +1,172 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.blockmanagement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+import org.apache.hadoop.hdfs.server.namenode.FSNamesystem;
+import org.apache.hadoop.net.NetworkTopology;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestBlockPlacementPolicyErasureCode {
+  private static final long BLOCK_SIZE = 1024;
+  private static final String PARITY_ROOT = "/.erasurecode/rs-3-2";
+
+  private final DatanodeDescriptor[] dataNodes = {
+      DFSTestUtil.getDatanodeDescriptor("1.1.1.1", "/r1"),
+      DFSTestUtil.getDatanodeDescriptor("2.2.2.2", "/r1"),
+      DFSTestUtil.getDatanodeDescriptor("3.3.3.3", "/r2"),
+      DFSTestUtil.getDatanodeDescriptor("4.4.4.4", "/r2"),
+      DFSTestUtil.getDatanodeDescriptor("5.5.5.5", "/r3"),
+      DFSTestUtil.getDatanodeDescriptor("6.6.6.6", "/r3")
+  };
+  private FSNamesystem namesystem;
+  private BlockPlacementPolicyErasureCode policy;
+  private long nextBlockId = 1;
+
+  @Before
+  public void setUp() {
+    Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_CONSIDERLOAD_KEY, false);
+    conf.setInt(DFSConfigKeys.DFS_ERASURECODE_DATA_BLOCKS_KEY, 3);
+    conf.setInt(DFSConfigKeys.DFS_ERASURECODE_PARITY_BLOCKS_KEY, 2);
+    NetworkTopology topology = new NetworkTopology();
+    for (DatanodeDescriptor dn : dataNodes) {
+      topology.add(dn);
+      dn.updateHeartbeat(
+          2*HdfsConstants.MIN_BLOCKS_FOR_WRITE*BLOCK_SIZE, 0L,
+          2*HdfsConstants.MIN_BLOCKS_FOR_WRITE*BLOCK_SIZE, 0L, 0, 0);
+    }
+    namesystem = mock(FSNamesystem.class);
+    policy = new BlockPlacementPolicyErasureCode();
+    policy.initialize(conf, namesystem, topology);
+  }
+
+  /** @return a block with replicas on the given nodes. */
+  private BlockInfo newBlock(int... nodes) {
+    BlockInfo b = new BlockInfo(new Block(nextBlockId++), nodes.length);
+    for (int i : nodes) {
+      b.addNode(dataNodes[i]);
+    }
+    return b;
+  }
+
+  private BlockCollection addFile(String path, BlockInfo... blocks)
+      throws Exception {
+    BlockCollection bc = mock(BlockCollection.class);
+    when(bc.getName()).thenReturn(path);
+    when(bc.getBlocks()).thenReturn(blocks);
+    when(bc.numBlocks()).thenReturn(blocks.length);
+    when(namesystem.getBlockCollection(path)).thenReturn(bc);
+    return bc;
+  }
+
+  private DatanodeDescriptor chooseTarget(String path) {
+    DatanodeDescriptor[] targets = policy.chooseTarget(path, 1, null,
+        new ArrayList<DatanodeDescriptor>(), BLOCK_SIZE);
+    assertEquals(1, targets.length);
+    return targets[0];
+  }
+
+  @Test
+  public void testParityBlocksAvoidStripeRacks() throws Exception {
+    // the stripe is on racks r1 and r2, so its parity goes to r3
+    addFile("/a", newBlock(0), newBlock(2));
+    addFile(PARITY_ROOT + "/a");
+    for (int i = 0; i < 10; i++) {
+      assertEquals("/r3", chooseTarget(PARITY_ROOT + "/a")
+          .getNetworkLocation());
+    }
+
+    // all the racks hold a block of the stripe: avoid its nodes
+    addFile("/b", newBlock(0), newBlock(2), newBlock(4));
+    addFile(PARITY_ROOT + "/b", newBlock(1));
+    for (int i = 0; i < 10; i++) {
+      DatanodeDescriptor target = chooseTarget(PARITY_ROOT + "/b");
+      assertTrue(target + " holds a block of the stripe",
+          target == dataNodes[3] || target == dataNodes[5]);
+    }
+
+    // the second stripe does not care about the first one
+    addFile("/c", newBlock(0), newBlock(1), newBlock(2), newBlock(3));
+    addFile(PARITY_ROOT + "/c", newBlock(4), newBlock(5));
+    for (int i = 0; i < 10; i++) {
+      assertTrue(!"/r2".equals(chooseTarget(PARITY_ROOT + "/c")
+          .getNetworkLocation()));
+    }
+  }
+
+  @Test
+  public void testReplicateParityBlockAvoidsItsStripeRacks()
+      throws Exception {
+    // the first stripe is on racks r1 and r2, the second on r3
+    addFile("/f", newBlock(0), newBlock(2), newBlock(0),
+        newBlock(4), newBlock(5), newBlock(4));
+    final BlockInfo p0 = newBlock(1);
+    final BlockCollection parity = addFile(PARITY_ROOT + "/f", p0,
+        newBlock(3), newBlock(4));
+    for (int i = 0; i < 10; i++) {
+      DatanodeDescriptor[] targets = policy.chooseTarget(parity, p0, 1,
+          null, new ArrayList<DatanodeDescriptor>(), null, BLOCK_SIZE);
+      assertEquals(1, targets.length);
+      assertEquals("/r3", targets[0].getNetworkLocation());
+    }
+  }
+
+  @Test
+  public void testDeleteReplicaOnBusiestStripeRack() throws Exception {
+    final BlockInfo b0 = newBlock(0, 2, 4);
+    final BlockCollection bc = addFile("/d", b0, newBlock(1), newBlock(3));
+    addFile(PARITY_ROOT + "/d", newBlock(0), newBlock(5));
+
+    // r1 holds two other blocks of the stripe, r2 and r3 one each
+    List<DatanodeDescriptor> replicas = new ArrayList<DatanodeDescriptor>(
+        Arrays.asList(dataNodes[0], dataNodes[2], dataNodes[4]));
+    assertSame(dataNodes[0], policy.chooseReplicaToDelete(bc, b0, (short)1,
+        new ArrayList<DatanodeDescriptor>(), replicas));
+    replicas.remove(dataNodes[0]);
+    DatanodeDescriptor second = policy.chooseReplicaToDelete(bc, b0,
+        (short)1, new ArrayList<DatanodeDescriptor>(), replicas);
+    assertTrue(replicas.contains(second));
+
+    // without a parity file, fall back to the default policy, which
+    // deletes from the racks with more than one replica first
+    final BlockInfo e0 = newBlock(0, 1, 2);
+    final BlockCollection plain = addFile("/e", e0);
+    DatanodeDescriptor deleted = policy.chooseReplicaToDelete(plain, e0,
+        (short)2, Arrays.asList(dataNodes[0], dataNodes[1]),
+        Arrays.asList(dataNodes[2]));
+    assertEquals("/r1", deleted.getNetworkLocation());
+  }
+}
@@ -0,0 +1,86 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.blockmanagement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.junit.Test;
+
+public class TestReplicationThroughput {
+  private static final long INTERVAL = 3000;
+
+  private final DatanodeDescriptor fast =
+      DFSTestUtil.getDatanodeDescriptor("1.1.1.1", "/r1");
+  private final DatanodeDescriptor slow =
+      DFSTestUtil.getDatanodeDescriptor("2.2.2.2", "/r1");
+  private final DatanodeDescriptor[] nodes = { fast, slow };
+
+  private static void complete(ReplicationThroughput throughput,
+      DatanodeDescriptor node, int n) {
+    for (int i = 0; i < n; i++) {
+      throughput.replicationCompleted(node);
+    }
+  }
+
+  @Test
+  public void testStreamsFollowThroughput() {
+    long now = 0;
+    final ReplicationThroughput throughput =
+        new ReplicationThroughput(2, 20, INTERVAL, now);
+    assertTrue(throughput.isAdaptive());
+    assertEquals(2, throughput.getMaxStreams(fast, 2));
+    assertEquals(-1, throughput.getEstimatedSeconds(100));
+    assertEquals(0, throughput.getEstimatedSeconds(0));
+
+    // the fast node completes all its replications, the slow one one
+    int streams = 2;
+    for (int i = 0; i < 10; i++) {
+      complete(throughput, fast, streams);
+      complete(throughput, slow, 1);
+      now += INTERVAL;
+      throughput.update(nodes, now);
+      assertTrue(throughput.getMaxStreams(fast, 2) >= streams);
+      streams = throughput.getMaxStreams(fast, 2);
+    }
+    assertEquals(20, throughput.getMaxStreams(fast, 2));
+    assertEquals(2, throughput.getMaxStreams(slow, 2));
+    assertTrue(throughput.getRate() > 1);
+    assertTrue(throughput.getEstimatedSeconds(1000) > 0);
+
+    // no more replications: back to the default
+    for (int i = 0; i < 10; i++) {
+      now += INTERVAL;
+      throughput.update(nodes, now);
+    }
+    assertEquals(2, throughput.getMaxStreams(fast, 2));
+  }
+
+  @Test
+  public void testNotAdaptive() {
+    final ReplicationThroughput throughput =
+        new ReplicationThroughput(2, 0, INTERVAL, 0);
+    assertFalse(throughput.isAdaptive());
+    complete(throughput, fast, 100);
+    throughput.update(nodes, INTERVAL);
+    assertEquals(2, throughput.getMaxStreams(fast, 2));
+    assertEquals(100 / 2 / 3.0, throughput.getRate(), 0.001);
+  }
+}
@@ -66,6 +66,44 @@ public void testBlockPriorities() throws Throwable {
 
   }
 
+  /**
+   * Test that under-replicated blocks on a single rack are replicated
+   * before those spanning several racks, and move between queues when
+   * their racks change.
+   */
+  @Test
+  public void testBlocksOnOneRack() throws Throwable {
+    UnderReplicatedBlocks queues = new UnderReplicatedBlocks();
+    Block oneRack = new Block(1);
+    Block twoRacks = new Block(2);
+
+    assertTrue(queues.add(oneRack, 2, 0, 3, true));
+    assertTrue(queues.add(twoRacks, 2, 0, 3, false));
+    assertInLevel(queues, oneRack,
+                  UnderReplicatedBlocks.QUEUE_VERY_UNDER_REPLICATED);
+    assertInLevel(queues, twoRacks,
+                  UnderReplicatedBlocks.QUEUE_UNDER_REPLICATED);
+
+    // a single replica is the highest priority, wherever it is
+    queues.update(oneRack, 1, 0, 3, -1, 0, true);
+    assertInLevel(queues, oneRack,
+                  UnderReplicatedBlocks.QUEUE_HIGHEST_PRIORITY);
+
+    // the block got a replica on another rack
+    queues.update(oneRack, 2, 0, 3, 1, 0, false);
+    assertInLevel(queues, oneRack,
+                  UnderReplicatedBlocks.QUEUE_UNDER_REPLICATED);
+
+    // the replica on the other rack was lost and replaced on the same rack
+    queues.update(oneRack, 2, 0, 3, 0, 0, true);
+    assertInLevel(queues, oneRack,
+                  UnderReplicatedBlocks.QUEUE_VERY_UNDER_REPLICATED);
+    queues.update(oneRack, 2, 0, 3, 0, 0, false);
+    assertInLevel(queues, oneRack,
+                  UnderReplicatedBlocks.QUEUE_UNDER_REPLICATED);
+    assertEquals(2, queues.size());
+  }
+
   private void assertAdded(UnderReplicatedBlocks queues,
                            Block block,
                            int curReplicas,
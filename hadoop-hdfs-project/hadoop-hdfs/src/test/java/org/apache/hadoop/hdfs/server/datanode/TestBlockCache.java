@@ -0,0 +1,180 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import static org.apache.hadoop.test.MetricsAsserts.assertCounter;
+import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.common.base.Supplier;
+
+public class TestBlockCache {
+  private static final int BLOCK_SIZE = 256 * 1024;
+  private static final int MIN_READS = 2;
+
+  private MiniDFSCluster cluster;
+  private FileSystem fs;
+  private DataNode dn;
+
+  private void startCluster(long cacheSize, String policy) throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setLong(DFSConfigKeys.DFS_DATANODE_BLOCK_CACHE_SIZE_KEY, cacheSize);
+    conf.set(DFSConfigKeys.DFS_DATANODE_BLOCK_CACHE_EVICTION_POLICY_KEY,
+        policy);
+    conf.setInt(DFSConfigKeys.DFS_DATANODE_BLOCK_CACHE_MIN_READS_KEY,
+        MIN_READS);
+    // copy the data into packets, rather than leaving it to transferTo
+    conf.setBoolean(DFSConfigKeys.DFS_DATANODE_TRANSFERTO_ALLOWED_KEY, false);
+    conf.setLong(DFSConfigKeys.DFS_HEARTBEAT_INTERVAL_KEY, 1);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    cluster.waitActive();
+    fs = cluster.getFileSystem();
+    dn = cluster.getDataNodes().get(0);
+  }
+
+  @After
+  public void shutdown() {
+    if (cluster != null) {
+      cluster.shutdown();
+      cluster = null;
+    }
+  }
+
+  private Path createFile(String name, int length) throws Exception {
+    final Path p = new Path("/" + name);
+    DFSTestUtil.createFile(fs, p, BLOCK_SIZE, length, BLOCK_SIZE,
+        (short)1, name.hashCode());
+    return p;
+  }
+
+  private long getBlockId(Path p) throws Exception {
+    return cluster.getNameNodeRpc().getBlockLocations(p.toString(), 0, 1)
+        .get(0).getBlock().getBlockId();
+  }
+
+  private void waitForCached(final long blockId, final boolean cached)
+      throws Exception {
+    GenericTestUtils.waitFor(new Supplier<Boolean>() {
+      @Override
+      public Boolean get() {
+        return dn.blockCache.getCachedBlockIds().contains(blockId) == cached;
+      }
+    }, 100, 30000);
+  }
+
+  /** Read a file enough times for it to be cached. */
+  private void readUntilCached(Path p) throws Exception {
+    final long blockId = getBlockId(p);
+    for (int i = 0; i < MIN_READS; i++) {
+      DFSTestUtil.readFile(fs, p);
+    }
+    waitForCached(blockId, true);
+  }
+
+  @Test(timeout=60000)
+  public void testReadFromCache() throws Exception {
+    startCluster(4 * BLOCK_SIZE, "LRU");
+    final Path p = createFile("testReadFromCache", BLOCK_SIZE);
+    final long blockId = getBlockId(p);
+    final String expected = DFSTestUtil.readFile(fs, p);
+    assertEquals(BLOCK_SIZE, expected.length());
+    DFSTestUtil.readFile(fs, p);
+    waitForCached(blockId, true);
+    assertEquals(BLOCK_SIZE, dn.blockCache.getUsedBytes());
+
+    for (int i = 0; i < 3; i++) {
+      assertEquals(expected, DFSTestUtil.readFile(fs, p));
+    }
+    MetricsRecordBuilder rb = getMetrics(dn.getMetrics().name());
+    assertCounter("BlockCacheMisses", (long)MIN_READS, rb);
+    assertCounter("BlockCacheHits", 3L, rb);
+    assertCounter("BlocksCached", 1L, rb);
+
+    // a deleted replica is uncached
+    fs.delete(p, false);
+    waitForCached(blockId, false);
+    assertEquals(0, dn.blockCache.getUsedBytes());
+    assertCounter("BlocksUncached", 1L, getMetrics(dn.getMetrics().name()));
+  }
+
+  @Test(timeout=60000)
+  public void testAppendInvalidatesCache() throws Exception {
+    startCluster(4 * BLOCK_SIZE, "LRU");
+    // the block is not full, so the append goes to the cached replica
+    final Path p = createFile("testAppendInvalidatesCache", BLOCK_SIZE / 2);
+    readUntilCached(p);
+
+    final String expected = DFSTestUtil.readFile(fs, p) + "appended";
+    DFSTestUtil.appendFile(fs, p, "appended");
+    assertEquals(expected, DFSTestUtil.readFile(fs, p));
+    assertFalse(dn.blockCache.getCachedBlockIds().contains(getBlockId(p)));
+  }
+
+  @Test(timeout=60000)
+  public void testLRUEviction() throws Exception {
+    testEviction("LRU", 0);
+  }
+
+  @Test(timeout=60000)
+  public void testLFUEviction() throws Exception {
+    testEviction("LFU", 1);
+  }
+
+  /**
+   * Cache two replicas, read the first one often and then the second one
+   * once, and cache a third one.
+   */
+  private void testEviction(String policy, int expectedVictim)
+      throws Exception {
+    startCluster(2 * BLOCK_SIZE + BLOCK_SIZE / 2, policy);
+    final Path[] files = new Path[3];
+    final Long[] blockIds = new Long[files.length];
+    for (int i = 0; i < files.length; i++) {
+      files[i] = createFile("testEviction" + i, BLOCK_SIZE);
+      blockIds[i] = getBlockId(files[i]);
+    }
+    readUntilCached(files[0]);
+    readUntilCached(files[1]);
+    for (int i = 0; i < 4; i++) {
+      DFSTestUtil.readFile(fs, files[0]);
+    }
+    DFSTestUtil.readFile(fs, files[1]);
+
+    readUntilCached(files[2]);
+    waitForCached(blockIds[expectedVictim], false);
+    assertTrue(dn.blockCache.getCachedBlockIds().containsAll(
+        Arrays.asList(blockIds[1 - expectedVictim], blockIds[2])));
+    assertEquals(2 * BLOCK_SIZE, dn.blockCache.getUsedBytes());
+  }
+}
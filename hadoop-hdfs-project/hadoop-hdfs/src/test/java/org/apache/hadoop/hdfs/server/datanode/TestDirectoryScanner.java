@@ -45,6 +45,7 @@
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsDatasetSpi;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.impl.FsDatasetTestUtil;
+import org.apache.hadoop.util.Time;
 import org.junit.Test;
 
 /**
@@ -352,6 +353,83 @@ public void runTest(int parallelism) throws Exception {
     }
   }
 
+  /**
+   * Test that unchanged directories are not listed again, that changed
+   * ones are, and that a throttled scan still finds every difference.
+   */
+  @Test
+  public void testIncrementalThrottledScan() throws Exception {
+    cluster = new MiniDFSCluster.Builder(CONF).build();
+    try {
+      cluster.waitActive();
+      bpid = cluster.getNamesystem().getBlockPoolId();
+      fds = DataNodeTestUtils.getFSDataset(cluster.getDataNodes().get(0));
+      Configuration conf = new HdfsConfiguration(CONF);
+      conf.setInt(
+          DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THROTTLE_LIMIT_MS_PER_SEC_KEY,
+          100);
+      scanner = new DirectoryScanner(fds, conf);
+      scanner.setRetainDiffs(true);
+
+      createFile("/tmp/t1", 10000);
+      long totalBlocks = 100;
+      // age the directory modification times, so that their listings
+      // can be kept
+      ageFinalizedDirs();
+      scan(totalBlocks, 0, 0, 0, 0, 0);
+      DirectoryScanner.ScanTotals totals = scanner.getLastScanTotals();
+      assertTrue(totals.dirsListed > 0);
+      assertEquals(totalBlocks, totals.blocks);
+
+      scan(totalBlocks, 0, 0, 0, 0, 0);
+      totals = scanner.getLastScanTotals();
+      assertEquals(0, totals.dirsListed);
+      assertTrue(totals.dirsUnchanged > 0);
+      assertEquals(totalBlocks, totals.blocks);
+
+      // changes made right after a scan are still seen
+      deleteMetaFile();
+      createBlockMetaFile();
+      totalBlocks++;
+      scan(totalBlocks, 2, 1, 0, 1, 1);
+      assertTrue(scanner.getLastScanTotals().dirsListed > 0);
+      scan(totalBlocks, 0, 0, 0, 0, 0);
+
+      // block file lengths are checked even in unchanged directories
+      ageFinalizedDirs();
+      scan(totalBlocks, 0, 0, 0, 0, 0);
+      truncateBlockFile();
+      scan(totalBlocks, 1, 0, 0, 0, 1);
+      assertEquals(0, scanner.getLastScanTotals().dirsListed);
+      scan(totalBlocks, 0, 0, 0, 0, 0);
+    } finally {
+      if (scanner != null) {
+        scanner.shutdown();
+      }
+      cluster.shutdown();
+    }
+  }
+
+  /**
+   * Move the modification times of the finalized directories well into the
+   * past, so that the scanner keeps their listings.
+   */
+  private void ageFinalizedDirs() throws IOException {
+    final long mtime = Time.now() - 60000;
+    for (FsVolumeSpi volume : fds.getVolumes()) {
+      setDirModificationTimes(volume.getFinalizedDir(bpid), mtime);
+    }
+  }
+
+  private static void setDirModificationTimes(File dir, long mtime) {
+    for (File f : dir.listFiles()) {
+      if (f.isDirectory()) {
+        setDirModificationTimes(f, mtime);
+      }
+    }
+    assertTrue(dir.setLastModified(mtime));
+  }
+
   private void verifyAddition(long blockId, long genStamp, long size) {
     final ReplicaInfo replicainfo;
     replicainfo = FsDatasetTestUtil.fetchReplicaInfo(fds, bpid, blockId);
@@ -0,0 +1,118 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.util.Time;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class TestLatencyAwareVolumeChoosingPolicy {
+
+  // Without any I/O statistics the policy falls back to round-robin.
+  @Test
+  public void testRR() throws Exception {
+    TestRoundRobinVolumeChoosingPolicy.testRR(
+        new LatencyAwareVolumeChoosingPolicy<FsVolumeSpi>());
+  }
+
+  @Test
+  public void testRRPolicyExceptionMessage() throws Exception {
+    TestRoundRobinVolumeChoosingPolicy.testRRPolicyExceptionMessage(
+        new LatencyAwareVolumeChoosingPolicy<FsVolumeSpi>());
+  }
+
+  private static FsVolumeSpi newVolume(long available, VolumeIOStats stats)
+      throws Exception {
+    FsVolumeSpi volume = Mockito.mock(FsVolumeSpi.class);
+    Mockito.when(volume.getAvailable()).thenReturn(available);
+    Mockito.when(volume.getIOStats()).thenReturn(stats);
+    return volume;
+  }
+
+  private static void addWrite(VolumeIOStats stats, long micros) {
+    stats.beginIO();
+    stats.endWrite(System.nanoTime() - TimeUnit.MICROSECONDS.toNanos(micros));
+  }
+
+  @Test
+  public void testAvoidSlowAndBusyVolumes() throws Exception {
+    final VolumeIOStats[] stats = new VolumeIOStats[3];
+    final List<FsVolumeSpi> volumes = new ArrayList<FsVolumeSpi>();
+    for (int i = 0; i < stats.length; i++) {
+      stats[i] = new VolumeIOStats();
+      volumes.add(newVolume(1000L, stats[i]));
+    }
+    final LatencyAwareVolumeChoosingPolicy<FsVolumeSpi> policy =
+        new LatencyAwareVolumeChoosingPolicy<FsVolumeSpi>();
+
+    // the first volume is much slower than the others
+    addWrite(stats[0], 100000);
+    addWrite(stats[1], 700);
+    addWrite(stats[2], 700);
+    for (int i = 0; i < 6; i++) {
+      Assert.assertNotSame(volumes.get(0), policy.chooseVolume(volumes, 0));
+    }
+
+    // the second volume is busy
+    stats[1].writerStarted();
+    stats[1].writerStarted();
+    for (int i = 0; i < 6; i++) {
+      Assert.assertSame(volumes.get(2), policy.chooseVolume(volumes, 0));
+    }
+
+    // the third volume is too full
+    Mockito.when(volumes.get(2).getAvailable()).thenReturn(100L);
+    Assert.assertSame(volumes.get(1), policy.chooseVolume(volumes, 500));
+
+    // a finished writer is no longer counted
+    stats[1].writerFinished();
+    stats[1].writerFinished();
+    stats[2].writerStarted();
+    Assert.assertSame(volumes.get(1), policy.chooseVolume(volumes, 0));
+  }
+
+  @Test
+  public void testMovingAverage() throws Exception {
+    final VolumeIOStats stats = new VolumeIOStats();
+    Assert.assertEquals(0, stats.getAverageWriteNanos());
+    final long start = stats.beginIO();
+    Assert.assertEquals(1, stats.getOutstandingIOs());
+    stats.endWrite(start - TimeUnit.MILLISECONDS.toNanos(80));
+    Assert.assertEquals(0, stats.getOutstandingIOs());
+    final long first = stats.getAverageWriteNanos();
+    Assert.assertTrue(first >= TimeUnit.MILLISECONDS.toNanos(80));
+
+    // a fast write moves the average by an eighth of the difference
+    addWrite(stats, 0);
+    final long second = stats.getAverageWriteNanos();
+    Assert.assertTrue(second < first);
+    Assert.assertTrue(second > first * 7 / 8 - TimeUnit.MILLISECONDS.toNanos(1));
+
+    // the average decays while the volume is idle
+    final long now = Time.monotonicNow();
+    Assert.assertEquals(second / 2,
+        stats.getAverageWriteNanos(now + VolumeIOStats.IDLE_DECAY_MS));
+    Assert.assertEquals(second / 4,
+        stats.getAverageWriteNanos(now + 2 * VolumeIOStats.IDLE_DECAY_MS));
+  }
+}
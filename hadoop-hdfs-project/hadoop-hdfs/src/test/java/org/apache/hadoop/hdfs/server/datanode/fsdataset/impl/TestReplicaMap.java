@@ -17,12 +17,16 @@
  */
 package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.server.datanode.FinalizedReplica;
+import org.apache.hadoop.hdfs.server.datanode.ReplicaInfo;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -107,4 +111,47 @@ public void testRemove() {
     map.add(bpid, new FinalizedReplica(block, null, null));
     assertNotNull(map.remove(bpid, block.getBlockId()));
   }
+
+  /**
+   * Lookups and iteration must not wait for, or be broken by, a writer
+   * holding the mutex.
+   */
+  @Test(timeout=60000)
+  public void testLookupsDoNotLock() throws Exception {
+    final AtomicBoolean done = new AtomicBoolean(false);
+    Thread writer = new Thread() {
+      @Override
+      public void run() {
+        for (long id = 0; !done.get(); id = (id + 1) % 1000) {
+          synchronized (TestReplicaMap.class) {
+            map.add(bpid, new FinalizedReplica(new Block(id, 1, 1), null, null));
+            map.remove(bpid, id / 2);
+          }
+        }
+      }
+    };
+    writer.start();
+    try {
+      // a lookup succeeds while another thread holds the mutex
+      synchronized (TestReplicaMap.class) {
+        Thread reader = new Thread() {
+          @Override
+          public void run() {
+            map.get(bpid, block.getBlockId());
+          }
+        };
+        reader.start();
+        reader.join(10000);
+        assertEquals(false, reader.isAlive());
+      }
+      for (int i = 0; i < 100; i++) {
+        for (ReplicaInfo r : map.replicas(bpid)) {
+          assertNotNull(r);
+        }
+      }
+    } finally {
+      done.set(true);
+      writer.join();
+    }
+  }
 }
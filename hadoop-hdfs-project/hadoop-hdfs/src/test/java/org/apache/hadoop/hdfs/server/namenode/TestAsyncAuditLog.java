@@ -0,0 +1,156 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.junit.Test;
+
+public class TestAsyncAuditLog {
+  /** Records the events it logs. */
+  private static class RecordingAuditLogger implements AuditLogger {
+    final List<String> events =
+        Collections.synchronizedList(new ArrayList<String>());
+
+    @Override
+    public void initialize(Configuration conf) {
+    }
+
+    @Override
+    public void logAuditEvent(boolean succeeded, String userName,
+        InetAddress addr, String cmd, String src, String dst,
+        FileStatus stat) {
+      events.add(cmd + " " + src);
+    }
+  }
+
+  private static final UserGroupInformation ugi =
+      UserGroupInformation.createUserForTesting("test", new String[0]);
+
+  @Test(timeout=60000)
+  public void testConcurrentEvents() throws Exception {
+    final RecordingAuditLogger logger = new RecordingAuditLogger();
+    final AsyncAuditLog log = new AsyncAuditLog(
+        Collections.<AuditLogger>singletonList(logger), 16, true);
+    log.start();
+
+    final int threads = 8;
+    final int eventsPerThread = 10000;
+    final List<Thread> handlers = new ArrayList<Thread>();
+    for (int t = 0; t < threads; t++) {
+      final String cmd = "cmd" + t;
+      handlers.add(new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < eventsPerThread; i++) {
+            log.logAuditEvent(true, ugi, null, cmd, "/" + i, null, null);
+          }
+        }
+      });
+    }
+    for (Thread t : handlers) {
+      t.start();
+    }
+    for (Thread t : handlers) {
+      t.join();
+    }
+    log.stop();
+
+    // every event is logged once, in the order of each handler
+    assertEquals(0, log.getDroppedEvents());
+    assertEquals(0, log.getQueueDepth());
+    assertEquals(threads * eventsPerThread, logger.events.size());
+    final Map<String, Integer> next = new HashMap<String, Integer>();
+    for (String event : logger.events) {
+      final String[] parts = event.split(" ");
+      final Integer expected = next.get(parts[0]);
+      assertEquals("/" + (expected == null ? 0 : expected), parts[1]);
+      next.put(parts[0], (expected == null ? 0 : expected) + 1);
+    }
+  }
+
+  @Test(timeout=60000)
+  public void testDropWhenFull() throws Exception {
+    final RecordingAuditLogger logger = new RecordingAuditLogger();
+    // 5 is rounded up to 8
+    final AsyncAuditLog log = new AsyncAuditLog(
+        Collections.<AuditLogger>singletonList(logger), 5, false);
+    // the writer is not started yet, so the buffer fills up
+    for (int i = 0; i < 10; i++) {
+      log.logAuditEvent(true, ugi, null, "cmd", "/" + i, null, null);
+    }
+    assertEquals(8, log.getQueueDepth());
+    assertEquals(2, log.getDroppedEvents());
+    assertTrue(logger.events.isEmpty());
+
+    log.start();
+    log.stop();
+    assertEquals(8, logger.events.size());
+    assertEquals("cmd /7", logger.events.get(7));
+
+    // once stopped, the events are logged synchronously
+    log.logAuditEvent(false, ugi, null, "cmd", "/last", null, null);
+    assertEquals("cmd /last", logger.events.get(8));
+  }
+
+  /** No event is lost when the log is stopped while handlers log events. */
+  @Test(timeout=60000)
+  public void testStopWhileLogging() throws Exception {
+    for (int round = 0; round < 20; round++) {
+      final RecordingAuditLogger logger = new RecordingAuditLogger();
+      final AsyncAuditLog log = new AsyncAuditLog(
+          Collections.<AuditLogger>singletonList(logger), 64, true);
+      log.start();
+
+      final int threads = 4;
+      final int eventsPerThread = 2000;
+      final List<Thread> handlers = new ArrayList<Thread>();
+      for (int t = 0; t < threads; t++) {
+        handlers.add(new Thread() {
+          @Override
+          public void run() {
+            for (int i = 0; i < eventsPerThread; i++) {
+              log.logAuditEvent(true, ugi, null, "cmd", "/" + i, null, null);
+            }
+          }
+        });
+      }
+      for (Thread t : handlers) {
+        t.start();
+      }
+      log.stop();
+      for (Thread t : handlers) {
+        t.join();
+      }
+      assertEquals(0, log.getDroppedEvents());
+      assertEquals(0, log.getQueueDepth());
+      assertEquals(threads * eventsPerThread, logger.events.size());
+    }
+  }
+}
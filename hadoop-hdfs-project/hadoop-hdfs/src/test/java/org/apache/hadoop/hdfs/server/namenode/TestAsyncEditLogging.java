@@ -0,0 +1,102 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.junit.Test;
+
+/**
+ * Test that namespace operations whose RPC responses are sent after an
+ * asynchronous edit log sync are durable once the client sees them.
+ */
+public class TestAsyncEditLogging {
+  private static final int NUM_CLIENTS = 8;
+  private static final int OPS_PER_CLIENT = 25;
+
+  @Test(timeout=120000)
+  public void testOperationsAreSyncedBeforeResponse() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING_KEY, true);
+    // fewer handlers than clients, so calls must not hold a handler
+    // for the duration of their sync
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_HANDLER_COUNT_KEY, 2);
+    MiniDFSCluster cluster = null;
+    ExecutorService executor = Executors.newFixedThreadPool(NUM_CLIENTS);
+    try {
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(0).build();
+      cluster.waitActive();
+      final FileSystem fs = cluster.getFileSystem();
+
+      List<Future<Void>> futures = new ArrayList<Future<Void>>();
+      for (int i = 0; i < NUM_CLIENTS; i++) {
+        final Path base = new Path("/client" + i);
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            for (int j = 0; j < OPS_PER_CLIENT; j++) {
+              Path dir = new Path(base, "dir" + j);
+              assertTrue(fs.mkdirs(dir));
+              fs.setPermission(dir, new FsPermission((short)0700));
+              assertTrue(fs.rename(dir, new Path(base, "renamed" + j)));
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+
+      // every acknowledged edit has been synced
+      FSEditLog editLog = cluster.getNamesystem().getEditLog();
+      assertEquals(editLog.getLastWrittenTxId(), editLog.getSyncTxId());
+
+      cluster.restartNameNode();
+      FileSystem restartedFs = cluster.getFileSystem();
+      for (int i = 0; i < NUM_CLIENTS; i++) {
+        for (int j = 0; j < OPS_PER_CLIENT; j++) {
+          Path dir = new Path("/client" + i, "renamed" + j);
+          assertTrue(restartedFs.exists(dir));
+          assertEquals(new FsPermission((short)0700),
+              restartedFs.getFileStatus(dir).getPermission());
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+}
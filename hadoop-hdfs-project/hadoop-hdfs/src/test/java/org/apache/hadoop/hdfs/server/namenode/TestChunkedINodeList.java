@@ -0,0 +1,176 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.fs.permission.PermissionStatus;
+import org.apache.hadoop.hdfs.DFSUtil;
+import org.apache.hadoop.util.Time;
+import org.junit.Test;
+
+/**
+ * Test {@link ChunkedINodeList} against a sorted {@link ArrayList}, and
+ * the switch of large directories to it.
+ */
+public class TestChunkedINodeList {
+  private static final PermissionStatus PERM =
+      PermissionStatus.createImmutable("user", "group",
+          FsPermission.createImmutable((short)0755));
+
+  private static long nextId = 1;
+
+  private static INode newINode(String name) {
+    return new INodeDirectory(nextId++, name, PERM);
+  }
+
+  private static String randomName(Random r) {
+    return String.format("f%08d", r.nextInt(100000));
+  }
+
+  /** Apply the same random inserts and removes to both lists. */
+  @Test
+  public void testRandomOperations() {
+    final Random r = new Random();
+    final long seed = r.nextLong();
+    r.setSeed(seed);
+    System.out.println("seed=" + seed);
+
+    final List<INode> expected = new ArrayList<INode>();
+    final ChunkedINodeList chunked = new ChunkedINodeList(expected, 8);
+    for (int op = 0; op < 20000; op++) {
+      final byte[] name = DFSUtil.string2Bytes(randomName(r));
+      final int i = Collections.binarySearch(expected, name);
+      assertEquals(i, chunked.search(name));
+      // grow to a few hundred entries, then shrink back down
+      final boolean insert = op < 10000 ? r.nextInt(4) != 0
+          : r.nextInt(4) == 0;
+      if (insert && i < 0) {
+        final INode inode = newINode(DFSUtil.bytes2String(name));
+        expected.add(-i - 1, inode);
+        chunked.add(-i - 1, inode);
+      } else if (!insert && !expected.isEmpty()) {
+        final int j = i >= 0 ? i : r.nextInt(expected.size());
+        assertSame(expected.remove(j), chunked.remove(j));
+      }
+      assertEquals(expected.size(), chunked.size());
+    }
+    assertEquals(expected, chunked);
+    final Iterator<INode> it = chunked.iterator();
+    for (INode inode : expected) {
+      assertSame(inode, it.next());
+    }
+    assertTrue(!it.hasNext());
+  }
+
+  /** Appending in order, as the image loader does, fills whole chunks. */
+  @Test
+  public void testAppendFillsChunks() {
+    final ChunkedINodeList chunked =
+        new ChunkedINodeList(new ArrayList<INode>(), 16);
+    for (int i = 0; i < 160; i++) {
+      chunked.add(chunked.size(), newINode(String.format("f%05d", i)));
+    }
+    assertEquals(10, chunked.getNumChunks());
+    for (int i = 0; i < 160; i++) {
+      assertEquals(String.format("f%05d", i), chunked.get(i).getLocalName());
+    }
+    chunked.clear();
+    assertEquals(0, chunked.size());
+    assertEquals(-1, chunked.search(DFSUtil.string2Bytes("f00000")));
+  }
+
+  @Test
+  public void testLargeDirectory() {
+    final INodeDirectory dir = new INodeDirectory(nextId++, "dir", PERM);
+    final int n = INodeDirectory.LARGE_DIRECTORY_THRESHOLD + 100;
+    // add in reverse order so every insert is at the head
+    for (int i = n - 1; i >= 0; i--) {
+      assertTrue(dir.addChild(newINode(String.format("f%06d", i)), false));
+    }
+    assertTrue(dir.getChildrenList() instanceof ChunkedINodeList);
+    assertEquals(n, dir.getChildrenList().size());
+    final INode child = dir.getChild(String.format("f%06d", 1234));
+    assertEquals(String.format("f%06d", 1234), child.getLocalName());
+    assertEquals(1235, dir.nextChild(child.getLocalNameBytes()));
+    assertSame(child, dir.removeChild(child));
+    assertNull(dir.getChild(String.format("f%06d", 1234)));
+    assertEquals(n - 1, dir.getChildrenList().size());
+  }
+
+  /**
+   * Compare heap usage and insert latency of a large directory with an
+   * ArrayList and with a ChunkedINodeList. Usage: TestChunkedINodeList
+   * [numChildren]
+   */
+  public static void main(String[] args) {
+    final int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    final Random r = new Random(0);
+    final INode[] inodes = new INode[n];
+    for (int i = 0; i < n; i++) {
+      inodes[i] = newINode(
+          String.format("f%09d", r.nextInt(Integer.MAX_VALUE)));
+    }
+    // keep both lists reachable so that each heap measurement only
+    // covers the list being built
+    final List<INode> arrayList =
+        runBenchmark("ArrayList", new ArrayList<INode>(), inodes);
+    final List<INode> chunkedList = runBenchmark("ChunkedINodeList",
+        new ChunkedINodeList(new ArrayList<INode>()), inodes);
+    assertEquals(arrayList, chunkedList);
+  }
+
+  private static List<INode> runBenchmark(String name, List<INode> list,
+      INode[] inodes) {
+    final Runtime rt = Runtime.getRuntime();
+    gc();
+    final long heapBefore = rt.totalMemory() - rt.freeMemory();
+    final long start = Time.monotonicNow();
+    for (INode inode : inodes) {
+      final int i = list instanceof ChunkedINodeList
+          ? ((ChunkedINodeList)list).search(inode.getLocalNameBytes())
+          : Collections.binarySearch(list, inode.getLocalNameBytes());
+      if (i < 0) {
+        list.add(-i - 1, inode);
+      }
+    }
+    final long elapsed = Time.monotonicNow() - start;
+    gc();
+    final long heapAfter = rt.totalMemory() - rt.freeMemory();
+    System.out.println(name + ": " + list.size() + " random inserts in "
+        + elapsed + " ms, list uses about "
+        + (heapAfter - heapBefore) / 1024 + " KB of heap");
+    return list;
+  }
+
+  private static void gc() {
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+  }
+}
@@ -19,7 +19,10 @@
 package org.apache.hadoop.hdfs.server.namenode;
 
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_EDITS_DIR_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_FSLOCK_FAIR_KEY;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.net.URI;
@@ -64,4 +67,35 @@ public void testFSNamespaceClearLeases() throws Exception {
     leaseMan = fsn.getLeaseManager();
     assertEquals(0, leaseMan.countLease());
   }
+
+  @Test
+  public void testFsLockFairness() throws IOException {
+    Configuration conf = new Configuration();
+
+    conf.setBoolean(DFS_NAMENODE_FSLOCK_FAIR_KEY, true);
+    FSNamesystemLock fsnLock = new FSNamesystemLock(conf);
+    assertTrue(fsnLock.isFair());
+
+    conf.setBoolean(DFS_NAMENODE_FSLOCK_FAIR_KEY, false);
+    fsnLock = new FSNamesystemLock(conf);
+    assertFalse(fsnLock.isFair());
+  }
+
+  @Test
+  public void testFsLockReentrancy() throws IOException {
+    FSNamesystemLock fsnLock = new FSNamesystemLock(new Configuration());
+
+    fsnLock.writeLock();
+    fsnLock.writeLock();
+    assertTrue(fsnLock.isWriteLockedByCurrentThread());
+    fsnLock.writeUnlock();
+    assertTrue(fsnLock.isWriteLockedByCurrentThread());
+    fsnLock.writeUnlock();
+    assertFalse(fsnLock.isWriteLockedByCurrentThread());
+
+    fsnLock.readLock();
+    assertEquals(1, fsnLock.getReadHoldCount());
+    fsnLock.readUnlock();
+    assertEquals(0, fsnLock.getReadHoldCount());
+  }
 }
@@ -0,0 +1,114 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.hdfs.server.namenode.LeaseManager.Lease;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class TestLeaseManager {
+  private static final long HARD_LIMIT = 10000;
+
+  private static LeaseManager createLeaseManager(FSNamesystem fsn) {
+    final LeaseManager lm = new LeaseManager(fsn);
+    lm.setLeasePeriod(HARD_LIMIT / 2, HARD_LIMIT);
+    return lm;
+  }
+
+  @Test
+  public void testExpiredLeases() throws Exception {
+    final LeaseManager lm = createLeaseManager(mock(FSNamesystem.class));
+    final Lease a = lm.addLease("a", "/a");
+    final Lease b = lm.addLease("b", "/b");
+    lm.addLease("c", "/c");
+    lm.removeLease("c", "/c");
+    assertEquals(2, lm.countLease());
+    assertTrue(lm.getExpiredLeases(b.getLastUpdate() + HARD_LIMIT, 100)
+        .isEmpty());
+
+    // renew a in a later expiry bucket than b
+    Thread.sleep(LeaseManager.EXPIRY_TICK + 100);
+    lm.renewLease("a");
+    assertEquals(Arrays.asList(b),
+        lm.getExpiredLeases(b.getLastUpdate() + HARD_LIMIT + 1, 100));
+    // a was moved to the bucket of its renewal
+    assertEquals(Arrays.asList(b),
+        lm.getExpiredLeases(b.getLastUpdate() + HARD_LIMIT + 1, 100));
+    final List<Lease> expired =
+        lm.getExpiredLeases(a.getLastUpdate() + HARD_LIMIT + 1, 100);
+    assertEquals(2, expired.size());
+    assertTrue(expired.contains(a));
+    assertTrue(expired.contains(b));
+
+    lm.removeLease("b", "/b");
+    assertEquals(Arrays.asList(a),
+        lm.getExpiredLeases(a.getLastUpdate() + HARD_LIMIT + 1, 100));
+    lm.removeAllLeases();
+    assertTrue(lm.getExpiredLeases(a.getLastUpdate() + HARD_LIMIT + 1, 100)
+        .isEmpty());
+  }
+
+  /**
+   * Test that the expired leases are released in batches of bounded size.
+   */
+  @Test
+  public void testReleaseInBatches() throws Exception {
+    final FSNamesystem fsn = mock(FSNamesystem.class);
+    final LeaseManager lm = createLeaseManager(fsn);
+    lm.setLeasePeriod(0, 0);
+    lm.setReleaseBatchSize(3);
+    doReturn(true).when(fsn).hasWriteLock();
+    // releasing a lease closes the file
+    doAnswer(new Answer<Boolean>() {
+      @Override
+      public Boolean answer(InvocationOnMock invocation) throws Throwable {
+        final Object[] args = invocation.getArguments();
+        lm.removeLease((Lease)args[0], (String)args[1]);
+        return true;
+      }
+    }).when(fsn).internalReleaseLease(any(Lease.class), anyString(),
+        anyString());
+
+    for (int i = 0; i < 5; i++) {
+      lm.addLease("a", "/a" + i);
+      lm.addLease("b", "/b" + i);
+    }
+    assertEquals(10, lm.countPath());
+    Thread.sleep(10);
+    assertEquals(3, lm.checkLeases());
+    assertEquals(7, lm.countPath());
+    assertEquals(3, lm.checkLeases());
+    assertEquals(3, lm.checkLeases());
+    assertEquals(1, lm.checkLeases());
+    assertEquals(0, lm.countPath());
+    assertEquals(0, lm.countLease());
+    assertEquals(0, lm.checkLeases());
+  }
+}
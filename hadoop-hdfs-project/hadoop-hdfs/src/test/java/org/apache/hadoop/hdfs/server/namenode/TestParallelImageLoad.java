@@ -0,0 +1,94 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants.SafeModeAction;
+import org.junit.Test;
+
+/**
+ * Test that an image loaded with the blocks map populated in the
+ * background yields the same namespace and blocks map.
+ */
+public class TestParallelImageLoad {
+  private static final int NUM_DATANODES = 3;
+
+  @Test
+  public void testRestartWithParallelLoad() throws Exception {
+    final Configuration conf = new HdfsConfiguration();
+    // a small batch size so that many batches are handed over
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_BATCH_SIZE_KEY, 7);
+    MiniDFSCluster cluster = null;
+    DFSTestUtil files = new DFSTestUtil.Builder().setName(
+        "TestParallelImageLoad").setNumFiles(100).build();
+    final String dir = "/srcdat";
+    final Path openFile = new Path("/openfile");
+    long blocksTotal;
+    long filesTotal;
+
+    try {
+      cluster = new MiniDFSCluster.Builder(conf).format(true)
+          .numDataNodes(NUM_DATANODES).build();
+      FileSystem fs = cluster.getFileSystem();
+      files.createFiles(fs, dir);
+
+      // leave a file under construction in the image
+      FSDataOutputStream out = fs.create(openFile);
+      out.write(new byte[1024]);
+      out.hflush();
+
+      FSNamesystem fsn = cluster.getNamesystem();
+      fsn.setSafeMode(SafeModeAction.SAFEMODE_ENTER);
+      cluster.getNameNodeRpc().saveNamespace();
+      fsn.setSafeMode(SafeModeAction.SAFEMODE_LEAVE);
+      blocksTotal = fsn.getBlocksTotal();
+      filesTotal = fsn.getFilesTotal();
+      assertTrue(blocksTotal > 0);
+    } finally {
+      if (cluster != null) { cluster.shutdown(); }
+    }
+
+    try {
+      conf.setBoolean(DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY, true);
+      cluster = new MiniDFSCluster.Builder(conf).format(false)
+          .numDataNodes(NUM_DATANODES).build();
+      FSNamesystem fsn = cluster.getNamesystem();
+      assertEquals(blocksTotal, fsn.getBlocksTotal());
+      assertEquals(filesTotal, fsn.getFilesTotal());
+      assertTrue(fsn.getFSDirectory().getINode(openFile.toString())
+          .isUnderConstruction());
+
+      FileSystem fs = cluster.getFileSystem();
+      assertTrue("Filesystem corrupted after restart.",
+          files.checkFiles(fs, dir));
+      files.cleanup(fs, dir);
+    } finally {
+      if (cluster != null) { cluster.shutdown(); }
+    }
+  }
+}
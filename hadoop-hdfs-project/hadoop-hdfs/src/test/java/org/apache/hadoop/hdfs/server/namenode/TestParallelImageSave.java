@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants.SafeModeAction;
+import org.apache.hadoop.hdfs.util.Canceler;
+import org.junit.Test;
+
+/**
+ * Test that an image serialized on a pool of threads is the same as
+ * one saved serially, and that it can be loaded.
+ */
+public class TestParallelImageSave {
+  private static final int NUM_DATANODES = 1;
+
+  @Test
+  public void testParallelSaveMatchesSerialSave() throws Exception {
+    final Configuration conf = new HdfsConfiguration();
+    MiniDFSCluster cluster = null;
+    DFSTestUtil files = new DFSTestUtil.Builder().setName(
+        "TestParallelImageSave").setNumFiles(100).setMaxLevels(4).build();
+    final String dir = "/srcdat";
+    final Path openFile = new Path("/openfile");
+    final File testDir = new File(MiniDFSCluster.getBaseDirectory());
+
+    try {
+      cluster = new MiniDFSCluster.Builder(conf).format(true)
+          .numDataNodes(NUM_DATANODES).build();
+      FileSystem fs = cluster.getFileSystem();
+      files.createFiles(fs, dir);
+
+      // leave a file under construction in the image
+      FSDataOutputStream out = fs.create(openFile);
+      out.write(new byte[1024]);
+      out.hflush();
+
+      FSNamesystem fsn = cluster.getNamesystem();
+      fsn.setSafeMode(SafeModeAction.SAFEMODE_ENTER);
+      long txid = fsn.getFSImage().getLastAppliedOrWrittenTxId();
+      SaveNamespaceContext context =
+          new SaveNamespaceContext(fsn, txid, new Canceler());
+
+      File serialImage = new File(testDir, "serial");
+      File parallelImage = new File(testDir, "parallel");
+      Configuration parallelConf = new Configuration(conf);
+      parallelConf.setBoolean(DFSConfigKeys.DFS_IMAGE_PARALLEL_SAVE_KEY, true);
+      parallelConf.setInt(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_SAVE_THREADS_KEY, 3);
+      // a small batch size so that many batches are outstanding at once
+      parallelConf.setInt(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_SAVE_BATCH_SIZE_KEY, 2);
+
+      fsn.readLock();
+      try {
+        FSImageFormat.Saver serialSaver =
+            new FSImageFormat.Saver(context, conf);
+        serialSaver.save(serialImage,
+            FSImageCompression.createNoopCompression());
+        FSImageFormat.Saver parallelSaver =
+            new FSImageFormat.Saver(context, parallelConf);
+        parallelSaver.save(parallelImage,
+            FSImageCompression.createNoopCompression());
+        assertEquals(serialSaver.getSavedDigest(),
+            parallelSaver.getSavedDigest());
+      } finally {
+        fsn.readUnlock();
+      }
+      assertArrayEquals(FileUtils.readFileToByteArray(serialImage),
+          FileUtils.readFileToByteArray(parallelImage));
+      fsn.setSafeMode(SafeModeAction.SAFEMODE_LEAVE);
+    } finally {
+      if (cluster != null) { cluster.shutdown(); }
+    }
+
+    try {
+      conf.setBoolean(DFSConfigKeys.DFS_IMAGE_PARALLEL_SAVE_KEY, true);
+      conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_SAVE_BATCH_SIZE_KEY, 2);
+      cluster = new MiniDFSCluster.Builder(conf).format(false)
+          .numDataNodes(NUM_DATANODES).build();
+      FSNamesystem fsn = cluster.getNamesystem();
+      fsn.setSafeMode(SafeModeAction.SAFEMODE_ENTER);
+      cluster.getNameNodeRpc().saveNamespace();
+      fsn.setSafeMode(SafeModeAction.SAFEMODE_LEAVE);
+      cluster.restartNameNode();
+
+      fsn = cluster.getNamesystem();
+      assertTrue(fsn.getFSDirectory().getINode(openFile.toString())
+          .isUnderConstruction());
+      FileSystem fs = cluster.getFileSystem();
+      assertTrue("Filesystem corrupted after restart.",
+          files.checkFiles(fs, dir));
+    } finally {
+      if (cluster != null) { cluster.shutdown(); }
+    }
+  }
+}
@@ -0,0 +1,110 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode.ha;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.fs.permission.PermissionStatus;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.HAUtil;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.MiniDFSNNTopology;
+import org.apache.hadoop.hdfs.qjournal.MiniJournalCluster;
+import org.apache.hadoop.hdfs.server.namenode.NameNode;
+import org.apache.hadoop.hdfs.server.namenode.NameNodeAdapter;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.Test;
+
+import com.google.common.base.Supplier;
+
+/**
+ * Test that the standby tails the in-progress edit log segment from the
+ * JournalNodes, without waiting for the active to roll its edit log.
+ */
+public class TestStandbyInProgressTail {
+
+  @Test(timeout=60000)
+  public void testTailInProgressSegment() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_KEY, true);
+    conf.setInt(DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY, 1);
+    // Never make the active roll its edit log.
+    conf.setInt(DFSConfigKeys.DFS_HA_LOGROLL_PERIOD_KEY, -1);
+    HAUtil.setAllowStandbyReads(conf, true);
+
+    MiniJournalCluster jCluster = new MiniJournalCluster.Builder(conf)
+        .build();
+    MiniDFSCluster cluster = null;
+    try {
+      conf.set(DFSConfigKeys.DFS_NAMENODE_SHARED_EDITS_DIR_KEY,
+          jCluster.getQuorumJournalURI("myjournal").toString());
+      cluster = new MiniDFSCluster.Builder(conf)
+          .nnTopology(MiniDFSNNTopology.simpleHATopology())
+          .manageNameDfsSharedDirs(false)
+          .numDataNodes(0)
+          .build();
+      cluster.waitActive();
+      cluster.transitionToActive(0);
+
+      final NameNode nn0 = cluster.getNameNode(0);
+      final NameNode nn1 = cluster.getNameNode(1);
+      mkdir(nn0, "/test");
+      waitForDir(nn1, "/test");
+      mkdir(nn0, "/test2");
+      waitForDir(nn1, "/test2");
+
+      // After a failover, the new active catches up from the finalized
+      // segment, in the middle of which it stopped.
+      cluster.transitionToStandby(0);
+      cluster.transitionToActive(1);
+      assertNotNull(NameNodeAdapter.getFileInfo(nn1, "/test2", false));
+      mkdir(nn1, "/test3");
+      waitForDir(nn0, "/test3");
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+      jCluster.shutdown();
+    }
+  }
+
+  private static void mkdir(NameNode nn, String dir) throws IOException {
+    assertTrue(NameNodeAdapter.mkdirs(nn, dir, new PermissionStatus("test",
+        "test", new FsPermission((short)00755)), true));
+  }
+
+  private static void waitForDir(final NameNode nn, final String dir)
+      throws Exception {
+    GenericTestUtils.waitFor(new Supplier<Boolean>() {
+      @Override
+      public Boolean get() {
+        try {
+          return NameNodeAdapter.getFileInfo(nn, dir, false) != null;
+        } catch (IOException e) {
+          return false;
+        }
+      }
+    }, 100, 10000);
+  }
+}
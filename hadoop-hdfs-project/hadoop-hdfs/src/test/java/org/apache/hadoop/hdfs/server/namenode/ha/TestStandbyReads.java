@@ -0,0 +1,253 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode.ha;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.fs.permission.PermissionStatus;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.HAUtil;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.MiniDFSNNTopology;
+import org.apache.hadoop.hdfs.NameNodeProxies;
+import org.apache.hadoop.hdfs.protocol.ClientProtocol;
+import org.apache.hadoop.hdfs.server.namenode.FSEditLog;
+import org.apache.hadoop.hdfs.server.namenode.NameNode;
+import org.apache.hadoop.hdfs.server.namenode.NameNodeAdapter;
+import org.apache.hadoop.ipc.AlignmentContext;
+import org.apache.hadoop.ipc.RPC;
+import org.apache.hadoop.ipc.RemoteException;
+import org.apache.hadoop.ipc.StandbyException;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcRequestHeaderProto;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcResponseHeaderProto;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.junit.Test;
+
+/**
+ * Test that {@link StandbyReadProxyProvider} reads from the standby NN, but
+ * never a state older than the client has already seen.
+ */
+public class TestStandbyReads {
+
+  @Test(timeout=60000)
+  public void testReadsAfterWrite() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    HAUtil.setAllowStandbyReads(conf, true);
+    conf.setInt(DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY, 1);
+    // The standby only catches up when the test rolls the edit log.
+    conf.setInt(DFSConfigKeys.DFS_HA_LOGROLL_PERIOD_KEY, -1);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
+        .nnTopology(MiniDFSNNTopology.simpleHATopology())
+        .numDataNodes(0)
+        .build();
+    try {
+      cluster.waitActive();
+      cluster.transitionToActive(0);
+      final NameNode active = cluster.getNameNode(0);
+      final NameNode standby = cluster.getNameNode(1);
+
+      final String logicalName = HATestUtil.getLogicalHostname(cluster);
+      HATestUtil.setFailoverConfigurations(cluster, conf, logicalName);
+      conf.set(DFSConfigKeys.DFS_CLIENT_FAILOVER_PROXY_PROVIDER_KEY_PREFIX
+          + "." + logicalName, StandbyReadProxyProvider.class.getName());
+      final FileSystem fs = FileSystem.get(
+          HATestUtil.getLogicalUri(cluster), conf);
+
+      // A directory created on the active, but not seen by the client yet,
+      // is not visible until the standby catches up: reads go to the
+      // standby.
+      mkdir(active, "/other");
+      assertFalse(fs.exists(new Path("/other")));
+
+      // What the client writes is visible to it right away: the standby,
+      // which has not applied the write, refuses the reads.
+      assertTrue(fs.mkdirs(new Path("/mine")));
+      assertTrue(fs.exists(new Path("/mine")));
+      assertTrue(fs.exists(new Path("/other")));
+      assertNull(NameNodeAdapter.getFileInfo(standby, "/mine", false));
+
+      // Once the standby has caught up, it serves the reads again.
+      HATestUtil.waitForStandbyToCatchUp(active, standby);
+      assertTrue(fs.exists(new Path("/mine")));
+      mkdir(active, "/other2");
+      assertFalse(fs.exists(new Path("/other2")));
+
+      // Reads still work after a failover.
+      cluster.transitionToStandby(0);
+      cluster.transitionToActive(1);
+      assertTrue(fs.mkdirs(new Path("/mine2")));
+      assertTrue(fs.exists(new Path("/mine2")));
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
+  /**
+   * Test that a new active serves a client which has seen transactions it
+   * does not have, e.g. because the previous active reported them before
+   * it failed, while a standby refuses the client's reads.
+   */
+  @Test(timeout=60000)
+  public void testFailoverToActiveBehindClient() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    HAUtil.setAllowStandbyReads(conf, true);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
+        .nnTopology(MiniDFSNNTopology.simpleHATopology())
+        .numDataNodes(0)
+        .build();
+    ClientProtocol toActive = null;
+    ClientProtocol toStandby = null;
+    try {
+      cluster.waitActive();
+      cluster.transitionToActive(0);
+      mkdir(cluster.getNameNode(0), "/before");
+      cluster.transitionToStandby(0);
+      cluster.transitionToActive(1);
+      final NameNode active = cluster.getNameNode(1);
+      final NameNode standby = cluster.getNameNode(0);
+
+      final long seen = active.getNamesystem().getFSImage()
+          .getLastAppliedOrSyncedTxId() + 100;
+      final AlignmentContext ahead = new AlignmentContext() {
+        @Override
+        public void updateResponseState(
+            RpcResponseHeaderProto.Builder header) {
+        }
+
+        @Override
+        public void receiveResponseState(RpcResponseHeaderProto header) {
+        }
+
+        @Override
+        public void updateRequestState(RpcRequestHeaderProto.Builder header) {
+          header.setStateId(seen);
+        }
+
+        @Override
+        public void receiveRequestState(RpcRequestHeaderProto header) {
+        }
+      };
+      toActive = NameNodeProxies.createNonHAProxy(conf,
+          active.getNameNodeAddress(), ClientProtocol.class,
+          UserGroupInformation.getCurrentUser(), false, ahead).getProxy();
+      toStandby = NameNodeProxies.createNonHAProxy(conf,
+          standby.getNameNodeAddress(), ClientProtocol.class,
+          UserGroupInformation.getCurrentUser(), false, ahead).getProxy();
+
+      // the active serves both writes and reads
+      assertTrue(toActive.mkdirs("/after",
+          new FsPermission((short)00755), true));
+      assertNotNull(toActive.getFileInfo("/before"));
+      assertNotNull(toActive.getFileInfo("/after"));
+
+      try {
+        toStandby.getFileInfo("/before");
+        fail("The standby served a read beyond its transactions");
+      } catch (RemoteException e) {
+        assertEquals(StandbyException.class.getName(), e.getClassName());
+      }
+    } finally {
+      if (toActive != null) {
+        RPC.stopProxy(toActive);
+      }
+      if (toStandby != null) {
+        RPC.stopProxy(toStandby);
+      }
+      cluster.shutdown();
+    }
+  }
+
+  /**
+   * Test that with asynchronous edit logging, whose responses are built
+   * before the edits are synced, the state a client is told covers its own
+   * writes, so that a standby which has not applied them refuses its reads.
+   */
+  @Test(timeout=60000)
+  public void testAsyncLoggingReportsOwnWrites() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    HAUtil.setAllowStandbyReads(conf, true);
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING_KEY, true);
+    conf.setInt(DFSConfigKeys.DFS_HA_LOGROLL_PERIOD_KEY, -1);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
+        .nnTopology(MiniDFSNNTopology.simpleHATopology())
+        .numDataNodes(0)
+        .build();
+    ClientProtocol toActive = null;
+    try {
+      cluster.waitActive();
+      cluster.transitionToActive(0);
+      final FSEditLog editLog =
+          cluster.getNameNode(0).getNamesystem().getEditLog();
+
+      final AtomicLong seen = new AtomicLong();
+      final AlignmentContext recording = new AlignmentContext() {
+        @Override
+        public void updateResponseState(
+            RpcResponseHeaderProto.Builder header) {
+        }
+
+        @Override
+        public void receiveResponseState(RpcResponseHeaderProto header) {
+          seen.set(header.getStateId());
+        }
+
+        @Override
+        public void updateRequestState(RpcRequestHeaderProto.Builder header) {
+          header.setStateId(seen.get());
+        }
+
+        @Override
+        public void receiveRequestState(RpcRequestHeaderProto header) {
+        }
+      };
+      toActive = NameNodeProxies.createNonHAProxy(conf,
+          cluster.getNameNode(0).getNameNodeAddress(), ClientProtocol.class,
+          UserGroupInformation.getCurrentUser(), false, recording).getProxy();
+
+      for (int i = 0; i < 20; i++) {
+        assertTrue(toActive.mkdirs("/dir" + i,
+            new FsPermission((short)00755), true));
+        // nothing else writes, so the last edit is the client's
+        assertEquals(editLog.getLastWrittenTxId(), seen.get());
+      }
+    } finally {
+      if (toActive != null) {
+        RPC.stopProxy(toActive);
+      }
+      cluster.shutdown();
+    }
+  }
+
+  private static void mkdir(NameNode nn, String dir) throws IOException {
+    assertTrue(NameNodeAdapter.mkdirs(nn, dir, new PermissionStatus("test",
+        "test", new FsPermission((short)00755)), true));
+  }
+}
@@ -0,0 +1,138 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.junit.Test;
+
+public class TestBlockIdSet {
+  private static final Log LOG = LogFactory.getLog(TestBlockIdSet.class);
+
+  @Test
+  public void testAddGetRemove() {
+    final BlockIdSet set = new BlockIdSet();
+    assertTrue(set.isEmpty());
+    assertTrue(set.add(new Block(1, 10, 100)));
+    assertTrue(set.add(new Block(-1, 20, 200)));
+    // a block with the same id is not added again
+    assertFalse(set.add(new Block(1, 30, 300)));
+    assertEquals(2, set.size());
+
+    final Block b = set.get(1);
+    assertEquals(1, b.getBlockId());
+    assertEquals(10, b.getNumBytes());
+    assertEquals(100, b.getGenerationStamp());
+    assertTrue(set.contains(-1));
+    assertFalse(set.contains(2));
+    assertNull(set.get(2));
+
+    assertTrue(set.remove(new Block(1)));
+    assertFalse(set.remove(new Block(1)));
+    assertFalse(set.contains(1));
+    assertEquals(1, set.size());
+    set.clear();
+    assertTrue(set.isEmpty());
+    assertFalse(set.contains(-1));
+  }
+
+  @Test
+  public void testRandomOperations() {
+    final long seed = new Random().nextLong();
+    LOG.info("seed=" + seed);
+    final Random r = new Random(seed);
+    final BlockIdSet set = new BlockIdSet();
+    final Map<Long, Long> expected = new HashMap<Long, Long>();
+
+    for (int i = 0; i < 100000; i++) {
+      // few distinct ids so that adds and removes collide
+      final long id = r.nextInt(5000) - 2500;
+      if (r.nextInt(3) > 0) {
+        final boolean added = set.add(new Block(id, 0, id + 7));
+        assertEquals(!expected.containsKey(id), added);
+        if (added) {
+          expected.put(id, id + 7);
+        }
+      } else {
+        assertEquals(expected.remove(id) != null, set.remove(new Block(id)));
+      }
+    }
+    assertEquals(expected.size(), set.size());
+    for (Map.Entry<Long, Long> e : expected.entrySet()) {
+      final Block b = set.get(e.getKey());
+      assertNotNull(b);
+      assertEquals(e.getValue().longValue(), b.getGenerationStamp());
+    }
+  }
+
+  @Test
+  public void testIterator() {
+    final BlockIdSet set = new BlockIdSet();
+    assertFalse(set.iterator().hasNext());
+    final Map<Long, Long> expected = new HashMap<Long, Long>();
+    for (int i = -50; i < 50; i++) {
+      set.add(new Block(i * 31, i, i + 7));
+      expected.put((long)i * 31, (long)i + 7);
+    }
+    for (Block b : set) {
+      assertEquals(expected.remove(b.getBlockId()).longValue(),
+          b.getGenerationStamp());
+    }
+    assertTrue(expected.isEmpty());
+  }
+
+  @Test
+  public void testPollN() {
+    final BlockIdSet set = new BlockIdSet();
+    final int n = 10000;
+    for (int i = 0; i < n; i++) {
+      set.add(new Block(i));
+    }
+    final boolean[] polled = new boolean[2 * n];
+    int count = 0;
+    while (!set.isEmpty()) {
+      final int size = set.size();
+      final Block[] blocks = set.pollN(333);
+      assertEquals(Math.min(333, size), blocks.length);
+      for (Block b : blocks) {
+        assertFalse(polled[(int)b.getBlockId()]);
+        polled[(int)b.getBlockId()] = true;
+        count++;
+      }
+      // blocks added while polling are polled too
+      if (count < n / 2) {
+        set.add(new Block(n + count));
+      }
+    }
+    assertEquals(0, set.pollN(10).length);
+    for (int i = 0; i < n; i++) {
+      assertTrue(polled[i]);
+    }
+  }
+}